@@ -0,0 +1,122 @@
+package com.example.android.records.data;
+
+import android.app.IntentService;
+import android.content.Intent;
+import android.os.SystemClock;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.Properties;
+
+/**
+ * Check of cold-start time against budgets, for debug builds.
+ * <p>
+ * Reads the {@link StartupTrace} milestones of the launch that started the process and
+ * compares each with its budget in assets/startup_budgets.properties. The check fails if a
+ * milestone is over budget, has no budget, or wasn't reached, which includes a process that
+ * wasn't started by a launch. Start it right after a cold launch, in the same process:
+ * <pre>
+ * adb root
+ * adb shell am force-stop com.example.android.records
+ * adb shell am start -W -n com.example.android.records/.CatalogActivity
+ * adb shell am startservice -n com.example.android.records/.data.ColdStartCheck
+ * </pre>
+ * and read the result from logcat (tag ColdStartCheck) or files/checks/cold_start.txt. A CI job
+ * can fail the build when the result contains {@link #FAILED}.
+ */
+public class ColdStartCheck extends IntentService {
+
+    private static final String LOG_TAG = ColdStartCheck.class.getSimpleName();
+
+    /** Marker of a failed expectation in the result */
+    public static final String FAILED = "FAILED";
+
+    private static final String BUDGETS_ASSET = "startup_budgets.properties";
+
+    /** Milestones, in the order they are reached */
+    private static final String[] MILESTONES = {
+            StartupTrace.FIRST_DB_OPEN, StartupTrace.FIRST_QUERY,
+            StartupTrace.FIRST_DRAW, StartupTrace.FIRST_CONTENT};
+
+    /** How long to wait for the records to be shown after "am start -W" returns */
+    private static final long WAIT_MILLIS = 10 * 1000;
+
+    public ColdStartCheck() {
+        super(LOG_TAG);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        // am start -W returns at the first frame; the records may be shown after it
+        long deadline = SystemClock.elapsedRealtime() + WAIT_MILLIS;
+        while (StartupTrace.get(StartupTrace.FIRST_CONTENT) == -1
+                && SystemClock.elapsedRealtime() < deadline) {
+            SystemClock.sleep(100);
+        }
+
+        Properties budgets = loadBudgets();
+        StringWriter result = new StringWriter();
+        PrintWriter out = new PrintWriter(result);
+        out.println(String.format(Locale.US, "%-16s %8s %8s", "milestone", "ms", "budget"));
+        for (String milestone : MILESTONES) {
+            out.println(check(milestone, StartupTrace.get(milestone), budgets.getProperty(milestone)));
+        }
+        out.flush();
+
+        Log.i(LOG_TAG, "\n" + result);
+        File dir = new File(getFilesDir(), "checks");
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(LOG_TAG, "Failed to create " + dir);
+            return;
+        }
+        try {
+            OutputStream file = new FileOutputStream(new File(dir, "cold_start.txt"));
+            try {
+                file.write(result.toString().getBytes("UTF-8"));
+            } finally {
+                file.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to write the check result", e);
+        }
+    }
+
+    /**
+     * Return the result line of one milestone, marking it if it wasn't reached, has no budget
+     * or is over it.
+     */
+    private static String check(String milestone, long elapsed, String budget) {
+        if (elapsed == -1) {
+            return String.format(Locale.US, "%-16s %8s %8s %s (not reached)", milestone, "-",
+                    budget != null ? budget : "-", FAILED);
+        }
+        if (budget == null) {
+            return String.format(Locale.US, "%-16s %8d %8s %s (no budget)", milestone, elapsed, "-", FAILED);
+        }
+        long limit = Long.parseLong(budget.trim());
+        String line = String.format(Locale.US, "%-16s %8d %8d", milestone, elapsed, limit);
+        return elapsed > limit ? line + " " + FAILED : line;
+    }
+
+    private Properties loadBudgets() {
+        Properties budgets = new Properties();
+        try {
+            InputStream in = getAssets().open(BUDGETS_ASSET);
+            try {
+                budgets.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "No startup budgets, every milestone fails", e);
+        }
+        return budgets;
+    }
+}
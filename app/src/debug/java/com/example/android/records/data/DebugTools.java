@@ -0,0 +1,35 @@
+package com.example.android.records.data;
+
+import android.app.Application;
+import android.os.StrictMode;
+
+import com.facebook.stetho.Stetho;
+
+/**
+ * Developer tooling that only exists in debug builds. The release build has a no-op
+ * implementation of this class, so Stetho isn't even packaged there.
+ */
+final class DebugTools {
+
+    private DebugTools() {
+    }
+
+    /**
+     * Flag disk access on the main thread as soon as the process starts. Cheap enough to stay
+     * on the startup critical path.
+     */
+    static void installEarly() {
+        StrictMode.setThreadPolicy(new StrictMode.ThreadPolicy.Builder()
+                .detectDiskReads()
+                .detectDiskWrites()
+                .penaltyLog()
+                .build());
+    }
+
+    /**
+     * Start Stetho. Called once the main thread is idle after launch.
+     */
+    static void installDeferred(Application application) {
+        Stetho.initializeWithDefaults(application);
+    }
+}
@@ -19,6 +19,7 @@ import android.app.AlertDialog;
 import android.app.LoaderManager;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.CursorLoader;
 import android.content.DialogInterface;
 import android.content.Intent;
@@ -26,16 +27,31 @@ import android.content.Loader;
 import android.database.Cursor;
 import android.net.Uri;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.MessageQueue;
+import android.os.StrictMode;
 import android.support.design.widget.FloatingActionButton;
+import android.support.design.widget.Snackbar;
 import android.support.v7.app.AppCompatActivity;
+import android.support.v7.widget.SearchView;
+import android.text.TextUtils;
 import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
+import android.view.ViewTreeObserver;
 import android.widget.AdapterView;
 import android.widget.ListView;
 
+import com.example.android.records.core.ColumnarCatalog;
+import com.example.android.records.data.AsyncRecordRepository;
+import com.example.android.records.data.CatalogSnapshot;
+import com.example.android.records.data.ColumnarCatalogSync;
+import com.example.android.records.data.ProviderRecordRepository.Deletion;
 import com.example.android.records.data.RecordContract.RecordEntry;
+import com.example.android.records.data.RecordMapper;
+import com.example.android.records.data.StartupTrace;
 
 /**
  * Displays list of records that were entered and stored in the app.
@@ -49,17 +65,100 @@ public class CatalogActivity extends AppCompatActivity implements
      * Identifier for the record data loader
      */
     private static final int RECORD_LOADER = 0;
+    /**
+     * Identifier for the search results loader
+     */
+    private static final int SEARCH_LOADER = 1;
+    /**
+     * Loader argument holding the search prefix
+     */
+    private static final String ARG_SEARCH_QUERY = "search_query";
+    /**
+     * Time to wait after the last keystroke before searching
+     */
+    private static final long SEARCH_DEBOUNCE_MILLIS = 300;
+    /**
+     * Saved state key of the catalog order
+     */
+    private static final String STATE_SORT_ORDER = "STATE_SORT_ORDER";
+    /**
+     * Columns shown in the list, for both the catalog and the search results
+     */
+    private static final String[] LIST_PROJECTION = {
+            RecordEntry._ID,
+            RecordEntry.COLUMN_ALBUM_NAME,
+            RecordEntry.COLUMN_BAND_NAME,
+            RecordEntry.COLUMN_QUANTITY,
+            RecordEntry.COLUMN_PRICE};
     /**
      * Adapter for the ListView
      */
     RecordCursorAdapter mCursorAdapter;
 
+    /** Whether the catalog's background work has been started in this process */
+    private static boolean sBackgroundWorkStarted;
+
+    /** Whether the sort keys have been brought up to date in this process */
+    private static boolean sSortKeysRefreshed;
+
+    /** Latest catalog cursor, shown again when the search is cleared */
+    private Cursor mCatalogCursor;
+
+    /**
+     * Order of the catalog, {@link RecordEntry#SORT_BY_BAND} or {@link RecordEntry#SORT_BY_ALBUM},
+     * or null for the order the records were added in
+     */
+    private String mSortOrder;
+
+    /** Prefix currently searched for, or null when the whole catalog is shown */
+    private String mSearchQuery;
+
+    /** Prefix typed but not searched yet, waiting for the debounce delay */
+    private String mPendingQuery;
+
+    /** Search result kept across keystrokes, so refinements can skip the database */
+    private final RecordSearchLoader.ResultCache mSearchCache = new RecordSearchLoader.ResultCache();
+
+    private final Handler mHandler = new Handler();
+
+    /** Runs the pending search once typing has paused */
+    private final Runnable mSearchRunnable = new Runnable() {
+        @Override
+        public void run() {
+            search(mPendingQuery);
+        }
+    };
+
+
+    /** Shows the size and stock of the catalog under the title, from the columnar copy */
+    private final ColumnarCatalogSync.Listener mSummaryListener = new ColumnarCatalogSync.Listener() {
+        @Override
+        public void onCatalogChanged(ColumnarCatalog catalog) {
+            if (getSupportActionBar() != null) {
+                int records = catalog.size();
+                getSupportActionBar().setSubtitle(getResources().getQuantityString(
+                        R.plurals.catalog_summary, records, records, catalog.sumQuantity()));
+            }
+        }
+    };
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
+        StartupTrace.beginSection("CatalogActivity.onCreate");
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_catalog);
 
+        // Record when the first frame is about to be drawn
+        final View decorView = getWindow().getDecorView();
+        decorView.getViewTreeObserver().addOnPreDrawListener(new ViewTreeObserver.OnPreDrawListener() {
+            @Override
+            public boolean onPreDraw() {
+                decorView.getViewTreeObserver().removeOnPreDrawListener(this);
+                StartupTrace.mark(StartupTrace.FIRST_DRAW);
+                return true;
+            }
+        });
+
         // Setup FAB to open EditorActivity
         FloatingActionButton fab = (FloatingActionButton) findViewById(R.id.fab);
         fab.setOnClickListener(new View.OnClickListener() {
@@ -76,12 +175,22 @@ public class CatalogActivity extends AppCompatActivity implements
         // Find and set empty view on the ListView, so that it only shows when the list has 0 items.
         View emptyView = findViewById(R.id.empty_view);
         recordListView.setEmptyView(emptyView);
+        // Sorted by name, the scroll thumb shows the letters
+        recordListView.setFastScrollEnabled(true);
+        if (savedInstanceState != null) {
+            mSortOrder = savedInstanceState.getString(STATE_SORT_ORDER);
+        }
 
         // Setup an Adapter to create a list item for each row of record data in the Cursor.
         // There is no record data yet (until the loader finishes) so pass in null for the Cursor.
         mCursorAdapter = new RecordCursorAdapter(this, null);
         recordListView.setAdapter(mCursorAdapter);
 
+        // On a fresh launch, show the snapshot of the first screens until the live cursor arrives
+        if (savedInstanceState == null) {
+            showSnapshot();
+        }
+
         // Setup the item click listener
         recordListView.setOnItemClickListener(new AdapterView.OnItemClickListener() {
             @Override
@@ -106,7 +215,108 @@ public class CatalogActivity extends AppCompatActivity implements
 
         // Kick off the loader
         getLoaderManager().initLoader(RECORD_LOADER, null, this);
+        if (mSortOrder != null) {
+            refreshSortKeys();
+        }
 
+        handleAlertIntent(getIntent());
+        startBackgroundWork();
+        StartupTrace.endSection();
+    }
+
+    /**
+     * Start what keeps the catalog screen fast, once the main thread goes idle after the first
+     * frame. Only the process that shows the catalog needs it, so processes started for the
+     * provider, the maintenance job or a service never pay for it.
+     */
+    private void startBackgroundWork() {
+        if (sBackgroundWorkStarted) {
+            return;
+        }
+        sBackgroundWorkStarted = true;
+        final Context appContext = getApplicationContext();
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                StartupTrace.beginSection("CatalogActivity.backgroundWork");
+                CatalogSnapshot.register(appContext);
+                DatabaseMaintenanceJob.schedule(appContext);
+                StartupTrace.endSection();
+                // Run once
+                return false;
+            }
+        });
+    }
+
+    /**
+     * Recompute the sort keys if the locale changed since they were computed. Only the name
+     * orders read them, so this waits until the catalog is first sorted by name; meanwhile
+     * the provider sorts by ID.
+     */
+    private void refreshSortKeys() {
+        if (!sSortKeysRefreshed) {
+            sSortKeysRefreshed = true;
+            // Not owned by the activity: the batches go on if it is closed
+            AsyncRecordRepository.get(this).refreshSortKeys(null);
+        }
+    }
+
+    /**
+     * Show the records of the catalog snapshot, if there is one.
+     */
+    private void showSnapshot() {
+        // Mapping a few kilobytes is the one disk access allowed before the first frame
+        StrictMode.ThreadPolicy policy = StrictMode.allowThreadDiskReads();
+        try {
+            Cursor snapshot = CatalogSnapshot.read(this);
+            if (snapshot != null && snapshot.getCount() > 0) {
+                mCursorAdapter.swapCursor(snapshot);
+                StartupTrace.mark(StartupTrace.FIRST_CONTENT);
+            }
+        } finally {
+            StrictMode.setThreadPolicy(policy);
+        }
+    }
+
+    @Override
+    protected void onSaveInstanceState(Bundle outState) {
+        super.onSaveInstanceState(outState);
+        outState.putString(STATE_SORT_ORDER, mSortOrder);
+    }
+
+    @Override
+    protected void onStart() {
+        super.onStart();
+        ColumnarCatalogSync.get(this).addListener(mSummaryListener);
+    }
+
+    @Override
+    protected void onStop() {
+        ColumnarCatalogSync.get(this).removeListener(mSummaryListener);
+        super.onStop();
+    }
+
+    @Override
+    protected void onDestroy() {
+        mHandler.removeCallbacks(mSearchRunnable);
+        AsyncRecordRepository.get(this).cancelAll(this);
+        super.onDestroy();
+    }
+
+    @Override
+    protected void onNewIntent(Intent intent) {
+        super.onNewIntent(intent);
+        handleAlertIntent(intent);
+    }
+
+    /**
+     * If the activity was opened from the low-stock notification, mark its alerts as seen.
+     */
+    private void handleAlertIntent(Intent intent) {
+        if (intent != null && intent.getBooleanExtra(LowStockNotifier.EXTRA_ACKNOWLEDGE_ALERTS, false)) {
+            intent.removeExtra(LowStockNotifier.EXTRA_ACKNOWLEDGE_ALERTS);
+            LowStockNotifier.acknowledgeAll(this);
+        }
     }
 
 
@@ -130,19 +340,84 @@ public class CatalogActivity extends AppCompatActivity implements
         values.put(RecordEntry.COLUMN_SUPPLIER_NAME, "Virgin");
         values.put(RecordEntry.COLUMN_SUPPLIER_EMAIL, "order@virgin.com");
 
-        // Insert a new row for Final CountDown into the provider using the ContentResolver.
-        // Use the {@link RecordEntry#CONTENT_URI} to indicate that we want to insert
-        // into the records database table.
-        // Receive the new content URI that will allow us to access Final Countdown data in the future.
-        getContentResolver().insert(RecordEntry.CONTENT_URI, values);
+        // Insert a new row for Final CountDown in the background. The loader picks it up
+        // through the provider's change notification.
+        AsyncRecordRepository.get(this).insert(this, RecordMapper.fromContentValues(values),
+                new AsyncRecordRepository.Callback<Long>() {
+                    @Override
+                    public void onResult(Long id) {
+                        Log.v("CatalogActivity", "Dummy record inserted with ID " + id);
+                    }
+
+                    @Override
+                    public void onError(RuntimeException e) {
+                        Log.e("CatalogActivity", "Dummy record not inserted", e);
+                    }
+                });
     }
 
     /**
-     * Helper method to delete all records in the database.
+     * Ask how many records to generate, then generate them in the background.
+     */
+    private void showGenerateCatalogDialog() {
+        final int[] counts = getResources().getIntArray(R.array.generate_catalog_counts);
+        AlertDialog.Builder builder = new AlertDialog.Builder(this);
+        builder.setTitle(R.string.generate_catalog_title);
+        builder.setItems(R.array.generate_catalog_sizes, new DialogInterface.OnClickListener() {
+            public void onClick(DialogInterface dialog, int which) {
+                CatalogGeneratorService.generate(CatalogActivity.this, counts[which], true);
+            }
+        });
+        builder.create().show();
+    }
+
+    /**
+     * Helper method to delete all records in the database, in the background. The records are
+     * hidden at once and can be restored until the snackbar goes away; then they are purged.
      */
     private void deleteAllRecords() {
-        int rowsDeleted = getContentResolver().delete(RecordEntry.CONTENT_URI, null, null);
-        Log.v("CatalogActivity", rowsDeleted + " rows deleted from records database");
+        AsyncRecordRepository.get(this).deleteAllUndoably(this, new AsyncRecordRepository.Callback<Deletion>() {
+            @Override
+            public void onResult(Deletion deletion) {
+                Log.v("CatalogActivity", deletion.getCount() + " rows deleted from records database");
+                if (deletion.getCount() > 0) {
+                    showUndoDeleteSnackbar(deletion);
+                }
+            }
+
+            @Override
+            public void onError(RuntimeException e) {
+                Log.e("CatalogActivity", "Records not deleted", e);
+            }
+        });
+    }
+
+    /**
+     * Offer to undo a deletion. Purging waits until the offer is gone, and runs in the
+     * maintenance lane, a batch at a time, so it never holds up the screen or a sale.
+     */
+    private void showUndoDeleteSnackbar(final Deletion deletion) {
+        int rowsDeleted = deletion.getCount();
+        Snackbar.make(findViewById(R.id.list),
+                getResources().getQuantityString(R.plurals.records_deleted, rowsDeleted, rowsDeleted),
+                Snackbar.LENGTH_LONG)
+                .setAction(R.string.undo, new View.OnClickListener() {
+                    @Override
+                    public void onClick(View view) {
+                        AsyncRecordRepository.get(CatalogActivity.this).undoDelete(CatalogActivity.this,
+                                deletion, null);
+                    }
+                })
+                .setCallback(new Snackbar.Callback() {
+                    @Override
+                    public void onDismissed(Snackbar snackbar, int event) {
+                        if (event != DISMISS_EVENT_ACTION) {
+                            // Not owned by the activity, so leaving the screen doesn't cancel it
+                            AsyncRecordRepository.get(CatalogActivity.this).purgeDeleted(null, deletion, null);
+                        }
+                    }
+                })
+                .show();
     }
 
     /**
@@ -179,6 +454,91 @@ public class CatalogActivity extends AppCompatActivity implements
         // Inflate the menu options from the res/menu/menu_catalog.xml file.
         // This adds menu items to the app bar.
         getMenuInflater().inflate(R.menu.menu_catalog, menu);
+
+        SearchView searchView = (SearchView) menu.findItem(R.id.action_search).getActionView();
+        searchView.setQueryHint(getString(R.string.search_hint));
+        searchView.setOnQueryTextListener(new SearchView.OnQueryTextListener() {
+            @Override
+            public boolean onQueryTextSubmit(String query) {
+                // Search right away instead of waiting for the debounce delay
+                mHandler.removeCallbacks(mSearchRunnable);
+                search(query);
+                return true;
+            }
+
+            @Override
+            public boolean onQueryTextChange(String newText) {
+                // Only search once typing pauses, so a burst of keystrokes costs one query
+                mPendingQuery = newText;
+                mHandler.removeCallbacks(mSearchRunnable);
+                mHandler.postDelayed(mSearchRunnable, SEARCH_DEBOUNCE_MILLIS);
+                return true;
+            }
+        });
+        return true;
+    }
+
+    /**
+     * Show the records whose album or band name starts with the query, or the whole catalog if
+     * the query is empty. Restarting the search loader cancels a search still in flight.
+     */
+    private void search(String query) {
+        String prefix = query == null ? "" : query.trim();
+        if (prefix.equals(mSearchQuery)) {
+            return;
+        }
+        if (prefix.isEmpty()) {
+            mSearchQuery = null;
+            mCursorAdapter.swapCursor(mCatalogCursor, sectionColumn());
+            getLoaderManager().destroyLoader(SEARCH_LOADER);
+            mSearchCache.clear();
+            return;
+        }
+        mSearchQuery = prefix;
+        Bundle args = new Bundle();
+        args.putString(ARG_SEARCH_QUERY, prefix);
+        getLoaderManager().restartLoader(SEARCH_LOADER, args, this);
+    }
+
+    /**
+     * Show the catalog in another order. Alphabetical orders are read from the sort key
+     * indexes, with no sort, and get fast-scroll sections.
+     */
+    private void setSortOrder(String sortOrder) {
+        if (TextUtils.equals(sortOrder, mSortOrder)) {
+            return;
+        }
+        mSortOrder = sortOrder;
+        if (sortOrder != null) {
+            refreshSortKeys();
+        }
+        getLoaderManager().restartLoader(RECORD_LOADER, null, this);
+        invalidateOptionsMenu();
+    }
+
+    /**
+     * Return the name column the catalog is sorted by, or null if it isn't sorted by name.
+     */
+    private String sectionColumn() {
+        if (RecordEntry.SORT_BY_BAND.equals(mSortOrder)) {
+            return RecordEntry.COLUMN_BAND_NAME;
+        }
+        if (RecordEntry.SORT_BY_ALBUM.equals(mSortOrder)) {
+            return RecordEntry.COLUMN_ALBUM_NAME;
+        }
+        return null;
+    }
+
+    @Override
+    public boolean onPrepareOptionsMenu(Menu menu) {
+        super.onPrepareOptionsMenu(menu);
+        int checked = R.id.action_sort_added;
+        if (RecordEntry.SORT_BY_BAND.equals(mSortOrder)) {
+            checked = R.id.action_sort_band;
+        } else if (RecordEntry.SORT_BY_ALBUM.equals(mSortOrder)) {
+            checked = R.id.action_sort_album;
+        }
+        menu.findItem(checked).setChecked(true);
         return true;
     }
 
@@ -186,10 +546,28 @@ public class CatalogActivity extends AppCompatActivity implements
     public boolean onOptionsItemSelected(MenuItem item) {
         // User clicked on a menu option in the app bar overflow menu
         switch (item.getItemId()) {
+            // Respond to a click on one of the "Sort by" options
+            case R.id.action_sort_added:
+                setSortOrder(null);
+                return true;
+            case R.id.action_sort_band:
+                setSortOrder(RecordEntry.SORT_BY_BAND);
+                return true;
+            case R.id.action_sort_album:
+                setSortOrder(RecordEntry.SORT_BY_ALBUM);
+                return true;
             // Respond to a click on the "Insert dummy data" menu option
             case R.id.action_insert_dummy_data:
                 insertRecord();
                 return true;
+            // Respond to a click on the "Generate test catalog" menu option
+            case R.id.action_generate_catalog:
+                showGenerateCatalogDialog();
+                return true;
+            // Respond to a click on the "Reorder low stock" menu option
+            case R.id.action_reorder_low_stock:
+                PurchaseOrderService.generateOrders(this);
+                return true;
             // Respond to a click on the "Delete all entries" menu option
             case R.id.action_delete_all_entries:
                 showDeleteConfirmationDialog();
@@ -200,33 +578,50 @@ public class CatalogActivity extends AppCompatActivity implements
 
     @Override
     public Loader<Cursor> onCreateLoader(int i, Bundle bundle) {
-        // Define a projection that specifies the columns from the table we care about.
-        String[] projection = {
-                RecordEntry._ID,
-                RecordEntry.COLUMN_ALBUM_NAME,
-                RecordEntry.COLUMN_BAND_NAME,
-                RecordEntry.COLUMN_QUANTITY,
-                RecordEntry.COLUMN_PRICE};
+        if (i == SEARCH_LOADER) {
+            // Prefix search over the indexed album and band names
+            return new RecordSearchLoader(this, bundle.getString(ARG_SEARCH_QUERY),
+                    LIST_PROJECTION, mSearchCache);
+        }
 
-        // This loader will execute the ContentProvider's query method on a background thread
-        return new CursorLoader(this,   // Parent activity context
-                RecordEntry.CONTENT_URI,   // Provider content URI to query
-                projection,             // Columns to include in the resulting Cursor
-                null,                   // No selection clause
-                null,                   // No selection arguments
-                null);                  // Default sort order
+        if (mSortOrder != null) {
+            // A walk of the sort key index, in the order it is shown in
+            return new CursorLoader(this, RecordEntry.CONTENT_URI, LIST_PROJECTION, null, null, mSortOrder);
+        }
+        // This loader reads the records on a background thread, then only re-reads those
+        // that changed
+        return new IncrementalRecordLoader(this, LIST_PROJECTION);
     }
 
 
     @Override
     public void onLoadFinished(Loader<Cursor> loader, Cursor data) {
-        // Update {@link RecordCursorAdapter} with this new cursor containing updated record data
-        mCursorAdapter.swapCursor(data);
+        if (loader.getId() == SEARCH_LOADER) {
+            // Ignore a result that arrives after the search was cleared
+            if (mSearchQuery != null) {
+                mCursorAdapter.swapCursor(data);
+            }
+            return;
+        }
+        // Update {@link RecordCursorAdapter} with this new cursor containing updated record data,
+        // unless search results are being shown
+        mCatalogCursor = data;
+        if (mSearchQuery == null) {
+            mCursorAdapter.swapCursor(data, sectionColumn());
+            StartupTrace.mark(StartupTrace.FIRST_CONTENT);
+        }
     }
 
     @Override
     public void onLoaderReset(Loader<Cursor> loader) {
+        if (loader.getId() == SEARCH_LOADER) {
+            // The adapter is switched to the next cursor before a search loader goes away
+            return;
+        }
         // Callback called when the data needs to be deleted
-        mCursorAdapter.swapCursor(null);
+        mCatalogCursor = null;
+        if (mSearchQuery == null) {
+            mCursorAdapter.swapCursor(null);
+        }
     }
 }
@@ -0,0 +1,82 @@
+package com.example.android.records;
+
+import android.app.IntentService;
+import android.app.NotificationManager;
+import android.content.Context;
+import android.content.Intent;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import com.example.android.records.data.CatalogGenerator;
+
+/**
+ * Fills the catalog with generated records in the background, for load testing.
+ * Progress is shown in a notification, since large catalogs take minutes to write.
+ */
+public class CatalogGeneratorService extends IntentService {
+
+    public static final String LOG_TAG = CatalogGeneratorService.class.getSimpleName();
+
+    /** Number of records to generate */
+    public static final String EXTRA_COUNT = "count";
+
+    /** Whether to generate a sales history for every record; defaults to true */
+    public static final String EXTRA_WITH_SALES = "with_sales";
+
+    /** Seed of the generator; the same seed generates the same catalog */
+    public static final String EXTRA_SEED = "seed";
+
+    private static final long DEFAULT_SEED = 42;
+
+    /** ID of the progress notification */
+    private static final int NOTIFICATION_ID = 3;
+
+    public CatalogGeneratorService() {
+        super(LOG_TAG);
+    }
+
+    /**
+     * Start generating {@code count} records in the background.
+     */
+    public static void generate(Context context, int count, boolean withSales) {
+        Intent intent = new Intent(context, CatalogGeneratorService.class);
+        intent.putExtra(EXTRA_COUNT, count);
+        intent.putExtra(EXTRA_WITH_SALES, withSales);
+        context.startService(intent);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (intent == null) {
+            return;
+        }
+        int count = intent.getIntExtra(EXTRA_COUNT, 0);
+        boolean withSales = intent.getBooleanExtra(EXTRA_WITH_SALES, true);
+        long seed = intent.getLongExtra(EXTRA_SEED, DEFAULT_SEED);
+
+        final NotificationManager manager =
+                (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        final NotificationCompat.Builder builder = new NotificationCompat.Builder(this)
+                .setSmallIcon(R.drawable.ic_shopping_cart_black_24dp)
+                .setContentTitle(getString(R.string.generating_catalog))
+                .setOngoing(true)
+                .setProgress(count, 0, false);
+        manager.notify(NOTIFICATION_ID, builder.build());
+
+        long start = System.currentTimeMillis();
+        int written = new CatalogGenerator(seed).generate(getContentResolver(), count, withSales,
+                new CatalogGenerator.Progress() {
+                    @Override
+                    public void onBatchWritten(int written, int total) {
+                        builder.setProgress(total, written, false);
+                        manager.notify(NOTIFICATION_ID, builder.build());
+                    }
+                });
+        Log.i(LOG_TAG, written + " records generated in " + (System.currentTimeMillis() - start) + "ms");
+
+        builder.setContentTitle(getResources().getQuantityString(R.plurals.catalog_generated, written, written))
+                .setOngoing(false)
+                .setProgress(0, 0, false);
+        manager.notify(NOTIFICATION_ID, builder.build());
+    }
+}
@@ -0,0 +1,97 @@
+package com.example.android.records;
+
+import android.annotation.TargetApi;
+import android.app.AlarmManager;
+import android.app.PendingIntent;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Build;
+import android.os.Bundle;
+import android.util.Log;
+
+import com.example.android.records.data.RecordContract;
+import com.example.android.records.data.RecordContract.MaintenanceEntry;
+
+/**
+ * Runs database maintenance once a day while the device is idle and charging.
+ * <p>
+ * Each run is limited to {@link MaintenanceEntry#DEFAULT_BUDGET_MILLIS}; when the cycle isn't
+ * complete, or the job is stopped because the device is in use again, the job asks to be
+ * rescheduled and the next run resumes where this one stopped.
+ * Devices older than Lollipop have no job scheduler, so there an inexact daily alarm starts
+ * {@link DatabaseMaintenanceService}, which checks for the charger itself.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class DatabaseMaintenanceJob extends JobService {
+
+    public static final String LOG_TAG = DatabaseMaintenanceJob.class.getSimpleName();
+
+    /** ID of the maintenance job */
+    private static final int JOB_ID = 1;
+
+    /**
+     * Schedule the daily maintenance, unless it is already scheduled.
+     */
+    public static void schedule(Context context) {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.LOLLIPOP) {
+            Intent intent = new Intent(context, DatabaseMaintenanceService.class);
+            if (PendingIntent.getService(context, 0, intent, PendingIntent.FLAG_NO_CREATE) != null) {
+                return;
+            }
+            AlarmManager alarms = (AlarmManager) context.getSystemService(Context.ALARM_SERVICE);
+            alarms.setInexactRepeating(AlarmManager.ELAPSED_REALTIME, AlarmManager.INTERVAL_DAY,
+                    AlarmManager.INTERVAL_DAY, PendingIntent.getService(context, 0, intent, 0));
+            return;
+        }
+        JobScheduler scheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+        for (JobInfo job : scheduler.getAllPendingJobs()) {
+            if (job.getId() == JOB_ID) {
+                return;
+            }
+        }
+        scheduler.schedule(new JobInfo.Builder(JOB_ID, new ComponentName(context, DatabaseMaintenanceJob.class))
+                .setRequiresDeviceIdle(true)
+                .setRequiresCharging(true)
+                .setPeriodic(AlarmManager.INTERVAL_DAY)
+                .setPersisted(true)
+                .build());
+    }
+
+    /**
+     * Run maintenance for at most the default budget. Return true if the cycle is complete.
+     * Must not be called on the main thread.
+     */
+    static boolean runMaintenance(Context context) {
+        Bundle result = context.getContentResolver().call(RecordContract.BASE_CONTENT_URI,
+                MaintenanceEntry.METHOD_RUN_MAINTENANCE, null, null);
+        boolean complete = result != null && result.getBoolean(MaintenanceEntry.EXTRA_COMPLETE);
+        Log.i(LOG_TAG, complete ? "Database maintenance complete" : "Database maintenance paused");
+        return complete;
+    }
+
+    @Override
+    public boolean onStartJob(final JobParameters params) {
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                boolean complete = runMaintenance(DatabaseMaintenanceJob.this);
+                jobFinished(params, !complete);
+            }
+        }, LOG_TAG).start();
+        return true;
+    }
+
+    @Override
+    public boolean onStopJob(JobParameters params) {
+        // The device is no longer idle or charging: stop at the end of the current statement,
+        // so a sale doesn't wait for the rest of the budget, and pick up there next run
+        getContentResolver().call(RecordContract.BASE_CONTENT_URI, MaintenanceEntry.METHOD_STOP_MAINTENANCE,
+                null, null);
+        return true;
+    }
+}
@@ -0,0 +1,34 @@
+package com.example.android.records;
+
+import android.app.IntentService;
+import android.content.Context;
+import android.content.Intent;
+import android.content.IntentFilter;
+import android.os.BatteryManager;
+import android.os.PowerManager;
+
+/**
+ * Runs database maintenance from the daily alarm on devices without a job scheduler, if the
+ * device is charging and its screen is off. See {@link DatabaseMaintenanceJob}.
+ */
+public class DatabaseMaintenanceService extends IntentService {
+
+    public static final String LOG_TAG = DatabaseMaintenanceService.class.getSimpleName();
+
+    public DatabaseMaintenanceService() {
+        super(LOG_TAG);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        // The battery broadcast is sticky, so registering without a receiver returns the last one
+        Intent battery = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        boolean charging = battery != null && battery.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+        PowerManager power = (PowerManager) getSystemService(Context.POWER_SERVICE);
+        @SuppressWarnings("deprecation")
+        boolean idle = !power.isScreenOn();
+        if (charging && idle) {
+            DatabaseMaintenanceJob.runMaintenance(this);
+        }
+    }
+}
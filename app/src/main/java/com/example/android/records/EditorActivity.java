@@ -44,12 +44,18 @@ import android.widget.EditText;
 import android.widget.ImageView;
 import android.widget.Toast;
 
+import com.example.android.records.core.Record;
+import com.example.android.records.core.StockRules;
+import com.example.android.records.data.AsyncRecordRepository;
 import com.example.android.records.data.RecordContract.RecordEntry;
+import com.example.android.records.data.RecordMapper;
 
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.util.Collections;
+import java.util.List;
 
 import butterknife.BindView;
 import butterknife.ButterKnife;
@@ -90,6 +96,12 @@ public class EditorActivity extends AppCompatActivity implements
     /** Content URI for the existing record (null if it's a new record) */
     private Uri mCurrentRecordUri;
 
+    /** Values of the existing record as last loaded, to find the fields the user changed */
+    private ContentValues mLoadedValues;
+
+    /** Version of the existing record as last loaded, which saves are made against */
+    private long mLoadedVersion;
+
     /** EditText field to enter the album name */
     @BindView(R.id.edit_album_name) EditText mAlbumNameEditText;
 
@@ -138,6 +150,27 @@ public class EditorActivity extends AppCompatActivity implements
         }
     };
 
+    /**
+     * Reports stock changes made with the plus and minus buttons. The loader shows the new
+     * quantity, so only failures need attention.
+     */
+    private final AsyncRecordRepository.Callback<Boolean> mStockCallback =
+            new AsyncRecordRepository.Callback<Boolean>() {
+                @Override
+                public void onResult(Boolean updated) {
+                    if (!updated) {
+                        Log.e(TAG, getString(R.string.editor_update_record_failed));
+                    }
+                }
+
+                @Override
+                public void onError(RuntimeException e) {
+                    Toast.makeText(EditorActivity.this, e instanceof IllegalStateException
+                            ? getString(R.string.editor_update_record_conflict)
+                            : e.getMessage(), Toast.LENGTH_SHORT).show();
+                }
+            };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -217,10 +250,11 @@ public class EditorActivity extends AppCompatActivity implements
                 String to = mContactEmailEditText.getText().toString();
                 String albumName = mAlbumNameEditText.getText().toString();
                 String bandName = mBandNameEditText.getText().toString();
-                String subject = "Order: " + albumName + " by " + bandName;
+                String subject = getString(R.string.order_subject, albumName, bandName);
                 String supplier = mContactNameEditText.getText().toString();
-                String sep = System.getProperty("line.separator");
-                String message = "Dear " + supplier + "," + sep + "I would like to order 10 more copies of " + albumName + " by " + bandName + " . " + sep + "Regards," + sep + "Gregorio";
+                List<String> lines = Collections.singletonList(getString(R.string.purchase_order_line,
+                        StockRules.REORDER_LOT, albumName, bandName));
+                String message = PurchaseOrderService.renderOrderBody(EditorActivity.this, supplier, lines);
                 emailIntent.setData(Uri.parse("mailto:" + to));
                 //email.putExtra(Intent.EXTRA_CC, new String[]{ to});
                 //email.putExtra(Intent.EXTRA_BCC, new String[]{to});
@@ -232,13 +266,19 @@ public class EditorActivity extends AppCompatActivity implements
                     finish();
                     Log.i(LOG_TAG, "Finished sending email...");
                 } catch (android.content.ActivityNotFoundException ex) {
-                    Toast.makeText(EditorActivity.this, "There is no email client installed.", Toast.LENGTH_SHORT).show();
+                    Toast.makeText(EditorActivity.this, R.string.no_email_client, Toast.LENGTH_SHORT).show();
                 }
             }
 
         });
     }
 
+    @Override
+    protected void onDestroy() {
+        AsyncRecordRepository.get(this).cancelAll(this);
+        super.onDestroy();
+    }
+
     @Override
     protected void onSaveInstanceState(Bundle outState) {
         super.onSaveInstanceState(outState);
@@ -429,42 +469,80 @@ public class EditorActivity extends AppCompatActivity implements
         values.put(RecordEntry.COLUMN_SUPPLIER_EMAIL, supplierEmailString );
 
 
-        // Determine if this is a new or existing record by checking if mCurrentRecordUri is null or not
+        // Determine if this is a new or existing record by checking if mCurrentRecordUri is null or not.
+        // The write runs in the background and isn't tied to this activity, which is finishing:
+        // its outcome is reported with the application context.
+        final Context appContext = getApplicationContext();
+        AsyncRecordRepository repository = AsyncRecordRepository.get(this);
         if (mCurrentRecordUri == null) {
-            // This is a NEW record, so insert a new record into the provider,
-            // returning the content URI for the new record.
-            Uri newUri = getContentResolver().insert(RecordEntry.CONTENT_URI, values);
+            // This is a NEW record, so insert a new record into the provider.
+            repository.insert(null, RecordMapper.fromContentValues(values),
+                    new AsyncRecordRepository.Callback<Long>() {
+                        @Override
+                        public void onResult(Long id) {
+                            // Show a toast message depending on whether or not the insertion was successful.
+                            Toast.makeText(appContext, id == Record.NO_ID
+                                    ? R.string.editor_insert_record_failed
+                                    : R.string.editor_insert_record_successful, Toast.LENGTH_SHORT).show();
+                        }
 
-            // Show a toast message depending on whether or not the insertion was successful.
-            if (newUri == null) {
-                // If the new content URI is null, then there was an error with insertion.
-                Toast.makeText(this, getString(R.string.editor_insert_record_failed),
-                        Toast.LENGTH_SHORT).show();
+                        @Override
+                        public void onError(RuntimeException e) {
+                            Toast.makeText(appContext, e.getMessage(), Toast.LENGTH_LONG).show();
+                        }
+                    });
+        } else {
+            // Otherwise this is an EXISTING record, so update the record identified by
+            // mCurrentRecordUri with the values the user changed, if it hasn't been changed
+            // elsewhere since it was loaded.
+            ContentValues changes = changedValues(values);
+            if (changes.size() == 0) {
+                return;
+            }
+            repository.update(null, ContentUris.parseId(mCurrentRecordUri), changes, mLoadedVersion,
+                    new AsyncRecordRepository.Callback<Boolean>() {
+                        @Override
+                        public void onResult(Boolean updated) {
+                            // Show a toast message depending on whether or not the update was successful.
+                            Toast.makeText(appContext, updated
+                                    ? R.string.editor_update_record_successful
+                                    : R.string.editor_update_record_failed, Toast.LENGTH_SHORT).show();
+                        }
 
-            } else {
-                // Otherwise, the insertion was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_insert_record_successful),
-                        Toast.LENGTH_SHORT).show();
+                        @Override
+                        public void onError(RuntimeException e) {
+                            Toast.makeText(appContext, e instanceof IllegalStateException
+                                    ? appContext.getString(R.string.editor_update_record_conflict)
+                                    : e.getMessage(), Toast.LENGTH_SHORT).show();
+                        }
+                    });
+        }
+    }
 
-            }
-        } else {
-            // Otherwise this is an EXISTING record, so update the record with content URI: mCurrentRecordUri
-            // and pass in the new ContentValues. Pass in null for the selection and selection args
-            // because mCurrentRecordUri will already identify the correct row in the database that
-            // we want to modify.
-            int rowsAffected = getContentResolver().update(mCurrentRecordUri, values, null, null);
-
-            // Show a toast message depending on whether or not the update was successful.
-            if (rowsAffected == 0) {
-                // If no rows were affected, then there was an error with the update.
-                Toast.makeText(this, getString(R.string.editor_update_record_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the update was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_update_record_successful),
-                        Toast.LENGTH_SHORT).show();
+    /**
+     * Change the stock of the loaded record, unless a sale or another editor changed the record
+     * since, which would be overwritten.
+     */
+    private void setLoadedQuantity(long recordId, int quantity, long version) {
+        ContentValues values = new ContentValues();
+        values.put(RecordEntry.COLUMN_QUANTITY, quantity);
+        AsyncRecordRepository.get(this).update(this, recordId, values, version, mStockCallback);
+    }
+
+    /**
+     * Return the values that differ from the record as it was loaded.
+     */
+    private ContentValues changedValues(ContentValues values) {
+        ContentValues changes = new ContentValues(values);
+        if (mLoadedValues != null) {
+            for (String column : values.keySet()) {
+                Object value = values.get(column);
+                if (value != null && value.equals(mLoadedValues.get(column))) {
+                    changes.remove(column);
+                }
             }
         }
+        return changes;
     }
 
     @Override
@@ -569,7 +647,8 @@ public class EditorActivity extends AppCompatActivity implements
                 RecordEntry.COLUMN_PRICE,
                 RecordEntry.COLUMN_RECORD_COVER,
                 RecordEntry.COLUMN_SUPPLIER_NAME,
-                RecordEntry.COLUMN_SUPPLIER_EMAIL};
+                RecordEntry.COLUMN_SUPPLIER_EMAIL,
+                RecordEntry.COLUMN_VERSION};
 
         // This loader will execute the ContentProvider's query method on a background thread
         return new CursorLoader(this,   // Parent activity context
@@ -619,7 +698,18 @@ public class EditorActivity extends AppCompatActivity implements
             final String cover = cursor.getString(imageColumnIndex);
             String supplierName = cursor.getString(supplierNameColumnIndex);
             String supplierEmail = cursor.getString(supplierEmailColumnIndex);
-
+            final long version = cursor.getLong(cursor.getColumnIndex(RecordEntry.COLUMN_VERSION));
+            mLoadedVersion = version;
+
+            // Remember what was loaded, in the types saveRecord() puts
+            mLoadedValues = new ContentValues();
+            mLoadedValues.put(RecordEntry.COLUMN_ALBUM_NAME, albumName);
+            mLoadedValues.put(RecordEntry.COLUMN_BAND_NAME, bandName);
+            mLoadedValues.put(RecordEntry.COLUMN_QUANTITY, quantity);
+            mLoadedValues.put(RecordEntry.COLUMN_PRICE, price);
+            mLoadedValues.put(RecordEntry.COLUMN_RECORD_COVER, cover);
+            mLoadedValues.put(RecordEntry.COLUMN_SUPPLIER_NAME, supplierName);
+            mLoadedValues.put(RecordEntry.COLUMN_SUPPLIER_EMAIL, supplierEmail);
 
             // Update the views on the screen with the values from the database
             mAlbumNameEditText.setText(albumName);
@@ -636,32 +726,18 @@ public class EditorActivity extends AppCompatActivity implements
                 @Override
                 public void onClick(View v) {
                     if (quantity >= 0) {
-                        int newQuantity = quantity + 1;
-                        ContentValues values = new ContentValues();
-                        values.put(RecordEntry.COLUMN_QUANTITY, newQuantity);
-                        Uri recordUri = ContentUris.withAppendedId(RecordEntry.CONTENT_URI, recordId);
-                        int numRowsUpdated = EditorActivity.this.getContentResolver().update(recordUri, values, null, null);
-                        if (!(numRowsUpdated > 0)) {
-                            Log.e(TAG, EditorActivity.this.getString(R.string.editor_update_record_failed));
-                        }
+                        int newQuantity = StockRules.afterRestock(quantity, 1);
+                        setLoadedQuantity(recordId, newQuantity, version);
                     }
-                    int newQuantity = 0;
-
                 }
             });
 
             mMinusStock.setOnClickListener(new View.OnClickListener() {
                 @Override
                 public void onClick(View v) {
-                    if (quantity >= 1) {
-                        int newQuantity = quantity - 1;
-                        ContentValues values = new ContentValues();
-                        values.put(RecordEntry.COLUMN_QUANTITY, newQuantity);
-                        Uri recordUri = ContentUris.withAppendedId(RecordEntry.CONTENT_URI, recordId);
-                        int numRowsUpdated = EditorActivity.this.getContentResolver().update(recordUri, values, null, null);
-                        if (!(numRowsUpdated > 0)) {
-                            Log.e(TAG, EditorActivity.this.getString(R.string.editor_update_record_failed));
-                        }
+                    if (StockRules.canSell(quantity, 1)) {
+                        int newQuantity = StockRules.afterSale(quantity, 1);
+                        setLoadedQuantity(recordId, newQuantity, version);
                     } else if (!(quantity >= 1)) {
                         Toast.makeText(EditorActivity.this, getString(R.string.negative_stock), Toast.LENGTH_SHORT).show();
                     }
@@ -738,21 +814,24 @@ public class EditorActivity extends AppCompatActivity implements
     private void deleteRecord() {
         // Only perform the delete if this is an existing record.
         if (mCurrentRecordUri != null) {
-            // Call the ContentResolver to delete the record at the given content URI.
-            // Pass in null for the selection and selection args because the mCurrentRecordUri
-            // content URI already identifies the record that we want.
-            int rowsDeleted = getContentResolver().delete(mCurrentRecordUri, null, null);
-
-            // Show a toast message depending on whether or not the delete was successful.
-            if (rowsDeleted == 0) {
-                // If no rows were deleted, then there was an error with the delete.
-                Toast.makeText(this, getString(R.string.editor_delete_record_failed),
-                        Toast.LENGTH_SHORT).show();
-            } else {
-                // Otherwise, the delete was successful and we can display a toast.
-                Toast.makeText(this, getString(R.string.editor_delete_record_successful),
-                        Toast.LENGTH_SHORT).show();
-            }
+            // Delete the record in the background. Like a save, it outlives this activity.
+            final Context appContext = getApplicationContext();
+            AsyncRecordRepository.get(this).delete(null, ContentUris.parseId(mCurrentRecordUri),
+                    new AsyncRecordRepository.Callback<Boolean>() {
+                        @Override
+                        public void onResult(Boolean deleted) {
+                            // Show a toast message depending on whether or not the delete was successful.
+                            Toast.makeText(appContext, deleted
+                                    ? R.string.editor_delete_record_successful
+                                    : R.string.editor_delete_record_failed, Toast.LENGTH_SHORT).show();
+                        }
+
+                        @Override
+                        public void onError(RuntimeException e) {
+                            Toast.makeText(appContext, R.string.editor_delete_record_failed,
+                                    Toast.LENGTH_SHORT).show();
+                        }
+                    });
         }
 
         // Close the activity
@@ -0,0 +1,244 @@
+package com.example.android.records;
+
+import android.content.AsyncTaskLoader;
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.Cursor;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.records.data.RecordContract.ChangeEntry;
+import com.example.android.records.data.RecordContract.RecordEntry;
+import com.example.android.records.data.RecordRows;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Loads all records in ID order and keeps them current without reading them all again.
+ * <p>
+ * The records are read in full once. When they change, the loader reads the change log since
+ * its last load and re-reads only the records it names, patching them into a new version of
+ * its {@link RecordRows}. The delivered {@link RecordRows.RowsCursor} tells which records were
+ * inserted, updated or removed since the previous load; a change that leaves the loaded columns
+ * as they were delivers nothing at all. It falls back to a full read when the log no longer
+ * reaches back far enough or too much changed.
+ */
+public class IncrementalRecordLoader extends AsyncTaskLoader<Cursor> {
+
+    private static final String LOG_TAG = IncrementalRecordLoader.class.getSimpleName();
+
+    /** Records re-read per query; stays below SQLite's limit of 999 bind arguments */
+    private static final int READ_BATCH = 500;
+
+    /** Above this many changed records, reading them all again is cheaper */
+    private static final int MAX_INCREMENTAL_RECORDS = 5000;
+
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+    private final String[] mProjection;
+
+    /**
+     * Last loaded version and the change log position it reflects. Only used by the loads,
+     * which never run concurrently.
+     */
+    private volatile RecordRows mRows;
+    private volatile long mSequence;
+
+    private Cursor mCursor;
+    private boolean mObserving;
+
+    /**
+     * @param context    The context
+     * @param projection Columns to load. The first one must be {@link RecordEntry#_ID}.
+     */
+    public IncrementalRecordLoader(Context context, String[] projection) {
+        super(context);
+        if (!RecordEntry._ID.equals(projection[0])) {
+            throw new IllegalArgumentException("The first column must be " + RecordEntry._ID);
+        }
+        mProjection = projection;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        ContentResolver resolver = getContext().getContentResolver();
+        if (mRows != null) {
+            RecordRows.ChangeSet changes = new RecordRows.ChangeSet();
+            RecordRows patched = catchUp(resolver, changes);
+            if (patched != null) {
+                mRows = patched;
+                return patched.newCursor(changes);
+            }
+        }
+        // Changes made during the read are caught up with by the next load, since the
+        // position is taken before the read.
+        long sequence = latestChange(resolver);
+        Cursor cursor = resolver.query(RecordEntry.CONTENT_URI, mProjection, null, null, RecordEntry._ID);
+        if (cursor == null) {
+            return null;
+        }
+        RecordRows rows;
+        try {
+            rows = RecordRows.read(cursor);
+        } finally {
+            cursor.close();
+        }
+        mRows = rows;
+        mSequence = sequence;
+        return rows.newCursor(null);
+    }
+
+    /**
+     * Return the loaded rows patched with the changes since the last load, or null if they have
+     * to be read again instead.
+     */
+    private RecordRows catchUp(ContentResolver resolver, RecordRows.ChangeSet changes) {
+        Cursor cursor = resolver.query(ChangeEntry.buildSinceUri(mSequence),
+                new String[] { ChangeEntry._ID, ChangeEntry.COLUMN_RECORD_ID }, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        Set<Long> changed = new LinkedHashSet<>();
+        long last = mSequence;
+        try {
+            if (cursor.moveToFirst() && cursor.getLong(0) != mSequence + 1) {
+                // Entries after our position were pruned
+                return null;
+            }
+            for (; !cursor.isAfterLast(); cursor.moveToNext()) {
+                last = cursor.getLong(0);
+                changed.add(cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        if (changed.size() > MAX_INCREMENTAL_RECORDS) {
+            return null;
+        }
+
+        Map<Long, Object[]> rows = new HashMap<>();
+        Set<Long> removed = new HashSet<>();
+        List<Long> ids = new ArrayList<>(changed);
+        for (int from = 0; from < ids.size(); from += READ_BATCH) {
+            List<Long> batch = ids.subList(from, Math.min(from + READ_BATCH, ids.size()));
+            String[] args = new String[batch.size()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = String.valueOf(batch.get(i));
+            }
+            String[] placeholders = new String[args.length];
+            Arrays.fill(placeholders, "?");
+            Cursor records = resolver.query(RecordEntry.CONTENT_URI, mProjection,
+                    RecordEntry._ID + " IN (" + TextUtils.join(",", placeholders) + ")", args, null);
+            if (records == null) {
+                return null;
+            }
+            try {
+                while (records.moveToNext()) {
+                    rows.put(records.getLong(0), RecordRows.readRow(records));
+                }
+            } finally {
+                records.close();
+            }
+            // Whatever wasn't found has been deleted
+            for (Long id : batch) {
+                if (!rows.containsKey(id)) {
+                    removed.add(id);
+                }
+            }
+        }
+        RecordRows patched = mRows.patch(rows, removed, changes);
+        mSequence = last;
+        Log.v(LOG_TAG, changed.size() + " changed records applied: " + changes);
+        return patched;
+    }
+
+    private static long latestChange(ContentResolver resolver) {
+        Cursor cursor = resolver.query(ChangeEntry.LATEST_URI, null, null, null, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        if (isReset()) {
+            if (cursor != null) {
+                cursor.close();
+            }
+            return;
+        }
+        if (mCursor != null && cursor instanceof RecordRows.RowsCursor) {
+            RecordRows.ChangeSet changes = ((RecordRows.RowsCursor) cursor).getChanges();
+            if (changes != null && changes.isEmpty()) {
+                // Nothing the loaded columns show has changed, so keep the current cursor
+                cursor.close();
+                return;
+            }
+        }
+        Cursor oldCursor = mCursor;
+        mCursor = cursor;
+
+        if (isStarted()) {
+            super.deliverResult(cursor);
+        }
+
+        if (oldCursor != null && oldCursor != cursor && !oldCursor.isClosed()) {
+            oldCursor.close();
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (!mObserving) {
+            // The change log is per record, so watch the records rather than each cursor
+            getContext().getContentResolver().registerContentObserver(RecordEntry.CONTENT_URI, true, mObserver);
+            mObserving = true;
+        }
+        if (mCursor != null) {
+            super.deliverResult(mCursor);
+        }
+        if (takeContentChanged() || mCursor == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    public void onCanceled(Cursor cursor) {
+        if (cursor != null && !cursor.isClosed()) {
+            cursor.close();
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        onStopLoading();
+
+        if (mObserving) {
+            getContext().getContentResolver().unregisterContentObserver(mObserver);
+            mObserving = false;
+        }
+        if (mCursor != null && !mCursor.isClosed()) {
+            mCursor.close();
+        }
+        mCursor = null;
+        mRows = null;
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.android.records;
+
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.support.v4.app.NotificationCompat;
+
+import com.example.android.records.data.AsyncRecordRepository;
+import com.example.android.records.data.RecordContract.AlertEntry;
+
+/**
+ * Posts a notification for the low-stock alerts the user hasn't seen yet.
+ * <p>
+ * Alerts are written by the database as part of the stock change itself, and the provider
+ * notifies {@link AlertEntry#CONTENT_URI} only when one was raised, so this observer wakes up
+ * once per threshold crossing and never scans the catalog.
+ */
+public class LowStockNotifier extends ContentObserver {
+
+    /** Intent extra that tells {@link CatalogActivity} to acknowledge all pending alerts */
+    public static final String EXTRA_ACKNOWLEDGE_ALERTS = "acknowledge_alerts";
+
+    /** ID of the single low-stock notification */
+    private static final int NOTIFICATION_ID = 1;
+
+    /** Maximum number of records listed in the expanded notification */
+    private static final int MAX_LINES = 5;
+
+    private final Context mContext;
+
+    private LowStockNotifier(Context context, Handler handler) {
+        super(handler);
+        mContext = context.getApplicationContext();
+    }
+
+    /**
+     * Start listening for new alerts. The observer runs on its own thread, so the alert query
+     * never touches the main thread.
+     */
+    public static void register(Context context) {
+        HandlerThread thread = new HandlerThread(LowStockNotifier.class.getSimpleName());
+        thread.start();
+        LowStockNotifier notifier = new LowStockNotifier(context, new Handler(thread.getLooper()));
+        context.getContentResolver().registerContentObserver(AlertEntry.CONTENT_URI, true, notifier);
+    }
+
+    /**
+     * Mark every pending alert as seen, in the maintenance lane of the
+     * {@link AsyncRecordRepository}. The resulting change notification clears the low-stock
+     * notification.
+     */
+    public static void acknowledgeAll(Context context) {
+        final Context appContext = context.getApplicationContext();
+        AsyncRecordRepository.get(appContext).submit(AsyncRecordRepository.PRIORITY_MAINTENANCE, null,
+                new AsyncRecordRepository.Work<Integer>() {
+                    @Override
+                    public Integer run() {
+                        ContentValues values = new ContentValues();
+                        values.put(AlertEntry.COLUMN_ACKNOWLEDGED, 1);
+                        return appContext.getContentResolver().update(AlertEntry.CONTENT_URI, values,
+                                AlertEntry.COLUMN_ACKNOWLEDGED + "=0", null);
+                    }
+                }, null);
+    }
+
+    @Override
+    public void onChange(boolean selfChange) {
+        showPendingAlerts();
+    }
+
+    /**
+     * Post or update the notification listing the newest unacknowledged alerts, or remove it
+     * when there are none left.
+     */
+    private void showPendingAlerts() {
+        NotificationManager manager =
+                (NotificationManager) mContext.getSystemService(Context.NOTIFICATION_SERVICE);
+
+        String[] projection = {
+                AlertEntry._ID,
+                AlertEntry.COLUMN_ALBUM_NAME,
+                AlertEntry.COLUMN_BAND_NAME,
+                AlertEntry.COLUMN_QUANTITY};
+        Cursor cursor = mContext.getContentResolver().query(AlertEntry.CONTENT_URI, projection,
+                AlertEntry.COLUMN_ACKNOWLEDGED + "=0", null, AlertEntry._ID + " DESC");
+        if (cursor == null) {
+            return;
+        }
+        try {
+            int count = cursor.getCount();
+            if (count == 0) {
+                manager.cancel(NOTIFICATION_ID);
+                return;
+            }
+
+            NotificationCompat.InboxStyle style = new NotificationCompat.InboxStyle();
+            String firstLine = null;
+            while (cursor.moveToNext() && cursor.getPosition() < MAX_LINES) {
+                String line = mContext.getString(R.string.low_stock_line,
+                        cursor.getString(cursor.getColumnIndex(AlertEntry.COLUMN_ALBUM_NAME)),
+                        cursor.getString(cursor.getColumnIndex(AlertEntry.COLUMN_BAND_NAME)),
+                        cursor.getInt(cursor.getColumnIndex(AlertEntry.COLUMN_QUANTITY)));
+                if (firstLine == null) {
+                    firstLine = line;
+                }
+                style.addLine(line);
+            }
+            String title = mContext.getResources().getQuantityString(R.plurals.low_stock_title, count, count);
+            style.setBigContentTitle(title);
+
+            Intent intent = new Intent(mContext, CatalogActivity.class);
+            intent.putExtra(EXTRA_ACKNOWLEDGE_ALERTS, true);
+            intent.setFlags(Intent.FLAG_ACTIVITY_CLEAR_TOP | Intent.FLAG_ACTIVITY_SINGLE_TOP);
+            PendingIntent contentIntent = PendingIntent.getActivity(mContext, 0, intent,
+                    PendingIntent.FLAG_UPDATE_CURRENT);
+
+            NotificationCompat.Builder builder = new NotificationCompat.Builder(mContext)
+                    .setSmallIcon(R.drawable.turntable)
+                    .setContentTitle(title)
+                    .setContentText(firstLine)
+                    .setNumber(count)
+                    .setStyle(style)
+                    .setContentIntent(contentIntent)
+                    .setAutoCancel(true);
+            manager.notify(NOTIFICATION_ID, builder.build());
+        } finally {
+            cursor.close();
+        }
+    }
+}
@@ -0,0 +1,240 @@
+package com.example.android.records;
+
+import android.app.IntentService;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.ActivityNotFoundException;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.content.Intent;
+import android.database.Cursor;
+import android.net.Uri;
+import android.support.v4.app.NotificationCompat;
+import android.util.Log;
+
+import com.example.android.records.core.StockRules;
+import com.example.android.records.data.RecordContract.PurchaseOrderEntry;
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Background engine that turns low stock into purchase orders.
+ * <p>
+ * {@link #ACTION_GENERATE_ORDERS} reads every record at or below its reorder threshold in one
+ * query, sorted by supplier, and renders one consolidated order per supplier into the purchase
+ * order outbox. {@link #ACTION_SEND_NEXT_ORDER} hands the oldest pending order to the email app.
+ * The work done per reorder grows with the number of suppliers, not the number of titles.
+ */
+public class PurchaseOrderService extends IntentService {
+
+    public static final String LOG_TAG = PurchaseOrderService.class.getSimpleName();
+
+    /** Regenerate the pending purchase orders from the current low-stock records */
+    public static final String ACTION_GENERATE_ORDERS =
+            "com.example.android.records.action.GENERATE_ORDERS";
+
+    /** Email the oldest pending purchase order and mark it as sent */
+    public static final String ACTION_SEND_NEXT_ORDER =
+            "com.example.android.records.action.SEND_NEXT_ORDER";
+
+    /** ID of the "purchase orders ready" notification */
+    private static final int NOTIFICATION_ID = 2;
+
+    public PurchaseOrderService() {
+        super(LOG_TAG);
+    }
+
+    /**
+     * Start generating purchase orders in the background.
+     */
+    public static void generateOrders(Context context) {
+        Intent intent = new Intent(context, PurchaseOrderService.class);
+        intent.setAction(ACTION_GENERATE_ORDERS);
+        context.startService(intent);
+    }
+
+    @Override
+    protected void onHandleIntent(Intent intent) {
+        if (intent == null) {
+            return;
+        }
+        if (ACTION_GENERATE_ORDERS.equals(intent.getAction())) {
+            generate();
+        } else if (ACTION_SEND_NEXT_ORDER.equals(intent.getAction())) {
+            sendNextOrder();
+        }
+    }
+
+    /**
+     * Render the body of an order email from its already formatted lines.
+     */
+    public static String renderOrderBody(Context context, String supplierName, List<String> lines) {
+        String sep = System.getProperty("line.separator");
+        StringBuilder body = new StringBuilder();
+        body.append(context.getString(R.string.purchase_order_greeting, supplierName)).append(sep);
+        body.append(context.getString(R.string.purchase_order_intro)).append(sep).append(sep);
+        for (String line : lines) {
+            body.append(line).append(sep);
+        }
+        body.append(sep).append(context.getString(R.string.order_signature));
+        return body.toString();
+    }
+
+    /**
+     * Replace the pending orders in the outbox with one fresh order per supplier that has
+     * records at or below their reorder threshold.
+     */
+    private void generate() {
+        String[] projection = {
+                RecordEntry._ID,
+                RecordEntry.COLUMN_ALBUM_NAME,
+                RecordEntry.COLUMN_BAND_NAME,
+                RecordEntry.COLUMN_QUANTITY,
+                RecordEntry.COLUMN_SUPPLIER_NAME,
+                RecordEntry.COLUMN_SUPPLIER_EMAIL,
+                RecordEntry.COLUMN_EFFECTIVE_THRESHOLD};
+        Cursor cursor = getContentResolver().query(RecordEntry.LOW_STOCK_URI, projection, null, null, null);
+        if (cursor == null) {
+            return;
+        }
+
+        List<ContentValues> orders = new ArrayList<>();
+        try {
+            int albumColumnIndex = cursor.getColumnIndex(RecordEntry.COLUMN_ALBUM_NAME);
+            int bandColumnIndex = cursor.getColumnIndex(RecordEntry.COLUMN_BAND_NAME);
+            int quantityColumnIndex = cursor.getColumnIndex(RecordEntry.COLUMN_QUANTITY);
+            int supplierNameColumnIndex = cursor.getColumnIndex(RecordEntry.COLUMN_SUPPLIER_NAME);
+            int supplierEmailColumnIndex = cursor.getColumnIndex(RecordEntry.COLUMN_SUPPLIER_EMAIL);
+            int thresholdColumnIndex = cursor.getColumnIndex(RecordEntry.COLUMN_EFFECTIVE_THRESHOLD);
+
+            // Rows arrive grouped by supplier, so an order is complete as soon as the
+            // supplier name changes.
+            String supplierName = null;
+            String supplierEmail = null;
+            List<String> lines = new ArrayList<>();
+            int totalUnits = 0;
+            while (cursor.moveToNext()) {
+                String rowSupplier = cursor.getString(supplierNameColumnIndex);
+                if (supplierName != null && !supplierName.equals(rowSupplier)) {
+                    orders.add(buildOrder(supplierName, supplierEmail, lines, totalUnits));
+                    lines = new ArrayList<>();
+                    totalUnits = 0;
+                }
+                supplierName = rowSupplier;
+                supplierEmail = cursor.getString(supplierEmailColumnIndex);
+
+                int units = StockRules.reorderQuantity(cursor.getInt(quantityColumnIndex), cursor.getInt(thresholdColumnIndex));
+                lines.add(getString(R.string.purchase_order_line, units,
+                        cursor.getString(albumColumnIndex), cursor.getString(bandColumnIndex)));
+                totalUnits += units;
+            }
+            if (supplierName != null) {
+                orders.add(buildOrder(supplierName, supplierEmail, lines, totalUnits));
+            }
+        } finally {
+            cursor.close();
+        }
+
+        // Orders that were never sent are superseded by the new ones.
+        getContentResolver().delete(PurchaseOrderEntry.CONTENT_URI,
+                PurchaseOrderEntry.COLUMN_STATUS + "=?",
+                new String[] { String.valueOf(PurchaseOrderEntry.STATUS_PENDING) });
+        getContentResolver().bulkInsert(PurchaseOrderEntry.CONTENT_URI,
+                orders.toArray(new ContentValues[orders.size()]));
+        Log.i(LOG_TAG, orders.size() + " purchase orders queued");
+
+        showPendingOrders(orders.size());
+    }
+
+    private ContentValues buildOrder(String supplierName, String supplierEmail, List<String> lines,
+                                     int totalUnits) {
+        ContentValues values = new ContentValues();
+        values.put(PurchaseOrderEntry.COLUMN_SUPPLIER_NAME, supplierName);
+        values.put(PurchaseOrderEntry.COLUMN_SUPPLIER_EMAIL, supplierEmail);
+        values.put(PurchaseOrderEntry.COLUMN_SUBJECT,
+                getString(R.string.purchase_order_subject, lines.size(), totalUnits));
+        values.put(PurchaseOrderEntry.COLUMN_BODY, renderOrderBody(this, supplierName, lines));
+        values.put(PurchaseOrderEntry.COLUMN_LINE_COUNT, lines.size());
+        values.put(PurchaseOrderEntry.COLUMN_TOTAL_UNITS, totalUnits);
+        values.put(PurchaseOrderEntry.COLUMN_STATUS, PurchaseOrderEntry.STATUS_PENDING);
+        return values;
+    }
+
+    /**
+     * Open the email app on the oldest pending order, and mark that order as sent.
+     */
+    private void sendNextOrder() {
+        String[] projection = {
+                PurchaseOrderEntry._ID,
+                PurchaseOrderEntry.COLUMN_SUPPLIER_EMAIL,
+                PurchaseOrderEntry.COLUMN_SUBJECT,
+                PurchaseOrderEntry.COLUMN_BODY};
+        String selection = PurchaseOrderEntry.COLUMN_STATUS + "=?";
+        String[] selectionArgs = { String.valueOf(PurchaseOrderEntry.STATUS_PENDING) };
+        Cursor cursor = getContentResolver().query(PurchaseOrderEntry.CONTENT_URI, projection,
+                selection, selectionArgs, PurchaseOrderEntry._ID);
+        if (cursor == null) {
+            return;
+        }
+
+        int remaining;
+        try {
+            remaining = cursor.getCount();
+            if (!cursor.moveToFirst()) {
+                showPendingOrders(0);
+                return;
+            }
+            long orderId = cursor.getLong(cursor.getColumnIndex(PurchaseOrderEntry._ID));
+            Intent emailIntent = new Intent(Intent.ACTION_SENDTO);
+            emailIntent.setData(Uri.parse("mailto:"
+                    + cursor.getString(cursor.getColumnIndex(PurchaseOrderEntry.COLUMN_SUPPLIER_EMAIL))));
+            emailIntent.putExtra(Intent.EXTRA_SUBJECT,
+                    cursor.getString(cursor.getColumnIndex(PurchaseOrderEntry.COLUMN_SUBJECT)));
+            emailIntent.putExtra(Intent.EXTRA_TEXT,
+                    cursor.getString(cursor.getColumnIndex(PurchaseOrderEntry.COLUMN_BODY)));
+            emailIntent.addFlags(Intent.FLAG_ACTIVITY_NEW_TASK);
+            try {
+                startActivity(emailIntent);
+            } catch (ActivityNotFoundException e) {
+                Log.e(LOG_TAG, "There is no email client installed.", e);
+                return;
+            }
+
+            ContentValues values = new ContentValues();
+            values.put(PurchaseOrderEntry.COLUMN_STATUS, PurchaseOrderEntry.STATUS_SENT);
+            getContentResolver().update(ContentUris.withAppendedId(PurchaseOrderEntry.CONTENT_URI, orderId),
+                    values, null, null);
+            remaining--;
+        } finally {
+            cursor.close();
+        }
+        showPendingOrders(remaining);
+    }
+
+    /**
+     * Post a notification that sends the next pending order when tapped, or remove it when the
+     * outbox is empty.
+     */
+    private void showPendingOrders(int pending) {
+        NotificationManager manager = (NotificationManager) getSystemService(Context.NOTIFICATION_SERVICE);
+        if (pending == 0) {
+            manager.cancel(NOTIFICATION_ID);
+            return;
+        }
+
+        Intent intent = new Intent(this, PurchaseOrderService.class);
+        intent.setAction(ACTION_SEND_NEXT_ORDER);
+        PendingIntent sendIntent = PendingIntent.getService(this, 0, intent, PendingIntent.FLAG_UPDATE_CURRENT);
+
+        NotificationCompat.Builder builder = new NotificationCompat.Builder(this)
+                .setSmallIcon(R.drawable.ic_email_black_24dp)
+                .setContentTitle(getResources().getQuantityString(R.plurals.purchase_orders_ready, pending, pending))
+                .setContentText(getString(R.string.purchase_orders_send_next))
+                .setNumber(pending)
+                .setContentIntent(sendIntent);
+        manager.notify(NOTIFICATION_ID, builder.build());
+    }
+}
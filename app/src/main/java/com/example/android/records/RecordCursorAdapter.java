@@ -15,21 +15,22 @@
  */
 package com.example.android.records;
 
-import android.content.ContentUris;
-import android.content.ContentValues;
 import android.content.Context;
 import android.database.Cursor;
-import android.net.Uri;
 import android.support.v7.widget.RecyclerView;
 import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AlphabetIndexer;
 import android.widget.CursorAdapter;
 import android.widget.ImageView;
+import android.widget.SectionIndexer;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.example.android.records.core.StockRules;
+import com.example.android.records.data.AsyncRecordRepository;
 import com.example.android.records.data.RecordContract.RecordEntry;
 
 import static android.content.ContentValues.TAG;
@@ -39,14 +40,22 @@ import static android.content.ContentValues.TAG;
  * that uses a {@link Cursor} of record data as its data source. This adapter knows
  * how to create list items for each row of record data in the {@link Cursor}.
  */
-public class RecordCursorAdapter extends CursorAdapter {
+public class RecordCursorAdapter extends CursorAdapter implements SectionIndexer {
 
     public static final String LOG_TAG = RecordCursorAdapter.class.getSimpleName();
 
+    private static final Object[] NO_SECTIONS = new Object[0];
+
     private static Context mContext;
 
     private ImageView saleImageView;
 
+    /** Letters of the fast-scroll sections */
+    private final String mAlphabet;
+
+    /** Finds where each letter starts while the cursor is sorted by a name, otherwise null */
+    private AlphabetIndexer mIndexer;
+
 
     /**
      * Constructs a new {@link RecordCursorAdapter}.
@@ -56,6 +65,42 @@ public class RecordCursorAdapter extends CursorAdapter {
     public RecordCursorAdapter(Context context, Cursor cursor) {
         super(context, cursor, 0 /* flags */);
         mContext = context;
+        mAlphabet = context.getString(R.string.fast_scroll_alphabet);
+    }
+
+    @Override
+    public Cursor swapCursor(Cursor newCursor) {
+        return swapCursor(newCursor, null);
+    }
+
+    /**
+     * Switch to a new cursor, which has sections for fast scrolling if it is sorted by the given
+     * name column in the locale's order, such as by {@link RecordEntry#SORT_BY_BAND}. Returns
+     * the old cursor.
+     *
+     * @param sectionColumn column the cursor is sorted by, or null for no sections
+     */
+    public Cursor swapCursor(Cursor newCursor, String sectionColumn) {
+        // Set first, as the list asks for the sections when it hears of the new cursor
+        mIndexer = newCursor != null && sectionColumn != null
+                ? new AlphabetIndexer(newCursor, newCursor.getColumnIndexOrThrow(sectionColumn), mAlphabet)
+                : null;
+        return super.swapCursor(newCursor);
+    }
+
+    @Override
+    public Object[] getSections() {
+        return mIndexer != null ? mIndexer.getSections() : NO_SECTIONS;
+    }
+
+    @Override
+    public int getPositionForSection(int sectionIndex) {
+        return mIndexer != null ? mIndexer.getPositionForSection(sectionIndex) : 0;
+    }
+
+    @Override
+    public int getSectionForPosition(int position) {
+        return mIndexer != null ? mIndexer.getSectionForPosition(position) : 0;
     }
     /**
      *  newView makes a new blank list item view. No data is set (or bound) to the views yet.
@@ -120,27 +165,27 @@ public class RecordCursorAdapter extends CursorAdapter {
             @Override
             public void onClick(View v) {
 
-                if (quantity >= 1) {
+                if (StockRules.canSell(quantity, 1)) {
 
                     Log.i(LOG_TAG, "TEST: On sale click Quantity is: " + quantity);
-                    int newQuantity = quantity - 1;
-                    Log.i(LOG_TAG, "TEST: On sale click Updated Quantity is: " + newQuantity);
-
-                    // Update table with new stock of the product
-                    ContentValues contentValues = new ContentValues();
-                    contentValues.put(RecordEntry.COLUMN_QUANTITY, newQuantity);
-                    Uri recordUri = ContentUris.withAppendedId(RecordEntry.CONTENT_URI, recordId);
-                    Log.i(LOG_TAG, "TEST: On sale click ContentUri is: " + RecordEntry.CONTENT_URI);
-                    Log.i(LOG_TAG, "TEST: On sale click ContentUri_ID is: " + recordUri);
-                    Log.i(LOG_TAG, "TEST: On sale click Album Name is: " + albumName);
 
-
-                    int numRowsUpdated = context.getContentResolver().update(recordUri, contentValues, null, null);
-                    Log.i(LOG_TAG, "TEST: number Rows Updated: " + numRowsUpdated);
-
-                    if (!(numRowsUpdated > 0)) {
-                        Log.e(TAG, context.getString(R.string.editor_update_record_failed));
-                    }
+                    // Sell one copy in the background: the provider decrements the stock and
+                    // writes the sale to the ledger in a single transaction.
+                    Log.i(LOG_TAG, "TEST: On sale click Album Name is: " + albumName);
+                    AsyncRecordRepository.get(context).sell(context, recordId, 1,
+                            new AsyncRecordRepository.Callback<Boolean>() {
+                                @Override
+                                public void onResult(Boolean sold) {
+                                    if (!sold) {
+                                        Log.e(TAG, context.getString(R.string.editor_update_record_failed));
+                                    }
+                                }
+
+                                @Override
+                                public void onError(RuntimeException e) {
+                                    Log.e(TAG, context.getString(R.string.editor_update_record_failed), e);
+                                }
+                            });
                 } else if (!(quantity >= 1)) {
                     int quantity = 0;
                     Toast.makeText(context, R.string.sold_out, Toast.LENGTH_SHORT).show();
@@ -0,0 +1,252 @@
+package com.example.android.records;
+
+import android.content.AsyncTaskLoader;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.os.CancellationSignal;
+import android.os.OperationCanceledException;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+import com.example.android.records.data.RecordSearch;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Loads the records whose album or band name starts with a prefix.
+ * <p>
+ * Each keystroke restarts this loader, which cancels the query of the previous one through its
+ * {@link CancellationSignal}. When the new prefix only extends the previous one and the previous
+ * result was small enough to keep, the result is refined in memory instead of querying again.
+ * Any change to the records drops the kept result.
+ */
+public class RecordSearchLoader extends AsyncTaskLoader<Cursor> {
+
+    private final ForceLoadContentObserver mObserver = new ForceLoadContentObserver();
+
+    private final String mPrefix;
+    private final String[] mProjection;
+    private final ResultCache mCache;
+
+    private Cursor mCursor;
+    private CancellationSignal mCancellationSignal;
+
+    /**
+     * @param context    The context
+     * @param prefix     Prefix to search for
+     * @param projection Columns to load. Must include {@link RecordEntry#COLUMN_ALBUM_NAME}
+     *                   and {@link RecordEntry#COLUMN_BAND_NAME}.
+     * @param cache      Result kept from the previous search, shared across restarts
+     */
+    public RecordSearchLoader(Context context, String prefix, String[] projection, ResultCache cache) {
+        super(context);
+        mPrefix = RecordSearch.asciiFold(prefix);
+        mProjection = projection;
+        mCache = cache;
+    }
+
+    @Override
+    public Cursor loadInBackground() {
+        MatrixCursor refined = mCache.refine(mPrefix);
+        if (refined != null) {
+            refined.setNotificationUri(getContext().getContentResolver(), RecordEntry.CONTENT_URI);
+            refined.registerContentObserver(mObserver);
+            return refined;
+        }
+
+        synchronized (this) {
+            if (isLoadInBackgroundCanceled()) {
+                throw new OperationCanceledException();
+            }
+            mCancellationSignal = new CancellationSignal();
+        }
+        try {
+            Cursor cursor = getContext().getContentResolver().query(RecordEntry.buildSearchUri(mPrefix),
+                    mProjection, null, null, null, mCancellationSignal);
+            if (cursor != null) {
+                try {
+                    // Ensure the cursor window is filled and keep small results for refinements.
+                    cursor.getCount();
+                    mCache.keep(mPrefix, cursor);
+                    cursor.registerContentObserver(mObserver);
+                } catch (RuntimeException ex) {
+                    cursor.close();
+                    throw ex;
+                }
+            }
+            return cursor;
+        } finally {
+            synchronized (this) {
+                mCancellationSignal = null;
+            }
+        }
+    }
+
+    @Override
+    public void cancelLoadInBackground() {
+        super.cancelLoadInBackground();
+
+        synchronized (this) {
+            if (mCancellationSignal != null) {
+                mCancellationSignal.cancel();
+            }
+        }
+    }
+
+    @Override
+    public void onContentChanged() {
+        // The records changed, so refining the kept result would show stale rows.
+        mCache.clear();
+        super.onContentChanged();
+    }
+
+    @Override
+    public void deliverResult(Cursor cursor) {
+        if (isReset()) {
+            if (cursor != null) {
+                cursor.close();
+            }
+            return;
+        }
+        Cursor oldCursor = mCursor;
+        mCursor = cursor;
+
+        if (isStarted()) {
+            super.deliverResult(cursor);
+        }
+
+        if (oldCursor != null && oldCursor != cursor && !oldCursor.isClosed()) {
+            oldCursor.close();
+        }
+    }
+
+    @Override
+    protected void onStartLoading() {
+        if (mCursor != null) {
+            deliverResult(mCursor);
+        }
+        if (takeContentChanged() || mCursor == null) {
+            forceLoad();
+        }
+    }
+
+    @Override
+    protected void onStopLoading() {
+        cancelLoad();
+    }
+
+    @Override
+    public void onCanceled(Cursor cursor) {
+        if (cursor != null && !cursor.isClosed()) {
+            cursor.close();
+        }
+    }
+
+    @Override
+    protected void onReset() {
+        super.onReset();
+
+        onStopLoading();
+
+        if (mCursor != null && !mCursor.isClosed()) {
+            mCursor.close();
+        }
+        mCursor = null;
+    }
+
+    /**
+     * The rows of the last search result, kept when there are at most {@link #MAX_ROWS} of
+     * them. A later search for a longer prefix can only match a subset of these rows.
+     */
+    public static class ResultCache {
+
+        /** Largest result worth keeping in memory */
+        private static final int MAX_ROWS = 2000;
+
+        private String mPrefix;
+        private String[] mColumns;
+        private List<Object[]> mRows;
+
+        /**
+         * Keep the rows of the given result for the given folded prefix, if it is small enough.
+         * The cursor position is restored before returning.
+         */
+        synchronized void keep(String prefix, Cursor cursor) {
+            clear();
+            if (cursor.getCount() > MAX_ROWS) {
+                return;
+            }
+            int columnCount = cursor.getColumnCount();
+            List<Object[]> rows = new ArrayList<>(cursor.getCount());
+            cursor.moveToPosition(-1);
+            while (cursor.moveToNext()) {
+                Object[] row = new Object[columnCount];
+                for (int i = 0; i < columnCount; i++) {
+                    switch (cursor.getType(i)) {
+                        case Cursor.FIELD_TYPE_INTEGER:
+                            row[i] = cursor.getLong(i);
+                            break;
+                        case Cursor.FIELD_TYPE_NULL:
+                            row[i] = null;
+                            break;
+                        default:
+                            row[i] = cursor.getString(i);
+                            break;
+                    }
+                }
+                rows.add(row);
+            }
+            cursor.moveToPosition(-1);
+            mPrefix = prefix;
+            mColumns = cursor.getColumnNames();
+            mRows = rows;
+        }
+
+        /**
+         * Return the kept rows that match the given folded prefix, or null if the kept result
+         * can't answer it.
+         */
+        synchronized MatrixCursor refine(String prefix) {
+            if (mRows == null || !prefix.startsWith(mPrefix)) {
+                return null;
+            }
+            int albumIndex = indexOf(RecordEntry.COLUMN_ALBUM_NAME);
+            int bandIndex = indexOf(RecordEntry.COLUMN_BAND_NAME);
+            if (albumIndex < 0 || bandIndex < 0) {
+                return null;
+            }
+            MatrixCursor cursor = new MatrixCursor(mColumns);
+            List<Object[]> matching = new ArrayList<>();
+            for (Object[] row : mRows) {
+                if (RecordSearch.matches(prefix, (String) row[albumIndex])
+                        || RecordSearch.matches(prefix, (String) row[bandIndex])) {
+                    cursor.addRow(row);
+                    matching.add(row);
+                }
+            }
+            // The refined rows are a complete answer for the longer prefix too.
+            mPrefix = prefix;
+            mRows = matching;
+            return cursor;
+        }
+
+        /**
+         * Drop the kept result.
+         */
+        synchronized void clear() {
+            mPrefix = null;
+            mColumns = null;
+            mRows = null;
+        }
+
+        private int indexOf(String column) {
+            for (int i = 0; i < mColumns.length; i++) {
+                if (mColumns[i].equals(column)) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+    }
+}
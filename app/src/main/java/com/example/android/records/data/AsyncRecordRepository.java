@@ -0,0 +1,438 @@
+package com.example.android.records.data;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Process;
+import android.util.Log;
+
+import com.example.android.records.core.Record;
+import com.example.android.records.data.ProviderRecordRepository.Deletion;
+import com.example.android.records.data.RecordContract.DeletionEntry;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Runs record storage work off the main thread and hands the results back on it.
+ * <p>
+ * Work is queued in three lanes: reads the user is waiting for, then writes, then maintenance.
+ * A small fixed set of worker threads always picks from the highest lane that has work, so a
+ * bulk clean-up never delays a screen from loading. Writes and maintenance run one at a time
+ * and in the order they were submitted, so two quick edits of the same record can't land out of
+ * order, while the other workers keep serving reads.
+ * <p>
+ * Work can be tied to an owner, usually the activity that asked for it, and dropped with
+ * {@link #cancelAll(Object)} once the owner is finished. Queued reads of a cancelled owner never
+ * run. Writes always run, since the user has already asked for them, but their callbacks are
+ * not delivered.
+ */
+public final class AsyncRecordRepository {
+
+    private static final String LOG_TAG = AsyncRecordRepository.class.getSimpleName();
+
+    /** Lanes, highest priority first */
+    public static final int PRIORITY_READ = 0;
+    public static final int PRIORITY_WRITE = 1;
+    public static final int PRIORITY_MAINTENANCE = 2;
+
+    /** Number of worker threads */
+    private static final int WORKERS = 2;
+
+    /**
+     * Storage work, run on a worker thread.
+     */
+    public interface Work<T> {
+        T run();
+    }
+
+    /**
+     * Receives the outcome of some work on the main thread.
+     */
+    public interface Callback<T> {
+        void onResult(T result);
+
+        void onError(RuntimeException e);
+    }
+
+    /**
+     * Handle on submitted work.
+     */
+    public static final class Task<T> {
+        private final int mPriority;
+        private final Object mOwner;
+        private final Work<T> mWork;
+        private Callback<T> mCallback;
+        private volatile boolean mCancelled;
+
+        private Task(int priority, Object owner, Work<T> work, Callback<T> callback) {
+            mPriority = priority;
+            mOwner = owner;
+            mWork = work;
+            mCallback = callback;
+        }
+
+        public boolean isCancelled() {
+            return mCancelled;
+        }
+    }
+
+    private static AsyncRecordRepository sInstance;
+
+    private final ProviderRecordRepository mRepository;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    /** Guards the queues, the tasks and the worker state */
+    private final Object mLock = new Object();
+    private final List<ArrayDeque<Task<?>>> mLanes = new ArrayList<>();
+    /** Tasks submitted and not delivered yet, so they can be cancelled by owner */
+    private final List<Task<?>> mTasks = new ArrayList<>();
+    private boolean mWriteRunning;
+    private boolean mStarted;
+
+    private AsyncRecordRepository(Context context) {
+        mRepository = new ProviderRecordRepository(context.getContentResolver());
+        for (int i = PRIORITY_READ; i <= PRIORITY_MAINTENANCE; i++) {
+            mLanes.add(new ArrayDeque<Task<?>>());
+        }
+    }
+
+    public static synchronized AsyncRecordRepository get(Context context) {
+        if (sInstance == null) {
+            sInstance = new AsyncRecordRepository(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    /**
+     * Queue work in the given lane. The callback, if any, is called on the main thread unless
+     * the task is cancelled first.
+     *
+     * @param owner what the work is done for, to cancel it with {@link #cancelAll(Object)};
+     *              null if it should never be cancelled
+     */
+    public <T> Task<T> submit(int priority, Object owner, Work<T> work, Callback<T> callback) {
+        if (priority < PRIORITY_READ || priority > PRIORITY_MAINTENANCE) {
+            throw new IllegalArgumentException("Unknown priority " + priority);
+        }
+        Task<T> task = new Task<>(priority, owner, work, callback);
+        synchronized (mLock) {
+            startWorkersLocked();
+            mLanes.get(priority).add(task);
+            mTasks.add(task);
+            mLock.notifyAll();
+        }
+        return task;
+    }
+
+    /**
+     * Cancel all work of an owner. Call it on the main thread, typically from onDestroy().
+     */
+    public void cancelAll(Object owner) {
+        synchronized (mLock) {
+            Iterator<Task<?>> reads = mLanes.get(PRIORITY_READ).iterator();
+            while (reads.hasNext()) {
+                if (reads.next().mOwner == owner) {
+                    reads.remove();
+                }
+            }
+            Iterator<Task<?>> tasks = mTasks.iterator();
+            while (tasks.hasNext()) {
+                Task<?> task = tasks.next();
+                if (task.mOwner == owner) {
+                    task.mCancelled = true;
+                    // Don't keep the owner alive through its callback
+                    task.mCallback = null;
+                    tasks.remove();
+                }
+            }
+        }
+    }
+
+    /**
+     * Look up a record; the result is null if there is none.
+     */
+    public Task<Record> find(Object owner, final long id, Callback<Record> callback) {
+        return submit(PRIORITY_READ, owner, new Work<Record>() {
+            @Override
+            public Record run() {
+                return mRepository.find(id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Store a new record; the result is its ID, or {@link Record#NO_ID} if it wasn't stored.
+     */
+    public Task<Long> insert(Object owner, final Record record, Callback<Long> callback) {
+        return submit(PRIORITY_WRITE, owner, new Work<Long>() {
+            @Override
+            public Long run() {
+                return mRepository.insert(record);
+            }
+        }, callback);
+    }
+
+    /**
+     * Change some values of a record; the result is whether it existed.
+     */
+    public Task<Boolean> update(Object owner, final long id, final ContentValues changes,
+                                Callback<Boolean> callback) {
+        return submit(PRIORITY_WRITE, owner, new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                return mRepository.update(id, changes);
+            }
+        }, callback);
+    }
+
+    /**
+     * Change some values of a record if it is still at the given version; the result is whether
+     * it existed, and a conflict is reported as an {@link IllegalStateException}.
+     */
+    public Task<Boolean> update(Object owner, final long id, final ContentValues changes,
+                                final long expectedVersion, Callback<Boolean> callback) {
+        return submit(PRIORITY_WRITE, owner, new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                return mRepository.update(id, changes, expectedVersion);
+            }
+        }, callback);
+    }
+
+    /**
+     * Set the stock of a record; the result is whether it existed.
+     */
+    public Task<Boolean> setQuantity(Object owner, final long id, final int quantity,
+                                     Callback<Boolean> callback) {
+        return submit(PRIORITY_WRITE, owner, new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                return mRepository.setQuantity(id, quantity);
+            }
+        }, callback);
+    }
+
+    /**
+     * Sell copies of a record; the result is whether the sale went through.
+     */
+    public Task<Boolean> sell(Object owner, final long id, final int copies,
+                              Callback<Boolean> callback) {
+        return submit(PRIORITY_WRITE, owner, new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                return mRepository.sell(id, copies);
+            }
+        }, callback);
+    }
+
+    /**
+     * Delete a record; the result is whether it existed.
+     */
+    public Task<Boolean> delete(Object owner, final long id, Callback<Boolean> callback) {
+        return submit(PRIORITY_WRITE, owner, new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                return mRepository.delete(id);
+            }
+        }, callback);
+    }
+
+    /**
+     * Delete all records; the result is how many there were. The records are only marked as
+     * deleted, which is quick, so this runs in the write lane and the list empties at once.
+     */
+    public Task<Integer> deleteAll(Object owner, Callback<Integer> callback) {
+        return submit(PRIORITY_WRITE, owner, new Work<Integer>() {
+            @Override
+            public Integer run() {
+                return mRepository.deleteAll();
+            }
+        }, callback);
+    }
+
+    /**
+     * Delete all records so that the deletion can be undone; the result is the deletion. Like
+     * {@link #deleteAll}, this runs in the write lane.
+     */
+    public Task<Deletion> deleteAllUndoably(Object owner, Callback<Deletion> callback) {
+        return submit(PRIORITY_WRITE, owner, new Work<Deletion>() {
+            @Override
+            public Deletion run() {
+                return mRepository.deleteAllUndoably();
+            }
+        }, callback);
+    }
+
+    /**
+     * Restore the records of a deletion; the result is how many were restored.
+     */
+    public Task<Integer> undoDelete(Object owner, final Deletion deletion, Callback<Integer> callback) {
+        return submit(PRIORITY_WRITE, owner, new Work<Integer>() {
+            @Override
+            public Integer run() {
+                return mRepository.undoDelete(deletion);
+            }
+        }, callback);
+    }
+
+    /**
+     * Remove the records of a deletion for good, in the maintenance lane; the result is how many
+     * were removed. Each batch is a task of its own and the next one is queued when it is done,
+     * so writes submitted meanwhile run between batches. Cancelling the owner stops the purge
+     * after the current batch.
+     */
+    public void purgeDeleted(Object owner, Deletion deletion, Callback<Integer> callback) {
+        purgeNextBatch(owner, deletion, 0, callback);
+    }
+
+    private void purgeNextBatch(final Object owner, final Deletion deletion, final int purged,
+                                final Callback<Integer> callback) {
+        submit(PRIORITY_MAINTENANCE, owner, new Work<Integer>() {
+            @Override
+            public Integer run() {
+                return mRepository.purgeDeleted(deletion);
+            }
+        }, new Callback<Integer>() {
+            @Override
+            public void onResult(Integer batch) {
+                if (batch == DeletionEntry.PURGE_BATCH) {
+                    purgeNextBatch(owner, deletion, purged + batch, callback);
+                } else if (callback != null) {
+                    callback.onResult(purged + batch);
+                }
+            }
+
+            @Override
+            public void onError(RuntimeException e) {
+                if (callback != null) {
+                    callback.onError(e);
+                }
+            }
+        });
+    }
+
+    /**
+     * Recompute the sort keys of the records after a change of locale, in the maintenance lane.
+     * As with {@link #purgeDeleted}, each batch is a task of its own, queued when the previous
+     * one is done.
+     */
+    public void refreshSortKeys(final Object owner) {
+        submit(PRIORITY_MAINTENANCE, owner, new Work<Boolean>() {
+            @Override
+            public Boolean run() {
+                return mRepository.refreshSortKeys();
+            }
+        }, new Callback<Boolean>() {
+            @Override
+            public void onResult(Boolean complete) {
+                if (!complete) {
+                    refreshSortKeys(owner);
+                }
+            }
+
+            @Override
+            public void onError(RuntimeException e) {
+                Log.e(LOG_TAG, "Failed to refresh the sort keys", e);
+            }
+        });
+    }
+
+    private void startWorkersLocked() {
+        if (mStarted) {
+            return;
+        }
+        mStarted = true;
+        for (int i = 0; i < WORKERS; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+                    workLoop();
+                }
+            }, LOG_TAG + "-" + i);
+            worker.setDaemon(true);
+            worker.start();
+        }
+    }
+
+    /**
+     * Return the next task a worker may run, waiting for one if needed. Reads are always
+     * eligible; writes and maintenance only when no other write is running.
+     */
+    private Task<?> takeLocked() throws InterruptedException {
+        while (true) {
+            Task<?> read = mLanes.get(PRIORITY_READ).poll();
+            if (read != null) {
+                return read;
+            }
+            if (!mWriteRunning) {
+                for (int lane = PRIORITY_WRITE; lane <= PRIORITY_MAINTENANCE; lane++) {
+                    Task<?> task = mLanes.get(lane).poll();
+                    if (task != null) {
+                        mWriteRunning = true;
+                        return task;
+                    }
+                }
+            }
+            mLock.wait();
+        }
+    }
+
+    private void workLoop() {
+        while (true) {
+            Task<?> task;
+            try {
+                synchronized (mLock) {
+                    task = takeLocked();
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+            try {
+                run(task);
+            } finally {
+                if (task.mPriority != PRIORITY_READ) {
+                    synchronized (mLock) {
+                        mWriteRunning = false;
+                        mLock.notifyAll();
+                    }
+                }
+            }
+        }
+    }
+
+    private <T> void run(final Task<T> task) {
+        T result = null;
+        RuntimeException error = null;
+        try {
+            result = task.mWork.run();
+        } catch (RuntimeException e) {
+            Log.e(LOG_TAG, "Storage work failed", e);
+            error = e;
+        }
+        final T deliveredResult = result;
+        final RuntimeException deliveredError = error;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                Callback<T> callback;
+                synchronized (mLock) {
+                    mTasks.remove(task);
+                    callback = task.mCancelled ? null : task.mCallback;
+                }
+                if (callback == null) {
+                    return;
+                }
+                if (deliveredError != null) {
+                    callback.onError(deliveredError);
+                } else {
+                    callback.onResult(deliveredResult);
+                }
+            }
+        });
+    }
+}
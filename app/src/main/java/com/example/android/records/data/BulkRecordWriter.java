@@ -0,0 +1,229 @@
+package com.example.android.records.data;
+
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.text.TextUtils;
+
+import com.example.android.records.data.RecordContract.BulkReadEntry;
+import com.example.android.records.data.RecordContract.ChangeEntry;
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Writes the records of a database in the bulk read format of {@link BulkReadEntry}.
+ * <p>
+ * A full read walks the records table in pages of {@link #PAGE_SIZE} by ID, so each page is a
+ * seek on the primary key, however large the table. A read since a sequence number re-reads
+ * only the records named by the change log after it.
+ */
+final class BulkRecordWriter {
+
+    /** Records read per page of a full read */
+    private static final int PAGE_SIZE = 2000;
+
+    /** Records re-read per query; stays below SQLite's limit of 999 bind arguments */
+    private static final int READ_BATCH = 500;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Selection of the records that aren't marked as deleted */
+    private static final String LIVE = RecordEntry.COLUMN_DELETED_AT + " IS NULL";
+
+    /** Columns that can be read, _id first */
+    private static final List<String> COLUMNS = Arrays.asList(
+            RecordEntry._ID,
+            RecordEntry.COLUMN_ALBUM_NAME,
+            RecordEntry.COLUMN_BAND_NAME,
+            RecordEntry.COLUMN_QUANTITY,
+            RecordEntry.COLUMN_PRICE,
+            RecordEntry.COLUMN_RECORD_COVER,
+            RecordEntry.COLUMN_SUPPLIER_NAME,
+            RecordEntry.COLUMN_SUPPLIER_EMAIL,
+            RecordEntry.COLUMN_REORDER_THRESHOLD,
+            RecordEntry.COLUMN_SKU);
+
+    private final SQLiteDatabase mDatabase;
+    private final String[] mColumns;
+    private final long mSince;
+
+    /**
+     * @param columns comma-separated columns to read, or null for all of them
+     * @param since   sequence number to read the changes after, or null for all records
+     * @throws IllegalArgumentException if a column or the sequence number isn't valid
+     */
+    BulkRecordWriter(SQLiteDatabase database, String columns, String since) {
+        mDatabase = database;
+        mColumns = parseColumns(columns);
+        if (since != null && !since.matches("\\d+")) {
+            throw new IllegalArgumentException("Invalid sequence number " + since);
+        }
+        mSince = since != null ? Long.parseLong(since) : -1;
+    }
+
+    private static String[] parseColumns(String columns) {
+        if (columns == null) {
+            return COLUMNS.toArray(new String[COLUMNS.size()]);
+        }
+        Set<String> selected = new LinkedHashSet<>();
+        selected.add(RecordEntry._ID);
+        for (String column : TextUtils.split(columns, ",")) {
+            if (!COLUMNS.contains(column)) {
+                throw new IllegalArgumentException("Unknown column " + column);
+            }
+            selected.add(column);
+        }
+        return selected.toArray(new String[selected.size()]);
+    }
+
+    /**
+     * Write the stream and return the number of records written.
+     */
+    int write(OutputStream sink) throws IOException {
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(sink, BUFFER_SIZE));
+        // Taken before reading, so the changes made during the read are replayed by the next one
+        long sequence = DatabaseUtils.longForQuery(mDatabase,
+                "SELECT IFNULL(MAX(" + ChangeEntry._ID + "), 0) FROM " + ChangeEntry.TABLE_NAME, null);
+        boolean full = mSince < 0 || !canCatchUp(sequence);
+
+        out.writeInt(BulkReadEntry.MAGIC);
+        out.writeByte(full ? BulkReadEntry.FLAG_FULL : 0);
+        out.writeLong(sequence);
+        out.writeShort(mColumns.length);
+        for (String column : mColumns) {
+            out.writeUTF(column);
+        }
+        int rows = full ? writeAll(out) : writeChanges(out);
+        out.writeByte(BulkReadEntry.FRAME_END);
+        out.flush();
+        return rows;
+    }
+
+    /**
+     * Return true if the change log still holds every change after the reader's sequence
+     * number.
+     */
+    private boolean canCatchUp(long sequence) {
+        if (mSince > sequence) {
+            // Not a sequence number of this database
+            return false;
+        }
+        long first = DatabaseUtils.longForQuery(mDatabase, "SELECT IFNULL(MIN(" + ChangeEntry._ID + "), 0) FROM "
+                + ChangeEntry.TABLE_NAME + " WHERE " + ChangeEntry._ID + ">?",
+                new String[] { String.valueOf(mSince) });
+        return first == 0 || first == mSince + 1;
+    }
+
+    private int writeAll(DataOutputStream out) throws IOException {
+        int rows = 0;
+        long last = Long.MIN_VALUE;
+        while (true) {
+            Cursor cursor = mDatabase.query(RecordEntry.TABLE_NAME, mColumns, RecordEntry._ID + ">? AND " + LIVE,
+                    new String[] { String.valueOf(last) }, null, null, RecordEntry._ID,
+                    String.valueOf(PAGE_SIZE));
+            try {
+                if (cursor.getCount() == 0) {
+                    return rows;
+                }
+                while (cursor.moveToNext()) {
+                    writeRow(out, cursor);
+                    last = cursor.getLong(0);
+                    rows++;
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+    }
+
+    private int writeChanges(DataOutputStream out) throws IOException {
+        Set<Long> changed = new LinkedHashSet<>();
+        Cursor log = mDatabase.query(ChangeEntry.TABLE_NAME, new String[] { ChangeEntry.COLUMN_RECORD_ID },
+                ChangeEntry._ID + ">?", new String[] { String.valueOf(mSince) }, null, null, ChangeEntry._ID);
+        try {
+            while (log.moveToNext()) {
+                changed.add(log.getLong(0));
+            }
+        } finally {
+            log.close();
+        }
+
+        int rows = 0;
+        List<Long> ids = new ArrayList<>(changed);
+        for (int from = 0; from < ids.size(); from += READ_BATCH) {
+            List<Long> batch = ids.subList(from, Math.min(from + READ_BATCH, ids.size()));
+            Set<Long> missing = new HashSet<>(batch);
+            String[] args = new String[batch.size()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = String.valueOf(batch.get(i));
+            }
+            String[] placeholders = new String[args.length];
+            Arrays.fill(placeholders, "?");
+            Cursor cursor = mDatabase.query(RecordEntry.TABLE_NAME, mColumns,
+                    RecordEntry._ID + " IN (" + TextUtils.join(",", placeholders) + ") AND " + LIVE, args,
+                    null, null, RecordEntry._ID);
+            try {
+                while (cursor.moveToNext()) {
+                    writeRow(out, cursor);
+                    missing.remove(cursor.getLong(0));
+                    rows++;
+                }
+            } finally {
+                cursor.close();
+            }
+            // Whatever wasn't found, or is marked as deleted, has been deleted
+            for (Long id : missing) {
+                out.writeByte(BulkReadEntry.FRAME_DELETED);
+                writeVarint(out, id);
+            }
+        }
+        return rows;
+    }
+
+    private static void writeRow(DataOutputStream out, Cursor cursor) throws IOException {
+        out.writeByte(BulkReadEntry.FRAME_ROW);
+        for (int i = 0; i < cursor.getColumnCount(); i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_NULL:
+                    out.writeByte(BulkReadEntry.VALUE_NULL);
+                    break;
+                case Cursor.FIELD_TYPE_INTEGER:
+                    long value = cursor.getLong(i);
+                    out.writeByte(BulkReadEntry.VALUE_INTEGER);
+                    writeVarint(out, (value << 1) ^ (value >> 63));
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    out.writeByte(BulkReadEntry.VALUE_REAL);
+                    out.writeDouble(cursor.getDouble(i));
+                    break;
+                default:
+                    byte[] text = cursor.getString(i).getBytes(UTF_8);
+                    out.writeByte(BulkReadEntry.VALUE_TEXT);
+                    writeVarint(out, text.length);
+                    out.write(text);
+                    break;
+            }
+        }
+    }
+
+    private static void writeVarint(DataOutputStream out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+}
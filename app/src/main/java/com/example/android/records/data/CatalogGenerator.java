@@ -0,0 +1,275 @@
+package com.example.android.records.data;
+
+import android.content.ContentResolver;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.records.R;
+import com.example.android.records.data.RecordContract.RecordEntry;
+import com.example.android.records.data.RecordContract.SaleEntry;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Seeded generator of realistic looking catalogs, for load testing.
+ * <p>
+ * Bands and suppliers are drawn from Zipf distributions, so a few of them own most of the
+ * catalog the way they do in a real shop. Album names vary from one word to long titles with
+ * accented characters, and covers are shared between records. The same seed always produces
+ * the same catalog.
+ * <p>
+ * {@link #generate} streams the catalog into the provider in batches, so memory use doesn't
+ * depend on the number of records.
+ */
+public class CatalogGenerator {
+
+    /** Records written per bulk insert */
+    public static final int BATCH_SIZE = 500;
+
+    /** Zipf exponent; around 1 is typical for popularity in music catalogs */
+    private static final double SKEW = 1.1;
+
+    private static final int BAND_COUNT = 2000;
+    private static final int SUPPLIER_COUNT = 60;
+
+    /** At most this many sales are generated per record */
+    private static final int MAX_SALES_PER_RECORD = 8;
+
+    private static final long HISTORY_MILLIS = 365L * 24 * 60 * 60 * 1000;
+
+    private static final String[] ADJECTIVES = {
+            "Black", "Silver", "Electric", "Velvet", "Broken", "Quiet", "Golden", "Neon", "Wild",
+            "Frozen", "Crimson", "Hollow", "Lunar", "Paper", "Stone", "Café", "Mötley", "Blue",
+            "Secret", "Northern", "Atomic", "Empty", "Little", "Burning"};
+
+    private static final String[] NOUNS = {
+            "Keys", "Rivers", "Machines", "Hearts", "Shadows", "Horses", "Lights", "Kings",
+            "Tigers", "Echoes", "Sirens", "Ghosts", "Birds", "Wolves", "Mirrors", "Engines",
+            "Doors", "Saints", "Satellites", "Forests", "Björk", "Élan", "Parade", "Station"};
+
+    private static final String[] TITLE_WORDS = {
+            "Final", "Countdown", "Love", "Night", "Dream", "Road", "Summer", "Winter", "Fire",
+            "Rain", "City", "Ocean", "Song", "Heaven", "Street", "Dancing", "Midnight", "Return",
+            "Garden", "Señorita", "Über", "Radio", "Alive", "Tomorrow", "Forever", "Side", "Live",
+            "Sessions", "Volume", "Chapter", "Remastered", "Deluxe", "Edition", "Anniversary"};
+
+    /** Covers shared between the generated records */
+    private static final int[] COVERS = {
+            R.drawable.the_final_countdown_single, R.drawable.turntable, R.drawable.empty_turntable};
+
+    private final Random mRandom;
+    private final Zipf mBands = new Zipf(BAND_COUNT, SKEW);
+    private final Zipf mSuppliers = new Zipf(SUPPLIER_COUNT, SKEW);
+    private final long mNow = System.currentTimeMillis();
+    private int mSequence;
+
+    public CatalogGenerator(long seed) {
+        mRandom = new Random(seed);
+    }
+
+    /**
+     * Return the values of the next record. They pass the provider's validation.
+     */
+    public ContentValues nextRecord() {
+        int band = mBands.sample(mRandom);
+        int supplier = mSuppliers.sample(mRandom);
+        ContentValues values = new ContentValues();
+        values.put(RecordEntry.COLUMN_ALBUM_NAME, albumName());
+        values.put(RecordEntry.COLUMN_BAND_NAME, bandName(band));
+        values.put(RecordEntry.COLUMN_QUANTITY, stock());
+        values.put(RecordEntry.COLUMN_PRICE, 3 + mRandom.nextInt(58));
+        values.put(RecordEntry.COLUMN_RECORD_COVER, "android.resource://com.example.android.records/"
+                + COVERS[mRandom.nextInt(COVERS.length)]);
+        values.put(RecordEntry.COLUMN_SUPPLIER_NAME, supplierName(supplier));
+        values.put(RecordEntry.COLUMN_SUPPLIER_EMAIL, "orders@supplier" + supplier + ".example.com");
+        if (mRandom.nextInt(10) == 0) {
+            values.put(RecordEntry.COLUMN_REORDER_THRESHOLD, 1 + mRandom.nextInt(10));
+        }
+        mSequence++;
+        return values;
+    }
+
+    /**
+     * Add a sales history for a record to {@code sales}, and raise the record's quantity by the
+     * copies sold so that replaying the sales leaves it at the stock it was generated with.
+     * The sales have no {@link SaleEntry#COLUMN_RECORD_ID} yet; the caller sets it once the
+     * record has been inserted.
+     *
+     * @param record values returned by {@link #nextRecord()}
+     */
+    public void nextSales(ContentValues record, List<ContentValues> sales) {
+        int count = mRandom.nextInt(MAX_SALES_PER_RECORD + 1);
+        // Oldest first, like the ledger would have recorded them
+        long soldAt = mNow - (long) (mRandom.nextDouble() * HISTORY_MILLIS);
+        int sold = 0;
+        for (int i = 0; i < count; i++) {
+            int quantity = mRandom.nextInt(10) == 0 ? 2 + mRandom.nextInt(4) : 1;
+            ContentValues sale = new ContentValues();
+            sale.put(SaleEntry.COLUMN_QUANTITY, quantity);
+            sale.put(SaleEntry.COLUMN_SOLD_AT, soldAt);
+            sales.add(sale);
+            sold += quantity;
+            soldAt += (long) (mRandom.nextDouble() * (mNow - soldAt));
+        }
+        record.put(RecordEntry.COLUMN_QUANTITY, record.getAsInteger(RecordEntry.COLUMN_QUANTITY) + sold);
+    }
+
+    /**
+     * Write {@code count} records, and optionally their sales histories, through the resolver
+     * in batches of {@link #BATCH_SIZE}. Nothing else should write records while this runs,
+     * since the IDs of a batch are read back as the newest rows.
+     *
+     * @param progress told after every batch; may be null
+     * @return the number of records written
+     */
+    public int generate(ContentResolver resolver, int count, boolean withSales, Progress progress) {
+        int written = 0;
+        List<ContentValues> sales = new ArrayList<>();
+        while (written < count) {
+            ContentValues[] batch = new ContentValues[Math.min(BATCH_SIZE, count - written)];
+            // Index just past the last sale of each record of the batch
+            int[] salesEnd = new int[batch.length];
+            sales.clear();
+            for (int i = 0; i < batch.length; i++) {
+                batch[i] = nextRecord();
+                if (withSales) {
+                    nextSales(batch[i], sales);
+                    salesEnd[i] = sales.size();
+                }
+            }
+            int inserted;
+            if (!withSales) {
+                inserted = resolver.bulkInsert(RecordEntry.CONTENT_URI, batch);
+            } else {
+                long[] ids = insertAndReadIds(resolver, batch);
+                int sale = 0;
+                for (int i = 0; i < ids.length; i++) {
+                    for (; sale < salesEnd[i]; sale++) {
+                        sales.get(sale).put(SaleEntry.COLUMN_RECORD_ID, ids[i]);
+                    }
+                }
+                resolver.bulkInsert(SaleEntry.CONTENT_URI, sales.subList(0, sale).toArray(new ContentValues[sale]));
+                inserted = ids.length;
+            }
+            if (inserted == 0) {
+                // The provider rejected the batch; don't spin on it
+                break;
+            }
+            written += inserted;
+            if (progress != null) {
+                progress.onBatchWritten(written, count);
+            }
+        }
+        return written;
+    }
+
+    /**
+     * Insert a batch of records and return their IDs, in batch order.
+     */
+    private static long[] insertAndReadIds(ContentResolver resolver, ContentValues[] batch) {
+        int inserted = resolver.bulkInsert(RecordEntry.CONTENT_URI, batch);
+        long[] ids = new long[inserted];
+        Cursor cursor = resolver.query(RecordEntry.CONTENT_URI, new String[] { RecordEntry._ID },
+                null, null, RecordEntry._ID + " DESC LIMIT " + inserted);
+        if (cursor == null) {
+            return new long[0];
+        }
+        try {
+            for (int i = inserted - 1; i >= 0 && cursor.moveToNext(); i--) {
+                ids[i] = cursor.getLong(0);
+            }
+        } finally {
+            cursor.close();
+        }
+        return ids;
+    }
+
+    /**
+     * Stock levels: mostly a handful of copies, with some sold out and a long tail of deep stock.
+     */
+    private int stock() {
+        int roll = mRandom.nextInt(20);
+        if (roll == 0) {
+            return 0;
+        }
+        if (roll < 15) {
+            return 1 + mRandom.nextInt(10);
+        }
+        return 10 + mRandom.nextInt(200);
+    }
+
+    private String albumName() {
+        // Mostly short titles, now and then a long one
+        int words = mRandom.nextInt(8) == 0 ? 6 + mRandom.nextInt(6) : 1 + mRandom.nextInt(4);
+        StringBuilder name = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                name.append(' ');
+            }
+            name.append(TITLE_WORDS[mRandom.nextInt(TITLE_WORDS.length)]);
+        }
+        if (mRandom.nextInt(4) == 0) {
+            // Keep titles distinct in big catalogs
+            name.append(' ').append(mSequence);
+        }
+        return name.toString();
+    }
+
+    private static String bandName(int band) {
+        String name = ADJECTIVES[band % ADJECTIVES.length] + " "
+                + NOUNS[(band / ADJECTIVES.length) % NOUNS.length];
+        int round = band / (ADJECTIVES.length * NOUNS.length);
+        if (band % 3 == 0) {
+            name = "The " + name;
+        }
+        return round == 0 ? name : name + " " + (round + 1);
+    }
+
+    private static String supplierName(int supplier) {
+        return NOUNS[supplier % NOUNS.length] + " Records" + (supplier < NOUNS.length ? "" : " " + supplier);
+    }
+
+    /**
+     * Progress of {@link #generate}.
+     */
+    public interface Progress {
+        void onBatchWritten(int written, int total);
+    }
+
+    /**
+     * Samples ranks 0..n-1 with probability proportional to 1 / (rank + 1)^s.
+     */
+    private static class Zipf {
+        private final double[] mCumulative;
+
+        Zipf(int n, double s) {
+            mCumulative = new double[n];
+            double sum = 0;
+            for (int rank = 0; rank < n; rank++) {
+                sum += 1 / Math.pow(rank + 1, s);
+                mCumulative[rank] = sum;
+            }
+            for (int rank = 0; rank < n; rank++) {
+                mCumulative[rank] /= sum;
+            }
+        }
+
+        int sample(Random random) {
+            double u = random.nextDouble();
+            int low = 0;
+            int high = mCumulative.length - 1;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (mCumulative[mid] < u) {
+                    low = mid + 1;
+                } else {
+                    high = mid;
+                }
+            }
+            return low;
+        }
+    }
+}
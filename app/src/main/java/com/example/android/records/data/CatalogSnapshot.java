@@ -0,0 +1,290 @@
+package com.example.android.records.data;
+
+import android.content.Context;
+import android.database.AbstractCursor;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.util.Log;
+
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+
+/**
+ * Binary snapshot of the first screens of the catalog, so a cold start can show records
+ * before the database is even opened.
+ * <p>
+ * After every burst of changes, the rows the catalog list shows first are written to a small
+ * file. On launch the file is memory-mapped and served through a cursor that decodes rows
+ * straight from the mapping, until the live cursor arrives. Reading it costs the same no
+ * matter how large the catalog is.
+ * <p>
+ * File layout, big-endian: magic, version, row count, then one int offset per row, then the
+ * rows. A row is its ID (long), quantity and price (ints), then album and band name as a
+ * short byte length followed by UTF-8 bytes.
+ */
+public final class CatalogSnapshot {
+
+    private static final String LOG_TAG = CatalogSnapshot.class.getSimpleName();
+
+    private static final String FILE_NAME = "catalog_snapshot.bin";
+
+    private static final int MAGIC = 0x52534e50; // "RSNP"
+    private static final int VERSION = 1;
+
+    /** Rows kept; a few screens' worth on a large phone */
+    private static final int ROWS = 60;
+
+    /** Wait for writes to settle before rewriting the snapshot */
+    private static final long WRITE_DELAY_MILLIS = 2000;
+
+    /** Longest name stored, in bytes; the list truncates long names anyway */
+    private static final int MAX_NAME_BYTES = 1024;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Columns of the snapshot cursor, the ones the catalog list shows */
+    public static final String[] COLUMNS = {
+            RecordEntry._ID,
+            RecordEntry.COLUMN_ALBUM_NAME,
+            RecordEntry.COLUMN_BAND_NAME,
+            RecordEntry.COLUMN_QUANTITY,
+            RecordEntry.COLUMN_PRICE};
+
+    private CatalogSnapshot() {
+    }
+
+    /**
+     * Keep the snapshot current: write it now, and again after every burst of changes.
+     * Writing happens on its own thread.
+     */
+    public static void register(Context context) {
+        final Context appContext = context.getApplicationContext();
+        HandlerThread thread = new HandlerThread(LOG_TAG);
+        thread.start();
+        final Handler handler = new Handler(thread.getLooper());
+        final Runnable write = new Runnable() {
+            @Override
+            public void run() {
+                write(appContext);
+            }
+        };
+        appContext.getContentResolver().registerContentObserver(RecordEntry.CONTENT_URI, true,
+                new ContentObserver(handler) {
+                    @Override
+                    public void onChange(boolean selfChange) {
+                        handler.removeCallbacks(write);
+                        handler.postDelayed(write, WRITE_DELAY_MILLIS);
+                    }
+                });
+        handler.post(write);
+    }
+
+    /**
+     * Write the first rows of the catalog, in the order the catalog list shows them. The file
+     * is replaced atomically, so a reader never sees half of it.
+     */
+    static void write(Context context) {
+        Cursor cursor = context.getContentResolver().query(RecordEntry.CONTENT_URI, COLUMNS,
+                null, null, RecordEntry._ID + " LIMIT " + ROWS);
+        if (cursor == null) {
+            return;
+        }
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        File temp = new File(context.getFilesDir(), FILE_NAME + ".tmp");
+        try {
+            int count = cursor.getCount();
+            byte[][] rows = new byte[count][];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                rows[i] = encodeRow(cursor);
+            }
+            DataOutputStream out = new DataOutputStream(new FileOutputStream(temp));
+            try {
+                out.writeInt(MAGIC);
+                out.writeInt(VERSION);
+                out.writeInt(count);
+                int offset = 12 + 4 * count;
+                for (byte[] row : rows) {
+                    out.writeInt(offset);
+                    offset += row.length;
+                }
+                for (byte[] row : rows) {
+                    out.write(row);
+                }
+            } finally {
+                out.close();
+            }
+            if (!temp.renameTo(file)) {
+                Log.e(LOG_TAG, "Failed to replace " + file);
+            }
+        } catch (IOException e) {
+            Log.e(LOG_TAG, "Failed to write the catalog snapshot", e);
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static byte[] encodeRow(Cursor cursor) {
+        byte[] album = encodeName(cursor.getString(1));
+        byte[] band = encodeName(cursor.getString(2));
+        ByteBuffer row = ByteBuffer.allocate(8 + 4 + 4 + 2 + album.length + 2 + band.length);
+        row.putLong(cursor.getLong(0));
+        row.putInt(cursor.getInt(3));
+        row.putInt(cursor.getInt(4));
+        row.putShort((short) album.length).put(album);
+        row.putShort((short) band.length).put(band);
+        return row.array();
+    }
+
+    private static byte[] encodeName(String name) {
+        byte[] bytes = name != null ? name.getBytes(UTF_8) : new byte[0];
+        if (bytes.length <= MAX_NAME_BYTES) {
+            return bytes;
+        }
+        // Cut on a character boundary
+        int length = MAX_NAME_BYTES;
+        while (length > 0 && (bytes[length] & 0xc0) == 0x80) {
+            length--;
+        }
+        byte[] cut = new byte[length];
+        System.arraycopy(bytes, 0, cut, 0, length);
+        return cut;
+    }
+
+    /**
+     * Map the snapshot and return a cursor over it, or null if there is no usable snapshot.
+     * Cheap enough for the main thread: the file is small and only mapped, not read.
+     */
+    public static Cursor read(Context context) {
+        File file = new File(context.getFilesDir(), FILE_NAME);
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            RandomAccessFile raf = new RandomAccessFile(file, "r");
+            ByteBuffer buffer;
+            try {
+                FileChannel channel = raf.getChannel();
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            } finally {
+                // The mapping stays valid after the file is closed
+                raf.close();
+            }
+            buffer.order(ByteOrder.BIG_ENDIAN);
+            if (buffer.remaining() < 12 || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+                return null;
+            }
+            int count = buffer.getInt(8);
+            if (count < 0 || 12 + 4L * count > buffer.limit()) {
+                return null;
+            }
+            return new SnapshotCursor(buffer, count);
+        } catch (IOException e) {
+            Log.w(LOG_TAG, "Failed to map the catalog snapshot", e);
+            return null;
+        }
+    }
+
+    /**
+     * Cursor that decodes rows from the mapped snapshot as they are read.
+     */
+    private static class SnapshotCursor extends AbstractCursor {
+
+        private final ByteBuffer mBuffer;
+        private final int mCount;
+
+        SnapshotCursor(ByteBuffer buffer, int count) {
+            mBuffer = buffer;
+            mCount = count;
+        }
+
+        @Override
+        public int getCount() {
+            return mCount;
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return COLUMNS;
+        }
+
+        private int rowOffset() {
+            return mBuffer.getInt(12 + 4 * getPosition());
+        }
+
+        /** Return the offset of the length of the given name column in the current row */
+        private int nameOffset(int column) {
+            int offset = rowOffset() + 16;
+            if (column == 2) {
+                offset += 2 + mBuffer.getShort(offset);
+            }
+            return offset;
+        }
+
+        @Override
+        public String getString(int column) {
+            switch (column) {
+                case 1:
+                case 2:
+                    int offset = nameOffset(column);
+                    byte[] bytes = new byte[mBuffer.getShort(offset)];
+                    for (int i = 0; i < bytes.length; i++) {
+                        bytes[i] = mBuffer.get(offset + 2 + i);
+                    }
+                    return new String(bytes, UTF_8);
+                default:
+                    return String.valueOf(getLong(column));
+            }
+        }
+
+        @Override
+        public long getLong(int column) {
+            int offset = rowOffset();
+            switch (column) {
+                case 0:
+                    return mBuffer.getLong(offset);
+                case 3:
+                    return mBuffer.getInt(offset + 8);
+                case 4:
+                    return mBuffer.getInt(offset + 12);
+                default:
+                    return Long.parseLong(getString(column));
+            }
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            return getLong(column);
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return false;
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package com.example.android.records.data;
+
+import android.content.ContentResolver;
+import android.content.Context;
+import android.database.ContentObserver;
+import android.database.Cursor;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.records.core.ColumnarCatalog;
+import com.example.android.records.data.RecordContract.ChangeEntry;
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps a {@link ColumnarCatalog} in step with {@link RecordProvider}.
+ * <p>
+ * The catalog is read in full when a reader first asks for it, by {@link #getCatalog()} or
+ * {@link #addListener}, so processes that never show it don't pay for it. After that, every
+ * change to the records replays the change log entries since the last sync and re-reads only
+ * the records they name. Syncing runs on its own thread; listeners are called on the main
+ * thread once the copy is current.
+ */
+public class ColumnarCatalogSync {
+
+    private static final String LOG_TAG = ColumnarCatalogSync.class.getSimpleName();
+
+    /** Records re-read per query; stays below SQLite's limit of 999 bind arguments */
+    private static final int READ_BATCH = 500;
+
+    /** Above this many changed records, reading the whole catalog again is cheaper */
+    private static final int MAX_INCREMENTAL_RECORDS = 20000;
+
+    private static final String[] PROJECTION = {
+            RecordEntry._ID,
+            RecordEntry.COLUMN_BAND_NAME,
+            RecordEntry.COLUMN_SUPPLIER_NAME,
+            RecordEntry.COLUMN_QUANTITY,
+            RecordEntry.COLUMN_PRICE};
+
+    private static ColumnarCatalogSync sInstance;
+
+    /**
+     * Called on the main thread after the catalog has caught up with a change.
+     */
+    public interface Listener {
+        void onCatalogChanged(ColumnarCatalog catalog);
+    }
+
+    private final ContentResolver mResolver;
+    /** Handler of the sync thread, started on first use */
+    private Handler mHandler;
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> mListeners = new CopyOnWriteArrayList<>();
+
+    /** The current copy; replaced as a whole when the catalog is read again */
+    private volatile ColumnarCatalog mCatalog;
+
+    private final Runnable mSync = new Runnable() {
+        @Override
+        public void run() {
+            sync();
+        }
+    };
+
+    /**
+     * Return the sync of the app. It doesn't read anything until the catalog is first asked for.
+     */
+    public static synchronized ColumnarCatalogSync get(Context context) {
+        if (sInstance == null) {
+            sInstance = new ColumnarCatalogSync(context.getApplicationContext());
+        }
+        return sInstance;
+    }
+
+    private ColumnarCatalogSync(Context context) {
+        mResolver = context.getContentResolver();
+    }
+
+    /**
+     * Read the catalog and start following its changes, unless that has already started.
+     */
+    private synchronized void start() {
+        if (mHandler != null) {
+            return;
+        }
+        HandlerThread thread = new HandlerThread(LOG_TAG);
+        thread.start();
+        final Handler handler = new Handler(thread.getLooper());
+        ContentObserver observer = new ContentObserver(handler) {
+            @Override
+            public void onChange(boolean selfChange) {
+                // A burst of writes is caught up with in one pass
+                handler.removeCallbacks(mSync);
+                handler.post(mSync);
+            }
+        };
+        mHandler = handler;
+        mResolver.registerContentObserver(RecordEntry.CONTENT_URI, true, observer);
+        handler.post(mSync);
+    }
+
+    /**
+     * Return the catalog, or null until it has been read for the first time. The first call
+     * starts reading it.
+     */
+    public ColumnarCatalog getCatalog() {
+        start();
+        return mCatalog;
+    }
+
+    /**
+     * Add a listener, starting to read the catalog if nobody has asked for it yet. If the
+     * catalog is already available, the listener is also called soon.
+     */
+    public void addListener(final Listener listener) {
+        mListeners.add(listener);
+        start();
+        final ColumnarCatalog catalog = mCatalog;
+        if (catalog != null) {
+            mMainHandler.post(new Runnable() {
+                @Override
+                public void run() {
+                    if (mListeners.contains(listener)) {
+                        listener.onCatalogChanged(catalog);
+                    }
+                }
+            });
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        mListeners.remove(listener);
+    }
+
+    private void sync() {
+        ColumnarCatalog catalog = mCatalog;
+        if (catalog == null || !catchUp(catalog)) {
+            catalog = readAll();
+            if (catalog == null) {
+                return;
+            }
+            mCatalog = catalog;
+        }
+        final ColumnarCatalog current = catalog;
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                for (Listener listener : mListeners) {
+                    listener.onCatalogChanged(current);
+                }
+            }
+        });
+    }
+
+    /**
+     * Read the whole catalog into a new copy. Changes made during the read are replayed by the
+     * next sync, since the copy starts from the change log position taken before the read.
+     */
+    private ColumnarCatalog readAll() {
+        long start = System.currentTimeMillis();
+        long sequence = latestChange();
+        Cursor cursor = mResolver.query(RecordEntry.CONTENT_URI, PROJECTION, null, null, RecordEntry._ID);
+        if (cursor == null) {
+            return null;
+        }
+        ColumnarCatalog catalog = new ColumnarCatalog();
+        try {
+            while (cursor.moveToNext()) {
+                upsert(catalog, cursor);
+            }
+        } finally {
+            cursor.close();
+        }
+        catalog.setSequence(sequence);
+        Log.i(LOG_TAG, catalog.size() + " records read in " + (System.currentTimeMillis() - start) + "ms");
+        return catalog;
+    }
+
+    /**
+     * Apply the changes since the catalog's sequence number. Return false if the catalog has to
+     * be read again instead, because the log no longer reaches back far enough or too much
+     * changed.
+     */
+    private boolean catchUp(ColumnarCatalog catalog) {
+        long since = catalog.getSequence();
+        Cursor cursor = mResolver.query(ChangeEntry.buildSinceUri(since),
+                new String[] { ChangeEntry._ID, ChangeEntry.COLUMN_RECORD_ID }, null, null, null);
+        if (cursor == null) {
+            return false;
+        }
+        Set<Long> changed = new LinkedHashSet<>();
+        long last = since;
+        try {
+            if (cursor.moveToFirst() && cursor.getLong(0) != since + 1) {
+                // Entries after our position were pruned
+                return false;
+            }
+            for (; !cursor.isAfterLast(); cursor.moveToNext()) {
+                last = cursor.getLong(0);
+                changed.add(cursor.getLong(1));
+            }
+        } finally {
+            cursor.close();
+        }
+        if (changed.size() > MAX_INCREMENTAL_RECORDS) {
+            return false;
+        }
+
+        List<Long> ids = new ArrayList<>(changed);
+        for (int from = 0; from < ids.size(); from += READ_BATCH) {
+            List<Long> batch = ids.subList(from, Math.min(from + READ_BATCH, ids.size()));
+            Set<Long> missing = new HashSet<>(batch);
+            String[] args = new String[batch.size()];
+            for (int i = 0; i < args.length; i++) {
+                args[i] = String.valueOf(batch.get(i));
+            }
+            String[] placeholders = new String[args.length];
+            Arrays.fill(placeholders, "?");
+            Cursor records = mResolver.query(RecordEntry.CONTENT_URI, PROJECTION,
+                    RecordEntry._ID + " IN (" + TextUtils.join(",", placeholders) + ")", args, null);
+            if (records == null) {
+                return false;
+            }
+            try {
+                while (records.moveToNext()) {
+                    upsert(catalog, records);
+                    missing.remove(records.getLong(0));
+                }
+            } finally {
+                records.close();
+            }
+            // Whatever wasn't found has been deleted
+            for (Long id : missing) {
+                catalog.remove(id);
+            }
+        }
+        catalog.setSequence(last);
+        return true;
+    }
+
+    private static void upsert(ColumnarCatalog catalog, Cursor cursor) {
+        catalog.upsert(cursor.getLong(0), cursor.getString(1), cursor.getString(2),
+                cursor.getInt(3), cursor.getInt(4));
+    }
+
+    private long latestChange() {
+        Cursor cursor = mResolver.query(ChangeEntry.LATEST_URI, null, null, null, null);
+        if (cursor == null) {
+            return 0;
+        }
+        try {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        } finally {
+            cursor.close();
+        }
+    }
+}
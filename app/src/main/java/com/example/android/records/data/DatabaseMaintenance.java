@@ -0,0 +1,265 @@
+package com.example.android.records.data;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.sqlite.SQLiteDatabase;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.android.records.data.RecordContract.ChangeEntry;
+import com.example.android.records.data.RecordContract.DeletionEntry;
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+/**
+ * Keeps the store databases fast after months of sales, imports and clear-outs.
+ * <p>
+ * A maintenance cycle runs the same steps on every store: purge the deleted records whose undo
+ * window has passed, prune the change log, refresh the query planner's statistics, check the
+ * indexes, hand free pages back to the file system and checkpoint the write-ahead log. Each
+ * run stops at its deadline, or as soon as it is asked to with {@link #stop()}, between steps or
+ * between the batches of a long step, and the next run resumes where it stopped; the progress
+ * is kept in preferences so it survives the process.
+ */
+final class DatabaseMaintenance {
+
+    private static final String LOG_TAG = DatabaseMaintenance.class.getSimpleName();
+
+    private static final String PREFERENCES = "database_maintenance";
+
+    /** Steps of a cycle, in order */
+    private static final int STEP_PURGE_DELETED = 0;
+    private static final int STEP_PRUNE_CHANGES = 1;
+    private static final int STEP_ANALYZE = 2;
+    private static final int STEP_CHECK_INDEXES = 3;
+    private static final int STEP_VACUUM = 4;
+    private static final int STEP_CHECKPOINT = 5;
+    private static final int STEP_COUNT = 6;
+
+    /** Change log entries deleted per statement */
+    private static final int PRUNE_BATCH = 1000;
+
+    /** Free pages released per incremental vacuum */
+    private static final int VACUUM_PAGES = 256;
+
+    /**
+     * Largest database vacuumed in full to switch it to incremental vacuuming. A full vacuum
+     * rewrites the file in one statement that no deadline can stop, so this keeps it to a few
+     * seconds on slow storage.
+     */
+    private static final long FULL_VACUUM_MAX_BYTES = 16 * 1024 * 1024;
+
+    /** Value of PRAGMA auto_vacuum for incremental vacuuming */
+    private static final int AUTO_VACUUM_INCREMENTAL = 2;
+
+    private final SharedPreferences mProgress;
+
+    /** Whether the current run has been asked to stop before its deadline */
+    private volatile boolean mStopped;
+
+    DatabaseMaintenance(Context context) {
+        mProgress = context.getSharedPreferences(PREFERENCES, Context.MODE_PRIVATE);
+    }
+
+    /**
+     * Stop the current run at the end of the statement it is running, as if its deadline had
+     * passed, for when the device stops being idle or charging. A run that hasn't reached the
+     * first store yet stops there. Can be called from any thread.
+     */
+    void stop() {
+        mStopped = true;
+    }
+
+    /**
+     * Let the next run go on until its deadline. Called when a run is over, after the last
+     * store it got to.
+     */
+    void finishRun() {
+        mStopped = false;
+    }
+
+    /**
+     * Return true if the run has to stop: its deadline passed or it was asked to stop.
+     */
+    private boolean isOver(long deadline) {
+        return mStopped || SystemClock.elapsedRealtime() >= deadline;
+    }
+
+    /**
+     * Run the remaining steps of the current cycle on a store's database until they are done or
+     * the run is over. Return true if the store is done for this cycle.
+     *
+     * @param deadline in {@link SystemClock#elapsedRealtime()} time
+     */
+    boolean run(String store, SQLiteDatabase database, long deadline) {
+        int step = mProgress.getInt(store, STEP_PURGE_DELETED);
+        while (step < STEP_COUNT) {
+            if (isOver(deadline) || !runStep(step, database, deadline)) {
+                Log.i(LOG_TAG, "Maintenance of " + store + " paused at step " + step);
+                return false;
+            }
+            step++;
+            mProgress.edit().putInt(store, step).apply();
+        }
+        return true;
+    }
+
+    /**
+     * Start a new cycle on the next run, once every store is done.
+     */
+    void finishCycle() {
+        mProgress.edit().clear().apply();
+    }
+
+    /**
+     * Run one step. Return false if the run was over before the step was done.
+     */
+    private boolean runStep(int step, SQLiteDatabase database, long deadline) {
+        long start = SystemClock.elapsedRealtime();
+        boolean done = true;
+        switch (step) {
+            case STEP_PURGE_DELETED:
+                done = purgeDeleted(database, deadline);
+                break;
+            case STEP_PRUNE_CHANGES:
+                done = pruneChanges(database, deadline);
+                break;
+            case STEP_ANALYZE:
+                database.execSQL("ANALYZE;");
+                break;
+            case STEP_CHECK_INDEXES:
+                checkIndexes(database);
+                break;
+            case STEP_VACUUM:
+                done = vacuum(database, deadline);
+                break;
+            case STEP_CHECKPOINT:
+                // A query, since the pragma returns a row
+                DatabaseUtils.stringForQuery(database, "PRAGMA wal_checkpoint(RESTART);", null);
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown maintenance step " + step);
+        }
+        Log.v(LOG_TAG, "Step " + step + " took " + (SystemClock.elapsedRealtime() - start) + " ms");
+        return done;
+    }
+
+    /**
+     * Remove the records deleted before the undo window, for when nobody purged them after the
+     * deletion.
+     */
+    private boolean purgeDeleted(SQLiteDatabase database, long deadline) {
+        long deletedBefore = System.currentTimeMillis() - DeletionEntry.UNDO_WINDOW_MILLIS;
+        while (!isOver(deadline)) {
+            if (purgeBatch(database, deletedBefore) < DeletionEntry.PURGE_BATCH) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Remove up to a batch of the records deleted at or before the given time, and return how
+     * many. A batch is a statement, and so a transaction, of its own: a sale waits for one batch
+     * at most. The records were hidden when they were deleted, so nobody needs notifying.
+     */
+    static int purgeBatch(SQLiteDatabase database, long deletedBefore) {
+        return purgeBatch(database, deletedBefore, DeletionEntry.PURGE_BATCH);
+    }
+
+    /**
+     * Remove up to the given number of the records deleted at or before the given time, and
+     * return how many, for a batch that spans stores.
+     */
+    static int purgeBatch(SQLiteDatabase database, long deletedBefore, int limit) {
+        return purge(database, " <= ?", deletedBefore, limit);
+    }
+
+    /**
+     * Remove up to a batch of the records of one deletion, given by its time, and return how
+     * many.
+     */
+    static int purgeDeletionBatch(SQLiteDatabase database, long deletion) {
+        return purge(database, " = ?", deletion, DeletionEntry.PURGE_BATCH);
+    }
+
+    private static int purge(SQLiteDatabase database, String condition, long deletedAt, int limit) {
+        return database.delete(RecordEntry.TABLE_NAME, RecordEntry._ID + " IN (SELECT " + RecordEntry._ID
+                + " FROM " + RecordEntry.TABLE_NAME + " WHERE " + RecordEntry.COLUMN_DELETED_AT + condition
+                + " LIMIT " + limit + ")", new String[] { String.valueOf(deletedAt) });
+    }
+
+    /**
+     * Delete the change log entries older than the retained ones. The log's trigger only prunes
+     * every thousand changes, so a quiet store can keep a long tail.
+     */
+    private boolean pruneChanges(SQLiteDatabase database, long deadline) {
+        long latest = DatabaseUtils.longForQuery(database,
+                "SELECT IFNULL(MAX(" + ChangeEntry._ID + "), 0) FROM " + ChangeEntry.TABLE_NAME, null);
+        String[] oldest = { String.valueOf(latest - ChangeEntry.RETAINED_CHANGES) };
+        while (!isOver(deadline)) {
+            int deleted = database.delete(ChangeEntry.TABLE_NAME, ChangeEntry._ID + " IN (SELECT "
+                    + ChangeEntry._ID + " FROM " + ChangeEntry.TABLE_NAME + " WHERE " + ChangeEntry._ID
+                    + " <= ? ORDER BY " + ChangeEntry._ID + " LIMIT " + PRUNE_BATCH + ")", oldest);
+            if (deleted < PRUNE_BATCH) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Check the database and rebuild the indexes if it reports problems.
+     */
+    private static void checkIndexes(SQLiteDatabase database) {
+        Cursor cursor = database.rawQuery("PRAGMA integrity_check(10);", null);
+        boolean ok;
+        try {
+            ok = cursor.moveToFirst() && "ok".equals(cursor.getString(0));
+            for (cursor.moveToPosition(-1); !ok && cursor.moveToNext(); ) {
+                Log.e(LOG_TAG, "Integrity check: " + cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        if (!ok) {
+            database.execSQL("REINDEX;");
+        }
+    }
+
+    /**
+     * Release free pages in batches. A database created before incremental vacuuming was turned
+     * on is vacuumed in full once, which is what switches it over, but only while it is small
+     * enough; a larger one keeps its free pages for reuse instead.
+     */
+    private boolean vacuum(SQLiteDatabase database, long deadline) {
+        if (DatabaseUtils.longForQuery(database, "PRAGMA auto_vacuum;", null) != AUTO_VACUUM_INCREMENTAL) {
+            long bytes = DatabaseUtils.longForQuery(database, "PRAGMA page_count;", null)
+                    * DatabaseUtils.longForQuery(database, "PRAGMA page_size;", null);
+            if (bytes > FULL_VACUUM_MAX_BYTES) {
+                Log.i(LOG_TAG, "Not vacuuming " + bytes + " bytes in full");
+                return true;
+            }
+            database.execSQL("PRAGMA auto_vacuum = INCREMENTAL;");
+            database.execSQL("VACUUM;");
+            return true;
+        }
+        while (DatabaseUtils.longForQuery(database, "PRAGMA freelist_count;", null) > 0) {
+            if (isOver(deadline)) {
+                return false;
+            }
+            // The pragma returns a row per page it frees and frees them as they are stepped
+            // through, so it is a query that has to be read to the end
+            Cursor cursor = database.rawQuery("PRAGMA incremental_vacuum(" + VACUUM_PAGES + ");", null);
+            try {
+                while (cursor.moveToNext()) {
+                    // Each step frees a page
+                }
+            } finally {
+                cursor.close();
+            }
+        }
+        return true;
+    }
+}
@@ -1,16 +1,38 @@
 package com.example.android.records.data;
 
 import android.app.Application;
+import android.os.Looper;
+import android.os.MessageQueue;
 
-import com.facebook.stetho.Stetho;
+import com.example.android.records.LowStockNotifier;
 
 /**
  * Created by Gregorio on 19/07/2017.
+ * <p>
+ * Keeps {@link #onCreate()} to the bare minimum: anything the first screen doesn't need is
+ * deferred until the main thread goes idle after launch, and debug tooling is only present in
+ * debug builds (see {@link DebugTools}). Work only the catalog screen needs is started by
+ * that screen, since every process of the app, including those started for the provider or a
+ * job, runs this.
  */
 
 public class MyApplication extends Application {
     public void onCreate() {
+        StartupTrace.beginSection("Application.onCreate");
         super.onCreate();
-        Stetho.initializeWithDefaults(this);
+        DebugTools.installEarly();
+
+        Looper.myQueue().addIdleHandler(new MessageQueue.IdleHandler() {
+            @Override
+            public boolean queueIdle() {
+                StartupTrace.beginSection("Application.deferredInit");
+                DebugTools.installDeferred(MyApplication.this);
+                LowStockNotifier.register(MyApplication.this);
+                StartupTrace.endSection();
+                // Run once
+                return false;
+            }
+        });
+        StartupTrace.endSection();
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,192 @@
+package com.example.android.records.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.util.SparseArray;
+
+import com.example.android.records.data.RecordContract.MetricsEntry;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters for what {@link RecordProvider} does: calls, rows and latency per URI pattern and
+ * operation, plus transactions started and change notifications sent.
+ * <p>
+ * All counters are atomics laid out when the provider starts, so recording a call never takes
+ * a lock or allocates. Latencies go into power-of-two microsecond buckets, which is enough to
+ * tell a 1ms query from a 100ms one and costs one array slot per bucket.
+ */
+public class ProviderMetrics {
+
+    /** Operations that are timed */
+    public static final int OP_QUERY = 0;
+    public static final int OP_INSERT = 1;
+    public static final int OP_UPDATE = 2;
+    public static final int OP_DELETE = 3;
+
+    private static final String[] OPERATION_NAMES = { "query", "insert", "update", "delete" };
+
+    /** Pattern name used for URIs that didn't match any pattern */
+    private static final String UNKNOWN_PATTERN = "unknown";
+
+    /**
+     * Bucket i holds latencies below 2^i microseconds (bucket 0 also holds 0). The last bucket
+     * is open-ended, at about 36 minutes.
+     */
+    private static final int HISTOGRAM_BUCKETS = 32;
+
+    private final SparseArray<String> mPatterns;
+
+    /** Stats indexed by [pattern index][operation]; the last pattern slot is for unknown URIs */
+    private final OperationStats[][] mStats;
+
+    private final AtomicLong mTransactions = new AtomicLong();
+    private final AtomicLong mNotifications = new AtomicLong();
+
+    /**
+     * @param patterns URI matcher codes mapped to a readable pattern, such as "records/#".
+     *                 Must not be modified afterwards.
+     */
+    public ProviderMetrics(SparseArray<String> patterns) {
+        mPatterns = patterns;
+        mStats = new OperationStats[patterns.size() + 1][OPERATION_NAMES.length];
+        for (OperationStats[] byOperation : mStats) {
+            for (int op = 0; op < byOperation.length; op++) {
+                byOperation[op] = new OperationStats();
+            }
+        }
+    }
+
+    /**
+     * Record one call.
+     *
+     * @param match      URI matcher code of the call
+     * @param operation  one of the OP_ constants
+     * @param startNanos {@link System#nanoTime()} when the call started
+     * @param rows       rows returned or affected
+     */
+    public void record(int match, int operation, long startNanos, long rows) {
+        long micros = (System.nanoTime() - startNanos) / 1000;
+        int index = mPatterns.indexOfKey(match);
+        OperationStats stats = mStats[index >= 0 ? index : mPatterns.size()][operation];
+        stats.calls.incrementAndGet();
+        stats.rows.addAndGet(Math.max(rows, 0));
+        stats.totalMicros.addAndGet(micros);
+        stats.histogram.incrementAndGet(bucketOf(micros));
+        long max;
+        do {
+            max = stats.maxMicros.get();
+        } while (micros > max && !stats.maxMicros.compareAndSet(max, micros));
+    }
+
+    /** Count a transaction started by the provider. */
+    public void onTransaction() {
+        mTransactions.incrementAndGet();
+    }
+
+    /** Count a change notification sent by the provider. */
+    public void onNotifyChange() {
+        mNotifications.incrementAndGet();
+    }
+
+    private static int bucketOf(long micros) {
+        int bucket = 64 - Long.numberOfLeadingZeros(micros);
+        return Math.min(bucket, HISTOGRAM_BUCKETS - 1);
+    }
+
+    /**
+     * Return the upper bound, in microseconds, of the bucket holding the given percentile.
+     */
+    private static long percentile(AtomicLongArray histogram, long calls, double percentile) {
+        long target = (long) Math.ceil(calls * percentile);
+        long seen = 0;
+        for (int bucket = 0; bucket < HISTOGRAM_BUCKETS; bucket++) {
+            seen += histogram.get(bucket);
+            if (seen >= target) {
+                return 1L << bucket;
+            }
+        }
+        return 1L << (HISTOGRAM_BUCKETS - 1);
+    }
+
+    private String patternAt(int index) {
+        return index < mPatterns.size() ? mPatterns.valueAt(index) : UNKNOWN_PATTERN;
+    }
+
+    /**
+     * Return a snapshot of the counters, one row per pattern and operation that was called,
+     * followed by the provider-wide transaction and notification counts.
+     */
+    public Cursor toCursor() {
+        String[] columns = {
+                MetricsEntry.COLUMN_PATTERN,
+                MetricsEntry.COLUMN_OPERATION,
+                MetricsEntry.COLUMN_CALLS,
+                MetricsEntry.COLUMN_ROWS,
+                MetricsEntry.COLUMN_TOTAL_MICROS,
+                MetricsEntry.COLUMN_MAX_MICROS,
+                MetricsEntry.COLUMN_P50_MICROS,
+                MetricsEntry.COLUMN_P90_MICROS,
+                MetricsEntry.COLUMN_P99_MICROS};
+        MatrixCursor cursor = new MatrixCursor(columns);
+        for (int index = 0; index < mStats.length; index++) {
+            for (int op = 0; op < OPERATION_NAMES.length; op++) {
+                OperationStats stats = mStats[index][op];
+                long calls = stats.calls.get();
+                if (calls == 0) {
+                    continue;
+                }
+                cursor.addRow(new Object[] { patternAt(index), OPERATION_NAMES[op], calls,
+                        stats.rows.get(), stats.totalMicros.get(), stats.maxMicros.get(),
+                        percentile(stats.histogram, calls, 0.5),
+                        percentile(stats.histogram, calls, 0.9),
+                        percentile(stats.histogram, calls, 0.99) });
+            }
+        }
+        cursor.addRow(new Object[] { MetricsEntry.PATTERN_ALL, MetricsEntry.OPERATION_TRANSACTION,
+                mTransactions.get(), 0, 0, 0, 0, 0, 0 });
+        cursor.addRow(new Object[] { MetricsEntry.PATTERN_ALL, MetricsEntry.OPERATION_NOTIFY,
+                mNotifications.get(), 0, 0, 0, 0, 0, 0 });
+        return cursor;
+    }
+
+    /**
+     * Write the counters in a human readable form, for dumpsys.
+     */
+    public void dump(PrintWriter writer) {
+        writer.println("Provider metrics (latencies in us, percentiles are bucket upper bounds):");
+        writer.println(String.format("  %-28s %-7s %8s %10s %10s %8s %8s %8s %10s",
+                "pattern", "op", "calls", "rows", "total", "p50", "p90", "p99", "max"));
+        for (int index = 0; index < mStats.length; index++) {
+            for (int op = 0; op < OPERATION_NAMES.length; op++) {
+                OperationStats stats = mStats[index][op];
+                long calls = stats.calls.get();
+                if (calls == 0) {
+                    continue;
+                }
+                writer.println(String.format("  %-28s %-7s %8d %10d %10d %8d %8d %8d %10d",
+                        patternAt(index), OPERATION_NAMES[op], calls, stats.rows.get(),
+                        stats.totalMicros.get(),
+                        percentile(stats.histogram, calls, 0.5),
+                        percentile(stats.histogram, calls, 0.9),
+                        percentile(stats.histogram, calls, 0.99),
+                        stats.maxMicros.get()));
+            }
+        }
+        writer.println("  transactions: " + mTransactions.get());
+        writer.println("  notifications: " + mNotifications.get());
+    }
+
+    /**
+     * Counters of one operation on one URI pattern.
+     */
+    private static class OperationStats {
+        final AtomicLong calls = new AtomicLong();
+        final AtomicLong rows = new AtomicLong();
+        final AtomicLong totalMicros = new AtomicLong();
+        final AtomicLong maxMicros = new AtomicLong();
+        final AtomicLongArray histogram = new AtomicLongArray(HISTOGRAM_BUCKETS);
+    }
+}
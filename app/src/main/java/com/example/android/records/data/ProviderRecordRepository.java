@@ -0,0 +1,173 @@
+package com.example.android.records.data;
+
+import android.content.ContentResolver;
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.records.core.Record;
+import com.example.android.records.core.RecordRepository;
+import com.example.android.records.core.RecordValidator;
+import com.example.android.records.data.RecordContract.DeletionEntry;
+import com.example.android.records.data.RecordContract.MaintenanceEntry;
+import com.example.android.records.data.RecordContract.RecordEntry;
+import com.example.android.records.data.RecordContract.SaleEntry;
+
+/**
+ * {@link RecordRepository} backed by {@link RecordProvider}, through a content resolver.
+ */
+public class ProviderRecordRepository implements RecordRepository {
+
+    /**
+     * Records deleted together, which can be undone as one.
+     */
+    public static final class Deletion {
+        private final int mCount;
+        private final long mToken;
+
+        Deletion(int count, long token) {
+            mCount = count;
+            mToken = token;
+        }
+
+        /** Return the number of records deleted. */
+        public int getCount() {
+            return mCount;
+        }
+
+        /** Return the token that identifies the deletion to undo or purge it. */
+        public long getToken() {
+            return mToken;
+        }
+    }
+
+    private final ContentResolver mResolver;
+
+    public ProviderRecordRepository(ContentResolver resolver) {
+        mResolver = resolver;
+    }
+
+    private static Uri recordUri(long id) {
+        return ContentUris.withAppendedId(RecordEntry.CONTENT_URI, id);
+    }
+
+    @Override
+    public Record find(long id) {
+        Cursor cursor = mResolver.query(recordUri(id), null, null, null, null);
+        if (cursor == null) {
+            return null;
+        }
+        try {
+            return cursor.moveToFirst() ? RecordMapper.fromCursor(cursor) : null;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Override
+    public long insert(Record record) {
+        RecordValidator.validateNew(record);
+        Uri uri = mResolver.insert(RecordEntry.CONTENT_URI, RecordMapper.toContentValues(record));
+        return uri != null ? ContentUris.parseId(uri) : Record.NO_ID;
+    }
+
+    @Override
+    public boolean update(Record record) {
+        RecordValidator.validateNew(record);
+        return mResolver.update(recordUri(record.getId()),
+                RecordMapper.toContentValues(record), null, null) > 0;
+    }
+
+    /**
+     * Change some values of a record, leaving the others as they are. Return true if the record
+     * existed.
+     *
+     * @throws IllegalArgumentException if one of the new values isn't valid
+     */
+    public boolean update(long id, ContentValues changes) {
+        RecordMapper.validateChanges(changes);
+        return mResolver.update(recordUri(id), changes, null, null) > 0;
+    }
+
+    /**
+     * Change some values of a record if it is still at the given version. Return true if the
+     * record existed.
+     *
+     * @throws IllegalArgumentException if one of the new values isn't valid
+     * @throws IllegalStateException    if the record has changed since that version
+     */
+    public boolean update(long id, ContentValues changes, long expectedVersion) {
+        RecordMapper.validateChanges(changes);
+        return mResolver.update(RecordEntry.buildVersionedUri(recordUri(id), expectedVersion),
+                changes, null, null) > 0;
+    }
+
+    @Override
+    public boolean setQuantity(long id, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(RecordEntry.COLUMN_QUANTITY, quantity);
+        return update(id, values);
+    }
+
+    @Override
+    public boolean sell(long id, int copies) {
+        ContentValues values = new ContentValues();
+        values.put(SaleEntry.COLUMN_RECORD_ID, id);
+        values.put(SaleEntry.COLUMN_QUANTITY, copies);
+        return mResolver.insert(SaleEntry.CONTENT_URI, values) != null;
+    }
+
+    @Override
+    public boolean delete(long id) {
+        return mResolver.delete(recordUri(id), null, null) > 0;
+    }
+
+    @Override
+    public int deleteAll() {
+        return mResolver.delete(RecordEntry.CONTENT_URI, null, null);
+    }
+
+    /**
+     * Delete all records so that the deletion can be undone. Return the deletion.
+     */
+    public Deletion deleteAllUndoably() {
+        Bundle result = mResolver.call(RecordContract.BASE_CONTENT_URI, DeletionEntry.METHOD_DELETE_RECORDS,
+                RecordEntry.CONTENT_URI.toString(), null);
+        return result != null ? new Deletion(result.getInt(DeletionEntry.EXTRA_DELETED),
+                result.getLong(DeletionEntry.EXTRA_DELETION)) : new Deletion(0, 0);
+    }
+
+    /**
+     * Restore the records of a deletion, unless they were purged. Return how many were restored.
+     */
+    public int undoDelete(Deletion deletion) {
+        Bundle extras = new Bundle();
+        extras.putLong(DeletionEntry.EXTRA_DELETION, deletion.getToken());
+        Bundle result = mResolver.call(RecordContract.BASE_CONTENT_URI, DeletionEntry.METHOD_UNDO_DELETE, null, extras);
+        return result != null ? result.getInt(DeletionEntry.EXTRA_RESTORED) : 0;
+    }
+
+    /**
+     * Remove a batch of the records of a deletion for good, so they can't be restored any more.
+     * Return how many were removed; fewer than {@link DeletionEntry#PURGE_BATCH} means the
+     * deletion is gone.
+     */
+    public int purgeDeleted(Deletion deletion) {
+        Bundle extras = new Bundle();
+        extras.putLong(DeletionEntry.EXTRA_DELETION, deletion.getToken());
+        Bundle result = mResolver.call(RecordContract.BASE_CONTENT_URI, DeletionEntry.METHOD_PURGE_DELETED, null, extras);
+        return result != null ? result.getInt(DeletionEntry.EXTRA_PURGED) : 0;
+    }
+
+    /**
+     * Recompute the sort keys of a batch of records whose keys are of another locale. Return
+     * true once the keys of all records are current.
+     */
+    public boolean refreshSortKeys() {
+        Bundle result = mResolver.call(RecordContract.BASE_CONTENT_URI, MaintenanceEntry.METHOD_REFRESH_SORT_KEYS,
+                null, null);
+        return result == null || result.getBoolean(MaintenanceEntry.EXTRA_COMPLETE, true);
+    }
+}
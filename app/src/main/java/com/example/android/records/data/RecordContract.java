@@ -16,9 +16,17 @@
 package com.example.android.records.data;
 
 import android.content.ContentResolver;
+import android.content.ContentUris;
 import android.net.Uri;
+import android.text.TextUtils;
 import android.provider.BaseColumns;
 
+import com.example.android.records.core.DuplicateFinder;
+import com.example.android.records.core.DuplicateKeys;
+import com.example.android.records.core.ImportPipeline;
+import com.example.android.records.core.SortKeys;
+import com.example.android.records.core.StockRules;
+
 /**
  * API Contract for the Record app.
  */
@@ -36,6 +44,12 @@ public final class RecordContract {
      * the content provider.
      */
     public static final Uri BASE_CONTENT_URI = Uri.parse("content://" + CONTENT_AUTHORITY);
+
+    /**
+     * Permission other apps need to use the provider. It is granted only to apps signed with
+     * the same key, such as the till apps.
+     */
+    public static final String PERMISSION_ACCESS = "com.example.android.records.permission.ACCESS_CATALOG";
     /**
      * Possible path (appended to base content URI for possible URI's)
      * For instance, content://com.example.android.records/records/ is a valid path for
@@ -44,6 +58,56 @@ public final class RecordContract {
      */
     public static final String PATH_RECORDS = "records";
 
+    /**
+     * Path for the sales ledger. Every sale is appended here; other changes of stock aren't.
+     */
+    public static final String PATH_SALES = "sales";
+
+    /**
+     * Path for the pre-aggregated sales figures, bucketed by hour, day and month.
+     */
+    public static final String PATH_ROLLUPS = "rollups";
+
+    /**
+     * Path for the suppliers and their reorder thresholds.
+     */
+    public static final String PATH_SUPPLIERS = "suppliers";
+
+    /**
+     * Path for the low-stock alerts raised when a record drops to its reorder threshold.
+     */
+    public static final String PATH_ALERTS = "alerts";
+
+    /**
+     * Path for the outbox of consolidated purchase orders, one per supplier.
+     */
+    public static final String PATH_PURCHASE_ORDERS = "purchase_orders";
+
+    /**
+     * Path for the provider's own performance counters.
+     */
+    public static final String PATH_METRICS = "metrics";
+
+    /**
+     * Path for the log of slow provider calls.
+     */
+    public static final String PATH_SLOW_QUERIES = "slow_queries";
+
+    /**
+     * Path for the log of changes to the records table.
+     */
+    public static final String PATH_CHANGES = "changes";
+
+    /**
+     * Path for the shop locations, each with its own database.
+     */
+    public static final String PATH_STORES = "stores";
+
+    /**
+     * Path for the per-device stock counters that devices exchange to sync stock.
+     */
+    public static final String PATH_STOCK_COUNTERS = "stock_counters";
+
     // To prevent someone from accidentally instantiating the contract class,
     // give it an empty constructor.
     private RecordContract() {
@@ -129,8 +193,1264 @@ public final class RecordContract {
          */
         public final static String COLUMN_SUPPLIER_EMAIL = "supplier_email";
 
+        /**
+         * Stock level at or below which the record needs reordering. When null, the threshold
+         * of the record's supplier applies, and {@link #DEFAULT_REORDER_THRESHOLD} after that.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_REORDER_THRESHOLD = "reorder_threshold";
+
+        /**
+         * Stock keeping unit or barcode (EAN/UPC) the record is scanned by, or null. SKUs are
+         * unique among the records of a store.
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_SKU = "sku";
+
+        /**
+         * The content URI for looking up a record by SKU, of the form
+         * "content://com.example.android.records/records/sku/{sku}". The lookup is a single
+         * seek on the unique SKU index.
+         */
+        public static final Uri SKU_URI = Uri.withAppendedPath(CONTENT_URI, "sku");
+
+        /**
+         * Returns the URI of the record with the given SKU.
+         */
+        public static Uri buildSkuUri(String sku) {
+            return SKU_URI.buildUpon().appendPath(sku).build();
+        }
+
+        /**
+         * Normalized band and album name, see {@link DuplicateKeys}. Maintained by the provider
+         * and indexed, so exact duplicates are found with one seek (read-only).
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_DEDUPE_KEY = "dedupe_key";
+
+        /**
+         * Time the record was deleted, or null while it is live. Deleting only sets this, and
+         * the provider hides the record at once; it is removed for good by
+         * {@link DeletionEntry#METHOD_PURGE_DELETED}. Until then it can be restored. Its SKU is
+         * moved to {@link #COLUMN_DELETED_SKU}, so a new record can take the barcode meanwhile
+         * (read-only).
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DELETED_AT = "deleted_at";
+
+        /**
+         * SKU of a deleted record, null while it is live. Restoring the record moves it back to
+         * {@link #COLUMN_SKU}, unless a live record has taken it; the restored record then has
+         * none (read-only).
+         * <p>
+         * Type: TEXT
+         */
+        public final static String COLUMN_DELETED_SKU = "deleted_sku";
+
+        /**
+         * Number of the record's current state, 1 when inserted and incremented by every change
+         * the provider makes to the record, stock included (read-only).
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_VERSION = "version";
+
+        /**
+         * Sort key of the band name for the device's locale, see {@link SortKeys}. Maintained by
+         * the provider and indexed, with {@link #COLUMN_ALBUM_SORT_KEY}, so {@link #SORT_BY_BAND}
+         * reads the index in order instead of sorting (read-only).
+         * <p>
+         * Type: BLOB
+         */
+        public final static String COLUMN_BAND_SORT_KEY = "band_sort_key";
+
+        /**
+         * Sort key of the album name for the device's locale, see {@link SortKeys}. Maintained by
+         * the provider and indexed, so {@link #SORT_BY_ALBUM} reads the index in order (read-only).
+         * <p>
+         * Type: BLOB
+         */
+        public final static String COLUMN_ALBUM_SORT_KEY = "album_sort_key";
+
+        /**
+         * Sort order of records alphabetically by band, then album. Band names come out in the
+         * order of the locale's collator, so an {@link android.widget.AlphabetIndexer} on
+         * {@link #COLUMN_BAND_NAME} can find the sections.
+         */
+        public static final String SORT_BY_BAND = COLUMN_BAND_SORT_KEY + ", " + COLUMN_ALBUM_SORT_KEY
+                + ", " + _ID;
+
+        /**
+         * Sort order of records alphabetically by album, then band; sections can be found on
+         * {@link #COLUMN_ALBUM_NAME}.
+         */
+        public static final String SORT_BY_ALBUM = COLUMN_ALBUM_SORT_KEY + ", " + COLUMN_BAND_SORT_KEY
+                + ", " + _ID;
+
+        // After a change of locale, until MaintenanceEntry.METHOD_REFRESH_SORT_KEYS has
+        // recomputed the keys, both sort orders fall back to _ID order
+
+        /**
+         * Query parameter of a record URI for updates: the {@link #COLUMN_VERSION version} the
+         * changes were made against. The record is only updated if it is still at that version;
+         * if it has changed since, nothing is written and the update throws
+         * {@link IllegalStateException}.
+         */
+        public static final String QUERY_PARAMETER_EXPECTED_VERSION = "expected_version";
+
+        /**
+         * Returns the given record URI, for updates that only apply if the record is still at
+         * the given version.
+         */
+        public static Uri buildVersionedUri(Uri uri, long expectedVersion) {
+            return uri.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_EXPECTED_VERSION, String.valueOf(expectedVersion))
+                    .build();
+        }
+
+        /** Reorder threshold used when neither the record nor its supplier sets one. */
+        public static final int DEFAULT_REORDER_THRESHOLD = StockRules.DEFAULT_REORDER_THRESHOLD;
+
+        /**
+         * The content URI of the records at or below their reorder threshold, grouped by supplier.
+         * Rows carry the record columns plus {@link #COLUMN_EFFECTIVE_THRESHOLD}.
+         */
+        public static final Uri LOW_STOCK_URI = Uri.withAppendedPath(CONTENT_URI, "low_stock");
+
+        /**
+         * The reorder threshold that applies to a record once the supplier threshold and the
+         * default have been taken into account (read-only, {@link #LOW_STOCK_URI} only).
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_EFFECTIVE_THRESHOLD = "effective_threshold";
+
+        /**
+         * The content URI for searching records by album or band name prefix, of the form
+         * "content://com.example.android.records/records/search/{prefix}". Matching ignores ASCII
+         * case.
+         */
+        public static final Uri SEARCH_URI = Uri.withAppendedPath(CONTENT_URI, "search");
+
+        /**
+         * Returns the URI of the records whose album or band name starts with the given prefix.
+         */
+        public static Uri buildSearchUri(String prefix) {
+            return SEARCH_URI.buildUpon().appendPath(prefix).build();
+        }
 
     }
 
-}
+    /**
+     * Inner class that defines constant values for the sales ledger table.
+     * Each entry in the table is a single sale of one or more copies of a record.
+     * The ledger is append-only: rows are never updated or deleted.
+     */
+    public static final class SaleEntry implements BaseColumns {
+
+        /** The content URI to access the sales ledger in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SALES);
+
+        /**
+         * The content URI of the sales of a single record, of the form
+         * "content://com.example.android.records/sales/record/#".
+         */
+        public static final Uri RECORD_CONTENT_URI = Uri.withAppendedPath(CONTENT_URI, "record");
+
+        /**
+         * The content URI of the sales in a time range, of the form
+         * "content://com.example.android.records/sales/range/{from}/{to}" where both bounds are
+         * milliseconds since the epoch, the lower one inclusive and the upper one exclusive.
+         */
+        public static final Uri RANGE_CONTENT_URI = Uri.withAppendedPath(CONTENT_URI, "range");
+
+        /**
+         * Provider method, for {@link ContentResolver#call}, that sells a record by SKU: it
+         * looks the record up and records the sale in one call and one transaction, for
+         * scan-to-sell at the till. The SKU is passed as the string argument and the number of
+         * copies, one by default, under {@link #EXTRA_QUANTITY}. The result holds
+         * {@link #EXTRA_RECORD_ID}, -1 if no record has that SKU, and {@link #EXTRA_SALE_ID},
+         * -1 if the sale didn't go through.
+         */
+        public static final String METHOD_SELL_SKU = "sell_sku";
+
+        /** Bundle key of the number of copies sold by {@link #METHOD_SELL_SKU} */
+        public static final String EXTRA_QUANTITY = "quantity";
+
+        /** Bundle key of the ID of the record sold by {@link #METHOD_SELL_SKU} */
+        public static final String EXTRA_RECORD_ID = "record_id";
+
+        /** Bundle key of the ID of the ledger entry written by {@link #METHOD_SELL_SKU} */
+        public static final String EXTRA_SALE_ID = "sale_id";
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of sales.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SALES;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single sale.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SALES;
+
+        /** Name of database table for sales */
+        public final static String TABLE_NAME = "sales";
+
+        /**
+         * Unique ID number for the sale (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * ID of the record that was sold.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_RECORD_ID = "record_id";
+
+        /**
+         * Number of copies sold.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_QUANTITY = "quantity";
+
+        /**
+         * Unit price of the record at the time of the sale.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_PRICE = "price";
+
+        /**
+         * Time of the sale, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_SOLD_AT = "sold_at";
+
+        /**
+         * Returns the URI of the sales of the record with the given ID.
+         */
+        public static Uri buildRecordUri(long recordId) {
+            return ContentUris.withAppendedId(RECORD_CONTENT_URI, recordId);
+        }
+
+        /**
+         * Returns the URI of the sales made between {@code from} (inclusive) and {@code to}
+         * (exclusive), both in milliseconds since the epoch.
+         */
+        public static Uri buildRangeUri(long from, long to) {
+            return RANGE_CONTENT_URI.buildUpon()
+                    .appendPath(String.valueOf(from))
+                    .appendPath(String.valueOf(to))
+                    .build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the sales rollup tables. There is one table
+     * per record and one per supplier, both with the same bucket columns. Rows are maintained
+     * by the database as sales are appended to the ledger, so reading a trend never has to scan
+     * the raw sales.
+     */
+    public static final class RollupEntry implements BaseColumns {
+
+        /** The content URI to access the sales rollups in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_ROLLUPS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of rollup buckets.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ROLLUPS;
+
+        /** Name of database table for the per-record rollups */
+        public final static String RECORD_TABLE_NAME = "record_sales_rollup";
+
+        /** Name of database table for the per-supplier rollups */
+        public final static String SUPPLIER_TABLE_NAME = "supplier_sales_rollup";
+
+        /**
+         * ID of the record the bucket belongs to (per-record rollups only).
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_RECORD_ID = "record_id";
+
+        /**
+         * Name of the supplier the bucket belongs to (per-supplier rollups only).
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SUPPLIER_NAME = "supplier_name";
+
+        /**
+         * Size of the bucket, one of {@link #GRANULARITY_HOUR}, {@link #GRANULARITY_DAY}
+         * or {@link #GRANULARITY_MONTH}.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_GRANULARITY = "granularity";
+
+        /**
+         * Start of the bucket, in milliseconds since the epoch. Buckets are the hours, days and
+         * months of the device's local time when the sale was recorded, so a day bucket starts
+         * at local midnight.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_BUCKET_START = "bucket_start";
+
+        /**
+         * Copies sold in the bucket.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_UNITS = "units";
+
+        /**
+         * Revenue of the bucket, the sum of quantity times unit price.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_REVENUE = "revenue";
+
+        /** Possible values for the granularity of a bucket. */
+        public static final String GRANULARITY_HOUR = "hour";
+        public static final String GRANULARITY_DAY = "day";
+        public static final String GRANULARITY_MONTH = "month";
+
+        /**
+         * Query parameter that limits the number of buckets returned, for example to read the
+         * top sellers with a sort order of "units DESC".
+         */
+        public static final String QUERY_PARAMETER_LIMIT = "limit";
+
+        /**
+         * Returns true if the given granularity is one of the supported bucket sizes.
+         */
+        public static boolean isValidGranularity(String granularity) {
+            return GRANULARITY_HOUR.equals(granularity) || GRANULARITY_DAY.equals(granularity)
+                    || GRANULARITY_MONTH.equals(granularity);
+        }
+
+        /**
+         * Returns the URI of the per-record buckets of the given size, for all records.
+         */
+        public static Uri buildRecordRollupUri(String granularity) {
+            return CONTENT_URI.buildUpon().appendPath("record").appendPath(granularity).build();
+        }
+
+        /**
+         * Returns the URI of the per-record buckets of the given size, for a single record.
+         */
+        public static Uri buildRecordRollupUri(String granularity, long recordId) {
+            return ContentUris.withAppendedId(buildRecordRollupUri(granularity), recordId);
+        }
+
+        /**
+         * Returns the URI of the per-supplier buckets of the given size, for all suppliers.
+         */
+        public static Uri buildSupplierRollupUri(String granularity) {
+            return CONTENT_URI.buildUpon().appendPath("supplier").appendPath(granularity).build();
+        }
+
+        /**
+         * Returns the URI of the per-supplier buckets of the given size, for a single supplier.
+         */
+        public static Uri buildSupplierRollupUri(String granularity, String supplierName) {
+            return buildSupplierRollupUri(granularity).buildUpon().appendPath(supplierName).build();
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the suppliers table. A supplier row is only
+     * needed to override the default reorder threshold for all of its records.
+     */
+    public static final class SupplierEntry implements BaseColumns {
+
+        /** The content URI to access the suppliers in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SUPPLIERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of suppliers.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single supplier.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SUPPLIERS;
+
+        /** Name of database table for suppliers */
+        public final static String TABLE_NAME = "suppliers";
+
+        /**
+         * Name of the supplier, matching {@link RecordEntry#COLUMN_SUPPLIER_NAME}.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SUPPLIER_NAME = "supplier_name";
+
+        /**
+         * Reorder threshold for every record of this supplier that doesn't set its own.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_REORDER_THRESHOLD = "reorder_threshold";
+
+        /**
+         * Returns the URI of a single supplier, of the form
+         * "content://com.example.android.records/suppliers/{name}".
+         */
+        public static Uri buildSupplierUri(String supplierName) {
+            return CONTENT_URI.buildUpon().appendPath(supplierName).build();
+        }
+    }
 
+    /**
+     * Inner class that defines constant values for the low-stock alerts table. Alerts are written
+     * by the database itself whenever a record's stock crosses its reorder threshold, and the
+     * provider joins in the album and band name of the record when they are read. Alerts of
+     * deleted records aren't read, and are removed when the record is purged.
+     */
+    public static final class AlertEntry implements BaseColumns {
+
+        /** The content URI to access the alerts in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_ALERTS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of alerts.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ALERTS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single alert.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_ALERTS;
+
+        /** Name of database table for alerts */
+        public final static String TABLE_NAME = "alerts";
+
+        /**
+         * Unique ID number for the alert (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * ID of the record that is running low.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_RECORD_ID = "record_id";
+
+        /**
+         * Stock left when the alert was raised.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_QUANTITY = "quantity";
+
+        /**
+         * Threshold that was crossed.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_THRESHOLD = "threshold";
+
+        /**
+         * Time the alert was raised, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CREATED_AT = "created_at";
+
+        /**
+         * Whether the alert has been seen by the user: 1 if so, 0 otherwise.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_ACKNOWLEDGED = "acknowledged";
+
+        /**
+         * Album name of the record, joined in from the records table (read-only).
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_ALBUM_NAME = RecordEntry.COLUMN_ALBUM_NAME;
+
+        /**
+         * Band name of the record, joined in from the records table (read-only).
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_BAND_NAME = RecordEntry.COLUMN_BAND_NAME;
+    }
+
+    /**
+     * Inner class that defines constant values for the purchase order outbox. Each entry is one
+     * consolidated order to a supplier, rendered and ready to be emailed.
+     */
+    public static final class PurchaseOrderEntry implements BaseColumns {
+
+        /** The content URI to access the purchase orders in the provider */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_PURCHASE_ORDERS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of purchase orders.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PURCHASE_ORDERS;
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a single purchase order.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_PURCHASE_ORDERS;
+
+        /** Name of database table for purchase orders */
+        public final static String TABLE_NAME = "purchase_orders";
+
+        /**
+         * Unique ID number for the order (only for use in the database table).
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * Name of the supplier the order is for.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SUPPLIER_NAME = "supplier_name";
+
+        /**
+         * Email address the order is sent to.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SUPPLIER_EMAIL = "supplier_email";
+
+        /**
+         * Subject line of the order email.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SUBJECT = "subject";
+
+        /**
+         * Rendered body of the order email.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_BODY = "body";
+
+        /**
+         * Number of titles in the order.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_LINE_COUNT = "line_count";
+
+        /**
+         * Total number of copies ordered.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_TOTAL_UNITS = "total_units";
+
+        /**
+         * Time the order was generated, in milliseconds since the epoch.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_CREATED_AT = "created_at";
+
+        /**
+         * State of the order, either {@link #STATUS_PENDING} or {@link #STATUS_SENT}.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_STATUS = "status";
+
+        /** Possible values for the status of an order. */
+        public static final int STATUS_PENDING = 0;
+        public static final int STATUS_SENT = 1;
+    }
+
+    /**
+     * Inner class that defines the columns of the provider metrics. Each row holds the counters
+     * of one operation on one URI pattern, since the provider process started. Two extra rows
+     * with pattern {@link #PATTERN_ALL} count transactions and change notifications.
+     * The metrics are read-only.
+     */
+    public static final class MetricsEntry {
+
+        /** The content URI to read the provider metrics */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_METRICS);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_METRICS;
+
+        /** URI pattern, for example "records/#". Type: TEXT */
+        public final static String COLUMN_PATTERN = "pattern";
+
+        /** Operation: query, insert, update, delete, transaction or notify. Type: TEXT */
+        public final static String COLUMN_OPERATION = "operation";
+
+        /** Number of calls. Type: INTEGER */
+        public final static String COLUMN_CALLS = "calls";
+
+        /** Rows returned (queries) or affected (writes). Type: INTEGER */
+        public final static String COLUMN_ROWS = "rows";
+
+        /** Total time spent, in microseconds. Type: INTEGER */
+        public final static String COLUMN_TOTAL_MICROS = "total_micros";
+
+        /** Slowest call, in microseconds. Type: INTEGER */
+        public final static String COLUMN_MAX_MICROS = "max_micros";
+
+        /**
+         * Latency percentiles, in microseconds. Each is the upper bound of the power-of-two
+         * bucket the percentile falls in. Type: INTEGER
+         */
+        public final static String COLUMN_P50_MICROS = "p50_micros";
+        public final static String COLUMN_P90_MICROS = "p90_micros";
+        public final static String COLUMN_P99_MICROS = "p99_micros";
+
+        /** Pattern of the provider-wide rows */
+        public static final String PATTERN_ALL = "*";
+
+        /** Operation of the provider-wide counter rows */
+        public static final String OPERATION_TRANSACTION = "transaction";
+        public static final String OPERATION_NOTIFY = "notify";
+
+        private MetricsEntry() {
+        }
+    }
+
+    /**
+     * Inner class that defines the columns of the slow query log. Each row is a query or update
+     * that took longer than the threshold, newest last. Only the most recent calls are kept and
+     * the log starts empty whenever the provider process starts. Deleting from
+     * {@link #CONTENT_URI} clears it.
+     */
+    public static final class SlowQueryEntry implements BaseColumns {
+
+        /** The content URI to read the slow query log */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_SLOW_QUERIES);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_SLOW_QUERIES;
+
+        /**
+         * Provider method, for {@link ContentResolver#call}, that sets the threshold in
+         * milliseconds. The threshold is passed as the string argument; the previous threshold
+         * is returned under {@link #EXTRA_THRESHOLD_MILLIS}.
+         */
+        public static final String METHOD_SET_THRESHOLD = "set_slow_query_threshold";
+
+        /** Bundle key of the threshold returned by {@link #METHOD_SET_THRESHOLD} */
+        public static final String EXTRA_THRESHOLD_MILLIS = "threshold_millis";
+
+        /** When the call was logged, in milliseconds since the epoch. Type: INTEGER */
+        public final static String COLUMN_LOGGED_AT = "logged_at";
+
+        /** "query" or "update". Type: TEXT */
+        public final static String COLUMN_OPERATION = "operation";
+
+        /** URI pattern, for example "records/#". Type: TEXT */
+        public final static String COLUMN_PATTERN = "pattern";
+
+        /** SQL of the statement that ran. Type: TEXT */
+        public final static String COLUMN_SQL = "sql";
+
+        /**
+         * Shapes of the caller's selection arguments, such as "[int, text(5)]". The values
+         * themselves are not logged. Type: TEXT
+         */
+        public final static String COLUMN_ARG_SHAPES = "arg_shapes";
+
+        /** Rows returned or affected. Type: INTEGER */
+        public final static String COLUMN_ROWS = "rows";
+
+        /** Time the call took, in microseconds. Type: INTEGER */
+        public final static String COLUMN_DURATION_MICROS = "duration_micros";
+
+        /** Output of EXPLAIN QUERY PLAN, one step per line. Type: TEXT */
+        public final static String COLUMN_QUERY_PLAN = "query_plan";
+
+        /** 1 if the plan reads a whole table without an index, 0 otherwise. Type: INTEGER */
+        public final static String COLUMN_FULL_SCAN = "full_scan";
+
+        private SlowQueryEntry() {
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the record change log. Triggers append one
+     * entry per inserted, updated or deleted record, so a copy of the catalog can catch up by
+     * reading the entries after the last one it applied instead of the whole catalog.
+     * <p>
+     * Only the most recent {@link #RETAINED_CHANGES} entries are kept. A reader that finds the
+     * entry after its last one missing has fallen behind and must read the catalog again.
+     * Changes are announced on {@link RecordEntry#CONTENT_URI}, not on this table's URIs.
+     * The log is read-only.
+     */
+    public static final class ChangeEntry implements BaseColumns {
+
+        /** The content URI to read the change log */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_CHANGES);
+
+        /**
+         * The content URI of the latest change only. Its single row holds the sequence number
+         * of the latest change in {@link #_ID}, or 0 if nothing changed yet.
+         */
+        public static final Uri LATEST_URI = Uri.withAppendedPath(CONTENT_URI, "latest");
+
+        /**
+         * Query parameter of {@link #CONTENT_URI} that restricts the result to the changes
+         * after the given sequence number.
+         */
+        public static final String QUERY_PARAMETER_SINCE = "since";
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of changes.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANGES;
+
+        /**
+         * The MIME type of the {@link #LATEST_URI}.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_CHANGES;
+
+        /** Name of database table for the change log */
+        public final static String TABLE_NAME = "record_changes";
+
+        /**
+         * Sequence number of the change. Consecutive changes have consecutive numbers.
+         *
+         * Type: INTEGER
+         */
+        public final static String _ID = BaseColumns._ID;
+
+        /**
+         * ID of the record that changed.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_RECORD_ID = "record_id";
+
+        /**
+         * What happened to the record: {@link #OPERATION_INSERT}, {@link #OPERATION_UPDATE} or
+         * {@link #OPERATION_DELETE}.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_OPERATION = "operation";
+
+        /** Possible values of {@link #COLUMN_OPERATION} */
+        public static final int OPERATION_INSERT = 1;
+        public static final int OPERATION_UPDATE = 2;
+        public static final int OPERATION_DELETE = 3;
+
+        /** Number of changes kept in the log */
+        public static final int RETAINED_CHANGES = 10000;
+
+        /**
+         * Returns the URI of the changes after the given sequence number.
+         */
+        public static Uri buildSinceUri(long sequence) {
+            return CONTENT_URI.buildUpon()
+                    .appendQueryParameter(QUERY_PARAMETER_SINCE, String.valueOf(sequence))
+                    .build();
+        }
+
+        private ChangeEntry() {
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for finding and merging duplicate records.
+     * <p>
+     * Records are duplicates when their {@link RecordEntry#COLUMN_DEDUPE_KEY keys} are equal, as
+     * for "The Final Countdown" and "final countdown!", or nearly equal, as for "Final
+     * Countdwn"; see {@link DuplicateFinder}. {@link #CONTENT_URI} lists the groups of
+     * duplicates, and {@link #METHOD_MERGE} merges a group into one record. Imports can merge
+     * exact duplicates as they go by inserting into {@link #buildMergingUri}.
+     */
+    public static final class DuplicateEntry {
+
+        /**
+         * The content URI of the groups of duplicate records. Its rows are the records that
+         * have duplicates, with {@link #COLUMN_GROUP}, {@link RecordEntry#_ID},
+         * {@link RecordEntry#COLUMN_ALBUM_NAME}, {@link RecordEntry#COLUMN_BAND_NAME} and
+         * {@link RecordEntry#COLUMN_QUANTITY}, sorted by group and then ID; the projection is
+         * ignored.
+         */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(RecordEntry.CONTENT_URI, "duplicates");
+
+        /**
+         * Optional query parameter of {@link #CONTENT_URI}: the lowest similarity of two records
+         * to be grouped, above 0 and at most 1. Defaults to
+         * {@link DuplicateFinder#DEFAULT_SIMILARITY}; 1 finds exact duplicates only.
+         */
+        public static final String QUERY_PARAMETER_SIMILARITY = "similarity";
+
+        /**
+         * Query parameter of {@link RecordEntry#CONTENT_URI} for inserts. With
+         * {@link #ON_DUPLICATE_MERGE}, a new record that is an exact duplicate of an existing
+         * one adds its quantity to that record instead, and the existing record's URI is
+         * returned.
+         */
+        public static final String QUERY_PARAMETER_ON_DUPLICATE = "on_duplicate";
+
+        /** Value of {@link #QUERY_PARAMETER_ON_DUPLICATE} that merges exact duplicates */
+        public static final String ON_DUPLICATE_MERGE = "merge";
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI}.
+         */
+        public static final String CONTENT_LIST_TYPE = RecordEntry.CONTENT_LIST_TYPE;
+
+        /**
+         * Number of the group of duplicates, counting from 1.
+         * <p>
+         * Type: INTEGER
+         */
+        public final static String COLUMN_GROUP = "duplicate_group";
+
+        /**
+         * Provider method, for {@link ContentResolver#call}, that merges duplicates into one
+         * record. The ID of the record to keep is passed as the string argument and the IDs of
+         * its duplicates under {@link #EXTRA_DUPLICATE_IDS}. The kept record gets their stock,
+         * sales, rollups and alerts, and the duplicates are deleted like any other records, see
+         * {@link DeletionEntry}; those already deleted are left out. The number of records
+         * deleted is returned under {@link #EXTRA_MERGED}.
+         */
+        public static final String METHOD_MERGE = "merge_duplicates";
+
+        /** Bundle key of the IDs of the duplicates to merge, as a long array */
+        public static final String EXTRA_DUPLICATE_IDS = "duplicate_ids";
+
+        /** Bundle key of the number of records merged by {@link #METHOD_MERGE} */
+        public static final String EXTRA_MERGED = "merged";
+
+        /**
+         * Returns the given records URI, set to merge exact duplicates on insert.
+         */
+        public static Uri buildMergingUri(Uri uri) {
+            return uri.buildUpon().appendQueryParameter(QUERY_PARAMETER_ON_DUPLICATE, ON_DUPLICATE_MERGE).build();
+        }
+
+        private DuplicateEntry() {
+        }
+    }
+
+    /**
+     * Inner class that defines the provider calls that undo and purge deletions of records.
+     * <p>
+     * Deleting records only marks them, in one statement, however many there are; reads hide
+     * them from then on. A deletion made with {@link #METHOD_DELETE_RECORDS} returns a token,
+     * which {@link #METHOD_UNDO_DELETE} takes to bring exactly that deletion back.
+     * {@link #METHOD_PURGE_DELETED} removes one batch of at most {@link #PURGE_BATCH} marked
+     * records per call, so a sale never waits for more than one batch; callers queue the next
+     * call after it until a batch comes back short. Daily maintenance purges the deletions
+     * older than {@link #UNDO_WINDOW_MILLIS}.
+     */
+    public static final class DeletionEntry {
+
+        /**
+         * Provider method, for {@link ContentResolver#call}, that deletes the records of a
+         * records URI, which may be store-scoped, like {@link ContentResolver#delete} does. The
+         * argument is the URI. The number deleted is returned under {@link #EXTRA_DELETED} and
+         * the deletion's token under {@link #EXTRA_DELETION}.
+         */
+        public static final String METHOD_DELETE_RECORDS = "delete_records";
+
+        /**
+         * Provider method, for {@link ContentResolver#call}, that restores the records of the
+         * deletion given by {@link #EXTRA_DELETION}, unless they were purged. The argument is the
+         * store, or null for the default one. The number restored is returned under
+         * {@link #EXTRA_RESTORED}.
+         */
+        public static final String METHOD_UNDO_DELETE = "undo_delete";
+
+        /**
+         * Provider method, for {@link ContentResolver#call}, that removes a batch of deleted
+         * records for good: records of the deletion given by {@link #EXTRA_DELETION}, in the
+         * store given by the argument or the default one, or else records of any store deleted
+         * at least {@link #EXTRA_OLDER_THAN_MILLIS} ago, by default {@link #UNDO_WINDOW_MILLIS}.
+         * The number removed is returned under {@link #EXTRA_PURGED}; fewer than
+         * {@link #PURGE_BATCH} means there are no more.
+         */
+        public static final String METHOD_PURGE_DELETED = "purge_deleted";
+
+        /** Bundle key of the age, in milliseconds, below which deletions are kept */
+        public static final String EXTRA_OLDER_THAN_MILLIS = "older_than_millis";
+
+        /** Bundle key of the token of a deletion, a long */
+        public static final String EXTRA_DELETION = "deletion";
+
+        /** Bundle key of the number of records deleted */
+        public static final String EXTRA_DELETED = "deleted";
+
+        /** Bundle key of the number of records restored */
+        public static final String EXTRA_RESTORED = "restored";
+
+        /** Bundle key of the number of records purged */
+        public static final String EXTRA_PURGED = "purged";
+
+        /** Records removed per transaction by a purge */
+        public static final int PURGE_BATCH = 500;
+
+        /** Time a deletion can be undone before maintenance may purge it */
+        public static final long UNDO_WINDOW_MILLIS = 60 * 1000;
+
+        private DeletionEntry() {
+        }
+    }
+
+    /**
+     * Inner class that defines the provider call that imports a supplier's CSV file of records,
+     * in the format described in {@link ImportPipeline}. Rows are parsed and validated in
+     * parallel and written by a single writer, a chunk per transaction, so a large file uses
+     * every core without holding the database for the whole import.
+     */
+    public static final class ImportEntry {
+
+        /**
+         * Provider method, for {@link ContentResolver#call}, that imports records. The argument
+         * is the records URI to insert into: {@link RecordEntry#CONTENT_URI}, scoped to a store
+         * with {@link StoreEntry#buildStoreUri} if needed, and made with
+         * {@link DuplicateEntry#buildMergingUri} to restock exact duplicates instead of adding
+         * them. The file is passed as a {@link android.os.ParcelFileDescriptor} opened for
+         * reading under {@link #EXTRA_SOURCE}. The call returns once the whole file is read.
+         */
+        public static final String METHOD_IMPORT = "import_records";
+
+        /** Bundle key of the file to import */
+        public static final String EXTRA_SOURCE = "source";
+
+        /** Bundle key of the number of records imported */
+        public static final String EXTRA_IMPORTED = "imported";
+
+        /** Bundle key of the number of rows that weren't imported */
+        public static final String EXTRA_PROBLEM_COUNT = "problem_count";
+
+        /**
+         * Bundle keys of the line numbers of the first {@link #MAX_PROBLEMS} rows that weren't
+         * imported, in file order, and of why, as messages that can be shown to the user
+         */
+        public static final String EXTRA_PROBLEM_LINES = "problem_lines";
+        public static final String EXTRA_PROBLEM_MESSAGES = "problem_messages";
+
+        /** Number of problems returned; the others are only counted */
+        public static final int MAX_PROBLEMS = 100;
+
+        private ImportEntry() {
+        }
+    }
+
+    /**
+     * Inner class that defines the provider call that maintains the databases. It is run in the
+     * background while the device is idle and charging; see
+     * {@link com.example.android.records.DatabaseMaintenanceJob}.
+     */
+    public static final class MaintenanceEntry {
+
+        /**
+         * Provider method, for {@link ContentResolver#call}, that runs database maintenance on
+         * every store for at most {@link #EXTRA_BUDGET_MILLIS}. Whether all stores are done is
+         * returned under {@link #EXTRA_COMPLETE}; if not, the next call resumes where this one
+         * stopped.
+         */
+        public static final String METHOD_RUN_MAINTENANCE = "run_maintenance";
+
+        /** Bundle key of the time the maintenance may take, in milliseconds */
+        public static final String EXTRA_BUDGET_MILLIS = "budget_millis";
+
+        /** Bundle key of whether the maintenance cycle is complete */
+        public static final String EXTRA_COMPLETE = "complete";
+
+        /** Time budget when the call doesn't give one */
+        public static final long DEFAULT_BUDGET_MILLIS = 60 * 1000;
+
+        /**
+         * Provider method, for {@link ContentResolver#call}, that stops the running
+         * {@link #METHOD_RUN_MAINTENANCE} call at the end of its current statement, as if its
+         * budget had run out. The next run resumes where it stopped.
+         */
+        public static final String METHOD_STOP_MAINTENANCE = "stop_maintenance";
+
+        /**
+         * Provider method, for {@link ContentResolver#call}, that recomputes the sort keys of one
+         * batch of records of a store whose keys are of another locale, after the locale
+         * changed. Whether the keys of all stores are current is returned under
+         * {@link #EXTRA_COMPLETE}; until then, {@link RecordEntry#SORT_BY_BAND} and
+         * {@link RecordEntry#SORT_BY_ALBUM} return the records of a store that isn't done in
+         * the order they were added.
+         */
+        public static final String METHOD_REFRESH_SORT_KEYS = "refresh_sort_keys";
+
+        private MaintenanceEntry() {
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the stock counters, which let devices that
+     * sell offline sync their stock without overwriting each other's sales.
+     * <p>
+     * Every device that changes a record's stock keeps two ever-growing counts for it: the
+     * copies it added and the copies it took away. A record's {@link RecordEntry#COLUMN_QUANTITY}
+     * is the sum over all devices of added minus taken. The counts are maintained by the
+     * database whenever the quantity is written, so sales and edits need no changes.
+     * <p>
+     * To sync, a device reads another device's {@link #CONTENT_URI} and inserts the rows into its
+     * own, in one bulk insert. Each count is merged by taking the larger of the two, so merging
+     * is order-independent, repeatable and never loses a sale, and the quantities follow. When
+     * two devices both sold the last copy, the merged quantity is -1: the shop is oversold.
+     * <p>
+     * Counters are matched by {@link RecordEntry#COLUMN_SKU}, so only records with a SKU are
+     * synced, and counters of SKUs a device doesn't have are skipped. The stock a record starts
+     * with is counted once, as the {@link #DEVICE_BASELINE}: devices that hold the same catalog
+     * agree on it, so merging their baselines doesn't add it up.
+     */
+    public static final class StockCounterEntry {
+
+        /** The content URI to read the stock counters, or to merge another device's into them */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_STOCK_COUNTERS);
+
+        /** The content URI of this device's ID, in a single row */
+        public static final Uri DEVICE_URI = Uri.withAppendedPath(CONTENT_URI, "device");
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of counters.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STOCK_COUNTERS;
+
+        /**
+         * The MIME type of the {@link #DEVICE_URI}.
+         */
+        public static final String CONTENT_ITEM_TYPE =
+                ContentResolver.CURSOR_ITEM_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STOCK_COUNTERS;
+
+        /** Name of database table for the stock counters */
+        public final static String TABLE_NAME = "stock_counters";
+
+        /** Name of database table holding this device's ID in its single row */
+        public final static String LOCAL_DEVICE_TABLE_NAME = "local_device";
+
+        /**
+         * {@link #COLUMN_DEVICE} of the stock records start with, before any device changes it
+         */
+        public static final String DEVICE_BASELINE = "baseline";
+
+        /**
+         * SKU of the record counted, see {@link RecordEntry#COLUMN_SKU}.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_SKU = RecordEntry.COLUMN_SKU;
+
+        /**
+         * ID of the device that made the changes, random for each database, or
+         * {@link #DEVICE_BASELINE}.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_DEVICE = "device";
+
+        /**
+         * Copies the device added to the record's stock, in total.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_INCREMENTS = "increments";
+
+        /**
+         * Copies the device took away from the record's stock, sales included, in total.
+         *
+         * Type: INTEGER
+         */
+        public final static String COLUMN_DECREMENTS = "decrements";
+
+        private StockCounterEntry() {
+        }
+    }
+
+    /**
+     * Inner class that defines constant values for the stores. Each shop location keeps its
+     * records, sales and everything else in a database of its own, so one shop's tables stay
+     * as small as that shop's stock.
+     * <p>
+     * Any content URI of this contract can be scoped to a store with {@link #buildStoreUri}:
+     * "stores/{store}/records/3" is record 3 of that store. A store's database is created the
+     * first time one of its URIs is used. Unscoped URIs address {@link #STORE_DEFAULT}. Changes to a store other than
+     * the default one are announced on its scoped URIs.
+     * <p>
+     * The pseudo store {@link #STORE_ALL} reads from every store at once, for head-office views.
+     * Its rows get a {@link #COLUMN_STORE} column naming their store. Rows are merged in the
+     * requested sort order, which may only use the projected columns; without one, the stores'
+     * rows follow each other. Sales rollups by supplier are summed across stores instead, so a
+     * bucket appears once for the whole chain; a rollup limit applies per store. It can't be
+     * written to, and URIs of a single row can't be used with it since IDs are only unique
+     * within a store.
+     */
+    public static final class StoreEntry {
+
+        /** The content URI to list the stores */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(BASE_CONTENT_URI, PATH_STORES);
+
+        /**
+         * The MIME type of the {@link #CONTENT_URI} for a list of stores.
+         */
+        public static final String CONTENT_LIST_TYPE =
+                ContentResolver.CURSOR_DIR_BASE_TYPE + "/" + CONTENT_AUTHORITY + "/" + PATH_STORES;
+
+        /** Store of the unscoped URIs */
+        public static final String STORE_DEFAULT = "main";
+
+        /** Pseudo store that reads from all stores */
+        public static final String STORE_ALL = "all";
+
+        /**
+         * Name of a store: 1 to 32 lower case letters, digits or underscores.
+         *
+         * Type: TEXT
+         */
+        public final static String COLUMN_STORE = "store";
+
+        /**
+         * Returns the given content URI of this contract, scoped to a store.
+         */
+        public static Uri buildStoreUri(String store, Uri uri) {
+            if (!isValidName(store) && !STORE_ALL.equals(store)) {
+                throw new IllegalArgumentException("Invalid store name " + store);
+            }
+            Uri.Builder builder = CONTENT_URI.buildUpon().appendPath(store);
+            for (String segment : uri.getPathSegments()) {
+                builder.appendPath(segment);
+            }
+            return builder.encodedQuery(uri.getEncodedQuery()).build();
+        }
+
+        /**
+         * Returns whether a name can be used for a real store.
+         */
+        public static boolean isValidName(String store) {
+            return store != null && store.matches("[a-z0-9_]{1,32}") && !STORE_ALL.equals(store);
+        }
+
+        private StoreEntry() {
+        }
+    }
+
+    /**
+     * Inner class that defines the bulk read of the records, for apps that keep a copy of the
+     * catalog. Instead of paging through cursor windows, the reader opens {@link #CONTENT_URI}
+     * with {@link ContentResolver#openFileDescriptor} in "r" mode and gets the read end of a
+     * pipe, which the provider fills from a background thread in one stream.
+     * <p>
+     * The stream is a {@link java.io.DataInputStream} sequence:
+     * <pre>
+     * int    {@link #MAGIC}
+     * byte   flags, {@link #FLAG_FULL} if all records follow rather than the changes only
+     * long   change log sequence number the stream is current with
+     * short  column count, then each column name as modified UTF-8; the first one is _id
+     * then frames, each starting with a byte:
+     *   {@link #FRAME_ROW}      one value per column
+     *   {@link #FRAME_DELETED}  varint ID of a record that was deleted
+     *   {@link #FRAME_END}      end of the stream
+     * </pre>
+     * A value is a byte tag followed by its data: {@link #VALUE_NULL}; {@link #VALUE_INTEGER}
+     * and a zigzag varint; {@link #VALUE_REAL} and a double; {@link #VALUE_TEXT} and a varint
+     * byte count of UTF-8 text. Varints are 7 bits per byte, low bits first.
+     * <p>
+     * If the read fails the pipe is closed with an error, which the reader sees as an
+     * IOException. The records are read in pages, so a full read isn't a snapshot: records
+     * changed while it runs may or may not be included, and a read since the sequence number
+     * in the header brings them up to date. Like the other URIs, it can be scoped to a store
+     * with {@link StoreEntry#buildStoreUri}.
+     */
+    public static final class BulkReadEntry {
+
+        /** The content URI to open for a bulk read */
+        public static final Uri CONTENT_URI = Uri.withAppendedPath(RecordEntry.CONTENT_URI, "bulk");
+
+        /**
+         * Query parameter with the comma-separated columns of the records table to read; all
+         * of them by default. _id is always read, as the first column.
+         */
+        public static final String QUERY_PARAMETER_COLUMNS = "columns";
+
+        /**
+         * Query parameter with the sequence number of an earlier read: only the records
+         * changed since then are read, unless the change log no longer reaches back that far.
+         */
+        public static final String QUERY_PARAMETER_SINCE = "since";
+
+        /** MIME type of the stream */
+        public static final String CONTENT_TYPE = "application/vnd." + CONTENT_AUTHORITY + ".bulk";
+
+        /** Start of a stream: "REC1" */
+        public static final int MAGIC = 0x52454331;
+
+        /** Header flag of a stream holding all records */
+        public static final int FLAG_FULL = 1;
+
+        /** Frame types */
+        public static final int FRAME_END = 0;
+        public static final int FRAME_ROW = 1;
+        public static final int FRAME_DELETED = 2;
+
+        /** Value tags */
+        public static final int VALUE_NULL = 0;
+        public static final int VALUE_INTEGER = 1;
+        public static final int VALUE_REAL = 2;
+        public static final int VALUE_TEXT = 3;
+
+        /**
+         * Returns the URI of a bulk read of the given columns, or all columns if null, of the
+         * records changed since the given sequence number, or all records if it is negative.
+         */
+        public static Uri buildUri(String[] columns, long since) {
+            Uri.Builder builder = CONTENT_URI.buildUpon();
+            if (columns != null) {
+                builder.appendQueryParameter(QUERY_PARAMETER_COLUMNS, TextUtils.join(",", columns));
+            }
+            if (since >= 0) {
+                builder.appendQueryParameter(QUERY_PARAMETER_SINCE, String.valueOf(since));
+            }
+            return builder.build();
+        }
+
+        private BulkReadEntry() {
+        }
+    }
+}
@@ -15,11 +15,27 @@
  */
 package com.example.android.records.data;
 
+import android.content.ContentValues;
 import android.content.Context;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
 import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteStatement;
 
+import com.example.android.records.core.DuplicateKeys;
+import com.example.android.records.core.SortKeys;
+import com.example.android.records.data.RecordContract.AlertEntry;
+import com.example.android.records.data.RecordContract.ChangeEntry;
+import com.example.android.records.data.RecordContract.PurchaseOrderEntry;
 import com.example.android.records.data.RecordContract.RecordEntry;
+import com.example.android.records.data.RecordContract.RollupEntry;
+import com.example.android.records.data.RecordContract.SaleEntry;
+import com.example.android.records.data.RecordContract.StockCounterEntry;
+import com.example.android.records.data.RecordContract.StoreEntry;
+import com.example.android.records.data.RecordContract.SupplierEntry;
+
+import java.util.Locale;
 
 /**
  * Database helper for Records app. Manages database creation and version management.
@@ -29,12 +45,36 @@ public class RecordDbHelper extends SQLiteOpenHelper {
     public static final String LOG_TAG = RecordDbHelper.class.getSimpleName();
 
     /** Name of the database file */
-    private static final String DATABASE_NAME = "records.db";
+    static final String DATABASE_NAME = "records.db";
+
+    /** Database files of the other stores are named "records-{store}.db" */
+    private static final String STORE_DATABASE_PREFIX = "records-";
+    private static final String STORE_DATABASE_SUFFIX = ".db";
+
+    /** Holds the locale the sort keys in the database were computed for */
+    private static final String SORT_KEY_LOCALE_TABLE = "sort_key_locale";
+    private static final String COLUMN_LOCALE = "locale";
 
     /**
      * Database version. If you change the database schema, you must increment the database version.
      */
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 18;
+
+    /** Bucket sizes maintained by the rollup trigger. */
+    private static final String[] ROLLUP_GRANULARITIES = {
+            RollupEntry.GRANULARITY_HOUR, RollupEntry.GRANULARITY_DAY, RollupEntry.GRANULARITY_MONTH};
+
+    /** Records whose sort keys are recomputed per transaction after a change of locale */
+    private static final int SORT_KEY_BATCH = 500;
+
+    /** Makes the sort keys of the open database, for new and renamed records */
+    private volatile SortKeys mSortKeys;
+
+    /** Whether every record's sort keys are of the locale of {@link #mSortKeys} */
+    private volatile boolean mSortKeysCurrent;
+
+    /** Highest record ID whose sort keys were recomputed since the database was opened */
+    private long mSortKeysRefreshedThrough;
 
     /**
      * Constructs a new instance of {@link RecordDbHelper}.
@@ -42,7 +82,72 @@ public class RecordDbHelper extends SQLiteOpenHelper {
      * @param context of the app
      */
     public RecordDbHelper(Context context) {
-        super(context, DATABASE_NAME, null, DATABASE_VERSION);
+        this(context, null);
+    }
+
+    /**
+     * Constructs a new instance of {@link RecordDbHelper} whose queries create their cursors
+     * through the given factory.
+     *
+     * @param context of the app
+     * @param factory to create cursors with, or null for the default
+     */
+    public RecordDbHelper(Context context, SQLiteDatabase.CursorFactory factory) {
+        this(context, DATABASE_NAME, factory);
+    }
+
+    /**
+     * Constructs a new instance of {@link RecordDbHelper} for the database of a store.
+     *
+     * @param context of the app
+     * @param name    of the database file, see {@link #databaseName(String)}
+     * @param factory to create cursors with, or null for the default
+     */
+    public RecordDbHelper(Context context, String name, SQLiteDatabase.CursorFactory factory) {
+        super(context, name, factory, DATABASE_VERSION);
+        // Readers don't wait for writers, and a write appends to the log instead of rewriting
+        // pages in place
+        setWriteAheadLoggingEnabled(true);
+    }
+
+    /**
+     * Return the sort keys of the records in the database. Only valid once it has been opened.
+     */
+    SortKeys getSortKeys() {
+        return mSortKeys;
+    }
+
+    /**
+     * Return true if the sort keys of all records are of the locale of {@link #getSortKeys()},
+     * so they can be sorted by. Only valid once the database has been opened.
+     */
+    boolean areSortKeysCurrent() {
+        return mSortKeysCurrent;
+    }
+
+    /**
+     * Return the name of the database file of a store.
+     */
+    static String databaseName(String store) {
+        if (StoreEntry.STORE_DEFAULT.equals(store)) {
+            return DATABASE_NAME;
+        }
+        return STORE_DATABASE_PREFIX + store + STORE_DATABASE_SUFFIX;
+    }
+
+    /**
+     * Return the store a database file belongs to, or null if it isn't a store database.
+     */
+    static String storeOf(String databaseName) {
+        if (DATABASE_NAME.equals(databaseName)) {
+            return StoreEntry.STORE_DEFAULT;
+        }
+        if (databaseName.startsWith(STORE_DATABASE_PREFIX) && databaseName.endsWith(STORE_DATABASE_SUFFIX)) {
+            String store = databaseName.substring(STORE_DATABASE_PREFIX.length(),
+                    databaseName.length() - STORE_DATABASE_SUFFIX.length());
+            return StoreEntry.isValidName(store) ? store : null;
+        }
+        return null;
     }
 
     /**
@@ -59,12 +164,66 @@ public class RecordDbHelper extends SQLiteOpenHelper {
                 + RecordEntry.COLUMN_PRICE + " INTEGER NOT NULL DEFAULT 0, "
                 + RecordEntry.COLUMN_RECORD_COVER + " TEXT NOT NULL, "
                 + RecordEntry.COLUMN_SUPPLIER_NAME + " TEXT NOT NULL, "
-                + RecordEntry.COLUMN_SUPPLIER_EMAIL + " TEXT NOT NULL);";
+                + RecordEntry.COLUMN_SUPPLIER_EMAIL + " TEXT NOT NULL, "
+                + RecordEntry.COLUMN_REORDER_THRESHOLD + " INTEGER, "
+                + RecordEntry.COLUMN_SKU + " TEXT, "
+                + RecordEntry.COLUMN_DEDUPE_KEY + " TEXT, "
+                + RecordEntry.COLUMN_DELETED_AT + " INTEGER, "
+                + RecordEntry.COLUMN_DELETED_SKU + " TEXT, "
+                + RecordEntry.COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 1, "
+                + RecordEntry.COLUMN_BAND_SORT_KEY + " BLOB, "
+                + RecordEntry.COLUMN_ALBUM_SORT_KEY + " BLOB);";
 
 
 
         // Execute the SQL statement
         db.execSQL(SQL_CREATE_RECORDS_TABLE);
+
+        createSalesLedger(db);
+        createSalesRollups(db);
+        createLowStockAlerts(db);
+        createAlertCleanup(db);
+        createPurchaseOrderOutbox(db);
+        createSearchIndexes(db);
+        createChangeLog(db);
+        createSkuIndex(db);
+        createLocalDevice(db);
+        createStockCounters(db);
+        createDedupeIndex(db);
+        createTombstoneIndex(db);
+        createTombstoneSku(db);
+        createSortKeys(db);
+        // There are no keys yet to be of another locale
+        ContentValues locale = new ContentValues();
+        locale.put(COLUMN_LOCALE, Locale.getDefault().toString());
+        db.insert(SORT_KEY_LOCALE_TABLE, null, locale);
+        limitChangeLogToContent(db);
+    }
+
+    /**
+     * This is called before the database is created or opened.
+     */
+    @Override
+    public void onConfigure(SQLiteDatabase db) {
+        super.onConfigure(db);
+        // Only takes effect on a new database; existing ones are switched over by the first
+        // maintenance run. Freed pages are then released by maintenance rather than on commit.
+        db.execSQL("PRAGMA auto_vacuum = INCREMENTAL;");
+    }
+
+    /**
+     * This is called every time the database is opened, after any creation or upgrade.
+     */
+    @Override
+    public void onOpen(SQLiteDatabase db) {
+        super.onOpen(db);
+        SortKeys sortKeys = new SortKeys(Locale.getDefault());
+        // Keys of another locale are recomputed in the background, see refreshSortKeys(), not
+        // here on the way to the first screen
+        mSortKeysCurrent = DatabaseUtils.queryNumEntries(db, SORT_KEY_LOCALE_TABLE, COLUMN_LOCALE + "=?",
+                new String[] { sortKeys.getLocale().toString() }) > 0;
+        mSortKeys = sortKeys;
+        StartupTrace.mark(StartupTrace.FIRST_DB_OPEN);
     }
 
     /**
@@ -72,6 +231,596 @@ public class RecordDbHelper extends SQLiteOpenHelper {
      */
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // The database is still at version 1, so there's nothing to do be done here.
+        // Each step upgrades the schema by one version, so older databases walk through
+        // every step in order.
+        if (oldVersion < 2) {
+            createSalesLedger(db);
+        }
+        if (oldVersion < 3) {
+            createSalesRollups(db);
+            backfillSalesRollups(db);
+        }
+        if (oldVersion < 4) {
+            db.execSQL("ALTER TABLE " + RecordEntry.TABLE_NAME + " ADD COLUMN "
+                    + RecordEntry.COLUMN_REORDER_THRESHOLD + " INTEGER;");
+            createLowStockAlerts(db);
+        }
+        if (oldVersion < 5) {
+            createPurchaseOrderOutbox(db);
+        }
+        if (oldVersion < 6) {
+            createSearchIndexes(db);
+        }
+        if (oldVersion < 7) {
+            createChangeLog(db);
+        }
+        if (oldVersion < 8) {
+            db.execSQL("ALTER TABLE " + RecordEntry.TABLE_NAME + " ADD COLUMN "
+                    + RecordEntry.COLUMN_SKU + " TEXT;");
+            createSkuIndex(db);
+        }
+        if (oldVersion < 9) {
+            // The counters themselves are created by the version 14 step
+            createLocalDevice(db);
+        }
+        if (oldVersion < 10) {
+            db.execSQL("ALTER TABLE " + RecordEntry.TABLE_NAME + " ADD COLUMN "
+                    + RecordEntry.COLUMN_DEDUPE_KEY + " TEXT;");
+            backfillDedupeKeys(db);
+            createDedupeIndex(db);
+        }
+        if (oldVersion < 11) {
+            db.execSQL("ALTER TABLE " + RecordEntry.TABLE_NAME + " ADD COLUMN "
+                    + RecordEntry.COLUMN_DELETED_AT + " INTEGER;");
+            createTombstoneIndex(db);
+        }
+        if (oldVersion < 12) {
+            db.execSQL("ALTER TABLE " + RecordEntry.TABLE_NAME + " ADD COLUMN "
+                    + RecordEntry.COLUMN_VERSION + " INTEGER NOT NULL DEFAULT 1;");
+        }
+        if (oldVersion < 13) {
+            db.execSQL("ALTER TABLE " + RecordEntry.TABLE_NAME + " ADD COLUMN "
+                    + RecordEntry.COLUMN_BAND_SORT_KEY + " BLOB;");
+            db.execSQL("ALTER TABLE " + RecordEntry.TABLE_NAME + " ADD COLUMN "
+                    + RecordEntry.COLUMN_ALBUM_SORT_KEY + " BLOB;");
+            // The keys are computed in the background, as for a change of locale
+            createSortKeys(db);
+        }
+        if (oldVersion < 14) {
+            dropStockCounters(db);
+            createStockCounters(db);
+        }
+        if (oldVersion < 15) {
+            limitChangeLogToContent(db);
+        }
+        if (oldVersion < 16) {
+            db.execSQL("ALTER TABLE " + RecordEntry.TABLE_NAME + " ADD COLUMN "
+                    + RecordEntry.COLUMN_DELETED_SKU + " TEXT;");
+            dropStockTriggers(db);
+            createStockTriggers(db);
+            createTombstoneSku(db);
+            // Free the SKUs of the records already deleted
+            db.execSQL("UPDATE " + RecordEntry.TABLE_NAME + " SET " + RecordEntry.COLUMN_DELETED_SKU
+                    + " = " + RecordEntry.COLUMN_SKU + ", " + RecordEntry.COLUMN_SKU + " = NULL WHERE "
+                    + RecordEntry.COLUMN_DELETED_AT + " IS NOT NULL AND " + RecordEntry.COLUMN_SKU
+                    + " IS NOT NULL;");
+        }
+        if (oldVersion < 17) {
+            createAlertCleanup(db);
+            db.execSQL("DELETE FROM " + AlertEntry.TABLE_NAME + " WHERE " + AlertEntry.COLUMN_RECORD_ID
+                    + " NOT IN (SELECT " + RecordEntry._ID + " FROM " + RecordEntry.TABLE_NAME + ");");
+        }
+        if (oldVersion < 18 && oldVersion >= 3) {
+            // Rebuild the UTC buckets in local time; older databases were backfilled that way above
+            db.execSQL("DROP TRIGGER IF EXISTS sales_rollup_insert;");
+            db.execSQL("DELETE FROM " + RollupEntry.RECORD_TABLE_NAME + ";");
+            db.execSQL("DELETE FROM " + RollupEntry.SUPPLIER_TABLE_NAME + ";");
+            backfillSalesRollups(db);
+            createSalesRollupTrigger(db);
+        }
+    }
+
+    /**
+     * Creates the append-only sales ledger. The primary key is a plain rowid alias (no
+     * AUTOINCREMENT) so an append never has to touch the sqlite_sequence table, and the two
+     * indexes serve the "sales of one record" and "sales in a time range" reads.
+     */
+    private static void createSalesLedger(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SaleEntry.TABLE_NAME + " ("
+                + SaleEntry._ID + " INTEGER PRIMARY KEY, "
+                + SaleEntry.COLUMN_RECORD_ID + " INTEGER NOT NULL, "
+                + SaleEntry.COLUMN_QUANTITY + " INTEGER NOT NULL, "
+                + SaleEntry.COLUMN_PRICE + " INTEGER NOT NULL DEFAULT 0, "
+                + SaleEntry.COLUMN_SOLD_AT + " INTEGER NOT NULL);");
+        db.execSQL("CREATE INDEX sales_record_idx ON " + SaleEntry.TABLE_NAME + " ("
+                + SaleEntry.COLUMN_RECORD_ID + ", " + SaleEntry.COLUMN_SOLD_AT + ");");
+        db.execSQL("CREATE INDEX sales_sold_at_idx ON " + SaleEntry.TABLE_NAME + " ("
+                + SaleEntry.COLUMN_SOLD_AT + ");");
+    }
+
+    /**
+     * Creates the hourly, daily and monthly sales rollups per record and per supplier, and the
+     * trigger that keeps them current. Every append to the ledger adds its units and revenue to
+     * the six buckets it falls in, inside the same transaction, so reports read a bounded number
+     * of pre-aggregated rows however long the sales history gets.
+     */
+    private static void createSalesRollups(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + RollupEntry.RECORD_TABLE_NAME + " ("
+                + RollupEntry.COLUMN_RECORD_ID + " INTEGER NOT NULL, "
+                + RollupEntry.COLUMN_GRANULARITY + " TEXT NOT NULL, "
+                + RollupEntry.COLUMN_BUCKET_START + " INTEGER NOT NULL, "
+                + RollupEntry.COLUMN_UNITS + " INTEGER NOT NULL DEFAULT 0, "
+                + RollupEntry.COLUMN_REVENUE + " INTEGER NOT NULL DEFAULT 0, "
+                + "PRIMARY KEY (" + RollupEntry.COLUMN_RECORD_ID + ", " + RollupEntry.COLUMN_GRANULARITY
+                + ", " + RollupEntry.COLUMN_BUCKET_START + "));");
+        db.execSQL("CREATE TABLE " + RollupEntry.SUPPLIER_TABLE_NAME + " ("
+                + RollupEntry.COLUMN_SUPPLIER_NAME + " TEXT NOT NULL, "
+                + RollupEntry.COLUMN_GRANULARITY + " TEXT NOT NULL, "
+                + RollupEntry.COLUMN_BUCKET_START + " INTEGER NOT NULL, "
+                + RollupEntry.COLUMN_UNITS + " INTEGER NOT NULL DEFAULT 0, "
+                + RollupEntry.COLUMN_REVENUE + " INTEGER NOT NULL DEFAULT 0, "
+                + "PRIMARY KEY (" + RollupEntry.COLUMN_SUPPLIER_NAME + ", " + RollupEntry.COLUMN_GRANULARITY
+                + ", " + RollupEntry.COLUMN_BUCKET_START + "));");
+
+        // Time-window reads across all records or suppliers ("best sellers this month").
+        db.execSQL("CREATE INDEX record_sales_rollup_bucket_idx ON " + RollupEntry.RECORD_TABLE_NAME
+                + " (" + RollupEntry.COLUMN_GRANULARITY + ", " + RollupEntry.COLUMN_BUCKET_START + ");");
+        db.execSQL("CREATE INDEX supplier_sales_rollup_bucket_idx ON " + RollupEntry.SUPPLIER_TABLE_NAME
+                + " (" + RollupEntry.COLUMN_GRANULARITY + ", " + RollupEntry.COLUMN_BUCKET_START + ");");
+        createSalesRollupTrigger(db);
+    }
+
+    private static void createSalesRollupTrigger(SQLiteDatabase db) {
+        String supplier = "(SELECT " + RecordEntry.COLUMN_SUPPLIER_NAME + " FROM " + RecordEntry.TABLE_NAME
+                + " WHERE " + RecordEntry._ID + " = NEW." + SaleEntry.COLUMN_RECORD_ID + ")";
+        StringBuilder trigger = new StringBuilder("CREATE TRIGGER sales_rollup_insert AFTER INSERT ON "
+                + SaleEntry.TABLE_NAME + " BEGIN ");
+        for (String granularity : ROLLUP_GRANULARITIES) {
+            String bucket = bucketStart(granularity, "NEW." + SaleEntry.COLUMN_SOLD_AT);
+            appendRollupUpsert(trigger, RollupEntry.RECORD_TABLE_NAME, RollupEntry.COLUMN_RECORD_ID,
+                    "NEW." + SaleEntry.COLUMN_RECORD_ID, granularity, bucket);
+            appendRollupUpsert(trigger, RollupEntry.SUPPLIER_TABLE_NAME, RollupEntry.COLUMN_SUPPLIER_NAME,
+                    supplier, granularity, bucket);
+        }
+        trigger.append("END;");
+        db.execSQL(trigger.toString());
+    }
+
+    /**
+     * Returns the SQL expression for the start of the bucket that the given time expression
+     * falls in. Buckets are hours, days and months of the shop's local time, the device's time
+     * zone when the sale is made, so a day is a business day; the start is stored in
+     * milliseconds since the epoch like any other time.
+     */
+    private static String bucketStart(String granularity, String time) {
+        String local = "(" + time + ") / 1000, 'unixepoch', 'localtime'";
+        switch (granularity) {
+            case RollupEntry.GRANULARITY_HOUR:
+                // There is no 'start of hour' modifier, and a time zone can be off by half an hour
+                return "(CAST(strftime('%s', strftime('%Y-%m-%d %H:00:00', " + local + "), 'utc') AS INTEGER) * 1000)";
+            case RollupEntry.GRANULARITY_DAY:
+                return "(CAST(strftime('%s', " + local + ", 'start of day', 'utc') AS INTEGER) * 1000)";
+            default:
+                return "(CAST(strftime('%s', " + local + ", 'start of month', 'utc') AS INTEGER) * 1000)";
+        }
+    }
+
+    /**
+     * Appends the two trigger statements that add NEW's units and revenue to one bucket. SQLite
+     * on older devices has no UPSERT, so the bucket is created empty first and then incremented.
+     */
+    private static void appendRollupUpsert(StringBuilder trigger, String table, String keyColumn,
+                                           String key, String granularity, String bucket) {
+        trigger.append("INSERT OR IGNORE INTO ").append(table).append(" (")
+                .append(keyColumn).append(", ")
+                .append(RollupEntry.COLUMN_GRANULARITY).append(", ")
+                .append(RollupEntry.COLUMN_BUCKET_START).append(") VALUES (")
+                .append(key).append(", '").append(granularity).append("', ").append(bucket).append("); ");
+        trigger.append("UPDATE ").append(table).append(" SET ")
+                .append(RollupEntry.COLUMN_UNITS).append(" = ").append(RollupEntry.COLUMN_UNITS)
+                .append(" + NEW.").append(SaleEntry.COLUMN_QUANTITY).append(", ")
+                .append(RollupEntry.COLUMN_REVENUE).append(" = ").append(RollupEntry.COLUMN_REVENUE)
+                .append(" + NEW.").append(SaleEntry.COLUMN_QUANTITY).append(" * NEW.").append(SaleEntry.COLUMN_PRICE)
+                .append(" WHERE ").append(keyColumn).append(" = ").append(key)
+                .append(" AND ").append(RollupEntry.COLUMN_GRANULARITY).append(" = '").append(granularity).append("'")
+                .append(" AND ").append(RollupEntry.COLUMN_BUCKET_START).append(" = ").append(bucket).append("; ");
+    }
+
+    /**
+     * Builds the rollups of an upgraded database from the sales already in the ledger.
+     */
+    private static void backfillSalesRollups(SQLiteDatabase db) {
+        for (String granularity : ROLLUP_GRANULARITIES) {
+            String bucket = bucketStart(granularity, "s." + SaleEntry.COLUMN_SOLD_AT);
+            db.execSQL("INSERT INTO " + RollupEntry.RECORD_TABLE_NAME + " ("
+                    + RollupEntry.COLUMN_RECORD_ID + ", " + RollupEntry.COLUMN_GRANULARITY + ", "
+                    + RollupEntry.COLUMN_BUCKET_START + ", " + RollupEntry.COLUMN_UNITS + ", "
+                    + RollupEntry.COLUMN_REVENUE + ")"
+                    + " SELECT s." + SaleEntry.COLUMN_RECORD_ID + ", '" + granularity + "', " + bucket
+                    + ", SUM(s." + SaleEntry.COLUMN_QUANTITY + "), SUM(s." + SaleEntry.COLUMN_QUANTITY
+                    + " * s." + SaleEntry.COLUMN_PRICE + ")"
+                    + " FROM " + SaleEntry.TABLE_NAME + " s"
+                    + " GROUP BY s." + SaleEntry.COLUMN_RECORD_ID + ", " + bucket + ";");
+            db.execSQL("INSERT INTO " + RollupEntry.SUPPLIER_TABLE_NAME + " ("
+                    + RollupEntry.COLUMN_SUPPLIER_NAME + ", " + RollupEntry.COLUMN_GRANULARITY + ", "
+                    + RollupEntry.COLUMN_BUCKET_START + ", " + RollupEntry.COLUMN_UNITS + ", "
+                    + RollupEntry.COLUMN_REVENUE + ")"
+                    + " SELECT r." + RecordEntry.COLUMN_SUPPLIER_NAME + ", '" + granularity + "', " + bucket
+                    + ", SUM(s." + SaleEntry.COLUMN_QUANTITY + "), SUM(s." + SaleEntry.COLUMN_QUANTITY
+                    + " * s." + SaleEntry.COLUMN_PRICE + ")"
+                    + " FROM " + SaleEntry.TABLE_NAME + " s JOIN " + RecordEntry.TABLE_NAME + " r"
+                    + " ON r." + RecordEntry._ID + " = s." + SaleEntry.COLUMN_RECORD_ID
+                    + " GROUP BY r." + RecordEntry.COLUMN_SUPPLIER_NAME + ", " + bucket + ";");
+        }
+    }
+
+    /**
+     * Creates the suppliers and alerts tables and the triggers that raise an alert when a
+     * record's stock crosses its reorder threshold. The check runs inside the write that changes
+     * the stock and costs two primary-key lookups, so there is nothing to scan later and
+     * reading the catalog pays nothing for it.
+     */
+    private static void createLowStockAlerts(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + SupplierEntry.TABLE_NAME + " ("
+                + SupplierEntry.COLUMN_SUPPLIER_NAME + " TEXT PRIMARY KEY, "
+                + SupplierEntry.COLUMN_REORDER_THRESHOLD + " INTEGER NOT NULL DEFAULT "
+                + RecordEntry.DEFAULT_REORDER_THRESHOLD + ");");
+        db.execSQL("CREATE TABLE " + AlertEntry.TABLE_NAME + " ("
+                + AlertEntry._ID + " INTEGER PRIMARY KEY, "
+                + AlertEntry.COLUMN_RECORD_ID + " INTEGER NOT NULL, "
+                + AlertEntry.COLUMN_QUANTITY + " INTEGER NOT NULL, "
+                + AlertEntry.COLUMN_THRESHOLD + " INTEGER NOT NULL, "
+                + AlertEntry.COLUMN_CREATED_AT + " INTEGER NOT NULL, "
+                + AlertEntry.COLUMN_ACKNOWLEDGED + " INTEGER NOT NULL DEFAULT 0);");
+        db.execSQL("CREATE INDEX alerts_acknowledged_idx ON " + AlertEntry.TABLE_NAME + " ("
+                + AlertEntry.COLUMN_ACKNOWLEDGED + ", " + AlertEntry._ID + ");");
+
+        String threshold = "COALESCE(NEW." + RecordEntry.COLUMN_REORDER_THRESHOLD
+                + ", (SELECT " + SupplierEntry.COLUMN_REORDER_THRESHOLD + " FROM " + SupplierEntry.TABLE_NAME
+                + " WHERE " + SupplierEntry.COLUMN_SUPPLIER_NAME + " = NEW." + RecordEntry.COLUMN_SUPPLIER_NAME + ")"
+                + ", " + RecordEntry.DEFAULT_REORDER_THRESHOLD + ")";
+        String raiseAlert = "INSERT INTO " + AlertEntry.TABLE_NAME + " ("
+                + AlertEntry.COLUMN_RECORD_ID + ", " + AlertEntry.COLUMN_QUANTITY + ", "
+                + AlertEntry.COLUMN_THRESHOLD + ", " + AlertEntry.COLUMN_CREATED_AT + ")"
+                + " VALUES (NEW." + RecordEntry._ID + ", NEW." + RecordEntry.COLUMN_QUANTITY + ", "
+                + threshold + ", CAST(strftime('%s', 'now') AS INTEGER) * 1000);";
+
+        // Only the downward crossing raises an alert; staying below the threshold doesn't
+        // raise another one on every sale.
+        db.execSQL("CREATE TRIGGER records_low_stock_update AFTER UPDATE OF "
+                + RecordEntry.COLUMN_QUANTITY + " ON " + RecordEntry.TABLE_NAME
+                + " WHEN NEW." + RecordEntry.COLUMN_QUANTITY + " <= " + threshold
+                + " AND OLD." + RecordEntry.COLUMN_QUANTITY + " > " + threshold
+                + " BEGIN " + raiseAlert + " END;");
+        db.execSQL("CREATE TRIGGER records_low_stock_insert AFTER INSERT ON " + RecordEntry.TABLE_NAME
+                + " WHEN NEW." + RecordEntry.COLUMN_QUANTITY + " <= " + threshold
+                + " BEGIN " + raiseAlert + " END;");
+    }
+
+    /**
+     * Creates the trigger that deletes a record's alerts when the record is purged. Until then
+     * they are kept, hidden, so undoing the deletion brings them back.
+     */
+    private static void createAlertCleanup(SQLiteDatabase db) {
+        db.execSQL("CREATE TRIGGER records_alerts_delete AFTER DELETE ON " + RecordEntry.TABLE_NAME
+                + " BEGIN DELETE FROM " + AlertEntry.TABLE_NAME + " WHERE " + AlertEntry.COLUMN_RECORD_ID
+                + " = OLD." + RecordEntry._ID + "; END;");
+    }
+
+    /**
+     * Creates the outbox of consolidated purchase orders. Pending orders are read oldest first,
+     * which the (status, _id) index serves directly.
+     */
+    private static void createPurchaseOrderOutbox(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + PurchaseOrderEntry.TABLE_NAME + " ("
+                + PurchaseOrderEntry._ID + " INTEGER PRIMARY KEY AUTOINCREMENT, "
+                + PurchaseOrderEntry.COLUMN_SUPPLIER_NAME + " TEXT NOT NULL, "
+                + PurchaseOrderEntry.COLUMN_SUPPLIER_EMAIL + " TEXT NOT NULL, "
+                + PurchaseOrderEntry.COLUMN_SUBJECT + " TEXT NOT NULL, "
+                + PurchaseOrderEntry.COLUMN_BODY + " TEXT NOT NULL, "
+                + PurchaseOrderEntry.COLUMN_LINE_COUNT + " INTEGER NOT NULL, "
+                + PurchaseOrderEntry.COLUMN_TOTAL_UNITS + " INTEGER NOT NULL, "
+                + PurchaseOrderEntry.COLUMN_CREATED_AT + " INTEGER NOT NULL, "
+                + PurchaseOrderEntry.COLUMN_STATUS + " INTEGER NOT NULL DEFAULT "
+                + PurchaseOrderEntry.STATUS_PENDING + ");");
+        db.execSQL("CREATE INDEX purchase_orders_status_idx ON " + PurchaseOrderEntry.TABLE_NAME + " ("
+                + PurchaseOrderEntry.COLUMN_STATUS + ", " + PurchaseOrderEntry._ID + ");");
+    }
+
+    /**
+     * Creates case-insensitive indexes on album and band name, so a prefix search is two index
+     * range scans rather than a full table scan.
+     */
+    private static void createSearchIndexes(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX records_album_nocase_idx ON " + RecordEntry.TABLE_NAME + " ("
+                + RecordEntry.COLUMN_ALBUM_NAME + " COLLATE NOCASE);");
+        db.execSQL("CREATE INDEX records_band_nocase_idx ON " + RecordEntry.TABLE_NAME + " ("
+                + RecordEntry.COLUMN_BAND_NAME + " COLLATE NOCASE);");
+    }
+
+    /**
+     * Creates the unique index on SKU, so a scanned code finds its record with one index seek
+     * and two records can't share a code. Records without a SKU are NULL, which the index lets
+     * any number of records have, and so are deleted records, whose SKU is moved aside; see
+     * {@link #createTombstoneSku}.
+     */
+    private static void createSkuIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE UNIQUE INDEX records_sku_idx ON " + RecordEntry.TABLE_NAME + " ("
+                + RecordEntry.COLUMN_SKU + ");");
+    }
+
+    /**
+     * Creates the record change log and the triggers that append to it. The primary key is a
+     * plain rowid alias, so sequence numbers stay consecutive, and pruning runs once every
+     * thousand changes rather than on every write.
+     */
+    private static void createChangeLog(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + ChangeEntry.TABLE_NAME + " ("
+                + ChangeEntry._ID + " INTEGER PRIMARY KEY, "
+                + ChangeEntry.COLUMN_RECORD_ID + " INTEGER NOT NULL, "
+                + ChangeEntry.COLUMN_OPERATION + " INTEGER NOT NULL);");
+
+        db.execSQL("CREATE TRIGGER records_change_insert AFTER INSERT ON " + RecordEntry.TABLE_NAME
+                + " BEGIN " + appendChange("NEW", ChangeEntry.OPERATION_INSERT) + " END;");
+        db.execSQL("CREATE TRIGGER records_change_update AFTER UPDATE ON " + RecordEntry.TABLE_NAME
+                + " BEGIN " + appendChange("NEW", ChangeEntry.OPERATION_UPDATE) + " END;");
+        db.execSQL("CREATE TRIGGER records_change_delete AFTER DELETE ON " + RecordEntry.TABLE_NAME
+                + " BEGIN " + appendChange("OLD", ChangeEntry.OPERATION_DELETE) + " END;");
+        db.execSQL("CREATE TRIGGER record_changes_prune AFTER INSERT ON " + ChangeEntry.TABLE_NAME
+                + " WHEN NEW." + ChangeEntry._ID + " % 1000 = 0"
+                + " BEGIN DELETE FROM " + ChangeEntry.TABLE_NAME + " WHERE " + ChangeEntry._ID
+                + " <= NEW." + ChangeEntry._ID + " - " + ChangeEntry.RETAINED_CHANGES + "; END;");
+    }
+
+    /**
+     * Creates the index on the duplicate key, so an import finds an exact duplicate with one
+     * seek.
+     */
+    private static void createDedupeIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX records_dedupe_key_idx ON " + RecordEntry.TABLE_NAME + " ("
+                + RecordEntry.COLUMN_DEDUPE_KEY + ");");
+    }
+
+    /**
+     * Creates the index on the deletion time. Live records all sort first, as nulls, so undo
+     * finds the latest deletion and purge finds the expired ones without scanning them.
+     */
+    private static void createTombstoneIndex(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX records_deleted_at_idx ON " + RecordEntry.TABLE_NAME + " ("
+                + RecordEntry.COLUMN_DELETED_AT + ");");
+    }
+
+    /**
+     * Creates the trigger that moves the SKU of a deleted record aside, so the unique SKU index
+     * lets a new record take the barcode before the deleted one is purged. Partial indexes would
+     * leave the SKU in place, but need SQLite 3.8, which KitKat doesn't have. Restoring the
+     * record moves the SKU back, unless a live record has taken it by then; the restored record
+     * is left without one.
+     */
+    private static void createTombstoneSku(SQLiteDatabase db) {
+        String self = " WHERE " + RecordEntry._ID + " = NEW." + RecordEntry._ID;
+        db.execSQL("CREATE TRIGGER records_tombstone_sku AFTER UPDATE OF " + RecordEntry.COLUMN_DELETED_AT
+                + " ON " + RecordEntry.TABLE_NAME + " BEGIN"
+                + " UPDATE " + RecordEntry.TABLE_NAME + " SET " + RecordEntry.COLUMN_DELETED_SKU + " = "
+                + RecordEntry.COLUMN_SKU + ", " + RecordEntry.COLUMN_SKU + " = NULL" + self
+                + " AND OLD." + RecordEntry.COLUMN_DELETED_AT + " IS NULL AND NEW."
+                + RecordEntry.COLUMN_DELETED_AT + " IS NOT NULL AND NEW." + RecordEntry.COLUMN_SKU + " IS NOT NULL;"
+                + " UPDATE " + RecordEntry.TABLE_NAME + " SET " + RecordEntry.COLUMN_SKU + " = CASE WHEN"
+                + " EXISTS (SELECT 1 FROM " + RecordEntry.TABLE_NAME + " WHERE " + RecordEntry.COLUMN_SKU
+                + " = NEW." + RecordEntry.COLUMN_DELETED_SKU + ") THEN NULL ELSE NEW."
+                + RecordEntry.COLUMN_DELETED_SKU + " END, " + RecordEntry.COLUMN_DELETED_SKU + " = NULL" + self
+                + " AND OLD." + RecordEntry.COLUMN_DELETED_AT + " IS NOT NULL AND NEW."
+                + RecordEntry.COLUMN_DELETED_AT + " IS NULL AND NEW." + RecordEntry.COLUMN_DELETED_SKU
+                + " IS NOT NULL; END;");
+    }
+
+    /**
+     * Creates the indexes on the sort keys, each ending with the other name's key so records
+     * of one band, or albums of one name, come out in order too. They start with the deletion
+     * time, so the live records are one range of the index, already in order, and the catalog
+     * is read without a sort. Also creates the table that holds the locale the keys were
+     * computed for, empty until they are.
+     */
+    private static void createSortKeys(SQLiteDatabase db) {
+        db.execSQL("CREATE INDEX records_band_sort_idx ON " + RecordEntry.TABLE_NAME + " ("
+                + RecordEntry.COLUMN_DELETED_AT + ", " + RecordEntry.COLUMN_BAND_SORT_KEY + ", "
+                + RecordEntry.COLUMN_ALBUM_SORT_KEY + ");");
+        db.execSQL("CREATE INDEX records_album_sort_idx ON " + RecordEntry.TABLE_NAME + " ("
+                + RecordEntry.COLUMN_DELETED_AT + ", " + RecordEntry.COLUMN_ALBUM_SORT_KEY + ", "
+                + RecordEntry.COLUMN_BAND_SORT_KEY + ");");
+        db.execSQL("CREATE TABLE " + SORT_KEY_LOCALE_TABLE + " (" + COLUMN_LOCALE + " TEXT NOT NULL);");
+    }
+
+    /**
+     * Recomputes the sort keys of the next batch of records if they were computed for another
+     * locale, or not at all, in one transaction. Like the duplicate keys, they are computed in
+     * Java. Return true once the keys of all records are current. If the process ends before
+     * then, the next one starts over, since the locale is only stored with the last batch.
+     */
+    synchronized boolean refreshSortKeys(SQLiteDatabase db) {
+        if (mSortKeysCurrent) {
+            return true;
+        }
+        SortKeys sortKeys = mSortKeys;
+        db.beginTransaction();
+        Cursor cursor = db.query(RecordEntry.TABLE_NAME, new String[] { RecordEntry._ID,
+                RecordEntry.COLUMN_BAND_NAME, RecordEntry.COLUMN_ALBUM_NAME }, RecordEntry._ID + " > ?",
+                new String[] { String.valueOf(mSortKeysRefreshedThrough) }, null, null, RecordEntry._ID,
+                String.valueOf(SORT_KEY_BATCH));
+        SQLiteStatement update = db.compileStatement("UPDATE " + RecordEntry.TABLE_NAME + " SET "
+                + RecordEntry.COLUMN_BAND_SORT_KEY + " = ?, " + RecordEntry.COLUMN_ALBUM_SORT_KEY + " = ?"
+                + " WHERE " + RecordEntry._ID + " = ?");
+        long refreshedThrough = mSortKeysRefreshedThrough;
+        boolean done = cursor.getCount() < SORT_KEY_BATCH;
+        try {
+            while (cursor.moveToNext()) {
+                refreshedThrough = cursor.getLong(0);
+                update.bindBlob(1, sortKeys.of(cursor.getString(1)));
+                update.bindBlob(2, sortKeys.of(cursor.getString(2)));
+                update.bindLong(3, refreshedThrough);
+                update.executeUpdateDelete();
+            }
+            if (done) {
+                db.delete(SORT_KEY_LOCALE_TABLE, null, null);
+                ContentValues values = new ContentValues();
+                values.put(COLUMN_LOCALE, sortKeys.getLocale().toString());
+                db.insert(SORT_KEY_LOCALE_TABLE, null, values);
+            }
+            db.setTransactionSuccessful();
+        } finally {
+            update.close();
+            cursor.close();
+            db.endTransaction();
+        }
+        mSortKeysRefreshedThrough = refreshedThrough;
+        mSortKeysCurrent = done;
+        return done;
+    }
+
+    /**
+     * Replaces the change log's update trigger with one that only fires for the columns a
+     * record's content is in, so rewriting the keys derived from it, such as the sort keys
+     * after a change of locale, isn't logged as a change of every record.
+     */
+    private static void limitChangeLogToContent(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS records_change_update;");
+        db.execSQL("CREATE TRIGGER records_change_update AFTER UPDATE OF "
+                + RecordEntry.COLUMN_ALBUM_NAME + ", " + RecordEntry.COLUMN_BAND_NAME + ", "
+                + RecordEntry.COLUMN_QUANTITY + ", " + RecordEntry.COLUMN_PRICE + ", "
+                + RecordEntry.COLUMN_RECORD_COVER + ", " + RecordEntry.COLUMN_SUPPLIER_NAME + ", "
+                + RecordEntry.COLUMN_SUPPLIER_EMAIL + ", " + RecordEntry.COLUMN_REORDER_THRESHOLD + ", "
+                + RecordEntry.COLUMN_SKU + ", " + RecordEntry.COLUMN_DELETED_AT + " ON "
+                + RecordEntry.TABLE_NAME + " BEGIN " + appendChange("NEW", ChangeEntry.OPERATION_UPDATE)
+                + " END;");
+    }
+
+    /**
+     * Computes the duplicate key of every existing record. The key is computed in Java, so
+     * this is one pass over the records rather than a single statement.
+     */
+    private static void backfillDedupeKeys(SQLiteDatabase db) {
+        Cursor cursor = db.query(RecordEntry.TABLE_NAME, new String[] { RecordEntry._ID,
+                RecordEntry.COLUMN_ALBUM_NAME, RecordEntry.COLUMN_BAND_NAME }, null, null, null, null, null);
+        SQLiteStatement update = db.compileStatement("UPDATE " + RecordEntry.TABLE_NAME + " SET "
+                + RecordEntry.COLUMN_DEDUPE_KEY + " = ? WHERE " + RecordEntry._ID + " = ?");
+        try {
+            while (cursor.moveToNext()) {
+                update.bindString(1, DuplicateKeys.of(cursor.getString(1), cursor.getString(2)));
+                update.bindLong(2, cursor.getLong(0));
+                update.executeUpdateDelete();
+            }
+        } finally {
+            update.close();
+            cursor.close();
+        }
+    }
+
+    /**
+     * Creates the table holding this database's device ID, a random one.
+     */
+    private static void createLocalDevice(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + StockCounterEntry.LOCAL_DEVICE_TABLE_NAME + " ("
+                + StockCounterEntry.COLUMN_DEVICE + " TEXT NOT NULL);");
+        db.execSQL("INSERT INTO " + StockCounterEntry.LOCAL_DEVICE_TABLE_NAME
+                + " VALUES (lower(hex(randomblob(16))));");
+    }
+
+    /**
+     * Creates the stock counters and the triggers that count every change of a record's
+     * quantity against this device. Counters are keyed by SKU, the identity a record has on
+     * every device, so records without one aren't counted. The stock a record has when it gets
+     * its SKU, existing stock included, is its baseline, held by the
+     * {@link StockCounterEntry#DEVICE_BASELINE} pseudo-device rather than by this device: every
+     * device that starts from the same stock records the same baseline, so merging it doesn't
+     * add it up.
+     * <p>
+     * A trigger adds the difference between the new quantity and the sum of the counters to the
+     * local device, so a quantity set from merged counters adds nothing. Only one of the two
+     * counts can grow in one update, so it doesn't matter whether the second one sees the first
+     * one's new value. The counters follow a record whose SKU changes, and are dropped with its
+     * SKU. Deleting a record moves its SKU aside but keeps the counters, for undo; they go when
+     * the record is purged, unless a new record has taken the SKU, and with it the counters.
+     */
+    private static void createStockCounters(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + StockCounterEntry.TABLE_NAME + " ("
+                + StockCounterEntry.COLUMN_SKU + " TEXT NOT NULL, "
+                + StockCounterEntry.COLUMN_DEVICE + " TEXT NOT NULL, "
+                + StockCounterEntry.COLUMN_INCREMENTS + " INTEGER NOT NULL DEFAULT 0, "
+                + StockCounterEntry.COLUMN_DECREMENTS + " INTEGER NOT NULL DEFAULT 0, "
+                + "PRIMARY KEY (" + StockCounterEntry.COLUMN_SKU + ", "
+                + StockCounterEntry.COLUMN_DEVICE + "));");
+        db.execSQL("INSERT INTO " + StockCounterEntry.TABLE_NAME
+                + " SELECT " + RecordEntry.COLUMN_SKU + ", '" + StockCounterEntry.DEVICE_BASELINE + "', "
+                + "MAX(" + RecordEntry.COLUMN_QUANTITY + ", 0), MAX(-" + RecordEntry.COLUMN_QUANTITY + ", 0)"
+                + " FROM " + RecordEntry.TABLE_NAME
+                + " WHERE " + RecordEntry.COLUMN_SKU + " IS NOT NULL;");
+        createStockTriggers(db);
+    }
+
+    private static void createStockTriggers(SQLiteDatabase db) {
+        String counters = " FROM " + StockCounterEntry.TABLE_NAME + " WHERE "
+                + StockCounterEntry.COLUMN_SKU + " = NEW." + RecordEntry.COLUMN_SKU;
+        String counted = "(SELECT IFNULL(SUM(" + StockCounterEntry.COLUMN_INCREMENTS + " - "
+                + StockCounterEntry.COLUMN_DECREMENTS + "), 0)" + counters + ")";
+        String localDevice = "(SELECT " + StockCounterEntry.COLUMN_DEVICE + " FROM "
+                + StockCounterEntry.LOCAL_DEVICE_TABLE_NAME + ")";
+        String changed = " NEW." + RecordEntry.COLUMN_SKU + " IS NOT NULL AND NEW."
+                + RecordEntry.COLUMN_QUANTITY + " <> " + counted;
+        String baseline = " INSERT INTO " + StockCounterEntry.TABLE_NAME
+                + " SELECT NEW." + RecordEntry.COLUMN_SKU + ", '" + StockCounterEntry.DEVICE_BASELINE
+                + "', MAX(%1$s." + RecordEntry.COLUMN_QUANTITY + ", 0), MAX(-%1$s."
+                + RecordEntry.COLUMN_QUANTITY + ", 0) WHERE NEW." + RecordEntry.COLUMN_SKU
+                + " IS NOT NULL AND NOT EXISTS (SELECT 1" + counters + ");";
+        String count = " INSERT OR IGNORE INTO " + StockCounterEntry.TABLE_NAME + " ("
+                + StockCounterEntry.COLUMN_SKU + ", " + StockCounterEntry.COLUMN_DEVICE + ")"
+                + " SELECT NEW." + RecordEntry.COLUMN_SKU + ", " + localDevice + " WHERE" + changed + ";"
+                + " UPDATE " + StockCounterEntry.TABLE_NAME + " SET "
+                + StockCounterEntry.COLUMN_INCREMENTS + " = " + StockCounterEntry.COLUMN_INCREMENTS
+                + " + MAX(NEW." + RecordEntry.COLUMN_QUANTITY + " - " + counted + ", 0), "
+                + StockCounterEntry.COLUMN_DECREMENTS + " = " + StockCounterEntry.COLUMN_DECREMENTS
+                + " + MAX(" + counted + " - NEW." + RecordEntry.COLUMN_QUANTITY + ", 0)"
+                + " WHERE " + StockCounterEntry.COLUMN_SKU + " = NEW." + RecordEntry.COLUMN_SKU
+                + " AND " + StockCounterEntry.COLUMN_DEVICE + " = " + localDevice + " AND" + changed + ";";
+        String dropOld = " DELETE FROM " + StockCounterEntry.TABLE_NAME + " WHERE "
+                + StockCounterEntry.COLUMN_SKU + " = OLD." + RecordEntry.COLUMN_SKU;
+        db.execSQL("CREATE TRIGGER records_stock_insert AFTER INSERT ON " + RecordEntry.TABLE_NAME
+                + " BEGIN" + String.format(Locale.US, baseline, "NEW") + count + " END;");
+        // A new SKU takes the old one's counters along, or starts from the stock the record had
+        db.execSQL("CREATE TRIGGER records_stock_update AFTER UPDATE OF " + RecordEntry.COLUMN_QUANTITY
+                + ", " + RecordEntry.COLUMN_SKU + " ON " + RecordEntry.TABLE_NAME + " BEGIN"
+                + dropOld + " AND NEW." + RecordEntry.COLUMN_SKU + " IS NULL AND NEW."
+                + RecordEntry.COLUMN_DELETED_AT + " IS NULL;"
+                + " UPDATE " + StockCounterEntry.TABLE_NAME + " SET " + StockCounterEntry.COLUMN_SKU
+                + " = NEW." + RecordEntry.COLUMN_SKU + " WHERE " + StockCounterEntry.COLUMN_SKU
+                + " = OLD." + RecordEntry.COLUMN_SKU + " AND NEW." + RecordEntry.COLUMN_SKU + " <> OLD."
+                + RecordEntry.COLUMN_SKU + ";"
+                + String.format(Locale.US, baseline, "OLD") + count + " END;");
+        String oldSku = "IFNULL(OLD." + RecordEntry.COLUMN_SKU + ", OLD." + RecordEntry.COLUMN_DELETED_SKU + ")";
+        db.execSQL("CREATE TRIGGER records_stock_delete AFTER DELETE ON " + RecordEntry.TABLE_NAME
+                + " BEGIN DELETE FROM " + StockCounterEntry.TABLE_NAME + " WHERE "
+                + StockCounterEntry.COLUMN_SKU + " = " + oldSku + " AND NOT EXISTS (SELECT 1 FROM "
+                + RecordEntry.TABLE_NAME + " WHERE " + RecordEntry.COLUMN_SKU + " = " + oldSku + "); END;");
+    }
+
+    /**
+     * Drops the stock counters of databases before version 14, which were keyed by record ID.
+     * The quantities already hold everything merged into them, so the counters are rebuilt
+     * from them.
+     */
+    private static void dropStockCounters(SQLiteDatabase db) {
+        dropStockTriggers(db);
+        db.execSQL("DROP TABLE IF EXISTS " + StockCounterEntry.TABLE_NAME + ";");
+    }
+
+    private static void dropStockTriggers(SQLiteDatabase db) {
+        db.execSQL("DROP TRIGGER IF EXISTS records_stock_insert;");
+        db.execSQL("DROP TRIGGER IF EXISTS records_stock_update;");
+        db.execSQL("DROP TRIGGER IF EXISTS records_stock_delete;");
+    }
+
+    private static String appendChange(String row, int operation) {
+        return "INSERT INTO " + ChangeEntry.TABLE_NAME + " (" + ChangeEntry.COLUMN_RECORD_ID + ", "
+                + ChangeEntry.COLUMN_OPERATION + ") VALUES (" + row + "." + RecordEntry._ID + ", "
+                + operation + ");";
     }
-}
\ No newline at end of file
+}
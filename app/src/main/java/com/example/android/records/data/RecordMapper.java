@@ -0,0 +1,141 @@
+package com.example.android.records.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+
+import com.example.android.records.core.Record;
+import com.example.android.records.core.RecordValidator;
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+/**
+ * Converts between {@link Record}s and the rows of the records table.
+ */
+public final class RecordMapper {
+
+    private RecordMapper() {
+    }
+
+    /**
+     * Return a record holding the given values. Missing quantity and price are 0, as the table
+     * defaults them.
+     */
+    public static Record fromContentValues(ContentValues values) {
+        Integer quantity = values.getAsInteger(RecordEntry.COLUMN_QUANTITY);
+        Integer price = values.getAsInteger(RecordEntry.COLUMN_PRICE);
+        Long id = values.getAsLong(RecordEntry._ID);
+        return new Record.Builder()
+                .setId(id != null ? id : Record.NO_ID)
+                .setAlbumName(values.getAsString(RecordEntry.COLUMN_ALBUM_NAME))
+                .setBandName(values.getAsString(RecordEntry.COLUMN_BAND_NAME))
+                .setQuantity(quantity != null ? quantity : 0)
+                .setPrice(price != null ? price : 0)
+                .setCover(values.getAsString(RecordEntry.COLUMN_RECORD_COVER))
+                .setSupplierName(values.getAsString(RecordEntry.COLUMN_SUPPLIER_NAME))
+                .setSupplierEmail(values.getAsString(RecordEntry.COLUMN_SUPPLIER_EMAIL))
+                .setReorderThreshold(values.getAsInteger(RecordEntry.COLUMN_REORDER_THRESHOLD))
+                .setSku(values.getAsString(RecordEntry.COLUMN_SKU))
+                .build();
+    }
+
+    /**
+     * Return the values of a record, without its ID.
+     */
+    public static ContentValues toContentValues(Record record) {
+        ContentValues values = new ContentValues();
+        values.put(RecordEntry.COLUMN_ALBUM_NAME, record.getAlbumName());
+        values.put(RecordEntry.COLUMN_BAND_NAME, record.getBandName());
+        values.put(RecordEntry.COLUMN_QUANTITY, record.getQuantity());
+        values.put(RecordEntry.COLUMN_PRICE, record.getPrice());
+        values.put(RecordEntry.COLUMN_RECORD_COVER, record.getCover());
+        values.put(RecordEntry.COLUMN_SUPPLIER_NAME, record.getSupplierName());
+        values.put(RecordEntry.COLUMN_SUPPLIER_EMAIL, record.getSupplierEmail());
+        values.put(RecordEntry.COLUMN_REORDER_THRESHOLD, record.getReorderThreshold());
+        values.put(RecordEntry.COLUMN_SKU, record.getSku());
+        return values;
+    }
+
+    /**
+     * Return the record at the cursor's current row. Columns missing from the cursor are left
+     * at their defaults.
+     */
+    public static Record fromCursor(Cursor cursor) {
+        Record.Builder builder = new Record.Builder();
+        int index = cursor.getColumnIndex(RecordEntry._ID);
+        if (index != -1) {
+            builder.setId(cursor.getLong(index));
+        }
+        index = cursor.getColumnIndex(RecordEntry.COLUMN_ALBUM_NAME);
+        if (index != -1) {
+            builder.setAlbumName(cursor.getString(index));
+        }
+        index = cursor.getColumnIndex(RecordEntry.COLUMN_BAND_NAME);
+        if (index != -1) {
+            builder.setBandName(cursor.getString(index));
+        }
+        index = cursor.getColumnIndex(RecordEntry.COLUMN_QUANTITY);
+        if (index != -1) {
+            builder.setQuantity(cursor.getInt(index));
+        }
+        index = cursor.getColumnIndex(RecordEntry.COLUMN_PRICE);
+        if (index != -1) {
+            builder.setPrice(cursor.getInt(index));
+        }
+        index = cursor.getColumnIndex(RecordEntry.COLUMN_RECORD_COVER);
+        if (index != -1) {
+            builder.setCover(cursor.getString(index));
+        }
+        index = cursor.getColumnIndex(RecordEntry.COLUMN_SUPPLIER_NAME);
+        if (index != -1) {
+            builder.setSupplierName(cursor.getString(index));
+        }
+        index = cursor.getColumnIndex(RecordEntry.COLUMN_SUPPLIER_EMAIL);
+        if (index != -1) {
+            builder.setSupplierEmail(cursor.getString(index));
+        }
+        index = cursor.getColumnIndex(RecordEntry.COLUMN_REORDER_THRESHOLD);
+        if (index != -1 && !cursor.isNull(index)) {
+            builder.setReorderThreshold(cursor.getInt(index));
+        }
+        index = cursor.getColumnIndex(RecordEntry.COLUMN_SKU);
+        if (index != -1) {
+            builder.setSku(cursor.getString(index));
+        }
+        return builder.build();
+    }
+
+    /**
+     * Check the values of a partial update. Only the columns present are checked, and a column
+     * that is present must have a valid value.
+     *
+     * @throws IllegalArgumentException with a message for the user if a value isn't valid
+     */
+    public static void validateChanges(ContentValues values) {
+        if (values.containsKey(RecordEntry.COLUMN_ALBUM_NAME)) {
+            RecordValidator.checkAlbumName(values.getAsString(RecordEntry.COLUMN_ALBUM_NAME));
+        }
+        if (values.containsKey(RecordEntry.COLUMN_BAND_NAME)) {
+            RecordValidator.checkBandName(values.getAsString(RecordEntry.COLUMN_BAND_NAME));
+        }
+        if (values.containsKey(RecordEntry.COLUMN_QUANTITY)) {
+            RecordValidator.checkQuantity(values.getAsInteger(RecordEntry.COLUMN_QUANTITY));
+        }
+        if (values.containsKey(RecordEntry.COLUMN_PRICE)) {
+            RecordValidator.checkPrice(values.getAsInteger(RecordEntry.COLUMN_PRICE));
+        }
+        if (values.containsKey(RecordEntry.COLUMN_RECORD_COVER)) {
+            RecordValidator.checkCover(values.getAsString(RecordEntry.COLUMN_RECORD_COVER));
+        }
+        if (values.containsKey(RecordEntry.COLUMN_SUPPLIER_NAME)) {
+            RecordValidator.checkSupplierName(values.getAsString(RecordEntry.COLUMN_SUPPLIER_NAME));
+        }
+        if (values.containsKey(RecordEntry.COLUMN_SUPPLIER_EMAIL)) {
+            RecordValidator.checkSupplierEmail(values.getAsString(RecordEntry.COLUMN_SUPPLIER_EMAIL));
+        }
+        if (values.containsKey(RecordEntry.COLUMN_REORDER_THRESHOLD)) {
+            RecordValidator.checkReorderThreshold(values.getAsInteger(RecordEntry.COLUMN_REORDER_THRESHOLD));
+        }
+        if (values.containsKey(RecordEntry.COLUMN_SKU)) {
+            RecordValidator.checkSku(values.getAsString(RecordEntry.COLUMN_SKU));
+        }
+    }
+}
@@ -18,15 +18,72 @@ package com.example.android.records.data;
 import android.content.ContentProvider;
 import android.content.ContentUris;
 import android.content.ContentValues;
+import android.content.Context;
 import android.content.UriMatcher;
 import android.database.Cursor;
+import android.database.DatabaseUtils;
+import android.database.MatrixCursor;
 import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteDoneException;
+import android.database.sqlite.SQLiteQueryBuilder;
+import android.database.sqlite.SQLiteStatement;
 import android.net.Uri;
+import android.os.Build;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
+import android.text.TextUtils;
 import android.util.Log;
+import android.util.SparseArray;
 import android.widget.Toast;
 
 import com.example.android.records.R;
+import com.example.android.records.core.BloomFilter;
+import com.example.android.records.core.DuplicateFinder;
+import com.example.android.records.core.DuplicateKeys;
+import com.example.android.records.core.ImportPipeline;
+import com.example.android.records.core.Record;
+import com.example.android.records.core.RecordValidator;
+import com.example.android.records.core.SortKeys;
+import com.example.android.records.data.RecordContract.AlertEntry;
+import com.example.android.records.data.RecordContract.BulkReadEntry;
+import com.example.android.records.data.RecordContract.ChangeEntry;
+import com.example.android.records.data.RecordContract.DeletionEntry;
+import com.example.android.records.data.RecordContract.DuplicateEntry;
+import com.example.android.records.data.RecordContract.ImportEntry;
+import com.example.android.records.data.RecordContract.MaintenanceEntry;
+import com.example.android.records.data.RecordContract.MetricsEntry;
+import com.example.android.records.data.RecordContract.PurchaseOrderEntry;
 import com.example.android.records.data.RecordContract.RecordEntry;
+import com.example.android.records.data.RecordContract.RollupEntry;
+import com.example.android.records.data.RecordContract.SaleEntry;
+import com.example.android.records.data.RecordContract.StockCounterEntry;
+import com.example.android.records.data.RecordContract.StoreEntry;
+import com.example.android.records.data.RecordContract.SlowQueryEntry;
+import com.example.android.records.data.RecordContract.SupplierEntry;
+
+import java.io.FileDescriptor;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 
 /**
  * {@link ContentProvider} for Records app.
@@ -39,179 +96,1729 @@ public class RecordProvider extends ContentProvider {
     /** URI matcher code for the content URI for the records table */
     private static final int RECORDS = 100;
 
-    /** URI matcher code for the content URI for a single record in the records table */
-    private static final int RECORD_ID = 101;
+    /** URI matcher code for the content URI for a single record in the records table */
+    private static final int RECORD_ID = 101;
+
+    /** URI matcher code for the content URI for the records at or below their reorder threshold */
+    private static final int LOW_STOCK = 102;
+
+    /** URI matcher code for the content URI for a prefix search over the records */
+    private static final int RECORD_SEARCH = 103;
+
+    /** URI matcher code for the content URI for a bulk read of the records */
+    private static final int RECORDS_BULK = 104;
+
+    /** URI matcher code for the content URI for the record with a given SKU */
+    private static final int RECORD_SKU = 105;
+
+    /** URI matcher code for the content URI for the groups of duplicate records */
+    private static final int RECORD_DUPLICATES = 106;
+
+    /** URI matcher code for the content URI for the sales ledger */
+    private static final int SALES = 200;
+
+    /** URI matcher code for the content URI for the sales of a single record */
+    private static final int SALES_BY_RECORD = 201;
+
+    /** URI matcher code for the content URI for the sales in a time range */
+    private static final int SALES_BY_RANGE = 202;
+
+    /** URI matcher code for the per-record sales rollups of one bucket size */
+    private static final int ROLLUPS_BY_RECORD = 300;
+
+    /** URI matcher code for the sales rollups of a single record */
+    private static final int ROLLUP_RECORD = 301;
+
+    /** URI matcher code for the per-supplier sales rollups of one bucket size */
+    private static final int ROLLUPS_BY_SUPPLIER = 302;
+
+    /** URI matcher code for the sales rollups of a single supplier */
+    private static final int ROLLUP_SUPPLIER = 303;
+
+    /** URI matcher code for the content URI for the suppliers table */
+    private static final int SUPPLIERS = 400;
+
+    /** URI matcher code for the content URI for a single supplier, by name */
+    private static final int SUPPLIER_NAME = 401;
+
+    /** URI matcher code for the content URI for the low-stock alerts */
+    private static final int ALERTS = 500;
+
+    /** URI matcher code for the content URI for a single low-stock alert */
+    private static final int ALERT_ID = 501;
+
+    /**
+     * Alerts are read joined with the record they are about, so the columns of the alerts table
+     * have to be qualified. An inner join, so an alert without a record is never read with no
+     * names; the alerts of deleted records are left out by {@link #LIVE_RECORDS}.
+     */
+    private static final String ALERTS_JOIN = AlertEntry.TABLE_NAME + " INNER JOIN "
+            + RecordEntry.TABLE_NAME + " ON " + AlertEntry.TABLE_NAME + "." + AlertEntry.COLUMN_RECORD_ID
+            + " = " + RecordEntry.TABLE_NAME + "." + RecordEntry._ID;
+
+    private static final Map<String, String> sAlertsProjectionMap = new HashMap<>();
+
+    /**
+     * Selection of the records that haven't been deleted. Qualified, so it also works in joins.
+     */
+    private static final String LIVE_RECORDS = RecordEntry.TABLE_NAME + "." + RecordEntry.COLUMN_DELETED_AT
+            + " IS NULL";
+
+    /** Assignment that ends every update of records, see {@link RecordEntry#COLUMN_VERSION} */
+    private static final String NEXT_VERSION = RecordEntry.COLUMN_VERSION + " = "
+            + RecordEntry.COLUMN_VERSION + " + 1";
+
+    /** URI matcher code for the content URI for the purchase order outbox */
+    private static final int PURCHASE_ORDERS = 600;
+
+    /** URI matcher code for the content URI for a single purchase order */
+    private static final int PURCHASE_ORDER_ID = 601;
+
+    /**
+     * Records joined with their supplier, so the effective reorder threshold can be resolved in
+     * the same pass that finds the low-stock rows.
+     */
+    private static final String LOW_STOCK_JOIN = RecordEntry.TABLE_NAME + " LEFT OUTER JOIN "
+            + SupplierEntry.TABLE_NAME + " ON " + RecordEntry.TABLE_NAME + "." + RecordEntry.COLUMN_SUPPLIER_NAME
+            + " = " + SupplierEntry.TABLE_NAME + "." + SupplierEntry.COLUMN_SUPPLIER_NAME;
+
+    /** SQL expression for the reorder threshold that applies to a record */
+    private static final String EFFECTIVE_THRESHOLD = "COALESCE(" + RecordEntry.TABLE_NAME + "."
+            + RecordEntry.COLUMN_REORDER_THRESHOLD + ", " + SupplierEntry.TABLE_NAME + "."
+            + SupplierEntry.COLUMN_REORDER_THRESHOLD + ", " + RecordEntry.DEFAULT_REORDER_THRESHOLD + ")";
+
+    private static final Map<String, String> sLowStockProjectionMap = new HashMap<>();
+
+    /**
+     * UriMatcher object to match a content URI to a corresponding code.
+     * The input passed into the constructor represents the code to return for the root URI.
+     * It's common to use NO_MATCH as the input for this case.
+     */
+    private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
+
+    /** URI matcher codes mapped to their path pattern, to label the metrics */
+    private static final SparseArray<String> sPatterns = new SparseArray<>();
+
+    /** URI matcher code for the content URI for the provider metrics */
+    private static final int METRICS = 700;
+
+    /** URI matcher code for the content URI for the slow query log */
+    private static final int SLOW_QUERIES = 701;
+
+    /** URI matcher codes for the content URIs of the record change log */
+    private static final int CHANGES = 800;
+    private static final int CHANGES_LATEST = 801;
+
+    /** URI matcher code for the content URI for the list of stores */
+    private static final int STORES = 900;
+
+    /** URI matcher codes for the content URIs of the stock counters */
+    private static final int STOCK_COUNTERS = 1000;
+    private static final int STOCK_DEVICE = 1001;
+
+    // Static initializer. This is run the first time anything is called from this class.
+    static {
+        // The calls to addURI() go here, for all of the content URI patterns that the provider
+        // should recognize. All paths added to the UriMatcher have a corresponding code to return
+        // when a match is found.
+
+        // The content URI of the form "content://com.example.android.records/records" will map to the
+        // integer code {@link #RECORDS}. This URI is used to provide access to MULTIPLE rows
+        // of the records table.
+        addUri(RecordContract.PATH_RECORDS, RECORDS);
+
+        // The content URI of the form "content://com.example.android.records/records/#" will map to the
+        // integer code {@link #RECORD_ID}. This URI is used to provide access to ONE single row
+        // of the records table.
+        //
+        // In this case, the "#" wildcard is used where "#" can be substituted for an integer.
+        // For example, "content://com.example.android.records/records/3" matches, but
+        // "content://com.example.android.records/records" (without a number at the end) doesn't match.
+        addUri(RecordContract.PATH_RECORDS + "/#", RECORD_ID);
+        addUri(RecordContract.PATH_RECORDS + "/low_stock", LOW_STOCK);
+        addUri(RecordContract.PATH_RECORDS + "/search/*", RECORD_SEARCH);
+        addUri(RecordContract.PATH_RECORDS + "/bulk", RECORDS_BULK);
+        addUri(RecordContract.PATH_RECORDS + "/sku/*", RECORD_SKU);
+        addUri(RecordContract.PATH_RECORDS + "/duplicates", RECORD_DUPLICATES);
+
+        // The sales ledger can be read as a whole, per record ("sales/record/3") or per time
+        // range ("sales/range/{from}/{to}"). Inserting into "sales" records a sale.
+        addUri(RecordContract.PATH_SALES, SALES);
+        addUri(RecordContract.PATH_SALES + "/record/#", SALES_BY_RECORD);
+        addUri(RecordContract.PATH_SALES + "/range/#/#", SALES_BY_RANGE);
+
+        // Sales rollups are addressed by bucket size ("rollups/record/day"), optionally
+        // narrowed to one record ("rollups/record/day/3") or supplier ("rollups/supplier/day/Virgin").
+        addUri(RecordContract.PATH_ROLLUPS + "/record/*", ROLLUPS_BY_RECORD);
+        addUri(RecordContract.PATH_ROLLUPS + "/record/*/#", ROLLUP_RECORD);
+        addUri(RecordContract.PATH_ROLLUPS + "/supplier/*", ROLLUPS_BY_SUPPLIER);
+        addUri(RecordContract.PATH_ROLLUPS + "/supplier/*/*", ROLLUP_SUPPLIER);
+
+        addUri(RecordContract.PATH_SUPPLIERS, SUPPLIERS);
+        addUri(RecordContract.PATH_SUPPLIERS + "/*", SUPPLIER_NAME);
+        addUri(RecordContract.PATH_ALERTS, ALERTS);
+        addUri(RecordContract.PATH_ALERTS + "/#", ALERT_ID);
+        addUri(RecordContract.PATH_PURCHASE_ORDERS, PURCHASE_ORDERS);
+        addUri(RecordContract.PATH_PURCHASE_ORDERS + "/#", PURCHASE_ORDER_ID);
+        addUri(RecordContract.PATH_METRICS, METRICS);
+        addUri(RecordContract.PATH_SLOW_QUERIES, SLOW_QUERIES);
+        addUri(RecordContract.PATH_CHANGES, CHANGES);
+        addUri(RecordContract.PATH_CHANGES + "/latest", CHANGES_LATEST);
+        addUri(RecordContract.PATH_STOCK_COUNTERS, STOCK_COUNTERS);
+        addUri(RecordContract.PATH_STOCK_COUNTERS + "/device", STOCK_DEVICE);
+
+        // Store-scoped URIs ("stores/{store}/records/3") are unwrapped before matching, so only
+        // the list of stores itself is registered.
+        addUri(RecordContract.PATH_STORES, STORES);
+
+        String alerts = AlertEntry.TABLE_NAME + ".";
+        for (String column : new String[] { AlertEntry._ID, AlertEntry.COLUMN_RECORD_ID,
+                AlertEntry.COLUMN_QUANTITY, AlertEntry.COLUMN_THRESHOLD, AlertEntry.COLUMN_CREATED_AT,
+                AlertEntry.COLUMN_ACKNOWLEDGED }) {
+            sAlertsProjectionMap.put(column, alerts + column + " AS " + column);
+        }
+        sAlertsProjectionMap.put(AlertEntry.COLUMN_ALBUM_NAME, RecordEntry.TABLE_NAME + "."
+                + RecordEntry.COLUMN_ALBUM_NAME + " AS " + AlertEntry.COLUMN_ALBUM_NAME);
+        sAlertsProjectionMap.put(AlertEntry.COLUMN_BAND_NAME, RecordEntry.TABLE_NAME + "."
+                + RecordEntry.COLUMN_BAND_NAME + " AS " + AlertEntry.COLUMN_BAND_NAME);
+
+        String records = RecordEntry.TABLE_NAME + ".";
+        for (String column : new String[] { RecordEntry._ID, RecordEntry.COLUMN_ALBUM_NAME,
+                RecordEntry.COLUMN_BAND_NAME, RecordEntry.COLUMN_QUANTITY, RecordEntry.COLUMN_PRICE,
+                RecordEntry.COLUMN_RECORD_COVER, RecordEntry.COLUMN_SUPPLIER_NAME,
+                RecordEntry.COLUMN_SUPPLIER_EMAIL, RecordEntry.COLUMN_REORDER_THRESHOLD,
+                RecordEntry.COLUMN_SKU }) {
+            sLowStockProjectionMap.put(column, records + column + " AS " + column);
+        }
+        sLowStockProjectionMap.put(RecordEntry.COLUMN_EFFECTIVE_THRESHOLD,
+                EFFECTIVE_THRESHOLD + " AS " + RecordEntry.COLUMN_EFFECTIVE_THRESHOLD);
+    }
+
+    /**
+     * Register a URI pattern with the matcher, and remember it for the metrics.
+     */
+    private static void addUri(String path, int code) {
+        sUriMatcher.addURI(RecordContract.CONTENT_AUTHORITY, path, code);
+        sPatterns.put(code, path);
+    }
+
+    /** Database helper object of the default store */
+    private RecordDbHelper mDbHelper;
+
+    /** Database helpers of the other stores, opened on first use */
+    private final Map<String, RecordDbHelper> mStoreHelpers = new HashMap<>();
+
+    /**
+     * Store the call running on the current thread is scoped to, or null for the default
+     * store.
+     */
+    private final ThreadLocal<String> mStore = new ThreadLocal<>();
+
+    /**
+     * Duplicate keys of each store's records, built on the first merging insert. Keys of
+     * deleted or renamed records stay in until the filter is rebuilt, which only costs an
+     * index seek for them.
+     */
+    private final Map<String, BloomFilter> mDedupeFilters = new HashMap<>();
+
+    /** Sizing of the Bloom filters of duplicate keys */
+    private static final int DEDUPE_FILTER_MIN_CAPACITY = 1024;
+    private static final double DEDUPE_FILTER_FALSE_POSITIVES = 0.01;
+
+    /** Cover of imported records whose row has none */
+    private static final String IMPORT_DEFAULT_COVER = "android.resource://com.example.android.records/"
+            + R.drawable.turntable;
+
+    /** Seconds an idle import parser thread is kept */
+    private static final long IMPORT_PARSER_KEEP_ALIVE_SECONDS = 30;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /** Time of the latest deletion, see {@link #nextDeletionTime()} */
+    private long mLastDeletionTime;
+
+    /** Parses imports on every core; created on the first import */
+    private ImportPipeline mImportPipeline;
+
+    /** Runs queries over all stores */
+    private final StoreFanOut mFanOut = new StoreFanOut();
+
+    /** Latency, row, transaction and notification counters */
+    private ProviderMetrics mMetrics;
+
+    /** Resumable maintenance of the store databases */
+    private DatabaseMaintenance mMaintenance;
+
+    /** Queries and updates slower than a threshold, with their query plans */
+    private SlowQueryLog mSlowQueries;
+
+    /** Whether listeners are notified of changes, see {@link #disableNotifications()} */
+    private volatile boolean mNotifying = true;
+
+    /**
+     * URIs changed by the bulk insert running on the current thread, notified once it commits.
+     * Null outside of bulk inserts.
+     */
+    private final ThreadLocal<Set<Uri>> mPendingNotifications = new ThreadLocal<>();
+
+    @Override
+    public boolean onCreate() {
+        mSlowQueries = new SlowQueryLog();
+        mDbHelper = new RecordDbHelper(getContext(), mSlowQueries);
+        mMetrics = new ProviderMetrics(sPatterns);
+        mMaintenance = new DatabaseMaintenance(getContext());
+        return true;
+    }
+
+    /**
+     * Tell the user why a write was refused. Callers may be on any thread, so the toast is
+     * posted to the main thread.
+     */
+    private void showError(final String message, final int duration) {
+        final Context context = getContext();
+        new Handler(Looper.getMainLooper()).post(new Runnable() {
+            @Override
+            public void run() {
+                Toast.makeText(context, message, duration).show();
+            }
+        });
+    }
+
+    /**
+     * Close the database. Only called by code that creates its own provider instances.
+     */
+    @Override
+    public void shutdown() {
+        mFanOut.shutdown();
+        synchronized (this) {
+            for (RecordDbHelper helper : mStoreHelpers.values()) {
+                helper.close();
+            }
+            mStoreHelpers.clear();
+        }
+        mDbHelper.close();
+    }
+
+    /**
+     * Stop notifying listeners of changes. Only called by code that creates its own provider
+     * instances on databases of their own: notifications go to the catalog's URIs, so its
+     * listeners would reload for changes that aren't the catalog's.
+     */
+    void disableNotifications() {
+        mNotifying = false;
+    }
+
+    /**
+     * Notify listeners of a change, counting the notification.
+     */
+    private void notifyChange(Uri uri) {
+        if (!mNotifying) {
+            return;
+        }
+        Set<Uri> pending = mPendingNotifications.get();
+        if (pending != null) {
+            pending.add(uri);
+            return;
+        }
+        mMetrics.onNotifyChange();
+        String store = mStore.get();
+        getContext().getContentResolver().notifyChange(
+                store != null ? StoreEntry.buildStoreUri(store, uri) : uri, null);
+    }
+
+    /**
+     * Return the database helper of the store the current call is scoped to.
+     */
+    private RecordDbHelper helper() {
+        String store = mStore.get();
+        return store == null ? mDbHelper : helperFor(store);
+    }
+
+    private synchronized RecordDbHelper helperFor(String store) {
+        RecordDbHelper helper = mStoreHelpers.get(store);
+        if (helper == null) {
+            helper = new RecordDbHelper(getContext(), RecordDbHelper.databaseName(store), mSlowQueries);
+            mStoreHelpers.put(store, helper);
+        }
+        return helper;
+    }
+
+    /**
+     * Scope the calls on the current thread to a store, until {@link #exitStore(String)} is
+     * called with the returned previous scope.
+     */
+    private String enterStore(String store) {
+        String previous = mStore.get();
+        mStore.set(StoreEntry.STORE_DEFAULT.equals(store) ? null : store);
+        return previous;
+    }
+
+    private void exitStore(String previous) {
+        if (previous == null) {
+            mStore.remove();
+        } else {
+            mStore.set(previous);
+        }
+    }
+
+    /**
+     * Return the store a URI is scoped to, or null if it isn't scoped.
+     */
+    private static String storeOf(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        if (segments.size() < 3 || !RecordContract.PATH_STORES.equals(segments.get(0))) {
+            return null;
+        }
+        String store = segments.get(1);
+        if (!StoreEntry.isValidName(store) && !StoreEntry.STORE_ALL.equals(store)) {
+            throw new IllegalArgumentException("Invalid store name " + store);
+        }
+        return store;
+    }
+
+    /**
+     * Return a store-scoped URI without its scope.
+     */
+    private static Uri unscoped(Uri uri) {
+        List<String> segments = uri.getPathSegments();
+        Uri.Builder builder = RecordContract.BASE_CONTENT_URI.buildUpon();
+        for (String segment : segments.subList(2, segments.size())) {
+            builder.appendPath(segment);
+        }
+        return builder.encodedQuery(uri.getEncodedQuery()).build();
+    }
+
+    /**
+     * Return the stores that have a database, the default one first.
+     */
+    private List<String> listStores() {
+        Set<String> stores = new TreeSet<>();
+        for (String name : getContext().databaseList()) {
+            String store = RecordDbHelper.storeOf(name);
+            if (store != null && !StoreEntry.STORE_DEFAULT.equals(store)) {
+                stores.add(store);
+            }
+        }
+        List<String> list = new ArrayList<>(stores.size() + 1);
+        list.add(StoreEntry.STORE_DEFAULT);
+        list.addAll(stores);
+        return list;
+    }
+
+    /**
+     * Throw if a store-scoped URI addresses all stores, which can only be read.
+     */
+    private static void checkWritable(String store, Uri uri) {
+        if (StoreEntry.STORE_ALL.equals(store)) {
+            throw new IllegalArgumentException("All stores can only be read: " + uri);
+        }
+    }
+
+    /**
+     * Begin a transaction, counting it.
+     */
+    private void beginTransaction(SQLiteDatabase database) {
+        mMetrics.onTransaction();
+        database.beginTransaction();
+    }
+
+    /**
+     * Write the provider metrics, for "adb shell dumpsys activity provider RecordProvider".
+     */
+    @Override
+    public Bundle call(String method, String arg, Bundle extras) {
+        // Unlike the URI operations, calls aren't checked against the provider's permission
+        getContext().enforceCallingOrSelfPermission(RecordContract.PERMISSION_ACCESS, method);
+        if (SlowQueryEntry.METHOD_SET_THRESHOLD.equals(method)) {
+            long thresholdMillis;
+            try {
+                thresholdMillis = Long.parseLong(arg);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Slow query threshold must be a number of milliseconds");
+            }
+            Bundle result = new Bundle();
+            result.putLong(SlowQueryEntry.EXTRA_THRESHOLD_MILLIS, mSlowQueries.getThresholdMillis());
+            mSlowQueries.setThresholdMillis(thresholdMillis);
+            return result;
+        }
+        if (MaintenanceEntry.METHOD_RUN_MAINTENANCE.equals(method)) {
+            return runMaintenance(extras == null ? MaintenanceEntry.DEFAULT_BUDGET_MILLIS
+                    : extras.getLong(MaintenanceEntry.EXTRA_BUDGET_MILLIS, MaintenanceEntry.DEFAULT_BUDGET_MILLIS));
+        }
+        if (MaintenanceEntry.METHOD_STOP_MAINTENANCE.equals(method)) {
+            mMaintenance.stop();
+            return null;
+        }
+        if (MaintenanceEntry.METHOD_REFRESH_SORT_KEYS.equals(method)) {
+            return refreshSortKeys();
+        }
+        if (DuplicateEntry.METHOD_MERGE.equals(method)) {
+            long keepId;
+            try {
+                keepId = Long.parseLong(arg);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Merge requires the ID of the record to keep");
+            }
+            long[] duplicateIds = extras == null ? null : extras.getLongArray(DuplicateEntry.EXTRA_DUPLICATE_IDS);
+            if (duplicateIds == null) {
+                throw new IllegalArgumentException("Merge requires the IDs of the duplicates");
+            }
+            Bundle result = new Bundle();
+            result.putInt(DuplicateEntry.EXTRA_MERGED, mergeDuplicates(keepId, duplicateIds));
+            return result;
+        }
+        if (DeletionEntry.METHOD_DELETE_RECORDS.equals(method)) {
+            if (arg == null) {
+                throw new IllegalArgumentException("Deletion requires a records URI");
+            }
+            return deleteRecords(Uri.parse(arg));
+        }
+        if (DeletionEntry.METHOD_UNDO_DELETE.equals(method)) {
+            if (extras == null || !extras.containsKey(DeletionEntry.EXTRA_DELETION)) {
+                throw new IllegalArgumentException("Undo requires the deletion to undo");
+            }
+            return undoDelete(arg, extras.getLong(DeletionEntry.EXTRA_DELETION));
+        }
+        if (DeletionEntry.METHOD_PURGE_DELETED.equals(method)) {
+            if (extras != null && extras.containsKey(DeletionEntry.EXTRA_DELETION)) {
+                return purgeDeletion(arg, extras.getLong(DeletionEntry.EXTRA_DELETION));
+            }
+            return purgeDeleted(extras == null ? DeletionEntry.UNDO_WINDOW_MILLIS
+                    : extras.getLong(DeletionEntry.EXTRA_OLDER_THAN_MILLIS, DeletionEntry.UNDO_WINDOW_MILLIS));
+        }
+        if (ImportEntry.METHOD_IMPORT.equals(method)) {
+            ParcelFileDescriptor source = extras == null ? null
+                    : (ParcelFileDescriptor) extras.getParcelable(ImportEntry.EXTRA_SOURCE);
+            if (arg == null || source == null) {
+                throw new IllegalArgumentException("Import requires a records URI and a file");
+            }
+            return importRecords(Uri.parse(arg), source);
+        }
+        if (SaleEntry.METHOD_SELL_SKU.equals(method)) {
+            return sellSku(arg, extras == null ? 1 : extras.getInt(SaleEntry.EXTRA_QUANTITY, 1));
+        }
+        return super.call(method, arg, extras);
+    }
+
+    /**
+     * Open a bulk read of the records: return the read end of a pipe that a background thread
+     * fills with the stream described in {@link BulkReadEntry}.
+     */
+    @Override
+    public ParcelFileDescriptor openFile(Uri uri, String mode) throws FileNotFoundException {
+        String store = storeOf(uri);
+        if (store != null) {
+            checkWritable(store, uri);
+            String previous = enterStore(store);
+            try {
+                return openFile(unscoped(uri), mode);
+            } finally {
+                exitStore(previous);
+            }
+        }
+        if (sUriMatcher.match(uri) != RECORDS_BULK) {
+            return super.openFile(uri, mode);
+        }
+        if (!"r".equals(mode)) {
+            throw new FileNotFoundException("Bulk reads can only be opened for reading: " + uri);
+        }
+        final BulkRecordWriter writer = new BulkRecordWriter(helper().getReadableDatabase(),
+                uri.getQueryParameter(BulkReadEntry.QUERY_PARAMETER_COLUMNS),
+                uri.getQueryParameter(BulkReadEntry.QUERY_PARAMETER_SINCE));
+        final ParcelFileDescriptor[] pipe;
+        try {
+            // A reliable pipe lets the reader tell a failed read from a complete one
+            pipe = ParcelFileDescriptor.createReliablePipe();
+        } catch (IOException e) {
+            throw new FileNotFoundException("Cannot create a pipe: " + e.getMessage());
+        }
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                long start = System.nanoTime();
+                int rows = -1;
+                ParcelFileDescriptor sink = pipe[1];
+                try {
+                    rows = writer.write(new FileOutputStream(sink.getFileDescriptor()));
+                    sink.close();
+                } catch (IOException | RuntimeException e) {
+                    Log.w(LOG_TAG, "Bulk read failed", e);
+                    try {
+                        sink.closeWithError(String.valueOf(e.getMessage()));
+                    } catch (IOException ignored) {
+                        // The reader went away
+                    }
+                } finally {
+                    mMetrics.record(RECORDS_BULK, ProviderMetrics.OP_QUERY, start, rows);
+                }
+            }
+        }, "RecordProvider-bulk").start();
+        return pipe[0];
+    }
+
+    @Override
+    public void dump(FileDescriptor fd, PrintWriter writer, String[] args) {
+        mMetrics.dump(writer);
+    }
+
+    @Override
+    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                        String sortOrder) {
+        String store = storeOf(uri);
+        if (store != null) {
+            return queryStore(store, uri, projection, selection, selectionArgs, sortOrder);
+        }
+        StartupTrace.beginSection("RecordProvider.query");
+        long start = System.nanoTime();
+        int rows = -1;
+        int match = sUriMatcher.match(uri);
+        // These cursors are built in memory, so there is no statement to explain if they're slow
+        boolean inMemory = match == METRICS || match == SLOW_QUERIES || match == STORES;
+        mSlowQueries.begin();
+        try {
+            switch (match) {
+                case METRICS:
+                    return mMetrics.toCursor();
+                case SLOW_QUERIES:
+                    return mSlowQueries.toCursor();
+                case STORES:
+                    MatrixCursor stores = new MatrixCursor(new String[] { StoreEntry.COLUMN_STORE });
+                    for (String name : listStores()) {
+                        stores.addRow(new Object[] { name });
+                    }
+                    stores.setNotificationUri(getContext().getContentResolver(), uri);
+                    return stores;
+            }
+            Cursor cursor = queryInternal(uri, projection, selection, selectionArgs, sortOrder);
+            // Counting fills the first cursor window, which the caller would do right away anyway
+            rows = cursor.getCount();
+            StartupTrace.mark(StartupTrace.FIRST_QUERY);
+            return cursor;
+        } finally {
+            mMetrics.record(match, ProviderMetrics.OP_QUERY, start, rows);
+            if (!inMemory) {
+                mSlowQueries.record(helper(), "query", sPatterns.get(match), selectionArgs, rows, start);
+            }
+            StartupTrace.endSection();
+        }
+    }
+
+    /**
+     * Query a store-scoped URI: one store like any unscoped URI, or all of them through
+     * {@link StoreFanOut}.
+     */
+    private Cursor queryStore(String store, Uri uri, final String[] projection, final String selection,
+                              final String[] selectionArgs, final String sortOrder) {
+        final Uri inner = unscoped(uri);
+        if (!StoreEntry.STORE_ALL.equals(store)) {
+            String previous = enterStore(store);
+            try {
+                Cursor cursor = query(inner, projection, selection, selectionArgs, sortOrder);
+                cursor.setNotificationUri(getContext().getContentResolver(), uri);
+                return cursor;
+            } finally {
+                exitStore(previous);
+            }
+        }
+
+        int match = sUriMatcher.match(inner);
+        switch (match) {
+            case RECORDS:
+            case LOW_STOCK:
+            case RECORD_SEARCH:
+            case SALES:
+            case SALES_BY_RANGE:
+            case ROLLUPS_BY_RECORD:
+            case ROLLUPS_BY_SUPPLIER:
+            case ROLLUP_SUPPLIER:
+            case SUPPLIERS:
+            case SUPPLIER_NAME:
+            case ALERTS:
+            case PURCHASE_ORDERS:
+                break;
+            default:
+                throw new IllegalArgumentException("Cannot query all stores for " + uri);
+        }
+        long start = System.nanoTime();
+        int rows = -1;
+        try {
+            StoreFanOut.StoreQuery storeQuery = new StoreFanOut.StoreQuery() {
+                @Override
+                public Cursor query(String store) {
+                    String previous = enterStore(store);
+                    try {
+                        return queryInternal(inner, projection, selection, selectionArgs, sortOrder);
+                    } finally {
+                        exitStore(previous);
+                    }
+                }
+            };
+            Cursor cursor = match == ROLLUPS_BY_SUPPLIER || match == ROLLUP_SUPPLIER
+                    ? mFanOut.sumRollups(listStores(), storeQuery, sortOrder)
+                    : mFanOut.query(listStores(), storeQuery, sortOrder);
+            // The stores announce their changes on different URIs, all under the base URI
+            cursor.setNotificationUri(getContext().getContentResolver(), RecordContract.BASE_CONTENT_URI);
+            rows = cursor.getCount();
+            return cursor;
+        } finally {
+            mMetrics.record(match, ProviderMetrics.OP_QUERY, start, rows);
+        }
+    }
+
+    private Cursor queryInternal(Uri uri, String[] projection, String selection, String[] selectionArgs,
+                                 String sortOrder) {
+        // Get readable database
+        SQLiteDatabase database = helper().getReadableDatabase();
+
+        // This cursor will hold the result of the query
+        Cursor cursor;
+
+        // Figure out if the URI matcher can match the URI to a specific code
+        int match = sUriMatcher.match(uri);
+        switch (match) {
+            case RECORDS:
+                // For the RECORDS code, query the records table directly with the given
+                // projection, selection, selection arguments, and sort order. The cursor
+                // could contain multiple rows of the records table.
+                selection = appendSelection(LIVE_RECORDS, selection);
+                cursor = database.query(RecordContract.RecordEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, currentSortOrder(sortOrder));
+                break;
+            case RECORD_ID:
+                // For the RECORD_ID code, extract out the ID from the URI.
+                // For an example URI such as "content://com.example.android.records/records/3",
+                // the selection will be "_id=?" and the selection argument will be a
+                // String array containing the actual ID of 3 in this case.
+                //
+                // For every "?" in the selection, we need to have an element in the selection
+                // arguments that will fill in the "?". Since we have 1 question mark in the
+                // selection, we have 1 String in the selection arguments' String array.
+                selection = RecordContract.RecordEntry._ID + "=? AND " + LIVE_RECORDS;
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+
+                // This will perform a query on the records table where the _id equals 3 to return a
+                // Cursor containing that row of the table.
+                cursor = database.query(RecordContract.RecordEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case RECORD_DUPLICATES:
+                cursor = queryDuplicates(database, uri);
+                break;
+            case RECORD_SKU:
+                // A single seek on the unique SKU index
+                selection = RecordEntry.COLUMN_SKU + "=? AND " + LIVE_RECORDS;
+                selectionArgs = new String[] { uri.getLastPathSegment() };
+                cursor = database.query(RecordEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case LOW_STOCK:
+                // One pass over the records, resolving each threshold through the supplier's
+                // primary key. Sorted by supplier so callers can group rows as they read them.
+                SQLiteQueryBuilder lowStock = new SQLiteQueryBuilder();
+                lowStock.setTables(LOW_STOCK_JOIN);
+                lowStock.setProjectionMap(sLowStockProjectionMap);
+                lowStock.appendWhere(RecordEntry.TABLE_NAME + "." + RecordEntry.COLUMN_QUANTITY
+                        + " <= " + EFFECTIVE_THRESHOLD + " AND " + LIVE_RECORDS);
+                if (sortOrder == null) {
+                    sortOrder = RecordEntry.TABLE_NAME + "." + RecordEntry.COLUMN_SUPPLIER_NAME + ", "
+                            + RecordEntry.TABLE_NAME + "." + RecordEntry._ID;
+                }
+                cursor = lowStock.query(database, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case RECORD_SEARCH:
+                // A prefix match is a range [prefix, upperBound) in NOCASE order, which SQLite
+                // answers from the NOCASE indexes on album and band name.
+                String prefix = RecordSearch.asciiFold(uri.getLastPathSegment());
+                String upper = RecordSearch.upperBound(prefix);
+                String albumRange = prefixRange(RecordEntry.COLUMN_ALBUM_NAME, upper != null);
+                String bandRange = prefixRange(RecordEntry.COLUMN_BAND_NAME, upper != null);
+                selection = appendSelection("((" + albumRange + ") OR (" + bandRange + ")) AND "
+                        + LIVE_RECORDS, selection);
+                selectionArgs = upper != null
+                        ? prependArgs(selectionArgs, prefix, upper, prefix, upper)
+                        : prependArgs(selectionArgs, prefix, prefix);
+                cursor = database.query(RecordEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case SALES:
+                cursor = database.query(SaleEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case SALES_BY_RECORD:
+                // Served by the (record_id, sold_at) index.
+                selection = appendSelection(SaleEntry.COLUMN_RECORD_ID + "=?", selection);
+                selectionArgs = prependArgs(selectionArgs, String.valueOf(ContentUris.parseId(uri)));
+                cursor = database.query(SaleEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case SALES_BY_RANGE:
+                // Served by the sold_at index. The path is ".../range/{from}/{to}".
+                List<String> segments = uri.getPathSegments();
+                String from = segments.get(segments.size() - 2);
+                String to = segments.get(segments.size() - 1);
+                selection = appendSelection(SaleEntry.COLUMN_SOLD_AT + ">=? AND "
+                        + SaleEntry.COLUMN_SOLD_AT + "<?", selection);
+                selectionArgs = prependArgs(selectionArgs, from, to);
+                cursor = database.query(SaleEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case ROLLUPS_BY_RECORD:
+            case ROLLUP_RECORD:
+            case ROLLUPS_BY_SUPPLIER:
+            case ROLLUP_SUPPLIER:
+                cursor = queryRollups(database, uri, match, projection, selection, selectionArgs, sortOrder);
+                break;
+            case SUPPLIERS:
+                cursor = database.query(SupplierEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case SUPPLIER_NAME:
+                selection = appendSelection(SupplierEntry.COLUMN_SUPPLIER_NAME + "=?", selection);
+                selectionArgs = prependArgs(selectionArgs, uri.getLastPathSegment());
+                cursor = database.query(SupplierEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case ALERTS:
+            case ALERT_ID:
+                SQLiteQueryBuilder builder = new SQLiteQueryBuilder();
+                builder.setTables(ALERTS_JOIN);
+                builder.setProjectionMap(sAlertsProjectionMap);
+                builder.appendWhere(LIVE_RECORDS);
+                if (match == ALERT_ID) {
+                    builder.appendWhere(" AND " + AlertEntry.TABLE_NAME + "." + AlertEntry._ID + "="
+                            + ContentUris.parseId(uri));
+                }
+                cursor = builder.query(database, projection, selection, selectionArgs, null, null, sortOrder);
+                break;
+            case PURCHASE_ORDERS:
+                cursor = database.query(PurchaseOrderEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case PURCHASE_ORDER_ID:
+                selection = PurchaseOrderEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                cursor = database.query(PurchaseOrderEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case CHANGES:
+                String since = uri.getQueryParameter(ChangeEntry.QUERY_PARAMETER_SINCE);
+                if (since != null) {
+                    if (!since.matches("\\d+")) {
+                        throw new IllegalArgumentException("Invalid sequence number " + since);
+                    }
+                    selection = appendSelection(ChangeEntry._ID + ">?", selection);
+                    selectionArgs = prependArgs(selectionArgs, since);
+                }
+                cursor = database.query(ChangeEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder != null ? sortOrder : ChangeEntry._ID);
+                break;
+            case CHANGES_LATEST:
+                // MAX over the rowid is a single seek
+                cursor = database.query(ChangeEntry.TABLE_NAME,
+                        new String[] { "IFNULL(MAX(" + ChangeEntry._ID + "), 0) AS " + ChangeEntry._ID },
+                        null, null, null, null, null);
+                break;
+            case STOCK_COUNTERS:
+                cursor = database.query(StockCounterEntry.TABLE_NAME, projection, selection, selectionArgs,
+                        null, null, sortOrder);
+                break;
+            case STOCK_DEVICE:
+                cursor = database.query(StockCounterEntry.LOCAL_DEVICE_TABLE_NAME,
+                        new String[] { StockCounterEntry.COLUMN_DEVICE }, null, null, null, null, null);
+                break;
+            default:
+                throw new IllegalArgumentException("Cannot query unknown URI " + uri);
+        }
+
+        // Set notification URI on the Cursor,
+        // so we know what content URI the Cursor was created for.
+        // If the data at this URI changes, then we know we need to update the Cursor.
+        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+
+        // Return the cursor
+        return cursor;
+    }
+
+    /**
+     * Return the selection for "column starts with ?" as a NOCASE range over the column.
+     */
+    private static String prefixRange(String column, boolean bounded) {
+        String range = column + " >= ? COLLATE NOCASE";
+        if (bounded) {
+            range += " AND " + column + " < ? COLLATE NOCASE";
+        }
+        return range;
+    }
+
+    /**
+     * Read sales rollup buckets. The path picks the table and the bucket size, and optionally a
+     * single record or supplier; both are prefixes of the rollup primary keys or of the
+     * (granularity, bucket_start) index, so the read never touches the raw ledger.
+     */
+    private Cursor queryRollups(SQLiteDatabase database, Uri uri, int match, String[] projection,
+                                String selection, String[] selectionArgs, String sortOrder) {
+        // Path is "rollups/{record|supplier}/{granularity}[/{key}]"
+        List<String> segments = uri.getPathSegments();
+        String granularity = segments.get(2);
+        if (!RollupEntry.isValidGranularity(granularity)) {
+            throw new IllegalArgumentException("Unknown rollup granularity " + granularity);
+        }
+
+        String table;
+        String required = RollupEntry.COLUMN_GRANULARITY + "=?";
+        String[] requiredArgs;
+        switch (match) {
+            case ROLLUP_RECORD:
+                table = RollupEntry.RECORD_TABLE_NAME;
+                required = RollupEntry.COLUMN_RECORD_ID + "=? AND " + required;
+                requiredArgs = new String[] { segments.get(3), granularity };
+                break;
+            case ROLLUP_SUPPLIER:
+                table = RollupEntry.SUPPLIER_TABLE_NAME;
+                required = RollupEntry.COLUMN_SUPPLIER_NAME + "=? AND " + required;
+                requiredArgs = new String[] { segments.get(3), granularity };
+                break;
+            case ROLLUPS_BY_SUPPLIER:
+                table = RollupEntry.SUPPLIER_TABLE_NAME;
+                requiredArgs = new String[] { granularity };
+                break;
+            default:
+                table = RollupEntry.RECORD_TABLE_NAME;
+                requiredArgs = new String[] { granularity };
+                break;
+        }
+
+        String limit = uri.getQueryParameter(RollupEntry.QUERY_PARAMETER_LIMIT);
+        if (limit != null && !limit.matches("\\d+")) {
+            throw new IllegalArgumentException("Invalid limit " + limit);
+        }
+        return database.query(table, projection, appendSelection(required, selection),
+                prependArgs(selectionArgs, requiredArgs), null, null, sortOrder, limit);
+    }
+
+    @Override
+    public Uri insert(Uri uri, ContentValues contentValues) {
+        String store = storeOf(uri);
+        if (store != null) {
+            checkWritable(store, uri);
+            String previous = enterStore(store);
+            try {
+                Uri result = insert(unscoped(uri), contentValues);
+                return result != null ? StoreEntry.buildStoreUri(store, result) : null;
+            } finally {
+                exitStore(previous);
+            }
+        }
+        long start = System.nanoTime();
+        Uri result = null;
+        try {
+            result = insertInternal(uri, contentValues);
+            return result;
+        } finally {
+            mMetrics.record(sUriMatcher.match(uri), ProviderMetrics.OP_INSERT, start, result != null ? 1 : 0);
+        }
+    }
+
+    /**
+     * Insert a batch of records or sales, or merge a batch of stock counters, in a single
+     * transaction. Listeners are notified once per changed URI after the batch commits, rather
+     * than once per row. A row that fails validation rolls back the whole batch; a sale with
+     * too little stock, or a counter of a record that doesn't exist here, is skipped and not
+     * counted.
+     */
+    @Override
+    public int bulkInsert(Uri uri, ContentValues[] values) {
+        String store = storeOf(uri);
+        if (store != null) {
+            checkWritable(store, uri);
+            String previous = enterStore(store);
+            try {
+                return bulkInsert(unscoped(uri), values);
+            } finally {
+                exitStore(previous);
+            }
+        }
+        final int match = sUriMatcher.match(uri);
+        if (match != RECORDS && match != SALES && match != STOCK_COUNTERS) {
+            return super.bulkInsert(uri, values);
+        }
+        long start = System.nanoTime();
+        SQLiteDatabase database = helper().getWritableDatabase();
+        Set<Uri> pending = new LinkedHashSet<>();
+        int inserted = 0;
+        mPendingNotifications.set(pending);
+        try {
+            beginTransaction(database);
+            try {
+                for (ContentValues row : values) {
+                    if (insertInternal(uri, row) != null) {
+                        inserted++;
+                    }
+                }
+                database.setTransactionSuccessful();
+            } finally {
+                database.endTransaction();
+            }
+        } finally {
+            mPendingNotifications.remove();
+            mMetrics.record(match, ProviderMetrics.OP_INSERT, start, inserted);
+        }
+        if (match == SALES && inserted > 0) {
+            // One notification for the record list instead of one per record sold
+            pending.add(RecordEntry.CONTENT_URI);
+        }
+        for (Uri changed : pending) {
+            if (!hasAncestorIn(changed, pending)) {
+                notifyChange(changed);
+            }
+        }
+        return inserted;
+    }
+
+    /**
+     * Return true if one of the URIs is a parent of the given one. Notifying the parent
+     * reaches the observers of the child as well.
+     */
+    private static boolean hasAncestorIn(Uri uri, Set<Uri> uris) {
+        List<String> segments = uri.getPathSegments();
+        Uri.Builder ancestor = new Uri.Builder().scheme(uri.getScheme()).authority(uri.getAuthority());
+        for (int i = 0; i < segments.size() - 1; i++) {
+            ancestor.appendPath(segments.get(i));
+            if (uris.contains(ancestor.build())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private Uri insertInternal(Uri uri, ContentValues contentValues) {
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case RECORDS:
+                return insertRecord(uri, contentValues);
+            case SALES:
+                return insertSale(uri, contentValues);
+            case SUPPLIERS:
+                return insertSupplier(uri, contentValues);
+            case PURCHASE_ORDERS:
+                return insertPurchaseOrder(uri, contentValues);
+            case STOCK_COUNTERS:
+                return mergeStockCounter(uri, contentValues);
+            default:
+                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+        }
+    }
+
+    /**
+     * Import the records of a CSV file into the records URI, which may be store-scoped and
+     * merging. The calling thread is the only writer: it writes the chunks the pipeline parsed
+     * in parallel, each in its own transaction, so other writers get a turn between chunks.
+     * Listeners are notified once, at the end.
+     */
+    private Bundle importRecords(Uri uri, ParcelFileDescriptor source) {
+        String store = storeOf(uri);
+        if (store != null) {
+            checkWritable(store, uri);
+            String previous = enterStore(store);
+            try {
+                return importRecords(unscoped(uri), source);
+            } finally {
+                exitStore(previous);
+            }
+        }
+        InputStreamReader input = new InputStreamReader(new ParcelFileDescriptor.AutoCloseInputStream(source), UTF_8);
+        if (sUriMatcher.match(uri) != RECORDS) {
+            closeQuietly(input);
+            throw new IllegalArgumentException("Records can only be imported into records: " + uri);
+        }
+
+        long start = System.nanoTime();
+        final Uri target = uri;
+        final SQLiteDatabase database = helper().getWritableDatabase();
+        Set<Uri> pending = new LinkedHashSet<>();
+        ImportPipeline.Result result = null;
+        mPendingNotifications.set(pending);
+        try {
+            result = importPipeline().run(input, new ImportPipeline.Writer() {
+                @Override
+                public void write(ImportPipeline.Chunk chunk, List<ImportPipeline.Problem> failures) {
+                    writeImportChunk(database, target, chunk, failures);
+                }
+            });
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Cannot import: " + e.getMessage());
+        } finally {
+            // The chunks written before a failure stay written, so they are notified too
+            mPendingNotifications.remove();
+            mMetrics.record(RECORDS, ProviderMetrics.OP_INSERT, start, result != null ? result.getImported() : 0);
+            for (Uri changed : pending) {
+                if (!hasAncestorIn(changed, pending)) {
+                    notifyChange(changed);
+                }
+            }
+        }
+
+        List<ImportPipeline.Problem> problems = result.getProblems();
+        int[] lines = new int[problems.size()];
+        String[] messages = new String[problems.size()];
+        for (int i = 0; i < lines.length; i++) {
+            lines[i] = problems.get(i).getLine();
+            messages[i] = problems.get(i).getMessage();
+        }
+        Bundle bundle = new Bundle();
+        bundle.putInt(ImportEntry.EXTRA_IMPORTED, result.getImported());
+        bundle.putInt(ImportEntry.EXTRA_PROBLEM_COUNT, result.getProblemCount());
+        bundle.putIntArray(ImportEntry.EXTRA_PROBLEM_LINES, lines);
+        bundle.putStringArray(ImportEntry.EXTRA_PROBLEM_MESSAGES, messages);
+        return bundle;
+    }
+
+    /**
+     * Write the records of an import chunk in one transaction. The rows were validated while
+     * parsing, so a record is only refused by the database, for a SKU another record has.
+     */
+    private void writeImportChunk(SQLiteDatabase database, Uri uri, ImportPipeline.Chunk chunk,
+                                  List<ImportPipeline.Problem> failures) {
+        List<Record> records = chunk.getRecords();
+        beginTransaction(database);
+        try {
+            for (int i = 0; i < records.size(); i++) {
+                if (insertRecord(uri, RecordMapper.toContentValues(records.get(i))) == null) {
+                    failures.add(new ImportPipeline.Problem(chunk.getLine(i),
+                            "Record could not be saved; its SKU may belong to another record"));
+                }
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+    }
+
+    /**
+     * Return the import pipeline, with a parser thread per core. Before Lollipop there is no
+     * fork-join pool, so a plain pool whose threads time out stands in.
+     */
+    private synchronized ImportPipeline importPipeline() {
+        if (mImportPipeline == null) {
+            int cores = Runtime.getRuntime().availableProcessors();
+            ExecutorService parsers;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                parsers = new ForkJoinPool(cores);
+            } else {
+                ThreadPoolExecutor pool = new ThreadPoolExecutor(cores, cores, IMPORT_PARSER_KEEP_ALIVE_SECONDS,
+                        TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>());
+                pool.allowCoreThreadTimeOut(true);
+                parsers = pool;
+            }
+            mImportPipeline = new ImportPipeline(parsers, cores, IMPORT_DEFAULT_COVER, ImportEntry.MAX_PROBLEMS);
+        }
+        return mImportPipeline;
+    }
+
+    private static void closeQuietly(InputStreamReader input) {
+        try {
+            input.close();
+        } catch (IOException e) {
+            // Nothing left to read
+        }
+    }
+
+    /**
+     * Return the ID of a record with the given duplicate key, or -1 if there is none. The Bloom
+     * filter answers for most new records, which then don't need the index seek.
+     */
+    private long findDuplicate(SQLiteDatabase database, String dedupeKey) {
+        if (!mightHaveDuplicate(database, dedupeKey)) {
+            return -1;
+        }
+        SQLiteStatement lookup = database.compileStatement("SELECT " + RecordEntry._ID + " FROM "
+                + RecordEntry.TABLE_NAME + " WHERE " + RecordEntry.COLUMN_DEDUPE_KEY + " = ? AND " + LIVE_RECORDS
+                + " ORDER BY " + RecordEntry._ID + " LIMIT 1");
+        try {
+            lookup.bindString(1, dedupeKey);
+            return lookup.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            return -1;
+        } finally {
+            lookup.close();
+        }
+    }
+
+    /**
+     * Return false if no record of the current store has the given duplicate key, according to
+     * the store's Bloom filter. The filter is built from the records on first use or once it has
+     * more keys than it was sized for. Its bits are only read under the same lock that guards
+     * adding keys, since inserts of other threads add them.
+     */
+    private boolean mightHaveDuplicate(SQLiteDatabase database, String dedupeKey) {
+        String store = mStore.get() != null ? mStore.get() : StoreEntry.STORE_DEFAULT;
+        synchronized (mDedupeFilters) {
+            BloomFilter filter = mDedupeFilters.get(store);
+            if (filter != null && !filter.isFull()) {
+                return filter.mightContain(dedupeKey);
+            }
+            long count = DatabaseUtils.queryNumEntries(database, RecordEntry.TABLE_NAME);
+            // Room to grow before the next rebuild
+            filter = new BloomFilter((int) Math.max(2 * count, DEDUPE_FILTER_MIN_CAPACITY),
+                    DEDUPE_FILTER_FALSE_POSITIVES);
+            Cursor cursor = database.query(RecordEntry.TABLE_NAME, new String[] { RecordEntry.COLUMN_DEDUPE_KEY },
+                    null, null, null, null, null);
+            try {
+                while (cursor.moveToNext()) {
+                    if (!cursor.isNull(0)) {
+                        filter.add(cursor.getString(0));
+                    }
+                }
+            } finally {
+                cursor.close();
+            }
+            mDedupeFilters.put(store, filter);
+            return filter.mightContain(dedupeKey);
+        }
+    }
+
+    /**
+     * Add a record's duplicate key to the current store's Bloom filter, if it has one yet.
+     */
+    private void rememberDedupeKey(String dedupeKey) {
+        String store = mStore.get() != null ? mStore.get() : StoreEntry.STORE_DEFAULT;
+        synchronized (mDedupeFilters) {
+            BloomFilter filter = mDedupeFilters.get(store);
+            if (filter != null) {
+                filter.add(dedupeKey);
+            }
+        }
+    }
+
+    /**
+     * Add the stock of a merged duplicate to the existing record. Return the record's URI.
+     */
+    private Uri restock(Uri uri, SQLiteDatabase database, long id, Integer quantity) {
+        if (quantity != null && quantity > 0) {
+            SQLiteStatement restock = database.compileStatement("UPDATE " + RecordEntry.TABLE_NAME
+                    + " SET " + RecordEntry.COLUMN_QUANTITY + " = " + RecordEntry.COLUMN_QUANTITY + " + ?, "
+                    + NEXT_VERSION + " WHERE " + RecordEntry._ID + " = ?");
+            restock.bindLong(1, quantity);
+            restock.bindLong(2, id);
+            restock.executeUpdateDelete();
+            restock.close();
+            notifyChange(ContentUris.withAppendedId(uri, id));
+        }
+        return ContentUris.withAppendedId(uri, id);
+    }
+
+    /**
+     * Return the records of the current store that have duplicates, grouped, for
+     * {@link DuplicateEntry#CONTENT_URI}.
+     */
+    private static Cursor queryDuplicates(SQLiteDatabase database, Uri uri) {
+        double similarity = DuplicateFinder.DEFAULT_SIMILARITY;
+        String parameter = uri.getQueryParameter(DuplicateEntry.QUERY_PARAMETER_SIMILARITY);
+        if (parameter != null) {
+            try {
+                similarity = Double.parseDouble(parameter);
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid similarity " + parameter);
+            }
+        }
+        DuplicateFinder finder = new DuplicateFinder(similarity);
+        Map<Long, Object[]> records = new HashMap<>();
+        Cursor cursor = database.query(RecordEntry.TABLE_NAME, new String[] { RecordEntry._ID,
+                RecordEntry.COLUMN_DEDUPE_KEY, RecordEntry.COLUMN_ALBUM_NAME, RecordEntry.COLUMN_BAND_NAME,
+                RecordEntry.COLUMN_QUANTITY }, LIVE_RECORDS, null, null, null, RecordEntry._ID);
+        try {
+            while (cursor.moveToNext()) {
+                long id = cursor.getLong(0);
+                finder.add(id, cursor.getString(1));
+                records.put(id, new Object[] { id, cursor.getString(2), cursor.getString(3), cursor.getInt(4) });
+            }
+        } finally {
+            cursor.close();
+        }
+
+        MatrixCursor duplicates = new MatrixCursor(new String[] { DuplicateEntry.COLUMN_GROUP, RecordEntry._ID,
+                RecordEntry.COLUMN_ALBUM_NAME, RecordEntry.COLUMN_BAND_NAME, RecordEntry.COLUMN_QUANTITY });
+        int group = 0;
+        for (long[] ids : finder.findGroups()) {
+            group++;
+            for (long id : ids) {
+                Object[] record = records.get(id);
+                duplicates.addRow(new Object[] { group, record[0], record[1], record[2], record[3] });
+            }
+        }
+        return duplicates;
+    }
+
+    /**
+     * Merge duplicates into the record to keep, in one transaction: it gets their stock, their
+     * sales, their rollups and their alerts, and they are deleted as {@link #delete} does, with
+     * no stock left. Duplicates that are already deleted are left out. Return the number of
+     * records deleted.
+     */
+    private int mergeDuplicates(long keepId, long[] duplicateIds) {
+        List<String> ids = new ArrayList<>(duplicateIds.length);
+        for (long id : duplicateIds) {
+            if (id != keepId) {
+                ids.add(String.valueOf(id));
+            }
+        }
+        if (ids.isEmpty()) {
+            return 0;
+        }
+        String keep = String.valueOf(keepId);
+
+        SQLiteDatabase database = helper().getWritableDatabase();
+        int deleted = 0;
+        boolean alerted;
+        beginTransaction(database);
+        try {
+            if (DatabaseUtils.queryNumEntries(database, RecordEntry.TABLE_NAME, RecordEntry._ID + "=? AND "
+                    + LIVE_RECORDS, new String[] { keep }) == 0) {
+                throw new IllegalArgumentException("No record to keep with ID " + keepId);
+            }
+            ids = liveRecordIds(database, ids);
+            if (ids.isEmpty()) {
+                database.setTransactionSuccessful();
+                return 0;
+            }
+            String[] placeholders = new String[ids.size()];
+            Arrays.fill(placeholders, "?");
+            String in = " IN (" + TextUtils.join(",", placeholders) + ")";
+            String[] duplicateArgs = ids.toArray(new String[ids.size()]);
+            String[] restockArgs = Arrays.copyOf(duplicateArgs, duplicateArgs.length + 1);
+            restockArgs[duplicateArgs.length] = keep;
+            long newestAlert = newestAlertId(database);
+
+            database.execSQL("UPDATE " + RecordEntry.TABLE_NAME + " SET " + RecordEntry.COLUMN_QUANTITY
+                    + " = " + RecordEntry.COLUMN_QUANTITY + " + (SELECT IFNULL(SUM(" + RecordEntry.COLUMN_QUANTITY
+                    + "), 0) FROM " + RecordEntry.TABLE_NAME + " WHERE " + RecordEntry._ID + in + "), "
+                    + NEXT_VERSION + " WHERE " + RecordEntry._ID + " = ?", restockArgs);
+            ContentValues sales = new ContentValues();
+            sales.put(SaleEntry.COLUMN_RECORD_ID, keepId);
+            database.update(SaleEntry.TABLE_NAME, sales, SaleEntry.COLUMN_RECORD_ID + in, duplicateArgs);
+            // Buckets both records sold in are added up
+            database.execSQL("INSERT OR REPLACE INTO " + RollupEntry.RECORD_TABLE_NAME + " ("
+                    + RollupEntry.COLUMN_RECORD_ID + ", " + RollupEntry.COLUMN_GRANULARITY + ", "
+                    + RollupEntry.COLUMN_BUCKET_START + ", " + RollupEntry.COLUMN_UNITS + ", "
+                    + RollupEntry.COLUMN_REVENUE + ") SELECT ?, " + RollupEntry.COLUMN_GRANULARITY + ", "
+                    + RollupEntry.COLUMN_BUCKET_START + ", SUM(" + RollupEntry.COLUMN_UNITS + "), SUM("
+                    + RollupEntry.COLUMN_REVENUE + ") FROM " + RollupEntry.RECORD_TABLE_NAME + " WHERE "
+                    + RollupEntry.COLUMN_RECORD_ID + " = ? OR " + RollupEntry.COLUMN_RECORD_ID + in
+                    + " GROUP BY " + RollupEntry.COLUMN_GRANULARITY + ", " + RollupEntry.COLUMN_BUCKET_START,
+                    prependArgs(duplicateArgs, keep, keep));
+            database.delete(RollupEntry.RECORD_TABLE_NAME, RollupEntry.COLUMN_RECORD_ID + in, duplicateArgs);
+
+            // Their stock moved to the kept record, which the stock counters count as a change
+            // of both, so other devices follow
+            ContentValues merged = new ContentValues();
+            merged.put(RecordEntry.COLUMN_QUANTITY, 0);
+            merged.put(RecordEntry.COLUMN_DELETED_AT, nextDeletionTime());
+            deleted = updateVersioned(database, merged, RecordEntry._ID + in, duplicateArgs);
+            // Emptying them isn't low stock, but their earlier alerts are the kept record's now
+            database.delete(AlertEntry.TABLE_NAME, AlertEntry._ID + " > ? AND " + AlertEntry.COLUMN_RECORD_ID
+                    + in, prependArgs(duplicateArgs, String.valueOf(newestAlert)));
+            ContentValues alerts = new ContentValues();
+            alerts.put(AlertEntry.COLUMN_RECORD_ID, keepId);
+            alerted = database.update(AlertEntry.TABLE_NAME, alerts, AlertEntry.COLUMN_RECORD_ID + in,
+                    duplicateArgs) > 0;
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        notifyChange(RecordEntry.CONTENT_URI);
+        notifyChange(SaleEntry.CONTENT_URI);
+        notifyChange(RollupEntry.CONTENT_URI);
+        if (alerted) {
+            notifyChange(AlertEntry.CONTENT_URI);
+        }
+        return deleted;
+    }
+
+    /**
+     * Return those of the given record IDs whose records aren't deleted.
+     */
+    private static List<String> liveRecordIds(SQLiteDatabase database, List<String> ids) {
+        String[] placeholders = new String[ids.size()];
+        Arrays.fill(placeholders, "?");
+        Cursor cursor = database.query(RecordEntry.TABLE_NAME, new String[] { RecordEntry._ID },
+                RecordEntry._ID + " IN (" + TextUtils.join(",", placeholders) + ") AND " + LIVE_RECORDS,
+                ids.toArray(new String[ids.size()]), null, null, null);
+        List<String> live = new ArrayList<>(cursor.getCount());
+        try {
+            while (cursor.moveToNext()) {
+                live.add(cursor.getString(0));
+            }
+        } finally {
+            cursor.close();
+        }
+        return live;
+    }
+
+    /**
+     * Merge another device's stock counter for a record into ours, keeping the larger of each
+     * count, and set the record's quantity from the merged counters. Setting it that way leaves
+     * the local device's counter as it is, since the quantity then equals the counters' sum.
+     * Return the counters' URI, or null if no record has the SKU here.
+     */
+    private Uri mergeStockCounter(Uri uri, ContentValues values) {
+        String sku = values == null ? null : values.getAsString(StockCounterEntry.COLUMN_SKU);
+        String device = values == null ? null : values.getAsString(StockCounterEntry.COLUMN_DEVICE);
+        if (sku == null || device == null) {
+            throw new IllegalArgumentException("Stock counter requires a SKU and a device");
+        }
+        Long increments = values.getAsLong(StockCounterEntry.COLUMN_INCREMENTS);
+        Long decrements = values.getAsLong(StockCounterEntry.COLUMN_DECREMENTS);
+        if (increments == null || increments < 0 || decrements == null || decrements < 0) {
+            throw new IllegalArgumentException("Stock counter requires valid counts");
+        }
+
+        SQLiteDatabase database = helper().getWritableDatabase();
+        long recordId = -1;
+        beginTransaction(database);
+        try {
+            SQLiteStatement lookup = database.compileStatement("SELECT " + RecordEntry._ID + " FROM "
+                    + RecordEntry.TABLE_NAME + " WHERE " + RecordEntry.COLUMN_SKU + " = ?");
+            lookup.bindString(1, sku);
+            try {
+                recordId = lookup.simpleQueryForLong();
+            } catch (SQLiteDoneException e) {
+                // Nothing was written; ending the transaction as failed would roll back the rest
+                // of a bulk merge
+                database.setTransactionSuccessful();
+                return null;
+            } finally {
+                lookup.close();
+            }
+
+            SQLiteStatement create = database.compileStatement("INSERT OR IGNORE INTO "
+                    + StockCounterEntry.TABLE_NAME + " (" + StockCounterEntry.COLUMN_SKU + ", "
+                    + StockCounterEntry.COLUMN_DEVICE + ") VALUES (?, ?)");
+            create.bindString(1, sku);
+            create.bindString(2, device);
+            create.executeInsert();
+            create.close();
+
+            SQLiteStatement merge = database.compileStatement("UPDATE " + StockCounterEntry.TABLE_NAME
+                    + " SET " + StockCounterEntry.COLUMN_INCREMENTS + " = MAX("
+                    + StockCounterEntry.COLUMN_INCREMENTS + ", ?), " + StockCounterEntry.COLUMN_DECREMENTS
+                    + " = MAX(" + StockCounterEntry.COLUMN_DECREMENTS + ", ?) WHERE "
+                    + StockCounterEntry.COLUMN_SKU + " = ? AND " + StockCounterEntry.COLUMN_DEVICE + " = ?");
+            merge.bindLong(1, increments);
+            merge.bindLong(2, decrements);
+            merge.bindString(3, sku);
+            merge.bindString(4, device);
+            merge.executeUpdateDelete();
+            merge.close();
+
+            SQLiteStatement reconcile = database.compileStatement("UPDATE " + RecordEntry.TABLE_NAME
+                    + " SET " + RecordEntry.COLUMN_QUANTITY + " = (SELECT SUM("
+                    + StockCounterEntry.COLUMN_INCREMENTS + " - " + StockCounterEntry.COLUMN_DECREMENTS
+                    + ") FROM " + StockCounterEntry.TABLE_NAME + " WHERE " + StockCounterEntry.COLUMN_SKU
+                    + " = ?), " + NEXT_VERSION + " WHERE " + RecordEntry._ID + " = ?");
+            reconcile.bindString(1, sku);
+            reconcile.bindLong(2, recordId);
+            reconcile.executeUpdateDelete();
+            reconcile.close();
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
+
+        notifyChange(ContentUris.withAppendedId(RecordEntry.CONTENT_URI, recordId));
+        notifyChange(uri);
+        return uri;
+    }
 
     /**
-     * UriMatcher object to match a content URI to a corresponding code.
-     * The input passed into the constructor represents the code to return for the root URI.
-     * It's common to use NO_MATCH as the input for this case.
+     * Insert or replace a supplier and its reorder threshold. Return the URI of the supplier.
      */
-    private static final UriMatcher sUriMatcher = new UriMatcher(UriMatcher.NO_MATCH);
-
-    // Static initializer. This is run the first time anything is called from this class.
-    static {
-        // The calls to addURI() go here, for all of the content URI patterns that the provider
-        // should recognize. All paths added to the UriMatcher have a corresponding code to return
-        // when a match is found.
+    private Uri insertSupplier(Uri uri, ContentValues values) {
+        String supplierName = values == null ? null : values.getAsString(SupplierEntry.COLUMN_SUPPLIER_NAME);
+        if (supplierName == null) {
+            throw new IllegalArgumentException("Supplier requires a name");
+        }
+        Integer threshold = values.getAsInteger(SupplierEntry.COLUMN_REORDER_THRESHOLD);
+        if (threshold != null && threshold < 0) {
+            throw new IllegalArgumentException("Supplier requires a valid reorder threshold");
+        }
 
-        // The content URI of the form "content://com.example.android.records/records" will map to the
-        // integer code {@link #RECORDS}. This URI is used to provide access to MULTIPLE rows
-        // of the records table.
-        sUriMatcher.addURI(RecordContract.CONTENT_AUTHORITY, RecordContract.PATH_RECORDS, RECORDS);
+        SQLiteDatabase database = helper().getWritableDatabase();
+        long id = database.insertWithOnConflict(SupplierEntry.TABLE_NAME, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
 
-        // The content URI of the form "content://com.example.android.records/records/#" will map to the
-        // integer code {@link #RECORD_ID}. This URI is used to provide access to ONE single row
-        // of the records table.
-        //
-        // In this case, the "#" wildcard is used where "#" can be substituted for an integer.
-        // For example, "content://com.example.android.records/records/3" matches, but
-        // "content://com.example.android.records/records" (without a number at the end) doesn't match.
-        sUriMatcher.addURI(RecordContract.CONTENT_AUTHORITY, RecordContract.PATH_RECORDS + "/#", RECORD_ID);
+        notifyChange(uri);
+        return SupplierEntry.buildSupplierUri(supplierName);
     }
 
-    /** Database helper object */
-    private RecordDbHelper mDbHelper;
+    /**
+     * Queue a rendered purchase order in the outbox. Return the URI of the new order.
+     */
+    private Uri insertPurchaseOrder(Uri uri, ContentValues values) {
+        if (values == null) {
+            throw new IllegalArgumentException("Purchase order cannot be empty");
+        }
+        for (String column : new String[] { PurchaseOrderEntry.COLUMN_SUPPLIER_NAME,
+                PurchaseOrderEntry.COLUMN_SUPPLIER_EMAIL, PurchaseOrderEntry.COLUMN_SUBJECT,
+                PurchaseOrderEntry.COLUMN_BODY }) {
+            if (values.getAsString(column) == null) {
+                throw new IllegalArgumentException("Purchase order requires a " + column);
+            }
+        }
+        if (!values.containsKey(PurchaseOrderEntry.COLUMN_CREATED_AT)) {
+            values.put(PurchaseOrderEntry.COLUMN_CREATED_AT, System.currentTimeMillis());
+        }
 
-    @Override
-    public boolean onCreate() {
-        mDbHelper = new RecordDbHelper(getContext());
-        return true;
+        SQLiteDatabase database = helper().getWritableDatabase();
+        long id = database.insert(PurchaseOrderEntry.TABLE_NAME, null, values);
+        if (id == -1) {
+            Log.e(LOG_TAG, "Failed to insert row for " + uri);
+            return null;
+        }
+
+        notifyChange(uri);
+        return ContentUris.withAppendedId(uri, id);
     }
 
-    @Override
-    public Cursor query(Uri uri, String[] projection, String selection, String[] selectionArgs,
-                        String sortOrder) {
-        // Get readable database
-        SQLiteDatabase database = mDbHelper.getReadableDatabase();
+    /**
+     * Sell copies of a record: decrement its stock and append the sale to the ledger, both in
+     * the same transaction. The values must contain {@link SaleEntry#COLUMN_RECORD_ID} and may
+     * contain {@link SaleEntry#COLUMN_QUANTITY} (defaults to a single copy).
+     * Return the URI of the ledger entry, or null if there is not enough stock left.
+     */
+    private Uri insertSale(Uri uri, ContentValues values) {
+        Long recordId = values == null ? null : values.getAsLong(SaleEntry.COLUMN_RECORD_ID);
+        if (recordId == null) {
+            throw new IllegalArgumentException("Sale requires a record id");
+        }
+        Integer quantity = values.getAsInteger(SaleEntry.COLUMN_QUANTITY);
+        if (quantity == null) {
+            quantity = 1;
+        }
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Sale requires a positive quantity");
+        }
 
-        // This cursor will hold the result of the query
-        Cursor cursor;
+        SQLiteDatabase database = helper().getWritableDatabase();
+        long saleId = -1;
+        long newestAlert;
+        boolean alerted = false;
+        beginTransaction(database);
+        try {
+            newestAlert = newestAlertId(database);
+            // Decrement relative to the stored value, so two quick sales can't overwrite
+            // each other. The guard keeps stock from going negative.
+            SQLiteStatement decrement = database.compileStatement("UPDATE " + RecordEntry.TABLE_NAME
+                    + " SET " + RecordEntry.COLUMN_QUANTITY + " = " + RecordEntry.COLUMN_QUANTITY + " - ?, "
+                    + NEXT_VERSION + " WHERE " + RecordEntry._ID + " = ? AND " + RecordEntry.COLUMN_QUANTITY + " >= ?"
+                    + " AND " + LIVE_RECORDS);
+            decrement.bindLong(1, quantity);
+            decrement.bindLong(2, recordId);
+            decrement.bindLong(3, quantity);
+            int rowsUpdated = decrement.executeUpdateDelete();
+            decrement.close();
 
-        // Figure out if the URI matcher can match the URI to a specific code
-        int match = sUriMatcher.match(uri);
-        switch (match) {
-            case RECORDS:
-                // For the RECORDS code, query the records table directly with the given
-                // projection, selection, selection arguments, and sort order. The cursor
-                // could contain multiple rows of the records table.
-                cursor = database.query(RecordContract.RecordEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
-                break;
-            case RECORD_ID:
-                // For the RECORD_ID code, extract out the ID from the URI.
-                // For an example URI such as "content://com.example.android.records/records/3",
-                // the selection will be "_id=?" and the selection argument will be a
-                // String array containing the actual ID of 3 in this case.
-                //
-                // For every "?" in the selection, we need to have an element in the selection
-                // arguments that will fill in the "?". Since we have 1 question mark in the
-                // selection, we have 1 String in the selection arguments' String array.
-                selection = RecordContract.RecordEntry._ID + "=?";
-                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+            if (rowsUpdated == 1) {
+                Long soldAt = values.getAsLong(SaleEntry.COLUMN_SOLD_AT);
+                saleId = appendSale(database, recordId, quantity,
+                        soldAt != null ? soldAt : System.currentTimeMillis());
+                alerted = newestAlertId(database) > newestAlert;
+            }
+            // Also when there wasn't enough stock: nothing was written then, and ending the
+            // transaction as failed would roll back the batch this sale may be part of
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
+        }
 
-                // This will perform a query on the records table where the _id equals 3 to return a
-                // Cursor containing that row of the table.
-                cursor = database.query(RecordContract.RecordEntry.TABLE_NAME, projection, selection, selectionArgs,
-                        null, null, sortOrder);
-                break;
-            default:
-                throw new IllegalArgumentException("Cannot query unknown URI " + uri);
+        if (saleId == -1) {
+            Log.e(LOG_TAG, "Failed to sell " + quantity + " of record " + recordId);
+            return null;
         }
 
-        // Set notification URI on the Cursor,
-        // so we know what content URI the Cursor was created for.
-        // If the data at this URI changes, then we know we need to update the Cursor.
-        cursor.setNotificationUri(getContext().getContentResolver(), uri);
+        notifyChange(ContentUris.withAppendedId(RecordEntry.CONTENT_URI, recordId));
+        notifyChange(uri);
+        notifyChange(RollupEntry.CONTENT_URI);
+        if (alerted) {
+            notifyChange(AlertEntry.CONTENT_URI);
+        }
 
-        // Return the cursor
-        return cursor;
+        return ContentUris.withAppendedId(uri, saleId);
     }
 
-    @Override
-    public Uri insert(Uri uri, ContentValues contentValues) {
-        final int match = sUriMatcher.match(uri);
-        switch (match) {
-            case RECORDS:
-                return insertRecord(uri, contentValues);
-            default:
-                throw new IllegalArgumentException("Insertion is not supported for " + uri);
+    /**
+     * Maintain the store databases one after the other until the budget runs out or
+     * {@link MaintenanceEntry#METHOD_STOP_MAINTENANCE} stops them, for
+     * {@link MaintenanceEntry#METHOD_RUN_MAINTENANCE}.
+     */
+    private Bundle runMaintenance(long budgetMillis) {
+        long deadline = SystemClock.elapsedRealtime() + budgetMillis;
+        boolean complete = true;
+        try {
+            for (String store : listStores()) {
+                String previous = enterStore(store);
+                try {
+                    complete = mMaintenance.run(store, helper().getWritableDatabase(), deadline);
+                } finally {
+                    exitStore(previous);
+                }
+                if (!complete) {
+                    break;
+                }
+            }
+        } finally {
+            mMaintenance.finishRun();
         }
+        if (complete) {
+            mMaintenance.finishCycle();
+        }
+        Bundle result = new Bundle();
+        result.putBoolean(MaintenanceEntry.EXTRA_COMPLETE, complete);
+        return result;
     }
 
     /**
-     * Insert a record into the database with the given content values. Return the new content URI
-     * for that specific row in the database.
+     * Recompute the sort keys of one batch of records in the first store whose keys are of
+     * another locale, for {@link MaintenanceEntry#METHOD_REFRESH_SORT_KEYS}. Once a store is
+     * done its catalog is notified, so it is sorted by name again.
      */
-    private Uri insertRecord(Uri uri, ContentValues values) {
+    private Bundle refreshSortKeys() {
+        boolean complete = true;
+        for (String store : listStores()) {
+            String previous = enterStore(store);
+            try {
+                RecordDbHelper helper = helper();
+                if (!helper.areSortKeysCurrent()) {
+                    complete = helper.refreshSortKeys(helper.getWritableDatabase());
+                    if (complete) {
+                        notifyChange(RecordEntry.CONTENT_URI);
+                    }
+                }
+            } finally {
+                exitStore(previous);
+            }
+            if (!complete) {
+                break;
+            }
+        }
+        Bundle result = new Bundle();
+        result.putBoolean(MaintenanceEntry.EXTRA_COMPLETE, complete);
+        return result;
+    }
 
-        if (values == null) {
-            Toast.makeText(getContext(), "Record cannot be empty", Toast.LENGTH_LONG).show();
-            throw new IllegalArgumentException("Record cannot be empty");
+    /**
+     * Sell copies of the record with the given SKU, for {@link SaleEntry#METHOD_SELL_SKU}. The
+     * lookup is a seek on the unique SKU index, and the sale then goes through
+     * {@link #insertSale}, so a till needs one round trip per scan.
+     */
+    private Bundle sellSku(String sku, int quantity) {
+        if (sku == null) {
+            throw new IllegalArgumentException("Sale requires a SKU");
         }
-        // Check that the album name is not null
-        String albumName = values.getAsString(RecordEntry.COLUMN_ALBUM_NAME);
-        if (albumName == null) {
-            Toast.makeText(getContext(), "Record requires an album name", Toast.LENGTH_LONG).show();
-            throw new IllegalArgumentException("Record requires an album name");
+        long start = System.nanoTime();
+        SQLiteStatement lookup = helper().getReadableDatabase().compileStatement("SELECT "
+                + RecordEntry._ID + " FROM " + RecordEntry.TABLE_NAME + " WHERE "
+                + RecordEntry.COLUMN_SKU + " = ? AND " + LIVE_RECORDS);
+        long recordId = -1;
+        try {
+            lookup.bindString(1, sku);
+            recordId = lookup.simpleQueryForLong();
+        } catch (SQLiteDoneException e) {
+            // No record has this SKU
+        } finally {
+            lookup.close();
+            mMetrics.record(RECORD_SKU, ProviderMetrics.OP_QUERY, start, recordId != -1 ? 1 : 0);
         }
 
-        // Check that the album name is not null
-        String bandName = values.getAsString(RecordEntry.COLUMN_BAND_NAME);
-        if (bandName == null) {
-            Toast.makeText(getContext(), "Record requires a band name", Toast.LENGTH_LONG).show();
-            throw new IllegalArgumentException("Record requires a band name");
+        Uri saleUri = null;
+        if (recordId != -1) {
+            ContentValues sale = new ContentValues();
+            sale.put(SaleEntry.COLUMN_RECORD_ID, recordId);
+            sale.put(SaleEntry.COLUMN_QUANTITY, quantity);
+            saleUri = insertSale(SaleEntry.CONTENT_URI, sale);
         }
 
-        // Check that the quantity is not null
-        Integer quantity = values.getAsInteger(RecordEntry.COLUMN_QUANTITY);
-        if (quantity == null && quantity < 0) {
-            Toast.makeText(getContext(), "Record requires a quantity", Toast.LENGTH_LONG).show();
-            throw new IllegalArgumentException("Record requires a quantity");
-        }
+        Bundle result = new Bundle();
+        result.putLong(SaleEntry.EXTRA_RECORD_ID, recordId);
+        result.putLong(SaleEntry.EXTRA_SALE_ID, saleUri != null ? ContentUris.parseId(saleUri) : -1);
+        return result;
+    }
 
-        // If the price is provided, check that it's greater than or equal to 0 £
-        Integer price = values.getAsInteger(RecordEntry.COLUMN_PRICE);
-        if (price != null && price < 0) {
-            Toast.makeText(getContext(), "Record requires a valid price", Toast.LENGTH_LONG).show();
-            throw new IllegalArgumentException("Record requires valid price");
-        }
+    /**
+     * Append one entry to the sales ledger. The unit price is copied from the record in the same
+     * statement, so an append is a single primary-key lookup plus one insert.
+     * Must be called inside the transaction that decremented the stock.
+     */
+    private static long appendSale(SQLiteDatabase database, long recordId, int quantity, long soldAt) {
+        SQLiteStatement append = database.compileStatement("INSERT INTO " + SaleEntry.TABLE_NAME + " ("
+                + SaleEntry.COLUMN_RECORD_ID + ", " + SaleEntry.COLUMN_QUANTITY + ", "
+                + SaleEntry.COLUMN_PRICE + ", " + SaleEntry.COLUMN_SOLD_AT + ")"
+                + " SELECT " + RecordEntry._ID + ", ?, " + RecordEntry.COLUMN_PRICE + ", ?"
+                + " FROM " + RecordEntry.TABLE_NAME + " WHERE " + RecordEntry._ID + " = ?");
+        append.bindLong(1, quantity);
+        append.bindLong(2, soldAt);
+        append.bindLong(3, recordId);
+        long saleId = append.executeInsert();
+        append.close();
+        return saleId;
+    }
 
-        // Check that the record image is not null
-        String recordCover = values.getAsString(RecordEntry.COLUMN_RECORD_COVER);
-        if (recordCover == null) {
-            Toast.makeText(getContext(), "Record requires an image", Toast.LENGTH_LONG).show();
-            throw new IllegalArgumentException("Record requires an image");
-        }
+    /**
+     * Insert a record into the database with the given content values. Return the new content URI
+     * for that specific row in the database.
+     */
+    private Uri insertRecord(Uri uri, ContentValues values) {
 
-        // Check that the record contact supplier name is not null
-        String supplierName = values.getAsString(RecordEntry.COLUMN_SUPPLIER_NAME);
-        if (supplierName == null) {
-            Toast.makeText(getContext(), "Record requires a supplier contact name", Toast.LENGTH_LONG).show();
-            throw new IllegalArgumentException("Record requires a supplier contact name");
+        if (values == null) {
+            showError("Record cannot be empty", Toast.LENGTH_LONG);
+            throw new IllegalArgumentException("Record cannot be empty");
         }
-
-        // Check that the record contact supplier email is not null
-        String supplierEmail = values.getAsString(RecordEntry.COLUMN_SUPPLIER_EMAIL);
-        if (supplierEmail == null) {
-            Toast.makeText(getContext(), "Record requires a supplier contact email", Toast.LENGTH_LONG).show();
-            throw new IllegalArgumentException("Record requires a supplier contact email");
+        // Check that the record has everything a new record needs
+        try {
+            RecordValidator.validateNew(RecordMapper.fromContentValues(values));
+        } catch (IllegalArgumentException e) {
+            showError(e.getMessage(), Toast.LENGTH_LONG);
+            throw e;
         }
 
-
         // Get writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        SQLiteDatabase database = helper().getWritableDatabase();
 
-        // Insert the new RECORD with the given values
+        // Kept in the record, so duplicates can be found with an index seek
+        String dedupeKey = DuplicateKeys.of(values.getAsString(RecordEntry.COLUMN_ALBUM_NAME),
+                values.getAsString(RecordEntry.COLUMN_BAND_NAME));
+        if (DuplicateEntry.ON_DUPLICATE_MERGE.equals(
+                uri.getQueryParameter(DuplicateEntry.QUERY_PARAMETER_ON_DUPLICATE))) {
+            uri = uri.buildUpon().clearQuery().build();
+            long existing = findDuplicate(database, dedupeKey);
+            if (existing != -1) {
+                return restock(uri, database, existing, values.getAsInteger(RecordEntry.COLUMN_QUANTITY));
+            }
+        }
+        values = new ContentValues(values);
+        values.put(RecordEntry.COLUMN_DEDUPE_KEY, dedupeKey);
+        putSortKeys(values);
+
+        // Insert the new RECORD with the given values. A record that starts out at or below its
+        // reorder threshold raises an alert straight away.
+        long newestAlert = newestAlertId(database);
         long id = database.insert(RecordContract.RecordEntry.TABLE_NAME, null, values);
         // If the ID is -1, then the insertion failed. Log an error and return null.
         if (id == -1) {
             Log.e(LOG_TAG, "Failed to insert row for " + uri);
             return null;
         }
+        rememberDedupeKey(dedupeKey);
 
         // Notify all listeners that the data has changed for the pet content URI
-        getContext().getContentResolver().notifyChange(uri, null);
+        notifyChange(uri);
+        if (newestAlertId(database) > newestAlert) {
+            notifyChange(AlertEntry.CONTENT_URI);
+        }
 
         // Return the new URI with the ID (of the newly inserted row) appended at the end
         return ContentUris.withAppendedId(uri, id);
@@ -219,6 +1826,30 @@ public class RecordProvider extends ContentProvider {
 
     @Override
     public int update(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
+        String store = storeOf(uri);
+        if (store != null) {
+            checkWritable(store, uri);
+            String previous = enterStore(store);
+            try {
+                return update(unscoped(uri), contentValues, selection, selectionArgs);
+            } finally {
+                exitStore(previous);
+            }
+        }
+        long start = System.nanoTime();
+        int rows = 0;
+        mSlowQueries.begin();
+        try {
+            rows = updateInternal(uri, contentValues, selection, selectionArgs);
+            return rows;
+        } finally {
+            int match = sUriMatcher.match(uri);
+            mMetrics.record(match, ProviderMetrics.OP_UPDATE, start, rows);
+            mSlowQueries.record(helper(), "update", sPatterns.get(match), selectionArgs, rows, start);
+        }
+    }
+
+    private int updateInternal(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case RECORDS:
@@ -230,6 +1861,24 @@ public class RecordProvider extends ContentProvider {
                 selection = RecordContract.RecordEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
                 return updateRecord(uri, contentValues, selection, selectionArgs);
+            case SUPPLIER_NAME:
+                selection = appendSelection(SupplierEntry.COLUMN_SUPPLIER_NAME + "=?", selection);
+                selectionArgs = prependArgs(selectionArgs, uri.getLastPathSegment());
+                return updateTable(uri, SupplierEntry.TABLE_NAME, contentValues, selection, selectionArgs);
+            case ALERTS:
+                return updateTable(uri, AlertEntry.TABLE_NAME, contentValues, selection, selectionArgs);
+            case ALERT_ID:
+                // Typically used to acknowledge a single alert.
+                selection = AlertEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                return updateTable(uri, AlertEntry.TABLE_NAME, contentValues, selection, selectionArgs);
+            case PURCHASE_ORDERS:
+                return updateTable(uri, PurchaseOrderEntry.TABLE_NAME, contentValues, selection, selectionArgs);
+            case PURCHASE_ORDER_ID:
+                // Typically used to mark an order as sent.
+                selection = PurchaseOrderEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                return updateTable(uri, PurchaseOrderEntry.TABLE_NAME, contentValues, selection, selectionArgs);
             default:
                 throw new IllegalArgumentException("Update is not supported for " + uri);
         }
@@ -242,68 +1891,279 @@ public class RecordProvider extends ContentProvider {
      */
     private int updateRecord(Uri uri, ContentValues contentValues, String selection, String[] selectionArgs) {
 
-        //if there are no changes
-        if (contentValues == null) {
+        // If there are no values to update, then don't try to update the database
+        if (contentValues == null || contentValues.size() == 0) {
+            return 0;
+        }
+        // Check the values that are being changed
+        try {
+            RecordMapper.validateChanges(contentValues);
+        } catch (IllegalArgumentException e) {
+            showError(e.getMessage(), Toast.LENGTH_SHORT);
+            throw e;
+        }
 
-            // Check that the album name is not null
-            if (contentValues.containsKey(RecordEntry.COLUMN_ALBUM_NAME)) {
-            Toast.makeText(getContext(), R.string.field_required, Toast.LENGTH_SHORT).show();
-            throw new IllegalArgumentException("Record requires an album name");
+        // Otherwise, get writable database to update the data
+        SQLiteDatabase database = helper().getWritableDatabase();
+        // Deleted records can only be restored
+        selection = appendSelection(LIVE_RECORDS, selection);
+        // With an expected version the same statement is also the conflict check; the
+        // unguarded selection tells a conflict from a missing record afterwards
+        String expectedVersion = uri.getQueryParameter(RecordEntry.QUERY_PARAMETER_EXPECTED_VERSION);
+        String liveSelection = selection;
+        String[] liveSelectionArgs = selectionArgs;
+        if (expectedVersion != null) {
+            selection = appendSelection(RecordEntry.COLUMN_VERSION + "=?", selection);
+            selectionArgs = prependArgs(selectionArgs, String.valueOf(Long.parseLong(expectedVersion)));
+        }
 
-            }  // Check that the album name is not null
-            if (contentValues.containsKey(RecordEntry.COLUMN_BAND_NAME)) {
-            throw new IllegalArgumentException("Record requires a band name");
+        // A new name changes the duplicate key. With both names it is known up front; with one,
+        // the rows' keys are recomputed after the update, found by ID since the selection may
+        // no longer match them.
+        String album = contentValues.getAsString(RecordEntry.COLUMN_ALBUM_NAME);
+        String band = contentValues.getAsString(RecordEntry.COLUMN_BAND_NAME);
+        boolean renamed = contentValues.containsKey(RecordEntry.COLUMN_ALBUM_NAME)
+                || contentValues.containsKey(RecordEntry.COLUMN_BAND_NAME);
+        boolean rekey = renamed && (album == null || band == null);
+        if (renamed) {
+            // Sort keys only depend on their own name
+            contentValues = new ContentValues(contentValues);
+            putSortKeys(contentValues);
         }
-        // Check that the quantity is not null
-        Integer quantity = contentValues.getAsInteger(RecordEntry.COLUMN_QUANTITY);
-        if (quantity == null && quantity < 0) {
-            throw new IllegalArgumentException("Record requires a quantity");
+        if (renamed && !rekey) {
+            contentValues.put(RecordEntry.COLUMN_DEDUPE_KEY, DuplicateKeys.of(album, band));
+            rememberDedupeKey(contentValues.getAsString(RecordEntry.COLUMN_DEDUPE_KEY));
         }
-        // If the price is provided, check that it's greater than or equal to 0 £
-        Integer price = contentValues.getAsInteger(RecordEntry.COLUMN_PRICE);
-        if (price != null && price < 0) {
-            throw new IllegalArgumentException("Record requires valid price");
+
+        // Perform the update on the database and get the number of rows affected.
+        // A new quantity is a correction, a stocktake or a restock, not a sale: sales go
+        // through the sales URI, which writes the ledger.
+        int rowsUpdated;
+        boolean alerted = false;
+        boolean conflict = false;
+        beginTransaction(database);
+        try {
+            Integer newQuantity = contentValues.getAsInteger(RecordEntry.COLUMN_QUANTITY);
+            long newestAlert = 0;
+            if (newQuantity != null) {
+                newestAlert = newestAlertId(database);
+            }
+            long[] renamedIds = rekey ? selectIds(database, selection, selectionArgs) : null;
+            rowsUpdated = updateVersioned(database, contentValues, selection, selectionArgs);
+            conflict = rowsUpdated == 0 && expectedVersion != null
+                    && DatabaseUtils.queryNumEntries(database, RecordEntry.TABLE_NAME,
+                            liveSelection, liveSelectionArgs) > 0;
+            if (newQuantity != null) {
+                alerted = newestAlertId(database) > newestAlert;
+            }
+            if (renamedIds != null) {
+                refreshDedupeKeys(database, renamedIds);
+            }
+            database.setTransactionSuccessful();
+        } finally {
+            database.endTransaction();
         }
-        //Check that the record image is not null
-            if (contentValues.containsKey(RecordEntry.COLUMN_RECORD_COVER)) {
-            throw new IllegalArgumentException("Record requires an image");
+        if (conflict) {
+            throw new IllegalStateException("Record was changed since version " + expectedVersion);
         }
-        // Check that the record contact supplier  is not null
-            if (contentValues.containsKey(RecordEntry.COLUMN_SUPPLIER_NAME)) {
-            throw new IllegalArgumentException("Record requires a supplier contact");
+        if (alerted) {
+            notifyChange(AlertEntry.CONTENT_URI);
         }
-        // Check that the record contact supplier  is not null
-            if (contentValues.containsKey(RecordEntry.COLUMN_SUPPLIER_EMAIL)) {
-            throw new IllegalArgumentException("Record requires a supplier email");
+        // If 1 or more rows were updated, then notify all listeners that the data at the
+        // given URI has changed
+        if (rowsUpdated != 0) {
+            notifyChange(uri);
         }
-        // If there are no values to update, then don't try to update the database
-        if (contentValues.size() == 0) {
-            return 0;
+        // Return the number of rows updated
+        return rowsUpdated;
+
+
+    }
+
+    /**
+     * Update records with the given values, moving each to its next version, in one statement.
+     * Only the given columns are written, so a change of price doesn't rewrite the names.
+     */
+    private int updateVersioned(SQLiteDatabase database, ContentValues values, String selection,
+                                String[] selectionArgs) {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(RecordEntry.TABLE_NAME).append(" SET ");
+        int argCount = selectionArgs != null ? selectionArgs.length : 0;
+        Object[] bindArgs = new Object[values.size() + argCount];
+        int i = 0;
+        for (String column : values.keySet()) {
+            sql.append(column).append("=?,");
+            bindArgs[i++] = values.get(column);
+        }
+        // Last, so it wins over a version passed in the values
+        sql.append(NEXT_VERSION);
+        if (!TextUtils.isEmpty(selection)) {
+            sql.append(" WHERE ").append(selection);
         }
+        for (int arg = 0; arg < argCount; arg++) {
+            bindArgs[i++] = selectionArgs[arg];
         }
+        mSlowQueries.capture(sql.toString());
+        SQLiteStatement update = database.compileStatement(sql.toString());
+        try {
+            for (int index = 0; index < bindArgs.length; index++) {
+                DatabaseUtils.bindObjectToProgram(update, index + 1, bindArgs[index]);
+            }
+            return update.executeUpdateDelete();
+        } finally {
+            update.close();
+        }
+    }
 
 
-        // Otherwise, get writable database to update the data
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+    /**
+     * Add the sort keys of the names among the values, in the locale of the database's keys.
+     */
+    private void putSortKeys(ContentValues values) {
+        SortKeys sortKeys = helper().getSortKeys();
+        if (values.containsKey(RecordEntry.COLUMN_BAND_NAME)) {
+            values.put(RecordEntry.COLUMN_BAND_SORT_KEY,
+                    sortKeys.of(values.getAsString(RecordEntry.COLUMN_BAND_NAME)));
+        }
+        if (values.containsKey(RecordEntry.COLUMN_ALBUM_NAME)) {
+            values.put(RecordEntry.COLUMN_ALBUM_SORT_KEY,
+                    sortKeys.of(values.getAsString(RecordEntry.COLUMN_ALBUM_NAME)));
+        }
+    }
 
-        // Perform the update on the database and get the number of rows affected
-        int rowsUpdated = database.update(RecordEntry.TABLE_NAME, contentValues, selection, selectionArgs);
-        // If 1 or more rows were updated, then notify all listeners that the data at the
-        // given URI has changed
+    /**
+     * Return the IDs of the records matching a selection.
+     */
+    private static long[] selectIds(SQLiteDatabase database, String selection, String[] selectionArgs) {
+        Cursor cursor = database.query(RecordEntry.TABLE_NAME, new String[]{RecordEntry._ID},
+                selection, selectionArgs, null, null, null);
+        try {
+            long[] ids = new long[cursor.getCount()];
+            for (int i = 0; cursor.moveToNext(); i++) {
+                ids[i] = cursor.getLong(0);
+            }
+            return ids;
+        } finally {
+            cursor.close();
+        }
+    }
+
+    /**
+     * Recompute the duplicate keys of the given records from their current names.
+     */
+    private void refreshDedupeKeys(SQLiteDatabase database, long[] ids) {
+        SQLiteStatement update = database.compileStatement("UPDATE " + RecordEntry.TABLE_NAME
+                + " SET " + RecordEntry.COLUMN_DEDUPE_KEY + " = ? WHERE " + RecordEntry._ID + " = ?");
+        try {
+            for (long id : ids) {
+                Cursor cursor = database.query(RecordEntry.TABLE_NAME,
+                        new String[]{RecordEntry.COLUMN_ALBUM_NAME, RecordEntry.COLUMN_BAND_NAME},
+                        RecordEntry._ID + " = ?", new String[]{String.valueOf(id)}, null, null, null);
+                try {
+                    if (!cursor.moveToFirst()) {
+                        continue;
+                    }
+                    String dedupeKey = DuplicateKeys.of(cursor.getString(0), cursor.getString(1));
+                    update.bindString(1, dedupeKey);
+                    update.bindLong(2, id);
+                    update.executeUpdateDelete();
+                    rememberDedupeKey(dedupeKey);
+                } finally {
+                    cursor.close();
+                }
+            }
+        } finally {
+            update.close();
+        }
+    }
+
+    /**
+     * Update rows of a table that needs no validation (suppliers, alerts) and notify listeners
+     * of the given URI if anything changed.
+     */
+    private int updateTable(Uri uri, String table, ContentValues contentValues, String selection,
+                            String[] selectionArgs) {
+        if (contentValues == null || contentValues.size() == 0) {
+            return 0;
+        }
+        SQLiteDatabase database = helper().getWritableDatabase();
+        mSlowQueries.capture(SlowQueryLog.updateSql(table, contentValues, selection));
+        int rowsUpdated = database.update(table, contentValues, selection, selectionArgs);
         if (rowsUpdated != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
-        // Return the number of rows updated
         return rowsUpdated;
+    }
+
+    /**
+     * Return the ID of the most recent low-stock alert, or 0 if there is none. Alerts are raised
+     * by triggers, so comparing this before and after a stock change is how the provider learns
+     * that it has to notify {@link AlertEntry#CONTENT_URI}. MAX over the rowid is a single seek.
+     */
+    private static long newestAlertId(SQLiteDatabase database) {
+        return DatabaseUtils.longForQuery(database, "SELECT IFNULL(MAX(" + AlertEntry._ID + "), 0) FROM "
+                + AlertEntry.TABLE_NAME, null);
+    }
 
+    /**
+     * Return the sort order of a records query, replacing sorting by the sort keys with sorting
+     * by ID while the keys are of another locale and not yet recomputed.
+     */
+    private String currentSortOrder(String sortOrder) {
+        if ((RecordEntry.SORT_BY_BAND.equals(sortOrder) || RecordEntry.SORT_BY_ALBUM.equals(sortOrder))
+                && !helper().areSortKeysCurrent()) {
+            return RecordEntry._ID;
+        }
+        return sortOrder;
+    }
 
+    /**
+     * Combine a provider-defined selection with the (possibly empty) selection of the caller.
+     */
+    private static String appendSelection(String required, String selection) {
+        if (selection == null || selection.isEmpty()) {
+            return required;
+        }
+        return required + " AND (" + selection + ")";
     }
 
+    /**
+     * Put the arguments of a provider-defined selection in front of the caller's arguments.
+     */
+    private static String[] prependArgs(String[] selectionArgs, String... required) {
+        if (selectionArgs == null || selectionArgs.length == 0) {
+            return required;
+        }
+        String[] args = new String[required.length + selectionArgs.length];
+        System.arraycopy(required, 0, args, 0, required.length);
+        System.arraycopy(selectionArgs, 0, args, required.length, selectionArgs.length);
+        return args;
+    }
 
     @Override
     public int delete(Uri uri, String selection, String[] selectionArgs) {
+        String store = storeOf(uri);
+        if (store != null) {
+            checkWritable(store, uri);
+            String previous = enterStore(store);
+            try {
+                return delete(unscoped(uri), selection, selectionArgs);
+            } finally {
+                exitStore(previous);
+            }
+        }
+        long start = System.nanoTime();
+        int rows = 0;
+        try {
+            rows = deleteInternal(uri, selection, selectionArgs);
+            return rows;
+        } finally {
+            mMetrics.record(sUriMatcher.match(uri), ProviderMetrics.OP_DELETE, start, rows);
+        }
+    }
+
+    private int deleteInternal(Uri uri, String selection, String[] selectionArgs) {
         // Get writable database
-        SQLiteDatabase database = mDbHelper.getWritableDatabase();
+        SQLiteDatabase database = helper().getWritableDatabase();
 
         // Track the number of rows that were deleted
         int rowsDeleted;
@@ -311,14 +2171,31 @@ public class RecordProvider extends ContentProvider {
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case RECORDS:
-                // Delete all rows that match the selection and selection args
-                rowsDeleted = database.delete(RecordEntry.TABLE_NAME, selection, selectionArgs);
+                // Mark all rows that match the selection and selection args as deleted
+                rowsDeleted = markDeleted(database, nextDeletionTime(), selection, selectionArgs);
                 break;
             case RECORD_ID:
-                // Delete a single row given by the ID in the URI
+                // Mark a single row given by the ID in the URI as deleted
                 selection = RecordContract.RecordEntry._ID + "=?";
                 selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
-                rowsDeleted = database.delete(RecordContract.RecordEntry.TABLE_NAME, selection, selectionArgs);
+                rowsDeleted = markDeleted(database, nextDeletionTime(), selection, selectionArgs);
+                break;
+            case SUPPLIER_NAME:
+                // Removing a supplier row only drops its threshold override
+                selection = SupplierEntry.COLUMN_SUPPLIER_NAME + "=?";
+                selectionArgs = new String[] { uri.getLastPathSegment() };
+                rowsDeleted = database.delete(SupplierEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case PURCHASE_ORDERS:
+                rowsDeleted = database.delete(PurchaseOrderEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case PURCHASE_ORDER_ID:
+                selection = PurchaseOrderEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                rowsDeleted = database.delete(PurchaseOrderEntry.TABLE_NAME, selection, selectionArgs);
+                break;
+            case SLOW_QUERIES:
+                rowsDeleted = mSlowQueries.clear();
                 break;
             default:
                 throw new IllegalArgumentException("Deletion is not supported for " + uri);
@@ -327,20 +2204,208 @@ public class RecordProvider extends ContentProvider {
         // If 1 or more rows were deleted, then notify all listeners that the data at the
         // given URI has changed
         if (rowsDeleted != 0) {
-            getContext().getContentResolver().notifyChange(uri, null);
+            notifyChange(uri);
         }
         // Return the number of rows deleted
         return rowsDeleted;
     }
 
+    /**
+     * Mark the live records matching a selection as deleted, in one statement. All records of
+     * a deletion get the same time, unique to the deletion, which is how undo finds them.
+     */
+    private int markDeleted(SQLiteDatabase database, long deletedAt, String selection,
+                            String[] selectionArgs) {
+        ContentValues values = new ContentValues();
+        values.put(RecordEntry.COLUMN_DELETED_AT, deletedAt);
+        // A new version, so an editor still holding the record can't save over the deletion
+        return updateVersioned(database, values, appendSelection(LIVE_RECORDS, selection), selectionArgs);
+    }
+
+    /**
+     * Delete the records of a records URI, for {@link DeletionEntry#METHOD_DELETE_RECORDS}.
+     * Return the number deleted and the deletion's time, which is its token, in a bundle.
+     */
+    private Bundle deleteRecords(Uri uri) {
+        String store = storeOf(uri);
+        if (store != null) {
+            checkWritable(store, uri);
+            String previous = enterStore(store);
+            try {
+                return deleteRecords(unscoped(uri));
+            } finally {
+                exitStore(previous);
+            }
+        }
+        String selection = null;
+        String[] selectionArgs = null;
+        final int match = sUriMatcher.match(uri);
+        switch (match) {
+            case RECORDS:
+                break;
+            case RECORD_ID:
+                selection = RecordEntry._ID + "=?";
+                selectionArgs = new String[] { String.valueOf(ContentUris.parseId(uri)) };
+                break;
+            default:
+                throw new IllegalArgumentException("Only records can be deleted with undo: " + uri);
+        }
+        long start = System.nanoTime();
+        long deletion = nextDeletionTime();
+        int deleted = 0;
+        try {
+            deleted = markDeleted(helper().getWritableDatabase(), deletion, selection, selectionArgs);
+        } finally {
+            mMetrics.record(match, ProviderMetrics.OP_DELETE, start, deleted);
+        }
+        if (deleted != 0) {
+            notifyChange(uri);
+        }
+        Bundle result = new Bundle();
+        result.putInt(DeletionEntry.EXTRA_DELETED, deleted);
+        result.putLong(DeletionEntry.EXTRA_DELETION, deletion);
+        return result;
+    }
+
+    /**
+     * Return the current time, or a millisecond after the previous deletion's if that isn't
+     * later, so two deletions never share a time.
+     */
+    private synchronized long nextDeletionTime() {
+        mLastDeletionTime = Math.max(System.currentTimeMillis(), mLastDeletionTime + 1);
+        return mLastDeletionTime;
+    }
+
+    /**
+     * Restore the records of a deletion in a store, given by its token. Return the number
+     * restored in a bundle.
+     */
+    private Bundle undoDelete(String store, long deletion) {
+        if (store != null && !StoreEntry.isValidName(store)) {
+            throw new IllegalArgumentException("Invalid store name " + store);
+        }
+        String previous = enterStore(store != null ? store : StoreEntry.STORE_DEFAULT);
+        int restored;
+        try {
+            // A seek on the deletion time index
+            ContentValues values = new ContentValues();
+            values.putNull(RecordEntry.COLUMN_DELETED_AT);
+            restored = updateVersioned(helper().getWritableDatabase(), values,
+                    RecordEntry.COLUMN_DELETED_AT + "=?", new String[] { String.valueOf(deletion) });
+            if (restored > 0) {
+                notifyChange(RecordEntry.CONTENT_URI);
+            }
+        } finally {
+            exitStore(previous);
+        }
+        Bundle result = new Bundle();
+        result.putInt(DeletionEntry.EXTRA_RESTORED, restored);
+        return result;
+    }
+
+    /**
+     * Remove a batch of the records of every store deleted at least the given time ago, taking
+     * them from one store after the other until the batch is full. Return the number removed
+     * in a bundle.
+     */
+    private Bundle purgeDeleted(long olderThanMillis) {
+        long start = System.nanoTime();
+        long deletedBefore = System.currentTimeMillis() - olderThanMillis;
+        int purged = 0;
+        for (String store : listStores()) {
+            String previous = enterStore(store);
+            try {
+                purged += DatabaseMaintenance.purgeBatch(helper().getWritableDatabase(), deletedBefore,
+                        DeletionEntry.PURGE_BATCH - purged);
+            } finally {
+                exitStore(previous);
+            }
+            if (purged == DeletionEntry.PURGE_BATCH) {
+                break;
+            }
+        }
+        mMetrics.record(RECORDS, ProviderMetrics.OP_DELETE, start, purged);
+        Bundle result = new Bundle();
+        result.putInt(DeletionEntry.EXTRA_PURGED, purged);
+        return result;
+    }
+
+    /**
+     * Remove a batch of the records of a deletion in a store, given by its token. Return the
+     * number removed in a bundle.
+     */
+    private Bundle purgeDeletion(String store, long deletion) {
+        if (store != null && !StoreEntry.isValidName(store)) {
+            throw new IllegalArgumentException("Invalid store name " + store);
+        }
+        long start = System.nanoTime();
+        int purged;
+        String previous = enterStore(store != null ? store : StoreEntry.STORE_DEFAULT);
+        try {
+            purged = DatabaseMaintenance.purgeDeletionBatch(helper().getWritableDatabase(), deletion);
+        } finally {
+            exitStore(previous);
+        }
+        mMetrics.record(RECORDS, ProviderMetrics.OP_DELETE, start, purged);
+        Bundle result = new Bundle();
+        result.putInt(DeletionEntry.EXTRA_PURGED, purged);
+        return result;
+    }
+
     @Override
     public String getType(Uri uri) {
+        if (storeOf(uri) != null) {
+            return getType(unscoped(uri));
+        }
         final int match = sUriMatcher.match(uri);
         switch (match) {
             case RECORDS:
                 return RecordContract.RecordEntry.CONTENT_LIST_TYPE;
             case RECORD_ID:
+            case RECORD_SKU:
                 return RecordContract.RecordEntry.CONTENT_ITEM_TYPE;
+            case LOW_STOCK:
+            case RECORD_SEARCH:
+                return RecordContract.RecordEntry.CONTENT_LIST_TYPE;
+            case RECORD_DUPLICATES:
+                return DuplicateEntry.CONTENT_LIST_TYPE;
+            case SALES:
+            case SALES_BY_RECORD:
+            case SALES_BY_RANGE:
+                return SaleEntry.CONTENT_LIST_TYPE;
+            case ROLLUPS_BY_RECORD:
+            case ROLLUP_RECORD:
+            case ROLLUPS_BY_SUPPLIER:
+            case ROLLUP_SUPPLIER:
+                return RollupEntry.CONTENT_LIST_TYPE;
+            case SUPPLIERS:
+                return SupplierEntry.CONTENT_LIST_TYPE;
+            case SUPPLIER_NAME:
+                return SupplierEntry.CONTENT_ITEM_TYPE;
+            case ALERTS:
+                return AlertEntry.CONTENT_LIST_TYPE;
+            case ALERT_ID:
+                return AlertEntry.CONTENT_ITEM_TYPE;
+            case PURCHASE_ORDERS:
+                return PurchaseOrderEntry.CONTENT_LIST_TYPE;
+            case PURCHASE_ORDER_ID:
+                return PurchaseOrderEntry.CONTENT_ITEM_TYPE;
+            case METRICS:
+                return MetricsEntry.CONTENT_LIST_TYPE;
+            case SLOW_QUERIES:
+                return SlowQueryEntry.CONTENT_LIST_TYPE;
+            case CHANGES:
+                return ChangeEntry.CONTENT_LIST_TYPE;
+            case CHANGES_LATEST:
+                return ChangeEntry.CONTENT_ITEM_TYPE;
+            case RECORDS_BULK:
+                return BulkReadEntry.CONTENT_TYPE;
+            case STORES:
+                return StoreEntry.CONTENT_LIST_TYPE;
+            case STOCK_COUNTERS:
+                return StockCounterEntry.CONTENT_LIST_TYPE;
+            case STOCK_DEVICE:
+                return StockCounterEntry.CONTENT_ITEM_TYPE;
             default:
                 throw new IllegalStateException("Unknown URI " + uri + " with match " + match);
         }
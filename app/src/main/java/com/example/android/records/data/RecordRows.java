@@ -0,0 +1,375 @@
+package com.example.android.records.data;
+
+import android.database.AbstractCursor;
+import android.database.Cursor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * An immutable result set of records in ID order, which can be patched with changed rows
+ * without copying the rows that didn't change.
+ * <p>
+ * The rows are held in chunks of a few hundred. Patching copies only the chunks that contain
+ * a changed row, plus the small array of chunks, so its cost follows the size of the change
+ * rather than the size of the catalog. Earlier versions stay valid, which lets a cursor over
+ * one version be read on the main thread while the next version is built in the background.
+ * <p>
+ * The first column must be the record ID.
+ */
+public final class RecordRows {
+
+    /** Rows per chunk after a split; chunks are split when they grow to twice this */
+    private static final int CHUNK_SIZE = 256;
+
+    private final String[] mColumns;
+    /** Chunks of rows, each sorted by ID, in ID order */
+    private final Object[][][] mChunks;
+    /** Position of the first row of each chunk, followed by the row count */
+    private final int[] mStarts;
+
+    private RecordRows(String[] columns, Object[][][] chunks) {
+        mColumns = columns;
+        mChunks = chunks;
+        mStarts = new int[chunks.length + 1];
+        for (int i = 0; i < chunks.length; i++) {
+            mStarts[i + 1] = mStarts[i] + chunks[i].length;
+        }
+    }
+
+    /**
+     * Read all rows of a cursor sorted by ID. The cursor is left after its last row.
+     */
+    public static RecordRows read(Cursor cursor) {
+        List<Object[][]> chunks = new ArrayList<>();
+        List<Object[]> chunk = new ArrayList<>(CHUNK_SIZE);
+        cursor.moveToPosition(-1);
+        while (cursor.moveToNext()) {
+            chunk.add(readRow(cursor));
+            if (chunk.size() == CHUNK_SIZE) {
+                chunks.add(chunk.toArray(new Object[chunk.size()][]));
+                chunk.clear();
+            }
+        }
+        if (!chunk.isEmpty()) {
+            chunks.add(chunk.toArray(new Object[chunk.size()][]));
+        }
+        return new RecordRows(cursor.getColumnNames(), chunks.toArray(new Object[chunks.size()][][]));
+    }
+
+    /**
+     * Return the values of the current row of a cursor, as Long, Double, String, byte[] or null.
+     */
+    public static Object[] readRow(Cursor cursor) {
+        Object[] row = new Object[cursor.getColumnCount()];
+        for (int i = 0; i < row.length; i++) {
+            switch (cursor.getType(i)) {
+                case Cursor.FIELD_TYPE_INTEGER:
+                    row[i] = cursor.getLong(i);
+                    break;
+                case Cursor.FIELD_TYPE_FLOAT:
+                    row[i] = cursor.getDouble(i);
+                    break;
+                case Cursor.FIELD_TYPE_NULL:
+                    row[i] = null;
+                    break;
+                case Cursor.FIELD_TYPE_BLOB:
+                    row[i] = cursor.getBlob(i);
+                    break;
+                default:
+                    row[i] = cursor.getString(i);
+                    break;
+            }
+        }
+        return row;
+    }
+
+    public String[] getColumnNames() {
+        return mColumns;
+    }
+
+    public int size() {
+        return mStarts[mChunks.length];
+    }
+
+    /**
+     * Return the values of the row at the given position. The array must not be modified.
+     */
+    public Object[] get(int position) {
+        int chunk = Arrays.binarySearch(mStarts, 0, mChunks.length, position);
+        if (chunk < 0) {
+            // The insertion point follows the chunk that contains the position
+            chunk = -chunk - 2;
+        }
+        return mChunks[chunk][position - mStarts[chunk]];
+    }
+
+    /**
+     * Return a version with the given rows inserted or replaced and the given IDs removed.
+     * The IDs that actually changed are added to the change set; rows that are already present
+     * with the same values are not reported.
+     *
+     * @param rows    Current values of changed records, by ID
+     * @param removed IDs of records that no longer exist
+     */
+    public RecordRows patch(Map<Long, Object[]> rows, Set<Long> removed, ChangeSet changes) {
+        if (rows.isEmpty() && removed.isEmpty()) {
+            return this;
+        }
+        // Group the changes by the chunk they fall into
+        TreeMap<Long, Object[]> sorted = new TreeMap<>(rows);
+        for (Long id : removed) {
+            if (!sorted.containsKey(id)) {
+                sorted.put(id, null);
+            }
+        }
+        List<Object[][]> chunks = new ArrayList<>(mChunks.length + 1);
+        int next = 0;
+        List<Long> ids = new ArrayList<>(sorted.keySet());
+        int from = 0;
+        while (from < ids.size()) {
+            int chunk = chunkFor(ids.get(from));
+            // Untouched chunks before this one are shared as they are
+            for (; next < chunk; next++) {
+                chunks.add(mChunks[next]);
+            }
+            long limit = chunk + 1 < mChunks.length ? idOf(mChunks[chunk + 1][0]) : Long.MAX_VALUE;
+            int to = from;
+            while (to < ids.size() && ids.get(to) < limit) {
+                to++;
+            }
+            Object[][] old = chunk < mChunks.length ? mChunks[chunk] : new Object[0][];
+            addSplit(chunks, merge(old, sorted, ids.subList(from, to), changes));
+            next = chunk + 1;
+            from = to;
+        }
+        for (; next < mChunks.length; next++) {
+            chunks.add(mChunks[next]);
+        }
+        if (changes.isEmpty()) {
+            return this;
+        }
+        return new RecordRows(mColumns, chunks.toArray(new Object[chunks.size()][][]));
+    }
+
+    /**
+     * Return the index of the chunk an ID belongs in: the last chunk starting at or before it,
+     * or the first chunk for IDs before all others.
+     */
+    private int chunkFor(long id) {
+        int low = 0;
+        int high = mChunks.length - 1;
+        int found = 0;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            if (idOf(mChunks[mid][0]) <= id) {
+                found = mid;
+                low = mid + 1;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Merge the changes to some IDs into a chunk. A null value in the map is a removal.
+     */
+    private static List<Object[]> merge(Object[][] chunk, Map<Long, Object[]> values,
+                                        List<Long> ids, ChangeSet changes) {
+        List<Object[]> merged = new ArrayList<>(chunk.length + ids.size());
+        int i = 0;
+        for (Long id : ids) {
+            while (i < chunk.length && idOf(chunk[i]) < id) {
+                merged.add(chunk[i++]);
+            }
+            boolean present = i < chunk.length && idOf(chunk[i]) == id;
+            Object[] row = values.get(id);
+            if (row == null) {
+                if (present) {
+                    changes.mRemoved.add(id);
+                    i++;
+                }
+                continue;
+            }
+            if (!present) {
+                changes.mInserted.add(id);
+            } else if (!Arrays.equals(chunk[i++], row)) {
+                changes.mUpdated.add(id);
+            }
+            merged.add(row);
+        }
+        while (i < chunk.length) {
+            merged.add(chunk[i++]);
+        }
+        return merged;
+    }
+
+    private static void addSplit(List<Object[][]> chunks, List<Object[]> rows) {
+        if (rows.size() < 2 * CHUNK_SIZE) {
+            if (!rows.isEmpty()) {
+                chunks.add(rows.toArray(new Object[rows.size()][]));
+            }
+            return;
+        }
+        for (int from = 0; from < rows.size(); from += CHUNK_SIZE) {
+            List<Object[]> part = rows.subList(from, Math.min(from + CHUNK_SIZE, rows.size()));
+            chunks.add(part.toArray(new Object[part.size()][]));
+        }
+    }
+
+    private static long idOf(Object[] row) {
+        return (Long) row[0];
+    }
+
+    /**
+     * Return a cursor over this version. The change set tells what differs from the version
+     * shown before, or is null if that isn't known.
+     */
+    public RowsCursor newCursor(ChangeSet changes) {
+        return new RowsCursor(this, changes);
+    }
+
+    /**
+     * The records inserted, updated and removed between two versions, in ID order.
+     */
+    public static final class ChangeSet {
+        private final List<Long> mInserted = new ArrayList<>();
+        private final List<Long> mUpdated = new ArrayList<>();
+        private final List<Long> mRemoved = new ArrayList<>();
+
+        public List<Long> getInserted() {
+            return Collections.unmodifiableList(mInserted);
+        }
+
+        public List<Long> getUpdated() {
+            return Collections.unmodifiableList(mUpdated);
+        }
+
+        public List<Long> getRemoved() {
+            return Collections.unmodifiableList(mRemoved);
+        }
+
+        public boolean isEmpty() {
+            return mInserted.isEmpty() && mUpdated.isEmpty() && mRemoved.isEmpty();
+        }
+
+        @Override
+        public String toString() {
+            return "+" + mInserted.size() + " ~" + mUpdated.size() + " -" + mRemoved.size();
+        }
+    }
+
+    /**
+     * Cursor over one version of the rows.
+     */
+    public static class RowsCursor extends AbstractCursor {
+
+        private final RecordRows mRows;
+        private final ChangeSet mChanges;
+
+        RowsCursor(RecordRows rows, ChangeSet changes) {
+            mRows = rows;
+            mChanges = changes;
+        }
+
+        public RecordRows getRows() {
+            return mRows;
+        }
+
+        /**
+         * Return what changed since the previous cursor of the same loader, or null if this
+         * cursor holds a full read.
+         */
+        public ChangeSet getChanges() {
+            return mChanges;
+        }
+
+        @Override
+        public int getCount() {
+            return mRows.size();
+        }
+
+        @Override
+        public String[] getColumnNames() {
+            return mRows.mColumns;
+        }
+
+        private Object value(int column) {
+            return mRows.get(getPosition())[column];
+        }
+
+        @Override
+        public String getString(int column) {
+            Object value = value(column);
+            return value != null ? value.toString() : null;
+        }
+
+        @Override
+        public byte[] getBlob(int column) {
+            Object value = value(column);
+            if (value != null && !(value instanceof byte[])) {
+                throw new UnsupportedOperationException("Column " + column + " isn't a blob");
+            }
+            return (byte[]) value;
+        }
+
+        @Override
+        public long getLong(int column) {
+            Object value = value(column);
+            if (value == null) {
+                return 0;
+            }
+            return value instanceof Number ? ((Number) value).longValue() : Long.parseLong((String) value);
+        }
+
+        @Override
+        public int getInt(int column) {
+            return (int) getLong(column);
+        }
+
+        @Override
+        public short getShort(int column) {
+            return (short) getLong(column);
+        }
+
+        @Override
+        public float getFloat(int column) {
+            return (float) getDouble(column);
+        }
+
+        @Override
+        public double getDouble(int column) {
+            Object value = value(column);
+            if (value == null) {
+                return 0;
+            }
+            return value instanceof Number ? ((Number) value).doubleValue() : Double.parseDouble((String) value);
+        }
+
+        @Override
+        public int getType(int column) {
+            Object value = value(column);
+            if (value == null) {
+                return FIELD_TYPE_NULL;
+            } else if (value instanceof Long) {
+                return FIELD_TYPE_INTEGER;
+            } else if (value instanceof Double) {
+                return FIELD_TYPE_FLOAT;
+            } else if (value instanceof byte[]) {
+                return FIELD_TYPE_BLOB;
+            }
+            return FIELD_TYPE_STRING;
+        }
+
+        @Override
+        public boolean isNull(int column) {
+            return value(column) == null;
+        }
+    }
+}
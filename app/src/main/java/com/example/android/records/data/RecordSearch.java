@@ -0,0 +1,54 @@
+package com.example.android.records.data;
+
+/**
+ * Prefix matching rules shared by the provider's search query and the in-memory refinement of
+ * its results, so both agree on what a match is.
+ * <p>
+ * Matching follows SQLite's NOCASE collation: only ASCII letters are folded, everything else
+ * compares by code point. That is what lets the provider answer a prefix search with a range
+ * scan over a NOCASE index instead of a LIKE over the whole table.
+ */
+public final class RecordSearch {
+
+    private RecordSearch() {
+    }
+
+    /**
+     * Lower-case the ASCII letters of a string, leaving every other character alone.
+     */
+    public static String asciiFold(String text) {
+        char[] chars = text.toCharArray();
+        for (int i = 0; i < chars.length; i++) {
+            char c = chars[i];
+            if (c >= 'A' && c <= 'Z') {
+                chars[i] = (char) (c + ('a' - 'A'));
+            }
+        }
+        return new String(chars);
+    }
+
+    /**
+     * Return the smallest string greater than every string starting with the folded prefix,
+     * or null if there is none (the prefix is all U+FFFF).
+     */
+    public static String upperBound(String foldedPrefix) {
+        char[] chars = foldedPrefix.toCharArray();
+        for (int i = chars.length - 1; i >= 0; i--) {
+            if (chars[i] != Character.MAX_VALUE) {
+                chars[i]++;
+                return new String(chars, 0, i + 1);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Return true if the text starts with the folded prefix, ignoring ASCII case.
+     */
+    public static boolean matches(String foldedPrefix, String text) {
+        if (text == null || text.length() < foldedPrefix.length()) {
+            return false;
+        }
+        return asciiFold(text.substring(0, foldedPrefix.length())).equals(foldedPrefix);
+    }
+}
@@ -0,0 +1,263 @@
+package com.example.android.records.data;
+
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.MatrixCursor;
+import android.database.sqlite.SQLiteCursor;
+import android.database.sqlite.SQLiteCursorDriver;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteException;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.database.sqlite.SQLiteQuery;
+import android.text.TextUtils;
+import android.util.Log;
+
+import com.example.android.records.data.RecordContract.SlowQueryEntry;
+
+/**
+ * Bounded log of {@link RecordProvider} calls that took longer than a threshold, with the SQL
+ * that ran and the query plan SQLite chose for it.
+ * <p>
+ * The SQL of queries is captured by acting as the database's cursor factory, which sees every
+ * compiled query. Updates report their statement with {@link #capture(String)}. The plan is
+ * only computed once a call turned out to be slow, so fast calls pay for a thread local write
+ * and nothing else.
+ */
+public class SlowQueryLog implements SQLiteDatabase.CursorFactory {
+
+    private static final String LOG_TAG = SlowQueryLog.class.getSimpleName();
+
+    /** Calls slower than this are logged unless the threshold is changed */
+    public static final long DEFAULT_THRESHOLD_MILLIS = 50;
+
+    /** Number of entries kept; older entries are overwritten */
+    private static final int CAPACITY = 64;
+
+    /** Prefix of {@link SQLiteQuery#toString()} in front of the SQL */
+    private static final String QUERY_PREFIX = "SQLiteQuery: ";
+
+    private volatile long mThresholdNanos = DEFAULT_THRESHOLD_MILLIS * 1000000L;
+
+    /** Last statement run by the current thread's provider call */
+    private final ThreadLocal<String> mStatement = new ThreadLocal<>();
+
+    /** Ring buffer of entries, guarded by this */
+    private final Entry[] mEntries = new Entry[CAPACITY];
+
+    /** Id of the next entry, which also tells where it goes in the ring; guarded by this */
+    private long mNextId = 1;
+
+    @Override
+    public Cursor newCursor(SQLiteDatabase db, SQLiteCursorDriver masterQuery, String editTable,
+                            SQLiteQuery query) {
+        String sql = query.toString();
+        mStatement.set(sql.startsWith(QUERY_PREFIX) ? sql.substring(QUERY_PREFIX.length()) : sql);
+        return new SQLiteCursor(masterQuery, editTable, query);
+    }
+
+    /**
+     * Set how long a call may take before it is logged.
+     */
+    public void setThresholdMillis(long thresholdMillis) {
+        mThresholdNanos = Math.max(thresholdMillis, 0) * 1000000L;
+    }
+
+    public long getThresholdMillis() {
+        return mThresholdNanos / 1000000L;
+    }
+
+    /**
+     * Forget the statement of the previous call on this thread. Call when a provider call starts.
+     */
+    public void begin() {
+        mStatement.remove();
+    }
+
+    /**
+     * Remember the statement the current provider call is about to run, for statements that
+     * don't go through the cursor factory.
+     */
+    public void capture(String sql) {
+        mStatement.set(sql);
+    }
+
+    /**
+     * Build the statement {@link SQLiteDatabase#update} runs for the given arguments, with
+     * placeholders for the values.
+     */
+    public static String updateSql(String table, ContentValues values, String whereClause) {
+        StringBuilder sql = new StringBuilder("UPDATE ").append(table).append(" SET ");
+        String separator = "";
+        for (String column : values.keySet()) {
+            sql.append(separator).append(column).append("=?");
+            separator = ",";
+        }
+        if (!TextUtils.isEmpty(whereClause)) {
+            sql.append(" WHERE ").append(whereClause);
+        }
+        return sql.toString();
+    }
+
+    /**
+     * Log the current provider call if it was slower than the threshold.
+     *
+     * @param helper        to run EXPLAIN QUERY PLAN on
+     * @param operation     "query" or "update"
+     * @param pattern       URI pattern of the call
+     * @param selectionArgs arguments passed by the caller; only their shapes are kept
+     * @param rows          rows returned or affected
+     * @param startNanos    {@link System#nanoTime()} when the call started
+     */
+    public void record(SQLiteOpenHelper helper, String operation, String pattern,
+                       String[] selectionArgs, long rows, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        String sql = mStatement.get();
+        mStatement.remove();
+        if (nanos < mThresholdNanos || sql == null) {
+            return;
+        }
+        String plan = explain(helper.getReadableDatabase(), sql);
+        Entry entry = new Entry(System.currentTimeMillis(), operation, pattern, sql,
+                argShapes(selectionArgs), Math.max(rows, 0), nanos / 1000, plan, isFullScan(plan));
+        Log.w(LOG_TAG, operation + " on " + pattern + " took " + nanos / 1000 + "us: " + sql
+                + "\n" + plan);
+        synchronized (this) {
+            entry.id = mNextId++;
+            mEntries[(int) (entry.id % CAPACITY)] = entry;
+        }
+    }
+
+    /**
+     * Return the query plan of the statement, one step per line. Parameters are left unbound,
+     * which doesn't change which indexes SQLite picks.
+     */
+    private static String explain(SQLiteDatabase database, String sql) {
+        Cursor cursor = null;
+        try {
+            cursor = database.rawQuery("EXPLAIN QUERY PLAN " + sql, null);
+            int detail = cursor.getColumnIndexOrThrow("detail");
+            StringBuilder plan = new StringBuilder();
+            while (cursor.moveToNext()) {
+                if (plan.length() > 0) {
+                    plan.append('\n');
+                }
+                plan.append(cursor.getString(detail));
+            }
+            return plan.toString();
+        } catch (SQLiteException | IllegalArgumentException e) {
+            return "EXPLAIN failed: " + e.getMessage();
+        } finally {
+            if (cursor != null) {
+                cursor.close();
+            }
+        }
+    }
+
+    /**
+     * Return true if any step of the plan reads a whole table rather than seeking an index.
+     * Walking a covering index is reported as "SCAN ... USING COVERING INDEX" and doesn't count.
+     */
+    private static boolean isFullScan(String plan) {
+        for (String step : plan.split("\n")) {
+            if (step.startsWith("SCAN") && !step.contains(" USING ")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Describe the arguments without their values, for example "[text(5), int, null]".
+     */
+    private static String argShapes(String[] selectionArgs) {
+        if (selectionArgs == null) {
+            return "[]";
+        }
+        StringBuilder shapes = new StringBuilder("[");
+        for (int i = 0; i < selectionArgs.length; i++) {
+            if (i > 0) {
+                shapes.append(", ");
+            }
+            String arg = selectionArgs[i];
+            if (arg == null) {
+                shapes.append("null");
+            } else if (arg.matches("-?\\d+")) {
+                shapes.append("int");
+            } else {
+                shapes.append("text(").append(arg.length()).append(')');
+            }
+        }
+        return shapes.append(']').toString();
+    }
+
+    /**
+     * Return the logged calls, oldest first.
+     */
+    public synchronized Cursor toCursor() {
+        String[] columns = {
+                SlowQueryEntry._ID,
+                SlowQueryEntry.COLUMN_LOGGED_AT,
+                SlowQueryEntry.COLUMN_OPERATION,
+                SlowQueryEntry.COLUMN_PATTERN,
+                SlowQueryEntry.COLUMN_SQL,
+                SlowQueryEntry.COLUMN_ARG_SHAPES,
+                SlowQueryEntry.COLUMN_ROWS,
+                SlowQueryEntry.COLUMN_DURATION_MICROS,
+                SlowQueryEntry.COLUMN_QUERY_PLAN,
+                SlowQueryEntry.COLUMN_FULL_SCAN};
+        MatrixCursor cursor = new MatrixCursor(columns);
+        for (long id = Math.max(1, mNextId - CAPACITY); id < mNextId; id++) {
+            Entry entry = mEntries[(int) (id % CAPACITY)];
+            if (entry == null || entry.id != id) {
+                continue;
+            }
+            cursor.addRow(new Object[] { entry.id, entry.loggedAt, entry.operation, entry.pattern,
+                    entry.sql, entry.argShapes, entry.rows, entry.durationMicros, entry.plan,
+                    entry.fullScan ? 1 : 0 });
+        }
+        return cursor;
+    }
+
+    /**
+     * Drop all logged calls and return how many there were.
+     */
+    public synchronized int clear() {
+        int cleared = 0;
+        for (int i = 0; i < CAPACITY; i++) {
+            if (mEntries[i] != null) {
+                mEntries[i] = null;
+                cleared++;
+            }
+        }
+        return cleared;
+    }
+
+    /**
+     * One slow call.
+     */
+    private static class Entry {
+        long id;
+        final long loggedAt;
+        final String operation;
+        final String pattern;
+        final String sql;
+        final String argShapes;
+        final long rows;
+        final long durationMicros;
+        final String plan;
+        final boolean fullScan;
+
+        Entry(long loggedAt, String operation, String pattern, String sql, String argShapes,
+              long rows, long durationMicros, String plan, boolean fullScan) {
+            this.loggedAt = loggedAt;
+            this.operation = operation;
+            this.pattern = pattern;
+            this.sql = sql;
+            this.argShapes = argShapes;
+            this.rows = rows;
+            this.durationMicros = durationMicros;
+            this.plan = plan;
+            this.fullScan = fullScan;
+        }
+    }
+}
@@ -0,0 +1,86 @@
+package com.example.android.records.data;
+
+import android.os.Build;
+import android.os.Process;
+import android.os.SystemClock;
+import android.os.Trace;
+import android.util.Log;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Cold-start milestones: process start, first database open, first provider query, first
+ * frame drawn and first records shown.
+ * <p>
+ * Each milestone is logged once per process, as milliseconds since process start, in a stable
+ * format that scripts can grep from logcat:
+ * <pre>StartupTrace: first_draw +412ms</pre>
+ * The phases leading to them are also wrapped in {@link Trace} sections named "Records:..." so
+ * they show up in systrace. In debug builds, ColdStartCheck compares the milestones of a cold
+ * launch with budgets, so a slower start fails CI.
+ */
+public final class StartupTrace {
+
+    public static final String LOG_TAG = "StartupTrace";
+
+    /** Milestone names */
+    public static final String FIRST_DB_OPEN = "first_db_open";
+    public static final String FIRST_QUERY = "first_query";
+    public static final String FIRST_DRAW = "first_draw";
+    public static final String FIRST_CONTENT = "first_content";
+
+    /** Elapsed realtime at which the process started */
+    private static final long sProcessStart = processStart();
+
+    private static final ConcurrentMap<String, Long> sMilestones = new ConcurrentHashMap<>();
+
+    private StartupTrace() {
+    }
+
+    private static long processStart() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {
+            return Process.getStartElapsedRealtime();
+        }
+        // Older platforms don't record the start time; class loading of the Application is the
+        // closest we can get.
+        return SystemClock.elapsedRealtime();
+    }
+
+    /**
+     * Record a milestone. Only its first occurrence in the process is kept and logged.
+     */
+    public static void mark(String milestone) {
+        long elapsed = SystemClock.elapsedRealtime() - sProcessStart;
+        if (sMilestones.putIfAbsent(milestone, elapsed) == null) {
+            Log.i(LOG_TAG, milestone + " +" + elapsed + "ms");
+        }
+    }
+
+    /**
+     * Return the time of a milestone in milliseconds since process start, or -1 if it hasn't
+     * been reached yet.
+     */
+    public static long get(String milestone) {
+        Long elapsed = sMilestones.get(milestone);
+        return elapsed == null ? -1 : elapsed;
+    }
+
+    /**
+     * Begin a systrace section. Must be paired with {@link #endSection()} on the same thread.
+     */
+    public static void beginSection(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection("Records:" + name);
+        }
+    }
+
+    /**
+     * End the innermost systrace section opened on this thread.
+     */
+    public static void endSection() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+}
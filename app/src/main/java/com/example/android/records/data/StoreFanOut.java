@@ -0,0 +1,330 @@
+package com.example.android.records.data;
+
+import android.database.Cursor;
+import android.database.MatrixCursor;
+
+import com.example.android.records.data.RecordContract.RollupEntry;
+import com.example.android.records.data.RecordContract.StoreEntry;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Runs a query against several store databases in parallel and merges the results.
+ * <p>
+ * Each store's rows arrive sorted by the store's own query, so they are merged like the runs of
+ * a merge sort, comparing values the way SQLite does: nulls first, then numbers, then text,
+ * then blobs, such as the records' sort keys.
+ * Rollup buckets are summed instead, one row per bucket for all stores together.
+ */
+final class StoreFanOut {
+
+    /** Most stores queried at the same time */
+    private static final int THREADS = 4;
+
+    /** One term of an ORDER BY clause: an optionally qualified column, collation and direction */
+    private static final Pattern SORT_TERM = Pattern.compile(
+            "\\s*(?:\\w+\\.)?(\\w+)(?:\\s+COLLATE\\s+(\\w+))?(?:\\s+(ASC|DESC))?\\s*",
+            Pattern.CASE_INSENSITIVE);
+
+    /** Columns added up when rollups are summed; the other columns identify the bucket */
+    private static final List<String> ADDITIVE_COLUMNS =
+            Arrays.asList(RollupEntry.COLUMN_UNITS, RollupEntry.COLUMN_REVENUE);
+
+    /**
+     * Query of a single store. Runs on a fan-out thread.
+     */
+    interface StoreQuery {
+        Cursor query(String store);
+    }
+
+    private ExecutorService mExecutor;
+
+    /**
+     * Run the query on every store and return the merged rows, each with the name of its store
+     * in an extra {@link StoreEntry#COLUMN_STORE} column.
+     *
+     * @param sortOrder the sort order the stores' rows are in, or null to keep the stores' rows
+     *                  together in store order
+     * @throws IllegalArgumentException if the sort order uses columns that aren't projected
+     */
+    Cursor query(List<String> stores, StoreQuery query, String sortOrder) {
+        List<Result> results = runAll(stores, query);
+        String[] columns = columnsOf(results);
+        int storeColumn = columns.length;
+        String[] merged = Arrays.copyOf(columns, columns.length + 1);
+        merged[storeColumn] = StoreEntry.COLUMN_STORE;
+
+        MatrixCursor cursor = new MatrixCursor(merged);
+        for (Object[] row : merge(results, parseSortOrder(sortOrder, columns))) {
+            cursor.addRow(row);
+        }
+        return cursor;
+    }
+
+    /**
+     * Run a rollup query on every store and return one row per bucket, with the units and
+     * revenue of all stores added up.
+     */
+    Cursor sumRollups(List<String> stores, StoreQuery query, String sortOrder) {
+        List<Result> results = runAll(stores, query);
+        String[] columns = columnsOf(results);
+        boolean[] additive = new boolean[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            additive[i] = ADDITIVE_COLUMNS.contains(columns[i]);
+        }
+
+        Map<List<Object>, Object[]> buckets = new LinkedHashMap<>();
+        for (Object[] row : merge(results, parseSortOrder(sortOrder, columns))) {
+            List<Object> key = new ArrayList<>(columns.length);
+            for (int i = 0; i < columns.length; i++) {
+                key.add(additive[i] ? null : row[i]);
+            }
+            Object[] bucket = buckets.get(key);
+            if (bucket == null) {
+                buckets.put(key, Arrays.copyOf(row, columns.length));
+                continue;
+            }
+            for (int i = 0; i < columns.length; i++) {
+                if (additive[i] && row[i] != null) {
+                    bucket[i] = bucket[i] == null ? row[i] : add((Number) bucket[i], (Number) row[i]);
+                }
+            }
+        }
+        MatrixCursor cursor = new MatrixCursor(columns, buckets.size());
+        for (Object[] bucket : buckets.values()) {
+            cursor.addRow(bucket);
+        }
+        return cursor;
+    }
+
+    /**
+     * Stop the fan-out threads.
+     */
+    synchronized void shutdown() {
+        if (mExecutor != null) {
+            mExecutor.shutdown();
+            mExecutor = null;
+        }
+    }
+
+    private synchronized ExecutorService executor() {
+        if (mExecutor == null) {
+            final AtomicInteger count = new AtomicInteger();
+            mExecutor = Executors.newFixedThreadPool(THREADS, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "StoreFanOut-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+        }
+        return mExecutor;
+    }
+
+    /** Rows read from one store */
+    private static final class Result {
+        final String store;
+        final String[] columns;
+        final List<Object[]> rows;
+
+        Result(String store, String[] columns, List<Object[]> rows) {
+            this.store = store;
+            this.columns = columns;
+            this.rows = rows;
+        }
+    }
+
+    /**
+     * Query all stores in parallel and read their rows. The rows have a spare slot at the end
+     * for the store name.
+     */
+    private List<Result> runAll(List<String> stores, final StoreQuery query) {
+        List<Future<Result>> futures = new ArrayList<>(stores.size());
+        for (final String store : stores) {
+            futures.add(executor().submit(new Callable<Result>() {
+                @Override
+                public Result call() {
+                    Cursor cursor = query.query(store);
+                    try {
+                        int columnCount = cursor.getColumnCount();
+                        List<Object[]> rows = new ArrayList<>(cursor.getCount());
+                        while (cursor.moveToNext()) {
+                            Object[] row = Arrays.copyOf(RecordRows.readRow(cursor), columnCount + 1);
+                            row[columnCount] = store;
+                            rows.add(row);
+                        }
+                        return new Result(store, cursor.getColumnNames(), rows);
+                    } finally {
+                        cursor.close();
+                    }
+                }
+            }));
+        }
+        List<Result> results = new ArrayList<>(futures.size());
+        try {
+            for (Future<Result> future : futures) {
+                results.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while querying the stores", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            for (Future<Result> future : futures) {
+                future.cancel(true);
+            }
+        }
+        return results;
+    }
+
+    private static String[] columnsOf(List<Result> results) {
+        // Every store has the same schema, so the same query gives the same columns
+        return results.isEmpty() ? new String[0] : results.get(0).columns;
+    }
+
+    /** A column to sort on, from the caller's sort order */
+    private static final class SortKey {
+        final int column;
+        final boolean descending;
+        final boolean noCase;
+
+        SortKey(int column, boolean descending, boolean noCase) {
+            this.column = column;
+            this.descending = descending;
+            this.noCase = noCase;
+        }
+    }
+
+    private static List<SortKey> parseSortOrder(String sortOrder, String[] columns) {
+        List<SortKey> keys = new ArrayList<>();
+        if (sortOrder == null || sortOrder.trim().isEmpty()) {
+            return keys;
+        }
+        List<String> names = Arrays.asList(columns);
+        for (String term : sortOrder.split(",")) {
+            Matcher matcher = SORT_TERM.matcher(term);
+            if (!matcher.matches()) {
+                throw new IllegalArgumentException("Unsupported sort order for all stores: " + sortOrder);
+            }
+            int column = names.indexOf(matcher.group(1));
+            if (column < 0) {
+                throw new IllegalArgumentException("Sorting all stores needs the sort column "
+                        + matcher.group(1) + " in the projection");
+            }
+            keys.add(new SortKey(column, "DESC".equalsIgnoreCase(matcher.group(3)),
+                    "NOCASE".equalsIgnoreCase(matcher.group(2))));
+        }
+        return keys;
+    }
+
+    /**
+     * Merge the stores' sorted rows into one sorted list. Ties keep store order.
+     */
+    private static List<Object[]> merge(List<Result> results, List<SortKey> keys) {
+        int total = 0;
+        for (Result result : results) {
+            total += result.rows.size();
+        }
+        List<Object[]> merged = new ArrayList<>(total);
+        if (keys.isEmpty()) {
+            for (Result result : results) {
+                merged.addAll(result.rows);
+            }
+            return merged;
+        }
+        // There are only a handful of stores, so the next row is found by looking at each
+        // store's head rather than through a heap.
+        int[] heads = new int[results.size()];
+        while (merged.size() < total) {
+            int next = -1;
+            for (int i = 0; i < results.size(); i++) {
+                List<Object[]> rows = results.get(i).rows;
+                if (heads[i] < rows.size() && (next < 0
+                        || compare(rows.get(heads[i]), results.get(next).rows.get(heads[next]), keys) < 0)) {
+                    next = i;
+                }
+            }
+            merged.add(results.get(next).rows.get(heads[next]++));
+        }
+        return merged;
+    }
+
+    private static int compare(Object[] a, Object[] b, List<SortKey> keys) {
+        for (SortKey key : keys) {
+            int order = compareValues(a[key.column], b[key.column], key.noCase);
+            if (order != 0) {
+                return key.descending ? -order : order;
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Compare two column values in SQLite's order: NULL, then numbers, then text, then blobs
+     * byte by byte.
+     */
+    private static int compareValues(Object a, Object b, boolean noCase) {
+        int rankA = rank(a);
+        int rankB = rank(b);
+        if (rankA != rankB) {
+            return rankA < rankB ? -1 : 1;
+        }
+        if (a == null) {
+            return 0;
+        }
+        if (a instanceof Number) {
+            if (a instanceof Long && b instanceof Long) {
+                return ((Long) a).compareTo((Long) b);
+            }
+            return Double.compare(((Number) a).doubleValue(), ((Number) b).doubleValue());
+        }
+        if (a instanceof byte[]) {
+            return compareBytes((byte[]) a, (byte[]) b);
+        }
+        return noCase ? ((String) a).compareToIgnoreCase((String) b) : ((String) a).compareTo((String) b);
+    }
+
+    private static int compareBytes(byte[] a, byte[] b) {
+        for (int i = 0; i < a.length && i < b.length; i++) {
+            if (a[i] != b[i]) {
+                return (a[i] & 0xff) < (b[i] & 0xff) ? -1 : 1;
+            }
+        }
+        return a.length < b.length ? -1 : a.length > b.length ? 1 : 0;
+    }
+
+    private static int rank(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof Number) {
+            return 1;
+        }
+        return value instanceof byte[] ? 3 : 2;
+    }
+
+    private static Number add(Number a, Number b) {
+        if (a instanceof Long && b instanceof Long) {
+            return a.longValue() + b.longValue();
+        }
+        return a.doubleValue() + b.doubleValue();
+    }
+}
@@ -0,0 +1,18 @@
+package com.example.android.records.data;
+
+import android.app.Application;
+
+/**
+ * Release build stand-in for the debug-only developer tooling. Does nothing.
+ */
+final class DebugTools {
+
+    private DebugTools() {
+    }
+
+    static void installEarly() {
+    }
+
+    static void installDeferred(Application application) {
+    }
+}
@@ -0,0 +1,186 @@
+package com.example.android.records.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.net.Uri;
+import android.os.Bundle;
+
+import com.example.android.records.BuildConfig;
+import com.example.android.records.data.RecordContract.DuplicateEntry;
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.Shadows;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 24)
+public class DuplicateMergeTest {
+
+    private static final Uri MERGING_URI = DuplicateEntry.buildMergingUri(RecordEntry.CONTENT_URI);
+
+    private RecordProvider mProvider;
+
+    @Before
+    public void setUp() {
+        Shadows.shadowOf(RuntimeEnvironment.application).grantPermissions(RecordContract.PERMISSION_ACCESS);
+        mProvider = new RecordProvider();
+        mProvider.attachInfo(RuntimeEnvironment.application, null);
+        mProvider.disableNotifications();
+    }
+
+    @After
+    public void tearDown() {
+        mProvider.shutdown();
+    }
+
+    @Test
+    public void mergingInsertAddsStockToExactDuplicate() {
+        Uri first = mProvider.insert(MERGING_URI, record("The Final Countdown", "Europe", 3));
+        Uri second = mProvider.insert(MERGING_URI, record("final countdown!", "EUROPE", 2));
+
+        assertEquals(first, second);
+        assertEquals(1, count(RecordEntry.CONTENT_URI));
+        assertEquals(5, quantity(first));
+    }
+
+    @Test
+    public void mergingInsertKeepsNewRecords() {
+        Uri first = mProvider.insert(MERGING_URI, record("The Final Countdown", "Europe", 3));
+        Uri second = mProvider.insert(MERGING_URI, record("Final Countdwn", "Europe", 2));
+
+        assertNotEquals(first, second);
+        assertEquals(3, quantity(first));
+        assertEquals(2, quantity(second));
+    }
+
+    @Test
+    public void plainInsertKeepsDuplicates() {
+        mProvider.insert(RecordEntry.CONTENT_URI, record("Thriller", "Michael Jackson", 1));
+        mProvider.insert(RecordEntry.CONTENT_URI, record("Thriller", "Michael Jackson", 1));
+
+        assertEquals(2, count(RecordEntry.CONTENT_URI));
+    }
+
+    /**
+     * Enough records to outgrow the Bloom filter's first size, so it is rebuilt from the
+     * database as well: none of their duplicates may be missed.
+     */
+    @Test
+    public void mergingInsertFindsEveryDuplicate() {
+        int records = 3000;
+        for (int i = 0; i < records; i++) {
+            mProvider.insert(MERGING_URI, record("Album " + i, "Band " + i % 50, 1));
+        }
+        for (int i = 0; i < records; i++) {
+            mProvider.insert(MERGING_URI, record("album " + i + "!", "BAND " + i % 50, 2));
+        }
+
+        assertEquals(records, count(RecordEntry.CONTENT_URI));
+        Cursor cursor = mProvider.query(RecordEntry.CONTENT_URI, new String[] { RecordEntry.COLUMN_QUANTITY },
+                null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                assertEquals(3, cursor.getInt(0));
+            }
+        } finally {
+            cursor.close();
+        }
+    }
+
+    @Test
+    public void mergeSumsStockIntoKeptRecord() {
+        Uri keep = mProvider.insert(RecordEntry.CONTENT_URI, record("The Final Countdown", "Europe", 3));
+        Uri typo = mProvider.insert(RecordEntry.CONTENT_URI, record("Final Countdwn", "Europe", 2));
+        Uri copy = mProvider.insert(RecordEntry.CONTENT_URI, record("final countdown", "EUROPE", 4));
+        Uri other = mProvider.insert(RecordEntry.CONTENT_URI, record("Thriller", "Michael Jackson", 1));
+
+        Bundle extras = new Bundle();
+        extras.putLongArray(DuplicateEntry.EXTRA_DUPLICATE_IDS,
+                new long[] { ContentUris.parseId(typo), ContentUris.parseId(copy) });
+        Bundle result = mProvider.call(DuplicateEntry.METHOD_MERGE,
+                String.valueOf(ContentUris.parseId(keep)), extras);
+
+        assertEquals(2, result.getInt(DuplicateEntry.EXTRA_MERGED));
+        assertEquals(2, count(RecordEntry.CONTENT_URI));
+        assertEquals(9, quantity(keep));
+        assertEquals(1, quantity(other));
+    }
+
+    @Test
+    public void mergeSkipsKeptAndDeletedRecords() {
+        Uri keep = mProvider.insert(RecordEntry.CONTENT_URI, record("Rumours", "Fleetwood Mac", 1));
+        Uri copy = mProvider.insert(RecordEntry.CONTENT_URI, record("Rumours", "Fleetwood Mac", 2));
+        Bundle extras = new Bundle();
+        extras.putLongArray(DuplicateEntry.EXTRA_DUPLICATE_IDS,
+                new long[] { ContentUris.parseId(keep), ContentUris.parseId(copy) });
+        String keepId = String.valueOf(ContentUris.parseId(keep));
+
+        assertEquals(1, mProvider.call(DuplicateEntry.METHOD_MERGE, keepId, extras).getInt(DuplicateEntry.EXTRA_MERGED));
+        // Merging again finds the duplicate deleted and adds nothing
+        assertEquals(0, mProvider.call(DuplicateEntry.METHOD_MERGE, keepId, extras).getInt(DuplicateEntry.EXTRA_MERGED));
+        assertEquals(3, quantity(keep));
+    }
+
+    @Test
+    public void listsGroupsOfNearDuplicates() {
+        Uri first = mProvider.insert(RecordEntry.CONTENT_URI, record("The Final Countdown", "Europe", 3));
+        mProvider.insert(RecordEntry.CONTENT_URI, record("Thriller", "Michael Jackson", 1));
+        Uri second = mProvider.insert(RecordEntry.CONTENT_URI, record("Final Countdwn", "Europe", 2));
+
+        Cursor cursor = mProvider.query(DuplicateEntry.CONTENT_URI, null, null, null, null);
+        try {
+            assertEquals(2, cursor.getCount());
+            int group = cursor.getColumnIndexOrThrow(DuplicateEntry.COLUMN_GROUP);
+            int id = cursor.getColumnIndexOrThrow(RecordEntry._ID);
+            cursor.moveToFirst();
+            assertEquals(1, cursor.getInt(group));
+            assertEquals(ContentUris.parseId(first), cursor.getLong(id));
+            cursor.moveToNext();
+            assertEquals(1, cursor.getInt(group));
+            assertEquals(ContentUris.parseId(second), cursor.getLong(id));
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private static ContentValues record(String album, String band, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(RecordEntry.COLUMN_ALBUM_NAME, album);
+        values.put(RecordEntry.COLUMN_BAND_NAME, band);
+        values.put(RecordEntry.COLUMN_QUANTITY, quantity);
+        values.put(RecordEntry.COLUMN_PRICE, 20);
+        values.put(RecordEntry.COLUMN_RECORD_COVER, "android.resource://com.example.android.records/drawable/turntable");
+        values.put(RecordEntry.COLUMN_SUPPLIER_NAME, "Vinyl Ltd");
+        values.put(RecordEntry.COLUMN_SUPPLIER_EMAIL, "orders@vinyl.example");
+        return values;
+    }
+
+    private int count(Uri uri) {
+        Cursor cursor = mProvider.query(uri, null, null, null, null);
+        try {
+            return cursor.getCount();
+        } finally {
+            cursor.close();
+        }
+    }
+
+    private int quantity(Uri uri) {
+        Cursor cursor = mProvider.query(uri, new String[] { RecordEntry.COLUMN_QUANTITY }, null, null, null);
+        try {
+            cursor.moveToFirst();
+            return cursor.getInt(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
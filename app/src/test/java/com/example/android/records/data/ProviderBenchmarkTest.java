@@ -0,0 +1,241 @@
+package com.example.android.records.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.net.Uri;
+
+import com.example.android.records.BuildConfig;
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.Random;
+
+import static org.junit.Assert.assertFalse;
+
+/**
+ * Benchmark of {@link RecordProvider} operations at 1k, 10k and 100k records, on the JVM.
+ * <p>
+ * Every operation gets a warmup iteration that is thrown away, then measured iterations whose
+ * mean and standard deviation are reported, each against a fresh database. Means are compared
+ * with the baselines in benchmark_baselines.properties and the test fails if any is slower
+ * than the tolerance, or has no baseline. The report and the measured means, in the format of
+ * the baselines, are written to build/benchmark/, so new baselines can be copied from there.
+ * Pass -Dbenchmark.sizes=1000 to measure fewer sizes while working on the provider.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 24)
+public class ProviderBenchmarkTest {
+
+    private static final String DEFAULT_SIZES = "1000,10000,100000";
+    private static final int WARMUP = 1;
+    private static final int ITERATIONS = 3;
+
+    /** Point operations (query, update, delete) done per iteration */
+    private static final int POINT_OPERATIONS = 1000;
+
+    /** Fraction of the baseline throughput a run may lose before it is a regression */
+    private static final double TOLERANCE = 0.3;
+
+    private static final String BASELINES_RESOURCE = "/benchmark_baselines.properties";
+
+    /** Marker of a regression in the report */
+    private static final String REGRESSION = "REGRESSION";
+
+    /** Marker of an operation that has no baseline to compare with */
+    private static final String NO_BASELINE = "REGRESSION (no baseline)";
+
+    /** Operations, in the order they run within an iteration */
+    private static final String[] OPERATIONS = {
+            "insert", "point_query", "full_scan", "quantity_update", "delete", "bulk_insert"};
+
+    @Test
+    public void throughputKeepsUpWithBaselines() throws IOException {
+        Properties baselines = loadBaselines();
+        Properties measured = new Properties();
+        StringWriter report = new StringWriter();
+        PrintWriter out = new PrintWriter(report);
+        out.println(String.format(Locale.US, "%-16s %8s %12s %10s %12s %8s",
+                "operation", "rows", "ops/s", "stddev", "baseline", "change"));
+
+        for (String size : System.getProperty("benchmark.sizes", DEFAULT_SIZES).split(",")) {
+            int rows = Integer.parseInt(size.trim());
+            double[][] throughput = new double[OPERATIONS.length][ITERATIONS];
+            for (int iteration = -WARMUP; iteration < ITERATIONS; iteration++) {
+                double[] run = runIteration(rows, iteration);
+                if (iteration >= 0) {
+                    for (int op = 0; op < OPERATIONS.length; op++) {
+                        throughput[op][iteration] = run[op];
+                    }
+                }
+            }
+            for (int op = 0; op < OPERATIONS.length; op++) {
+                String key = OPERATIONS[op] + "." + rows;
+                double mean = mean(throughput[op]);
+                measured.setProperty(key, String.format(Locale.US, "%.0f", mean));
+                out.println(compare(OPERATIONS[op], rows, mean, stddev(throughput[op], mean),
+                        baselines.getProperty(key)));
+            }
+        }
+        out.flush();
+
+        System.out.println(report);
+        File dir = new File("build/benchmark");
+        if (dir.isDirectory() || dir.mkdirs()) {
+            write(new File(dir, "report.txt"), report.toString());
+            OutputStream baselineOut = new FileOutputStream(new File(dir, "baselines.properties"));
+            try {
+                measured.store(baselineOut, "ProviderBenchmarkTest means, operations per second");
+            } finally {
+                baselineOut.close();
+            }
+        }
+        assertFalse("Provider throughput regressed:\n" + report, report.toString().contains(REGRESSION));
+    }
+
+    /**
+     * Run every operation once against a fresh database of the given size and return the
+     * throughput of each, in operations per second.
+     */
+    private static double[] runIteration(int rows, int iteration) {
+        Context context = RuntimeEnvironment.application;
+        context.deleteDatabase(RecordDbHelper.DATABASE_NAME);
+        RecordProvider provider = new RecordProvider();
+        provider.attachInfo(context, null);
+        provider.disableNotifications();
+        Random random = new Random(iteration + 42);
+        CatalogGenerator generator = new CatalogGenerator(iteration + 42);
+        double[] throughput = new double[OPERATIONS.length];
+        try {
+            long start = System.nanoTime();
+            for (int i = 0; i < rows; i++) {
+                provider.insert(RecordEntry.CONTENT_URI, generator.nextRecord());
+            }
+            throughput[0] = perSecond(rows, start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < POINT_OPERATIONS; i++) {
+                Cursor cursor = provider.query(recordUri(random, rows), null, null, null, null);
+                cursor.moveToFirst();
+                cursor.close();
+            }
+            throughput[1] = perSecond(POINT_OPERATIONS, start);
+
+            start = System.nanoTime();
+            Cursor scan = provider.query(RecordEntry.CONTENT_URI, null, null, null, null);
+            int scanned = 0;
+            while (scan.moveToNext()) {
+                scanned++;
+            }
+            scan.close();
+            throughput[2] = perSecond(scanned, start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < POINT_OPERATIONS; i++) {
+                ContentValues values = new ContentValues();
+                values.put(RecordEntry.COLUMN_QUANTITY, random.nextInt(50));
+                provider.update(recordUri(random, rows), values, null, null);
+            }
+            throughput[3] = perSecond(POINT_OPERATIONS, start);
+
+            start = System.nanoTime();
+            for (int i = 0; i < POINT_OPERATIONS; i++) {
+                provider.delete(recordUri(random, rows), null, null);
+            }
+            throughput[4] = perSecond(POINT_OPERATIONS, start);
+
+            provider.delete(RecordEntry.CONTENT_URI, null, null);
+            ContentValues[] batch = new ContentValues[rows];
+            for (int i = 0; i < rows; i++) {
+                batch[i] = generator.nextRecord();
+            }
+            start = System.nanoTime();
+            provider.bulkInsert(RecordEntry.CONTENT_URI, batch);
+            throughput[5] = perSecond(rows, start);
+        } finally {
+            provider.shutdown();
+        }
+        return throughput;
+    }
+
+    private static Uri recordUri(Random random, int rows) {
+        return ContentUris.withAppendedId(RecordEntry.CONTENT_URI, 1 + random.nextInt(rows));
+    }
+
+    private static double perSecond(int operations, long startNanos) {
+        long nanos = Math.max(System.nanoTime() - startNanos, 1);
+        return operations * 1e9 / nanos;
+    }
+
+    private static double mean(double[] values) {
+        double sum = 0;
+        for (double value : values) {
+            sum += value;
+        }
+        return sum / values.length;
+    }
+
+    private static double stddev(double[] values, double mean) {
+        if (values.length < 2) {
+            return 0;
+        }
+        double squares = 0;
+        for (double value : values) {
+            squares += (value - mean) * (value - mean);
+        }
+        return Math.sqrt(squares / (values.length - 1));
+    }
+
+    /**
+     * Return the report line of one operation, marking it if it is below its baseline by more
+     * than the tolerance.
+     */
+    private static String compare(String operation, int rows, double mean, double stddev,
+                                  String baseline) {
+        String line = String.format(Locale.US, "%-16s %8d %12.0f %10.0f", operation, rows, mean, stddev);
+        if (baseline == null) {
+            return line + String.format(Locale.US, " %12s %8s %s", "-", "-", NO_BASELINE);
+        }
+        double expected = Double.parseDouble(baseline);
+        double change = (mean - expected) / expected;
+        line += String.format(Locale.US, " %12.0f %+7.1f%%", expected, change * 100);
+        return change < -TOLERANCE ? line + " " + REGRESSION : line;
+    }
+
+    private static Properties loadBaselines() throws IOException {
+        Properties baselines = new Properties();
+        InputStream in = ProviderBenchmarkTest.class.getResourceAsStream(BASELINES_RESOURCE);
+        if (in != null) {
+            try {
+                baselines.load(in);
+            } finally {
+                in.close();
+            }
+        }
+        return baselines;
+    }
+
+    private static void write(File file, String text) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        try {
+            out.write(text.getBytes("UTF-8"));
+        } finally {
+            out.close();
+        }
+    }
+}
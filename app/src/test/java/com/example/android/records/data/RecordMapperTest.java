@@ -0,0 +1,135 @@
+package com.example.android.records.data;
+
+import android.content.ContentValues;
+import android.database.MatrixCursor;
+
+import com.example.android.records.BuildConfig;
+import com.example.android.records.core.Record;
+import com.example.android.records.data.RecordContract.RecordEntry;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.annotation.Config;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 24)
+public class RecordMapperTest {
+
+    private static final String[] COLUMNS = {
+            RecordEntry._ID, RecordEntry.COLUMN_ALBUM_NAME, RecordEntry.COLUMN_BAND_NAME,
+            RecordEntry.COLUMN_QUANTITY, RecordEntry.COLUMN_PRICE, RecordEntry.COLUMN_RECORD_COVER,
+            RecordEntry.COLUMN_SUPPLIER_NAME, RecordEntry.COLUMN_SUPPLIER_EMAIL,
+            RecordEntry.COLUMN_REORDER_THRESHOLD, RecordEntry.COLUMN_SKU};
+
+    private static Record record() {
+        return new Record.Builder()
+                .setId(7)
+                .setAlbumName("The Final Countdown")
+                .setBandName("Europe")
+                .setQuantity(3)
+                .setPrice(1999)
+                .setCover("android.resource://com.example.android.records/drawable/turntable")
+                .setSupplierName("Vinyl Ltd")
+                .setSupplierEmail("orders@vinyl.example")
+                .setReorderThreshold(2)
+                .setSku("4006381333931")
+                .build();
+    }
+
+    @Test
+    public void contentValuesRoundTrip() {
+        ContentValues values = RecordMapper.toContentValues(record());
+        // The ID is the row's, never written
+        assertFalse(values.containsKey(RecordEntry._ID));
+        values.put(RecordEntry._ID, 7L);
+        assertSameRecord(record(), RecordMapper.fromContentValues(values));
+    }
+
+    @Test
+    public void cursorRoundTrip() {
+        ContentValues values = RecordMapper.toContentValues(record());
+        values.put(RecordEntry._ID, 7L);
+        MatrixCursor cursor = cursorOf(values);
+        assertSameRecord(record(), RecordMapper.fromCursor(cursor));
+    }
+
+    @Test
+    public void nullThresholdAndSkuRoundTrip() {
+        Record record = record().buildUpon().setReorderThreshold(null).setSku(null).build();
+        ContentValues values = RecordMapper.toContentValues(record);
+        MatrixCursor cursor = cursorOf(values);
+        Record read = RecordMapper.fromCursor(cursor);
+        assertNull(read.getReorderThreshold());
+        assertNull(read.getSku());
+        assertNull(RecordMapper.fromContentValues(values).getReorderThreshold());
+    }
+
+    @Test
+    public void missingValuesGetTableDefaults() {
+        ContentValues values = new ContentValues();
+        values.put(RecordEntry.COLUMN_ALBUM_NAME, "Europe");
+        Record record = RecordMapper.fromContentValues(values);
+        assertEquals(Record.NO_ID, record.getId());
+        assertEquals(0, record.getQuantity());
+        assertEquals(0, record.getPrice());
+    }
+
+    @Test
+    public void partialCursorLeavesDefaults() {
+        MatrixCursor cursor = new MatrixCursor(new String[] { RecordEntry._ID, RecordEntry.COLUMN_QUANTITY });
+        cursor.addRow(new Object[] { 3L, 5 });
+        cursor.moveToFirst();
+        Record record = RecordMapper.fromCursor(cursor);
+        assertEquals(3, record.getId());
+        assertEquals(5, record.getQuantity());
+        assertNull(record.getAlbumName());
+    }
+
+    @Test
+    public void validatesOnlyColumnsPresent() {
+        ContentValues values = new ContentValues();
+        values.put(RecordEntry.COLUMN_QUANTITY, 4);
+        RecordMapper.validateChanges(values);
+
+        values.putNull(RecordEntry.COLUMN_SUPPLIER_NAME);
+        try {
+            RecordMapper.validateChanges(values);
+            fail("Null supplier name accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Record requires a supplier contact name", e.getMessage());
+        }
+    }
+
+    /**
+     * Return a cursor on one row holding the values, as a query of the records table would.
+     */
+    private static MatrixCursor cursorOf(ContentValues values) {
+        MatrixCursor cursor = new MatrixCursor(COLUMNS);
+        Object[] row = new Object[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            row[i] = values.get(COLUMNS[i]);
+        }
+        cursor.addRow(row);
+        cursor.moveToFirst();
+        return cursor;
+    }
+
+    private static void assertSameRecord(Record expected, Record actual) {
+        assertEquals(expected.getId(), actual.getId());
+        assertEquals(expected.getAlbumName(), actual.getAlbumName());
+        assertEquals(expected.getBandName(), actual.getBandName());
+        assertEquals(expected.getQuantity(), actual.getQuantity());
+        assertEquals(expected.getPrice(), actual.getPrice());
+        assertEquals(expected.getCover(), actual.getCover());
+        assertEquals(expected.getSupplierName(), actual.getSupplierName());
+        assertEquals(expected.getSupplierEmail(), actual.getSupplierEmail());
+        assertEquals(expected.getReorderThreshold(), actual.getReorderThreshold());
+        assertEquals(expected.getSku(), actual.getSku());
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.android.records.data;
+
+import android.content.Context;
+import android.content.ContextWrapper;
+import android.database.DatabaseErrorHandler;
+import android.database.sqlite.SQLiteDatabase;
+
+import java.io.File;
+
+/**
+ * Context that keeps the databases of a provider instance apart from the others' by prefixing
+ * their names, so a test can run several devices side by side. Change notifications would still go through the
+ * app's content resolver, so the provider's are turned off with
+ * {@link RecordProvider#disableNotifications()}.
+ */
+class ScratchContext extends ContextWrapper {
+
+    private final String mPrefix;
+
+    ScratchContext(Context base, String prefix) {
+        super(base);
+        mPrefix = prefix;
+    }
+
+    @Override
+    public SQLiteDatabase openOrCreateDatabase(String name, int mode,
+                                               SQLiteDatabase.CursorFactory factory) {
+        return super.openOrCreateDatabase(mPrefix + name, mode, factory);
+    }
+
+    @Override
+    public SQLiteDatabase openOrCreateDatabase(String name, int mode,
+                                               SQLiteDatabase.CursorFactory factory,
+                                               DatabaseErrorHandler errorHandler) {
+        return super.openOrCreateDatabase(mPrefix + name, mode, factory, errorHandler);
+    }
+
+    @Override
+    public File getDatabasePath(String name) {
+        return super.getDatabasePath(mPrefix + name);
+    }
+
+    @Override
+    public boolean deleteDatabase(String name) {
+        return super.deleteDatabase(mPrefix + name);
+    }
+}
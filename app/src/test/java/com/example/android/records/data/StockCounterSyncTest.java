@@ -0,0 +1,252 @@
+package com.example.android.records.data;
+
+import android.content.ContentUris;
+import android.content.ContentValues;
+import android.database.Cursor;
+import android.database.DatabaseUtils;
+
+import com.example.android.records.BuildConfig;
+import com.example.android.records.data.RecordContract.RecordEntry;
+import com.example.android.records.data.RecordContract.StockCounterEntry;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.Config;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * Stock counter sync between tills, each a provider on databases of its own. They share a
+ * catalog but number its records differently, sell offline and then merge each other's
+ * counters.
+ */
+@RunWith(RobolectricTestRunner.class)
+@Config(constants = BuildConfig.class, sdk = 24)
+public class StockCounterSyncTest {
+
+    private static final String SKU_STOCKED = "4006381333931";
+    private static final String SKU_LAST_COPY = "0075678164125";
+    private static final String SKU_ONLY_HERE = "0602527346830";
+
+    private final List<RecordProvider> mProviders = new ArrayList<>();
+    private RecordProvider mTill;
+    private RecordProvider mPeer;
+
+    @Before
+    public void setUp() {
+        mTill = open("till-");
+        mPeer = open("peer-");
+        // The peer has a record the till doesn't, so their record IDs differ
+        mPeer.insert(RecordEntry.CONTENT_URI, record(SKU_ONLY_HERE, 3));
+        stockCatalog(mTill);
+        stockCatalog(mPeer);
+    }
+
+    @After
+    public void tearDown() {
+        for (RecordProvider provider : mProviders) {
+            provider.shutdown();
+        }
+    }
+
+    @Test
+    public void startingStockIsCountedOnce() {
+        exchange(mTill, mPeer);
+
+        assertEquals(10, quantity(mTill, SKU_STOCKED));
+        assertEquals(10, quantity(mPeer, SKU_STOCKED));
+    }
+
+    @Test
+    public void offlineSalesAddUp() {
+        sell(mTill, SKU_STOCKED, 2);
+        sell(mPeer, SKU_STOCKED, 3);
+        restock(mPeer, SKU_STOCKED, 4);
+        exchange(mTill, mPeer);
+
+        assertEquals(9, quantity(mTill, SKU_STOCKED));
+        assertEquals(9, quantity(mPeer, SKU_STOCKED));
+    }
+
+    @Test
+    public void bothSellingTheLastCopyOversells() {
+        sell(mTill, SKU_LAST_COPY, 1);
+        sell(mPeer, SKU_LAST_COPY, 1);
+        exchange(mTill, mPeer);
+
+        // Neither sale is lost
+        assertEquals(-1, quantity(mTill, SKU_LAST_COPY));
+        assertEquals(-1, quantity(mPeer, SKU_LAST_COPY));
+    }
+
+    @Test
+    public void mergeIsCommutative() {
+        sell(mTill, SKU_STOCKED, 2);
+        sell(mPeer, SKU_STOCKED, 3);
+        RecordProvider tillFirst = open("till-first-");
+        RecordProvider peerFirst = open("peer-first-");
+        stockCatalog(tillFirst);
+        stockCatalog(peerFirst);
+
+        merge(mTill, tillFirst);
+        merge(mPeer, tillFirst);
+        merge(mPeer, peerFirst);
+        merge(mTill, peerFirst);
+
+        assertEquals(5, quantity(tillFirst, SKU_STOCKED));
+        assertEquals(5, quantity(peerFirst, SKU_STOCKED));
+        assertEquals(counters(tillFirst), counters(peerFirst));
+    }
+
+    @Test
+    public void mergeIsIdempotent() {
+        sell(mTill, SKU_STOCKED, 2);
+        sell(mPeer, SKU_STOCKED, 3);
+        exchange(mTill, mPeer);
+        Map<String, String> tillMerged = counters(mTill);
+        Map<String, String> peerMerged = counters(mPeer);
+
+        exchange(mTill, mPeer);
+        merge(mPeer, mTill);
+
+        assertEquals(5, quantity(mTill, SKU_STOCKED));
+        assertEquals(5, quantity(mPeer, SKU_STOCKED));
+        assertEquals(tillMerged, counters(mTill));
+        assertEquals(peerMerged, counters(mPeer));
+    }
+
+    @Test
+    public void salesAfterMergeKeepCounting() {
+        sell(mTill, SKU_STOCKED, 2);
+        exchange(mTill, mPeer);
+        sell(mPeer, SKU_STOCKED, 1);
+        sell(mTill, SKU_STOCKED, 1);
+        exchange(mTill, mPeer);
+
+        assertEquals(6, quantity(mTill, SKU_STOCKED));
+        assertEquals(6, quantity(mPeer, SKU_STOCKED));
+    }
+
+    @Test
+    public void countersOfUnknownSkusAreSkipped() {
+        sell(mPeer, SKU_ONLY_HERE, 1);
+        exchange(mTill, mPeer);
+
+        assertEquals(2, quantity(mPeer, SKU_ONLY_HERE));
+        assertEquals(10, quantity(mTill, SKU_STOCKED));
+    }
+
+    /**
+     * Return a provider instance on fresh databases of its own.
+     */
+    private RecordProvider open(String prefix) {
+        ScratchContext context = new ScratchContext(RuntimeEnvironment.application, prefix);
+        context.deleteDatabase(RecordDbHelper.DATABASE_NAME);
+        RecordProvider provider = new RecordProvider();
+        provider.attachInfo(context, null);
+        provider.disableNotifications();
+        mProviders.add(provider);
+        return provider;
+    }
+
+    private static void stockCatalog(RecordProvider provider) {
+        provider.insert(RecordEntry.CONTENT_URI, record(SKU_STOCKED, 10));
+        provider.insert(RecordEntry.CONTENT_URI, record(SKU_LAST_COPY, 1));
+        provider.insert(RecordEntry.CONTENT_URI, record(null, 4));
+    }
+
+    private static ContentValues record(String sku, int quantity) {
+        ContentValues values = new ContentValues();
+        values.put(RecordEntry.COLUMN_ALBUM_NAME, "Album " + sku);
+        values.put(RecordEntry.COLUMN_BAND_NAME, "Band");
+        values.put(RecordEntry.COLUMN_QUANTITY, quantity);
+        values.put(RecordEntry.COLUMN_PRICE, 20);
+        values.put(RecordEntry.COLUMN_RECORD_COVER, "android.resource://com.example.android.records/drawable/turntable");
+        values.put(RecordEntry.COLUMN_SUPPLIER_NAME, "Vinyl Ltd");
+        values.put(RecordEntry.COLUMN_SUPPLIER_EMAIL, "orders@vinyl.example");
+        values.put(RecordEntry.COLUMN_SKU, sku);
+        return values;
+    }
+
+    private static void sell(RecordProvider provider, String sku, int copies) {
+        restock(provider, sku, -copies);
+    }
+
+    private static void restock(RecordProvider provider, String sku, int copies) {
+        ContentValues values = new ContentValues();
+        values.put(RecordEntry.COLUMN_QUANTITY, quantity(provider, sku) + copies);
+        provider.update(ContentUris.withAppendedId(RecordEntry.CONTENT_URI, recordId(provider, sku)),
+                values, null, null);
+    }
+
+    /**
+     * Merge each provider's counters into the other's, as two devices syncing do.
+     */
+    private static void exchange(RecordProvider till, RecordProvider peer) {
+        merge(peer, till);
+        merge(till, peer);
+    }
+
+    private static void merge(RecordProvider from, RecordProvider into) {
+        List<ContentValues> rows = new ArrayList<>();
+        Cursor cursor = from.query(StockCounterEntry.CONTENT_URI, null, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                ContentValues row = new ContentValues();
+                DatabaseUtils.cursorRowToContentValues(cursor, row);
+                rows.add(row);
+            }
+        } finally {
+            cursor.close();
+        }
+        into.bulkInsert(StockCounterEntry.CONTENT_URI, rows.toArray(new ContentValues[rows.size()]));
+    }
+
+    /**
+     * Return the counts of every SKU and device, whatever the order of the rows.
+     */
+    private static Map<String, String> counters(RecordProvider provider) {
+        Map<String, String> counts = new TreeMap<>();
+        Cursor cursor = provider.query(StockCounterEntry.CONTENT_URI, new String[] {
+                StockCounterEntry.COLUMN_SKU, StockCounterEntry.COLUMN_DEVICE,
+                StockCounterEntry.COLUMN_INCREMENTS, StockCounterEntry.COLUMN_DECREMENTS}, null, null, null);
+        try {
+            while (cursor.moveToNext()) {
+                counts.put(cursor.getString(0) + "/" + cursor.getString(1), cursor.getLong(2) + "-" + cursor.getLong(3));
+            }
+        } finally {
+            cursor.close();
+        }
+        return counts;
+    }
+
+    private static int quantity(RecordProvider provider, String sku) {
+        return (int) column(provider, sku, RecordEntry.COLUMN_QUANTITY);
+    }
+
+    private static long recordId(RecordProvider provider, String sku) {
+        return column(provider, sku, RecordEntry._ID);
+    }
+
+    private static long column(RecordProvider provider, String sku, String column) {
+        Cursor cursor = provider.query(RecordEntry.buildSkuUri(sku), new String[] { column },
+                null, null, null);
+        try {
+            if (!cursor.moveToFirst()) {
+                throw new IllegalStateException("No record with SKU " + sku);
+            }
+            return cursor.getLong(0);
+        } finally {
+            cursor.close();
+        }
+    }
+}
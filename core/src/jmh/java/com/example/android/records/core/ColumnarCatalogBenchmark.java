@@ -0,0 +1,57 @@
+package com.example.android.records.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Scans, filters and sums over the columnar catalog.
+ */
+@State(Scope.Benchmark)
+public class ColumnarCatalogBenchmark {
+
+    @Param({"10000", "1000000"})
+    public int records;
+
+    private ColumnarCatalog mCatalog;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mCatalog = new ColumnarCatalog();
+        for (int id = 1; id <= records; id++) {
+            mCatalog.upsert(id, "Band " + random.nextInt(2000), "Supplier " + random.nextInt(60),
+                    random.nextInt(50), 3 + random.nextInt(58));
+        }
+    }
+
+    @Benchmark
+    public long sumStockValue() {
+        return mCatalog.sumStockValue();
+    }
+
+    @Benchmark
+    public int countLowStock() {
+        return mCatalog.countAtOrBelow(3);
+    }
+
+    @Benchmark
+    public long[] filterByBand() {
+        return mCatalog.idsOfBand("Band 7");
+    }
+
+    @Benchmark
+    public Map<String, Long> groupBySupplier() {
+        return mCatalog.stockValueBySupplier();
+    }
+
+    @Benchmark
+    public int lookup() {
+        return mCatalog.quantityOf(records / 2);
+    }
+}
@@ -0,0 +1,76 @@
+package com.example.android.records.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Duplicate detection over an import, where one line in twenty is a misspelt repeat.
+ */
+@State(Scope.Benchmark)
+public class DuplicateFinderBenchmark {
+
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyz ";
+
+    @Param({"10000", "100000"})
+    public int records;
+
+    private String[] mKeys;
+    private BloomFilter mFilter;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        String[] albums = new String[records];
+        String[] bands = new String[records];
+        mKeys = new String[records];
+        mFilter = new BloomFilter(records, 0.01);
+        for (int i = 0; i < records; i++) {
+            String album;
+            String band;
+            if (i > 0 && random.nextInt(20) == 0) {
+                int original = random.nextInt(i);
+                band = bands[original];
+                char[] repeat = albums[original].toCharArray();
+                repeat[repeat.length - 1 - random.nextInt(4)] = LETTERS.charAt(random.nextInt(26));
+                album = new String(repeat);
+            } else {
+                StringBuilder title = new StringBuilder();
+                for (int length = 8 + random.nextInt(20); title.length() < length; ) {
+                    title.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+                }
+                album = title.toString();
+                band = "Band " + random.nextInt(2000);
+            }
+            albums[i] = album;
+            bands[i] = band;
+            mKeys[i] = DuplicateKeys.of(album, band);
+            mFilter.add(mKeys[i]);
+        }
+    }
+
+    @Benchmark
+    public List<long[]> findGroups() {
+        DuplicateFinder finder = new DuplicateFinder(DuplicateFinder.DEFAULT_SIMILARITY);
+        for (int i = 0; i < mKeys.length; i++) {
+            finder.add(i, mKeys[i]);
+        }
+        return finder.findGroups();
+    }
+
+    @Benchmark
+    public int bloomFilterProbe() {
+        int hits = 0;
+        for (String key : mKeys) {
+            if (mFilter.mightContain(key)) {
+                hits++;
+            }
+        }
+        return hits;
+    }
+}
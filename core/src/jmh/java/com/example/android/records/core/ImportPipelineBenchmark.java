@@ -0,0 +1,62 @@
+package com.example.android.records.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Import of a supplier file of 100,000 rows on one parser thread and on one per core, with a
+ * writer that only counts, to show how parsing scales.
+ */
+@State(Scope.Benchmark)
+public class ImportPipelineBenchmark {
+
+    private static final int ROWS = 100000;
+
+    @Param({"1", "0"})
+    public int parallelism;
+
+    private String mFile;
+    private ForkJoinPool mPool;
+    private ImportPipeline mPipeline;
+
+    @Setup
+    public void setUp() {
+        StringBuilder file = new StringBuilder("album_name,band_name,quantity,price,supplier_name,supplier_email,sku\n");
+        for (int i = 0; i < ROWS; i++) {
+            file.append("\"Album ").append(i).append(", Remastered\",The Band ").append(i % 2000)
+                    .append(',').append(i % 50).append(",19,Supplier ").append(i % 40)
+                    .append(",Orders@Supplier").append(i % 40).append(".example.com,\n");
+        }
+        mFile = file.toString();
+        // 0 stands for one thread per core
+        int threads = parallelism > 0 ? parallelism : Runtime.getRuntime().availableProcessors();
+        mPool = new ForkJoinPool(threads);
+        mPipeline = new ImportPipeline(mPool, threads, "cover", 100);
+    }
+
+    @TearDown
+    public void tearDown() {
+        mPool.shutdown();
+    }
+
+    @Benchmark
+    public int parse() throws IOException {
+        final int[] written = {0};
+        mPipeline.run(new StringReader(mFile), new ImportPipeline.Writer() {
+            @Override
+            public void write(ImportPipeline.Chunk chunk, List<ImportPipeline.Problem> failures) {
+                written[0] += chunk.getRecords().size();
+            }
+        });
+        return written[0];
+    }
+}
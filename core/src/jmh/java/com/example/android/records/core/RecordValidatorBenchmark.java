@@ -0,0 +1,41 @@
+package com.example.android.records.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Cost of validating a new record, which every insert pays.
+ */
+@State(Scope.Thread)
+public class RecordValidatorBenchmark {
+
+    private Record mRecord;
+
+    @Setup
+    public void setUp() {
+        mRecord = new Record.Builder()
+                .setAlbumName("Final Countdown")
+                .setBandName("Europe")
+                .setQuantity(10)
+                .setPrice(5)
+                .setCover("android.resource://com.example.android.records/drawable/turntable")
+                .setSupplierName("Virgin")
+                .setSupplierEmail("order@virgin.com")
+                .build();
+    }
+
+    @Benchmark
+    public Record validateNew() {
+        RecordValidator.validateNew(mRecord);
+        return mRecord;
+    }
+
+    @Benchmark
+    public Record buildAndValidate() {
+        Record record = mRecord.buildUpon().setQuantity(mRecord.getQuantity() + 1).build();
+        RecordValidator.validateNew(record);
+        return record;
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.android.records.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.text.Collator;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Alphabetical order of band names by comparing them with a collator, as a query with
+ * COLLATE LOCALIZED does, against comparing their precomputed sort keys byte by byte, as a walk
+ * of the sort key index does.
+ */
+@State(Scope.Benchmark)
+public class SortKeysBenchmark {
+
+    private static final String LETTERS = "abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ\u00e9\u00e5\u00f6 ";
+
+    private static final Comparator<byte[]> BYTES = new Comparator<byte[]>() {
+        @Override
+        public int compare(byte[] a, byte[] b) {
+            for (int i = 0; i < a.length && i < b.length; i++) {
+                if (a[i] != b[i]) {
+                    return (a[i] & 0xff) - (b[i] & 0xff);
+                }
+            }
+            return a.length - b.length;
+        }
+    };
+
+    @Param({"10000", "100000"})
+    public int records;
+
+    private String[] mNames;
+    private byte[][] mKeys;
+    private Collator mCollator;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        SortKeys sortKeys = new SortKeys(Locale.US);
+        mCollator = Collator.getInstance(Locale.US);
+        mCollator.setDecomposition(Collator.CANONICAL_DECOMPOSITION);
+        mNames = new String[records];
+        mKeys = new byte[records][];
+        for (int i = 0; i < records; i++) {
+            StringBuilder name = new StringBuilder();
+            for (int length = 4 + random.nextInt(20); name.length() < length; ) {
+                name.append(LETTERS.charAt(random.nextInt(LETTERS.length())));
+            }
+            mNames[i] = name.toString();
+            mKeys[i] = sortKeys.of(mNames[i]);
+        }
+    }
+
+    @Benchmark
+    public String[] sortWithCollator() {
+        String[] names = mNames.clone();
+        Arrays.sort(names, mCollator);
+        return names;
+    }
+
+    @Benchmark
+    public byte[][] sortBySortKeys() {
+        byte[][] keys = mKeys.clone();
+        Arrays.sort(keys, BYTES);
+        return keys;
+    }
+}
@@ -0,0 +1,57 @@
+package com.example.android.records.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.Random;
+
+/**
+ * Throughput of the stock rules over a catalog's worth of stock levels, as used when
+ * building purchase orders.
+ */
+@State(Scope.Thread)
+public class StockRulesBenchmark {
+
+    @Param({"1000", "100000"})
+    public int records;
+
+    private int[] mQuantities;
+    private Integer[] mThresholds;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        mQuantities = new int[records];
+        mThresholds = new Integer[records];
+        for (int i = 0; i < records; i++) {
+            mQuantities[i] = random.nextInt(20);
+            mThresholds[i] = random.nextInt(4) == 0 ? random.nextInt(10) : null;
+        }
+    }
+
+    @Benchmark
+    public int reorderLowStock() {
+        int units = 0;
+        for (int i = 0; i < records; i++) {
+            int threshold = StockRules.effectiveThreshold(mThresholds[i], 3);
+            if (StockRules.isLowStock(mQuantities[i], threshold)) {
+                units += StockRules.reorderQuantity(mQuantities[i], threshold);
+            }
+        }
+        return units;
+    }
+
+    @Benchmark
+    public int sellOneOfEach() {
+        int left = 0;
+        for (int i = 0; i < records; i++) {
+            if (StockRules.canSell(mQuantities[i], 1)) {
+                left += StockRules.afterSale(mQuantities[i], 1);
+            }
+        }
+        return left;
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.android.records.core;
+
+/**
+ * A set of strings that can answer "definitely not present" without storing them.
+ * <p>
+ * {@link #mightContain(String)} never returns false for a string that was added, and returns
+ * true for one that wasn't with about the false positive rate the filter was sized for. That
+ * lets an import skip the database lookup for the great majority of its rows, which are new.
+ * Strings can't be removed, so a filter only grows more cautious as its strings change.
+ */
+public final class BloomFilter {
+
+    private final long[] mBits;
+    private final int mBitCount;
+    private final int mHashCount;
+    private final int mCapacity;
+    private int mSize;
+
+    /**
+     * @param capacity          number of strings the filter is sized for
+     * @param falsePositiveRate rate of false positives at that size, between 0 and 1
+     */
+    public BloomFilter(int capacity, double falsePositiveRate) {
+        if (capacity <= 0 || falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("Invalid Bloom filter size " + capacity + " at " + falsePositiveRate);
+        }
+        double ln2 = Math.log(2);
+        long bits = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (ln2 * ln2));
+        mBitCount = (int) Math.min(Math.max(bits, 64), Integer.MAX_VALUE - 63);
+        mBits = new long[(mBitCount + 63) / 64];
+        mHashCount = Math.max(1, (int) Math.round((double) mBitCount / capacity * ln2));
+        mCapacity = capacity;
+    }
+
+    public void add(String value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < mHashCount; i++) {
+            int bit = index(h1 + i * h2);
+            mBits[bit >>> 6] |= 1L << bit;
+        }
+        mSize++;
+    }
+
+    public boolean mightContain(String value) {
+        long hash = hash(value);
+        int h1 = (int) hash;
+        int h2 = (int) (hash >>> 32);
+        for (int i = 0; i < mHashCount; i++) {
+            int bit = index(h1 + i * h2);
+            if ((mBits[bit >>> 6] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Return true if more strings were added than the filter was sized for, so its false
+     * positive rate is above the one asked for.
+     */
+    public boolean isFull() {
+        return mSize > mCapacity;
+    }
+
+    private int index(int combined) {
+        return (combined & Integer.MAX_VALUE) % mBitCount;
+    }
+
+    /**
+     * 64-bit FNV-1a over the characters, whose halves serve as the two hashes that all the
+     * filter's hash functions are derived from.
+     */
+    private static long hash(String value) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            hash = (hash ^ (c & 0xFF)) * 0x100000001b3L;
+            hash = (hash ^ (c >>> 8)) * 0x100000001b3L;
+        }
+        // Mix the high bits down, since FNV spreads them poorly over short strings
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,357 @@
+package com.example.android.records.core;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * Read-optimized copy of the catalog, one primitive array per column.
+ * <p>
+ * Rows are kept sorted by ID, so lookups are binary searches and records added with growing
+ * IDs are appended. Band and supplier names are dictionary encoded: each distinct name is
+ * stored once and rows hold its int code. Each record takes 24 bytes of columns, and
+ * scans run over contiguous int arrays without boxing.
+ * <p>
+ * Removed rows are marked dead and skipped by scans until a quarter of the rows are dead, then
+ * the arrays are compacted. Reads may run concurrently; writes are exclusive.
+ */
+public class ColumnarCatalog {
+
+    /** Band code of a removed row */
+    private static final int DEAD = -1;
+
+    private static final int INITIAL_CAPACITY = 256;
+
+    private final ReadWriteLock mLock = new ReentrantReadWriteLock();
+
+    private long[] mIds = new long[INITIAL_CAPACITY];
+    private int[] mQuantities = new int[INITIAL_CAPACITY];
+    private int[] mPrices = new int[INITIAL_CAPACITY];
+    private int[] mBands = new int[INITIAL_CAPACITY];
+    private int[] mSuppliers = new int[INITIAL_CAPACITY];
+
+    /** Rows in use, dead ones included */
+    private int mSize;
+
+    /** Dead rows */
+    private int mDead;
+
+    private final Dictionary mBandNames = new Dictionary();
+    private final Dictionary mSupplierNames = new Dictionary();
+
+    /** Position in the source's change log that this copy reflects */
+    private long mSequence;
+
+    /**
+     * Add a record, or replace the values of the record with the same ID.
+     */
+    public void upsert(long id, String band, String supplier, int quantity, int price) {
+        mLock.writeLock().lock();
+        try {
+            int index = Arrays.binarySearch(mIds, 0, mSize, id);
+            if (index < 0) {
+                index = -index - 1;
+                ensureCapacity(mSize + 1);
+                if (index < mSize) {
+                    // Only records with reused or out of order IDs land here
+                    shift(index, 1);
+                }
+                mSize++;
+            } else if (mBands[index] == DEAD) {
+                mDead--;
+            }
+            mIds[index] = id;
+            mBands[index] = mBandNames.encode(band);
+            mSuppliers[index] = mSupplierNames.encode(supplier);
+            mQuantities[index] = quantity;
+            mPrices[index] = price;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Remove the record with the given ID, if it is present.
+     */
+    public void remove(long id) {
+        mLock.writeLock().lock();
+        try {
+            int index = Arrays.binarySearch(mIds, 0, mSize, id);
+            if (index < 0 || mBands[index] == DEAD) {
+                return;
+            }
+            mBands[index] = DEAD;
+            mQuantities[index] = 0;
+            mPrices[index] = 0;
+            mDead++;
+            if (mDead > mSize / 4) {
+                compact();
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    public long getSequence() {
+        mLock.readLock().lock();
+        try {
+            return mSequence;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    public void setSequence(long sequence) {
+        mLock.writeLock().lock();
+        try {
+            mSequence = sequence;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Return the number of records.
+     */
+    public int size() {
+        mLock.readLock().lock();
+        try {
+            return mSize - mDead;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the stock of a record, or -1 if it isn't present.
+     */
+    public int quantityOf(long id) {
+        mLock.readLock().lock();
+        try {
+            int index = Arrays.binarySearch(mIds, 0, mSize, id);
+            return index < 0 || mBands[index] == DEAD ? -1 : mQuantities[index];
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the number of copies in stock over all records.
+     */
+    public long sumQuantity() {
+        mLock.readLock().lock();
+        try {
+            // Dead rows hold 0, so they don't need skipping
+            long sum = 0;
+            for (int i = 0; i < mSize; i++) {
+                sum += mQuantities[i];
+            }
+            return sum;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the value of the stock, the sum of quantity times price over all records.
+     */
+    public long sumStockValue() {
+        mLock.readLock().lock();
+        try {
+            long sum = 0;
+            for (int i = 0; i < mSize; i++) {
+                sum += (long) mQuantities[i] * mPrices[i];
+            }
+            return sum;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the number of records with at most {@code quantity} copies in stock.
+     */
+    public int countAtOrBelow(int quantity) {
+        mLock.readLock().lock();
+        try {
+            int count = 0;
+            for (int i = 0; i < mSize; i++) {
+                if (mQuantities[i] <= quantity && mBands[i] != DEAD) {
+                    count++;
+                }
+            }
+            return count;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the IDs of the records of a band, in ID order.
+     */
+    public long[] idsOfBand(String band) {
+        mLock.readLock().lock();
+        try {
+            int code = mBandNames.codeOf(band);
+            if (code == DEAD) {
+                return new long[0];
+            }
+            long[] ids = new long[16];
+            int count = 0;
+            for (int i = 0; i < mSize; i++) {
+                if (mBands[i] == code) {
+                    if (count == ids.length) {
+                        ids = Arrays.copyOf(ids, count * 2);
+                    }
+                    ids[count++] = mIds[i];
+                }
+            }
+            return Arrays.copyOf(ids, count);
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Return the value of the stock per supplier, largest first.
+     */
+    public Map<String, Long> stockValueBySupplier() {
+        mLock.readLock().lock();
+        final long[] values;
+        List<String> names;
+        try {
+            values = new long[mSupplierNames.size()];
+            for (int i = 0; i < mSize; i++) {
+                if (mBands[i] != DEAD) {
+                    values[mSuppliers[i]] += (long) mQuantities[i] * mPrices[i];
+                }
+            }
+            names = mSupplierNames.values();
+        } finally {
+            mLock.readLock().unlock();
+        }
+        Integer[] order = new Integer[values.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Long.compare(values[b], values[a]);
+            }
+        });
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Integer code : order) {
+            if (values[code] > 0) {
+                result.put(names.get(code), values[code]);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Return an estimate of the heap taken by the columns and dictionaries, in bytes.
+     */
+    public long heapBytes() {
+        mLock.readLock().lock();
+        try {
+            long columns = (long) mIds.length * (8 + 4 + 4 + 4 + 4);
+            return columns + mBandNames.heapBytes() + mSupplierNames.heapBytes();
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    private void ensureCapacity(int capacity) {
+        if (capacity <= mIds.length) {
+            return;
+        }
+        int newCapacity = Math.max(capacity, mIds.length + (mIds.length >> 1));
+        mIds = Arrays.copyOf(mIds, newCapacity);
+        mQuantities = Arrays.copyOf(mQuantities, newCapacity);
+        mPrices = Arrays.copyOf(mPrices, newCapacity);
+        mBands = Arrays.copyOf(mBands, newCapacity);
+        mSuppliers = Arrays.copyOf(mSuppliers, newCapacity);
+    }
+
+    /**
+     * Move the rows from {@code index} on by {@code distance} slots, which may be negative.
+     */
+    private void shift(int index, int distance) {
+        int count = mSize - index;
+        System.arraycopy(mIds, index, mIds, index + distance, count);
+        System.arraycopy(mQuantities, index, mQuantities, index + distance, count);
+        System.arraycopy(mPrices, index, mPrices, index + distance, count);
+        System.arraycopy(mBands, index, mBands, index + distance, count);
+        System.arraycopy(mSuppliers, index, mSuppliers, index + distance, count);
+    }
+
+    /**
+     * Drop the dead rows, keeping the others in ID order.
+     */
+    private void compact() {
+        int live = 0;
+        for (int i = 0; i < mSize; i++) {
+            if (mBands[i] == DEAD) {
+                continue;
+            }
+            if (live != i) {
+                mIds[live] = mIds[i];
+                mQuantities[live] = mQuantities[i];
+                mPrices[live] = mPrices[i];
+                mBands[live] = mBands[i];
+                mSuppliers[live] = mSuppliers[i];
+            }
+            live++;
+        }
+        mSize = live;
+        mDead = 0;
+    }
+
+    /**
+     * Maps each distinct string to a small int code, and back.
+     */
+    private static class Dictionary {
+        private final Map<String, Integer> mCodes = new HashMap<>();
+        private final List<String> mValues = new ArrayList<>();
+
+        int encode(String value) {
+            Integer code = mCodes.get(value);
+            if (code == null) {
+                code = mValues.size();
+                mValues.add(value);
+                mCodes.put(value, code);
+            }
+            return code;
+        }
+
+        /** Return the code of a value, or {@link #DEAD} if it was never encoded */
+        int codeOf(String value) {
+            Integer code = mCodes.get(value);
+            return code != null ? code : DEAD;
+        }
+
+        int size() {
+            return mValues.size();
+        }
+
+        List<String> values() {
+            return new ArrayList<>(mValues);
+        }
+
+        long heapBytes() {
+            long bytes = 0;
+            for (String value : mValues) {
+                // String and char[] headers, two chars per character, and the map entry
+                bytes += 40 + 2L * (value != null ? value.length() : 0) + 48;
+            }
+            return bytes;
+        }
+    }
+}
@@ -0,0 +1,221 @@
+package com.example.android.records.core;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Groups records whose {@link DuplicateKeys keys} are equal or nearly so, without comparing
+ * every record with every other one.
+ * <p>
+ * Two keys are similar when their trigram sets have a Dice coefficient of at least the given
+ * similarity. Only a short prefix of each key's trigrams, rarest first, is indexed: two sets
+ * that similar must share one of the trigrams in their prefixes, so a key is only compared with
+ * the few keys that share one of its rare trigrams. Common trigrams, which would make everything
+ * a candidate, never reach the index.
+ */
+public final class DuplicateFinder {
+
+    /** Similarity that catches typos and missing words in titles of usual length */
+    public static final double DEFAULT_SIMILARITY = 0.8;
+
+    private final double mSimilarity;
+    private final List<Long> mIds = new ArrayList<>();
+    private final List<String> mKeys = new ArrayList<>();
+
+    /**
+     * @param similarity lowest Dice coefficient of two keys' trigrams for them to be grouped,
+     *                   above 0 and at most 1
+     */
+    public DuplicateFinder(double similarity) {
+        if (similarity <= 0 || similarity > 1) {
+            throw new IllegalArgumentException("Invalid similarity " + similarity);
+        }
+        mSimilarity = similarity;
+    }
+
+    /**
+     * Add a record by its ID and key.
+     */
+    public void add(long id, String key) {
+        mIds.add(id);
+        mKeys.add(key);
+    }
+
+    /**
+     * Return the groups of two or more similar records, each as IDs in the order they were
+     * added, ordered by their first record. Similarity is transitive here: if A is like B and B
+     * is like C, all three are one group.
+     */
+    public List<long[]> findGroups() {
+        int count = mIds.size();
+        int[] parents = new int[count];
+        for (int i = 0; i < count; i++) {
+            parents[i] = i;
+        }
+
+        // Equal keys are grouped directly; only the first record of each key is compared
+        Map<String, Integer> firstByKey = new HashMap<>();
+        List<Integer> distinct = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            Integer first = firstByKey.get(mKeys.get(i));
+            if (first != null) {
+                union(parents, first, i);
+            } else {
+                firstByKey.put(mKeys.get(i), i);
+                distinct.add(i);
+            }
+        }
+
+        // Trigrams are numbered densely, so the index and the counts are plain arrays
+        Map<Long, Integer> numbers = new HashMap<>();
+        int[] frequencies = new int[64];
+        int[][] grams = new int[count][];
+        for (int i : distinct) {
+            long[] trigrams = DuplicateKeys.trigrams(mKeys.get(i));
+            grams[i] = new int[trigrams.length];
+            for (int g = 0; g < trigrams.length; g++) {
+                Integer number = numbers.get(trigrams[g]);
+                if (number == null) {
+                    number = numbers.size();
+                    numbers.put(trigrams[g], number);
+                    if (number == frequencies.length) {
+                        frequencies = Arrays.copyOf(frequencies, number * 2);
+                    }
+                }
+                grams[i][g] = number;
+                frequencies[number]++;
+            }
+        }
+
+        // Dice >= s implies Jaccard >= s / (2 - s), which bounds the prefix and the lengths
+        double jaccard = mSimilarity / (2 - mSimilarity);
+        Postings[] index = new Postings[numbers.size()];
+        // Records already considered for the current one hold its index, so each is checked once
+        int[] considered = new int[count];
+        Arrays.fill(considered, -1);
+        for (int i : distinct) {
+            int[] own = grams[i];
+            // Rarest first, ties broken by number, in one sort of packed values
+            long[] ordered = new long[own.length];
+            for (int g = 0; g < own.length; g++) {
+                ordered[g] = ((long) frequencies[own[g]] << 32) | own[g];
+            }
+            Arrays.sort(ordered);
+            Arrays.sort(own);
+            int prefix = Math.min(own.length - (int) Math.ceil(jaccard * own.length) + 1, own.length);
+
+            for (int g = 0; g < prefix; g++) {
+                int gram = (int) ordered[g];
+                Postings postings = index[gram];
+                if (postings == null) {
+                    postings = new Postings();
+                    index[gram] = postings;
+                }
+                for (int p = 0; p < postings.size; p++) {
+                    int j = postings.records[p];
+                    if (considered[j] == i) {
+                        continue;
+                    }
+                    considered[j] = i;
+                    int[] other = grams[j];
+                    if (other.length < jaccard * own.length || own.length < jaccard * other.length) {
+                        continue;
+                    }
+                    // This is the first trigram they share in rarest-first order, so at most
+                    // the trigrams after it in both keys can be shared as well
+                    int needed = (int) Math.ceil(mSimilarity * (own.length + other.length) / 2);
+                    int possible = 1 + Math.min(own.length - g - 1, other.length - postings.positions[p] - 1);
+                    if (possible >= needed && overlaps(own, other, needed)) {
+                        union(parents, j, i);
+                    }
+                }
+                postings.add(i, g);
+            }
+        }
+
+        Map<Integer, List<Long>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < count; i++) {
+            int root = find(parents, i);
+            List<Long> group = groups.get(root);
+            if (group == null) {
+                group = new ArrayList<>();
+                groups.put(root, group);
+            }
+            group.add(mIds.get(i));
+        }
+        List<long[]> result = new ArrayList<>();
+        for (List<Long> group : groups.values()) {
+            if (group.size() > 1) {
+                long[] ids = new long[group.size()];
+                for (int i = 0; i < ids.length; i++) {
+                    ids[i] = group.get(i);
+                }
+                result.add(ids);
+            }
+        }
+        return result;
+    }
+
+    /** Records with a trigram in their prefix, and the trigram's position in their order */
+    private static final class Postings {
+        int[] records = new int[4];
+        int[] positions = new int[4];
+        int size;
+
+        void add(int record, int position) {
+            if (size == records.length) {
+                records = Arrays.copyOf(records, size * 2);
+                positions = Arrays.copyOf(positions, size * 2);
+            }
+            records[size] = record;
+            positions[size] = position;
+            size++;
+        }
+    }
+
+    /**
+     * Return true if two sorted arrays have at least {@code needed} values in common. Gives up
+     * as soon as the values left can't make up the difference.
+     */
+    private static boolean overlaps(int[] a, int[] b, int needed) {
+        int common = 0;
+        for (int i = 0, j = 0; i < a.length && j < b.length; ) {
+            if (common + Math.min(a.length - i, b.length - j) < needed) {
+                return false;
+            }
+            if (a[i] == b[j]) {
+                common++;
+                i++;
+                j++;
+            } else if (a[i] < b[j]) {
+                i++;
+            } else {
+                j++;
+            }
+        }
+        return common >= needed;
+    }
+
+    private static int find(int[] parents, int i) {
+        while (parents[i] != i) {
+            parents[i] = parents[parents[i]];
+            i = parents[i];
+        }
+        return i;
+    }
+
+    private static void union(int[] parents, int a, int b) {
+        int rootA = find(parents, a);
+        int rootB = find(parents, b);
+        // The earlier record stays the root, so groups come out in the order they started
+        if (rootA < rootB) {
+            parents[rootB] = rootA;
+        } else if (rootB < rootA) {
+            parents[rootA] = rootB;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.example.android.records.core;
+
+import java.text.Normalizer;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+/**
+ * Normalized keys that make spelling variants of the same title compare equal.
+ * <p>
+ * A key is the band and album name, lower-cased, with accents, punctuation, spaces and a
+ * leading "the" removed: "The Final Countdown!" by "Europe" and "final countdown" by "EUROPE"
+ * share the key "europe|finalcountdown". Keys that still differ slightly are compared by their
+ * trigrams in {@link DuplicateFinder}.
+ */
+public final class DuplicateKeys {
+
+    /** Separates the band from the album in a key */
+    public static final char SEPARATOR = '|';
+
+    private static final Pattern MARKS = Pattern.compile("\\p{M}+");
+    private static final Pattern LEADING_ARTICLE = Pattern.compile("^the\\s+");
+    private static final Pattern NOT_ALPHANUMERIC = Pattern.compile("[^\\p{L}\\p{Nd}]+");
+
+    private DuplicateKeys() {
+    }
+
+    /**
+     * Return the key of a record.
+     */
+    public static String of(String albumName, String bandName) {
+        return normalize(bandName) + SEPARATOR + normalize(albumName);
+    }
+
+    /**
+     * Return a name lower-cased and without accents, punctuation, spaces or a leading "the".
+     * Letters and digits of every script are kept.
+     */
+    public static String normalize(String name) {
+        if (name == null) {
+            return "";
+        }
+        String text = Normalizer.normalize(name, Normalizer.Form.NFD);
+        text = MARKS.matcher(text).replaceAll("").toLowerCase(Locale.ROOT).trim();
+        text = LEADING_ARTICLE.matcher(text).replaceFirst("");
+        return NOT_ALPHANUMERIC.matcher(text).replaceAll("");
+    }
+
+    /**
+     * Return the distinct trigrams of a key, each packed into a long that hashes well. The key
+     * is padded so its first and last characters count as much as the middle ones.
+     */
+    public static long[] trigrams(String key) {
+        String padded = "  " + key + " ";
+        long[] grams = new long[padded.length() - 2];
+        int count = 0;
+        for (int i = 0; i < grams.length; i++) {
+            long gram = ((long) padded.charAt(i) << 32) | ((long) padded.charAt(i + 1) << 16) | padded.charAt(i + 2);
+            // Multiplying by an odd constant keeps trigrams distinct and spreads their bits
+            gram *= 0x9e3779b97f4a7c15L;
+            boolean seen = false;
+            for (int j = 0; j < count && !seen; j++) {
+                seen = grams[j] == gram;
+            }
+            if (!seen) {
+                grams[count++] = gram;
+            }
+        }
+        return count == grams.length ? grams : Arrays.copyOf(grams, count);
+    }
+}
@@ -0,0 +1,456 @@
+package com.example.android.records.core;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.regex.Pattern;
+
+/**
+ * Imports records from a supplier's CSV file, parsing on many threads and writing on one.
+ * <p>
+ * A reader thread cuts the file into chunks of {@link #CHUNK_ROWS} rows and submits each one to
+ * the parser pool, where its rows are split into fields, normalized and validated. The chunks
+ * wait in a queue of {@link #QUEUE_CHUNKS_PER_PARSER} per parser, in file order, for the thread
+ * that called {@link #run}, which writes them one after the other. When the writer falls
+ * behind, the queue fills and the reader waits, so a file of any size holds only a few chunks
+ * in memory; and the database only ever sees one writer, so the parsers never wait for its
+ * lock.
+ * <p>
+ * The first row names the columns, using the names of the records table: album_name,
+ * band_name, quantity, price, cover, supplier_name, supplier_email, reorder_threshold and sku.
+ * The header must name album_name and band_name; every row needs those and the supplier's name
+ * and email, as {@link RecordValidator#validateNew} does for any new record. A missing quantity
+ * or price is 0 and a missing cover is replaced with the default one. Fields may be quoted as
+ * in RFC 4180, line breaks included. A row that doesn't make a valid record is reported with
+ * its line number and skipped; the others are imported.
+ */
+public final class ImportPipeline {
+
+    /** Rows parsed per chunk: enough to amortize the handoff, small enough to spread the work */
+    public static final int CHUNK_ROWS = 256;
+
+    /** Chunks queued per parser thread before the reader waits for the writer */
+    public static final int QUEUE_CHUNKS_PER_PARSER = 2;
+
+    public static final String COLUMN_ALBUM_NAME = "album_name";
+    public static final String COLUMN_BAND_NAME = "band_name";
+    public static final String COLUMN_QUANTITY = "quantity";
+    public static final String COLUMN_PRICE = "price";
+    public static final String COLUMN_COVER = "cover";
+    public static final String COLUMN_SUPPLIER_NAME = "supplier_name";
+    public static final String COLUMN_SUPPLIER_EMAIL = "supplier_email";
+    public static final String COLUMN_REORDER_THRESHOLD = "reorder_threshold";
+    public static final String COLUMN_SKU = "sku";
+
+    private static final Pattern WHITESPACE = Pattern.compile("\\s+");
+
+    /**
+     * Writes the parsed chunks. It is called on a single thread, in file order.
+     */
+    public interface Writer {
+
+        /**
+         * Write the records of a chunk, adding a problem to {@code failures} for each record that
+         * could not be written, in line order.
+         */
+        void write(Chunk chunk, List<Problem> failures);
+    }
+
+    /**
+     * Valid records of a chunk of rows, and the problems of the others.
+     */
+    public static final class Chunk {
+        private final List<Record> mRecords = new ArrayList<>();
+        private final List<Integer> mLines = new ArrayList<>();
+        private final List<Problem> mProblems = new ArrayList<>();
+
+        public List<Record> getRecords() {
+            return mRecords;
+        }
+
+        /**
+         * Return the line number of the record at the given index.
+         */
+        public int getLine(int index) {
+            return mLines.get(index);
+        }
+    }
+
+    /**
+     * A row that wasn't imported, by the line it starts on.
+     */
+    public static final class Problem {
+        private final int mLine;
+        private final String mMessage;
+
+        public Problem(int line, String message) {
+            mLine = line;
+            mMessage = message;
+        }
+
+        public int getLine() {
+            return mLine;
+        }
+
+        /** The reason, as a message that can be shown to the user */
+        public String getMessage() {
+            return mMessage;
+        }
+
+        @Override
+        public String toString() {
+            return "Line " + mLine + ": " + mMessage;
+        }
+    }
+
+    /**
+     * Outcome of an import.
+     */
+    public static final class Result {
+        private int mImported;
+        private int mProblemCount;
+        private final List<Problem> mProblems = new ArrayList<>();
+
+        public int getImported() {
+            return mImported;
+        }
+
+        /** Number of rows that weren't imported */
+        public int getProblemCount() {
+            return mProblemCount;
+        }
+
+        /** The first problems, in line order */
+        public List<Problem> getProblems() {
+            return mProblems;
+        }
+    }
+
+    private final ExecutorService mParsers;
+    private final int mQueueCapacity;
+    private final String mDefaultCover;
+    private final int mMaxProblems;
+
+    /**
+     * @param parsers      pool the chunks are parsed on, ideally a fork-join pool of one thread
+     *                     per core
+     * @param parallelism  number of threads of the pool
+     * @param defaultCover cover of the records whose row has none
+     * @param maxProblems  number of problems the result keeps; the others are only counted
+     */
+    public ImportPipeline(ExecutorService parsers, int parallelism, String defaultCover, int maxProblems) {
+        mParsers = parsers;
+        mQueueCapacity = Math.max(1, parallelism) * QUEUE_CHUNKS_PER_PARSER;
+        mDefaultCover = defaultCover;
+        mMaxProblems = maxProblems;
+    }
+
+    /**
+     * Import the CSV from the input, writing the records on the calling thread. The input is
+     * closed when the import ends or fails.
+     *
+     * @throws IOException if the input can't be read or has no header
+     */
+    public Result run(Reader input, Writer writer) throws IOException {
+        final BufferedReader reader = new BufferedReader(input);
+        final BlockingQueue<Future<Chunk>> queue = new ArrayBlockingQueue<>(mQueueCapacity);
+        final IOException[] readFailure = new IOException[1];
+        // Marks the end of the chunks, whether the input ended or failed
+        final FutureTask<Chunk> end = new FutureTask<>(new Callable<Chunk>() {
+            @Override
+            public Chunk call() {
+                return null;
+            }
+        });
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    readChunks(reader, queue);
+                } catch (IOException e) {
+                    readFailure[0] = e;
+                } catch (RuntimeException e) {
+                    readFailure[0] = new IOException(e);
+                } catch (InterruptedException e) {
+                    // The writer gave up, so nobody waits for the end
+                    return;
+                } finally {
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        // Everything needed was read
+                    }
+                }
+                try {
+                    queue.put(end);
+                } catch (InterruptedException e) {
+                    // The writer gave up
+                }
+            }
+        }, "ImportPipeline reader");
+        producer.start();
+
+        Result result = new Result();
+        boolean finished = false;
+        try {
+            List<Problem> failures = new ArrayList<>();
+            while (true) {
+                Future<Chunk> next = queue.take();
+                if (next == end) {
+                    break;
+                }
+                Chunk chunk = next.get();
+                failures.clear();
+                if (!chunk.mRecords.isEmpty()) {
+                    writer.write(chunk, failures);
+                }
+                result.mImported += chunk.mRecords.size() - failures.size();
+                // Both lists are in line order, so merging them keeps the report in file order
+                addProblems(result, merge(chunk.mProblems, failures));
+            }
+            finished = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Import interrupted");
+        } catch (ExecutionException e) {
+            throw new IllegalStateException("Parsing failed", e.getCause());
+        } finally {
+            if (!finished) {
+                // Stop the reader and the parsers of the chunks still queued
+                producer.interrupt();
+                for (Future<Chunk> pending : queue) {
+                    pending.cancel(false);
+                }
+            }
+        }
+        if (readFailure[0] != null) {
+            throw readFailure[0];
+        }
+        return result;
+    }
+
+    private void addProblems(Result result, List<Problem> problems) {
+        for (Problem problem : problems) {
+            if (result.mProblems.size() < mMaxProblems) {
+                result.mProblems.add(problem);
+            }
+            result.mProblemCount++;
+        }
+    }
+
+    private static List<Problem> merge(List<Problem> a, List<Problem> b) {
+        if (b.isEmpty()) {
+            return a;
+        }
+        List<Problem> merged = new ArrayList<>(a.size() + b.size());
+        int i = 0;
+        int j = 0;
+        while (i < a.size() || j < b.size()) {
+            if (j == b.size() || (i < a.size() && a.get(i).mLine < b.get(j).mLine)) {
+                merged.add(a.get(i++));
+            } else {
+                merged.add(b.get(j++));
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Read the rows and queue a parse of every chunk of them, waiting while the queue is full.
+     * Splitting rows only needs to track quotes, so it is cheap enough for one thread.
+     */
+    private void readChunks(BufferedReader reader, BlockingQueue<Future<Chunk>> queue)
+            throws IOException, InterruptedException {
+        int[] line = {0};
+        String header = readRow(reader, line);
+        if (header == null) {
+            throw new IOException("The import has no header");
+        }
+        final Map<String, Integer> columns = parseHeader(header);
+
+        List<String> rows = new ArrayList<>(CHUNK_ROWS);
+        List<Integer> lines = new ArrayList<>(CHUNK_ROWS);
+        while (true) {
+            int first = line[0] + 1;
+            String row = readRow(reader, line);
+            if (row != null && !row.trim().isEmpty()) {
+                rows.add(row);
+                lines.add(first);
+            }
+            if (rows.size() == CHUNK_ROWS || (row == null && !rows.isEmpty())) {
+                final List<String> chunkRows = rows;
+                final List<Integer> chunkLines = lines;
+                queue.put(mParsers.submit(new Callable<Chunk>() {
+                    @Override
+                    public Chunk call() {
+                        return parseChunk(columns, chunkRows, chunkLines);
+                    }
+                }));
+                rows = new ArrayList<>(CHUNK_ROWS);
+                lines = new ArrayList<>(CHUNK_ROWS);
+            }
+            if (row == null) {
+                return;
+            }
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    /**
+     * Return the next row, joining the lines of a quoted field that spans several, or null at
+     * the end of the input. {@code line} holds the number of the last line read.
+     */
+    private static String readRow(BufferedReader reader, int[] line) throws IOException {
+        String text = reader.readLine();
+        if (text == null) {
+            return null;
+        }
+        line[0]++;
+        int quotes = countQuotes(text);
+        if (quotes % 2 == 0) {
+            return text;
+        }
+        StringBuilder row = new StringBuilder(text);
+        while (quotes % 2 != 0) {
+            String more = reader.readLine();
+            if (more == null) {
+                break;
+            }
+            line[0]++;
+            row.append('\n').append(more);
+            quotes += countQuotes(more);
+        }
+        return row.toString();
+    }
+
+    private static int countQuotes(CharSequence text) {
+        int quotes = 0;
+        for (int i = 0; i < text.length(); i++) {
+            if (text.charAt(i) == '"') {
+                quotes++;
+            }
+        }
+        return quotes;
+    }
+
+    private static Map<String, Integer> parseHeader(String header) throws IOException {
+        if (header.startsWith("\uFEFF")) {
+            // Byte order mark of files saved by spreadsheets
+            header = header.substring(1);
+        }
+        List<String> names = splitFields(header);
+        Map<String, Integer> columns = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            columns.put(names.get(i).trim().toLowerCase(Locale.ROOT), i);
+        }
+        if (!columns.containsKey(COLUMN_ALBUM_NAME) || !columns.containsKey(COLUMN_BAND_NAME)) {
+            throw new IOException("The import header needs " + COLUMN_ALBUM_NAME + " and " + COLUMN_BAND_NAME);
+        }
+        return columns;
+    }
+
+    private Chunk parseChunk(Map<String, Integer> columns, List<String> rows, List<Integer> lines) {
+        Chunk chunk = new Chunk();
+        for (int i = 0; i < rows.size(); i++) {
+            try {
+                Record record = parseRecord(columns, splitFields(rows.get(i)));
+                RecordValidator.validateNew(record);
+                chunk.mRecords.add(record);
+                chunk.mLines.add(lines.get(i));
+            } catch (IllegalArgumentException e) {
+                chunk.mProblems.add(new Problem(lines.get(i), e.getMessage()));
+            }
+        }
+        return chunk;
+    }
+
+    private Record parseRecord(Map<String, Integer> columns, List<String> fields) {
+        String cover = field(columns, fields, COLUMN_COVER);
+        String email = field(columns, fields, COLUMN_SUPPLIER_EMAIL);
+        String sku = field(columns, fields, COLUMN_SKU);
+        Integer threshold = number(columns, fields, COLUMN_REORDER_THRESHOLD);
+        Integer quantity = number(columns, fields, COLUMN_QUANTITY);
+        Integer price = number(columns, fields, COLUMN_PRICE);
+        return new Record.Builder()
+                .setAlbumName(field(columns, fields, COLUMN_ALBUM_NAME))
+                .setBandName(field(columns, fields, COLUMN_BAND_NAME))
+                .setQuantity(quantity != null ? quantity : 0)
+                .setPrice(price != null ? price : 0)
+                .setCover(cover != null ? cover : mDefaultCover)
+                .setSupplierName(field(columns, fields, COLUMN_SUPPLIER_NAME))
+                .setSupplierEmail(email != null ? email.toLowerCase(Locale.ROOT) : null)
+                .setReorderThreshold(threshold)
+                .setSku(sku != null ? sku.toUpperCase(Locale.ROOT) : null)
+                .build();
+    }
+
+    /**
+     * Return a field with its whitespace collapsed, or null if it is missing or blank.
+     */
+    private static String field(Map<String, Integer> columns, List<String> fields, String column) {
+        Integer index = columns.get(column);
+        if (index == null || index >= fields.size()) {
+            return null;
+        }
+        String value = WHITESPACE.matcher(fields.get(index)).replaceAll(" ").trim();
+        return value.isEmpty() ? null : value;
+    }
+
+    private static Integer number(Map<String, Integer> columns, List<String> fields, String column) {
+        String value = field(columns, fields, column);
+        if (value == null) {
+            return null;
+        }
+        try {
+            return Integer.valueOf(value);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid " + column.replace('_', ' ') + " " + value);
+        }
+    }
+
+    /**
+     * Split a row into its fields, unquoting the quoted ones.
+     */
+    private static List<String> splitFields(String row) {
+        List<String> fields = new ArrayList<>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < row.length(); i++) {
+            char c = row.charAt(i);
+            if (quoted) {
+                if (c != '"') {
+                    field.append(c);
+                } else if (i + 1 < row.length() && row.charAt(i + 1) == '"') {
+                    field.append('"');
+                    i++;
+                } else {
+                    quoted = false;
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        fields.add(field.toString());
+        return fields;
+    }
+}
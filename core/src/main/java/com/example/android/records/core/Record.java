@@ -0,0 +1,175 @@
+package com.example.android.records.core;
+
+/**
+ * A record in the shop's inventory. Instances are immutable; use {@link Builder} to create
+ * them and {@link #buildUpon()} to derive changed copies.
+ */
+public final class Record {
+
+    /** ID of a record that hasn't been stored yet */
+    public static final long NO_ID = -1;
+
+    private final long mId;
+    private final String mAlbumName;
+    private final String mBandName;
+    private final int mQuantity;
+    private final int mPrice;
+    private final String mCover;
+    private final String mSupplierName;
+    private final String mSupplierEmail;
+    private final Integer mReorderThreshold;
+    private final String mSku;
+
+    private Record(Builder builder) {
+        mId = builder.mId;
+        mAlbumName = builder.mAlbumName;
+        mBandName = builder.mBandName;
+        mQuantity = builder.mQuantity;
+        mPrice = builder.mPrice;
+        mCover = builder.mCover;
+        mSupplierName = builder.mSupplierName;
+        mSupplierEmail = builder.mSupplierEmail;
+        mReorderThreshold = builder.mReorderThreshold;
+        mSku = builder.mSku;
+    }
+
+    public long getId() {
+        return mId;
+    }
+
+    public String getAlbumName() {
+        return mAlbumName;
+    }
+
+    public String getBandName() {
+        return mBandName;
+    }
+
+    /** Copies in stock */
+    public int getQuantity() {
+        return mQuantity;
+    }
+
+    /** Unit price */
+    public int getPrice() {
+        return mPrice;
+    }
+
+    /** URI of the cover image */
+    public String getCover() {
+        return mCover;
+    }
+
+    public String getSupplierName() {
+        return mSupplierName;
+    }
+
+    public String getSupplierEmail() {
+        return mSupplierEmail;
+    }
+
+    /**
+     * Stock level at or below which the record needs reordering, or null if the supplier's
+     * threshold applies.
+     */
+    public Integer getReorderThreshold() {
+        return mReorderThreshold;
+    }
+
+    /** Stock keeping unit or barcode, unique among records, or null if there is none */
+    public String getSku() {
+        return mSku;
+    }
+
+    /**
+     * Return a builder initialized with the values of this record.
+     */
+    public Builder buildUpon() {
+        return new Builder()
+                .setId(mId)
+                .setAlbumName(mAlbumName)
+                .setBandName(mBandName)
+                .setQuantity(mQuantity)
+                .setPrice(mPrice)
+                .setCover(mCover)
+                .setSupplierName(mSupplierName)
+                .setSupplierEmail(mSupplierEmail)
+                .setReorderThreshold(mReorderThreshold)
+                .setSku(mSku);
+    }
+
+    @Override
+    public String toString() {
+        return "Record{" + mId + ", " + mAlbumName + " by " + mBandName + ", " + mQuantity + " in stock}";
+    }
+
+    /**
+     * Builder of {@link Record}s. It doesn't validate; see {@link RecordValidator}.
+     */
+    public static final class Builder {
+        private long mId = NO_ID;
+        private String mAlbumName;
+        private String mBandName;
+        private int mQuantity;
+        private int mPrice;
+        private String mCover;
+        private String mSupplierName;
+        private String mSupplierEmail;
+        private Integer mReorderThreshold;
+        private String mSku;
+
+        public Builder setId(long id) {
+            mId = id;
+            return this;
+        }
+
+        public Builder setAlbumName(String albumName) {
+            mAlbumName = albumName;
+            return this;
+        }
+
+        public Builder setBandName(String bandName) {
+            mBandName = bandName;
+            return this;
+        }
+
+        public Builder setQuantity(int quantity) {
+            mQuantity = quantity;
+            return this;
+        }
+
+        public Builder setPrice(int price) {
+            mPrice = price;
+            return this;
+        }
+
+        public Builder setCover(String cover) {
+            mCover = cover;
+            return this;
+        }
+
+        public Builder setSupplierName(String supplierName) {
+            mSupplierName = supplierName;
+            return this;
+        }
+
+        public Builder setSupplierEmail(String supplierEmail) {
+            mSupplierEmail = supplierEmail;
+            return this;
+        }
+
+        public Builder setReorderThreshold(Integer reorderThreshold) {
+            mReorderThreshold = reorderThreshold;
+            return this;
+        }
+
+        public Builder setSku(String sku) {
+            mSku = sku;
+            return this;
+        }
+
+        public Record build() {
+            return new Record(this);
+        }
+    }
+}
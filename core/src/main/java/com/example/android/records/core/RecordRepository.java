@@ -0,0 +1,49 @@
+package com.example.android.records.core;
+
+/**
+ * Storage of {@link Record}s. Methods block until the storage has answered, so call them off
+ * the main thread.
+ */
+public interface RecordRepository {
+
+    /**
+     * Return the record with the given ID, or null if there is none.
+     */
+    Record find(long id);
+
+    /**
+     * Store a new record and return its ID, or {@link Record#NO_ID} if it couldn't be stored.
+     *
+     * @throws IllegalArgumentException if the record isn't valid
+     */
+    long insert(Record record);
+
+    /**
+     * Replace the stored values of a record with those of the given one, matched by ID.
+     * Return true if the record existed.
+     *
+     * @throws IllegalArgumentException if the record isn't valid
+     */
+    boolean update(Record record);
+
+    /**
+     * Set the stock of a record. Return true if the record existed.
+     */
+    boolean setQuantity(long id, int quantity);
+
+    /**
+     * Sell copies of a record, as one sale. Return false if the record doesn't exist or
+     * doesn't have enough stock; the stock is unchanged then.
+     */
+    boolean sell(long id, int copies);
+
+    /**
+     * Delete a record. Return true if it existed.
+     */
+    boolean delete(long id);
+
+    /**
+     * Delete all records and return how many there were.
+     */
+    int deleteAll();
+}
@@ -0,0 +1,112 @@
+package com.example.android.records.core;
+
+/**
+ * Validation rules of records. Every check throws an {@link IllegalArgumentException} whose
+ * message can be shown to the user as it is.
+ */
+public final class RecordValidator {
+
+    private RecordValidator() {
+    }
+
+    /**
+     * Check that a record has everything a new record needs.
+     */
+    public static void validateNew(Record record) {
+        if (record == null) {
+            throw new IllegalArgumentException("Record cannot be empty");
+        }
+        checkAlbumName(record.getAlbumName());
+        checkBandName(record.getBandName());
+        checkQuantity(record.getQuantity());
+        checkPrice(record.getPrice());
+        checkCover(record.getCover());
+        checkSupplierName(record.getSupplierName());
+        checkSupplierEmail(record.getSupplierEmail());
+        checkReorderThreshold(record.getReorderThreshold());
+        checkSku(record.getSku());
+    }
+
+    public static void checkAlbumName(String albumName) {
+        if (albumName == null) {
+            throw new IllegalArgumentException("Record requires an album name");
+        }
+    }
+
+    public static void checkBandName(String bandName) {
+        if (bandName == null) {
+            throw new IllegalArgumentException("Record requires a band name");
+        }
+    }
+
+    public static void checkQuantity(Integer quantity) {
+        if (quantity == null || quantity < 0) {
+            throw new IllegalArgumentException("Record requires a quantity");
+        }
+    }
+
+    public static void checkPrice(Integer price) {
+        if (price != null && price < 0) {
+            throw new IllegalArgumentException("Record requires a valid price");
+        }
+    }
+
+    public static void checkCover(String cover) {
+        if (cover == null) {
+            throw new IllegalArgumentException("Record requires an image");
+        }
+    }
+
+    public static void checkSupplierName(String supplierName) {
+        if (supplierName == null) {
+            throw new IllegalArgumentException("Record requires a supplier contact name");
+        }
+    }
+
+    public static void checkSupplierEmail(String supplierEmail) {
+        if (supplierEmail == null) {
+            throw new IllegalArgumentException("Record requires a supplier contact email");
+        }
+    }
+
+    /**
+     * A null threshold is valid; it means the supplier's threshold applies.
+     */
+    public static void checkReorderThreshold(Integer threshold) {
+        if (threshold != null && threshold < 0) {
+            throw new IllegalArgumentException("Record requires a valid reorder threshold");
+        }
+    }
+
+    /**
+     * A null SKU is valid; the record just can't be scanned. Otherwise it is 1 to 32 letters,
+     * digits or dashes, and an all-digit code of EAN-8, UPC-A or EAN-13 length must have a
+     * valid check digit, which catches most misread or mistyped barcodes.
+     */
+    public static void checkSku(String sku) {
+        if (sku == null) {
+            return;
+        }
+        if (!sku.matches("[A-Za-z0-9-]{1,32}")) {
+            throw new IllegalArgumentException("Record requires a valid SKU");
+        }
+        int length = sku.length();
+        if ((length == 8 || length == 12 || length == 13) && sku.matches("[0-9]+") && !hasValidCheckDigit(sku)) {
+            throw new IllegalArgumentException("Record requires a valid barcode");
+        }
+    }
+
+    /**
+     * Return true if the last digit of a GTIN is the check digit of the others: weights 3 and 1
+     * alternate from the rightmost data digit.
+     */
+    private static boolean hasValidCheckDigit(String gtin) {
+        int sum = 0;
+        int last = gtin.length() - 1;
+        for (int i = last - 1; i >= 0; i--) {
+            int digit = gtin.charAt(i) - '0';
+            sum += (last - i) % 2 == 1 ? 3 * digit : digit;
+        }
+        return (10 - sum % 10) % 10 == gtin.charAt(last) - '0';
+    }
+}
@@ -0,0 +1,47 @@
+package com.example.android.records.core;
+
+import java.text.Collator;
+import java.util.Locale;
+
+/**
+ * Sort keys that order names as a locale's {@link Collator} does, but compare as plain bytes.
+ * <p>
+ * Case and accents only break ties, so "abba", "ABBA" and an accented "Abba" sort together,
+ * and letters follow the locale's alphabet. Stored in an indexed column, the keys let the
+ * database return names in alphabetical order by walking the index, with no collator at query
+ * time. Keys of different locales don't compare meaningfully, so they are all recomputed when
+ * the locale changes.
+ */
+public final class SortKeys {
+
+    private final Locale mLocale;
+    private final Collator mCollator;
+
+    public SortKeys(Locale locale) {
+        mLocale = locale;
+        mCollator = Collator.getInstance(locale);
+        // Precomposed and combining accents get the same key
+        mCollator.setDecomposition(Collator.CANONICAL_DECOMPOSITION);
+    }
+
+    /**
+     * Return the locale the keys are made for.
+     */
+    public Locale getLocale() {
+        return mLocale;
+    }
+
+    /**
+     * Return the key of a name, or null for null. Keys compare, byte by byte as unsigned
+     * values, as the collator compares the names.
+     */
+    public byte[] of(String name) {
+        if (name == null) {
+            return null;
+        }
+        // Collators keep state while they work, so one is used by one thread at a time
+        synchronized (mCollator) {
+            return mCollator.getCollationKey(name).toByteArray();
+        }
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.android.records.core;
+
+/**
+ * Rules for stock levels: selling, restocking and when to reorder.
+ */
+public final class StockRules {
+
+    /** Reorder threshold when neither the record nor its supplier sets one */
+    public static final int DEFAULT_REORDER_THRESHOLD = 0;
+
+    /** Copies ordered on top of what it takes to get back to the reorder threshold */
+    public static final int REORDER_LOT = 10;
+
+    private StockRules() {
+    }
+
+    /**
+     * Return true if {@code copies} copies can be sold from a stock of {@code quantity}.
+     */
+    public static boolean canSell(int quantity, int copies) {
+        return copies > 0 && quantity >= copies;
+    }
+
+    /**
+     * Return the stock left after selling {@code copies} copies.
+     *
+     * @throws IllegalArgumentException if there isn't enough stock
+     */
+    public static int afterSale(int quantity, int copies) {
+        if (!canSell(quantity, copies)) {
+            throw new IllegalArgumentException("Cannot sell " + copies + " of " + quantity + " in stock");
+        }
+        return quantity - copies;
+    }
+
+    /**
+     * Return the stock after receiving {@code copies} copies.
+     *
+     * @throws IllegalArgumentException if {@code copies} is negative or the stock would overflow
+     */
+    public static int afterRestock(int quantity, int copies) {
+        if (copies < 0 || quantity > Integer.MAX_VALUE - copies) {
+            throw new IllegalArgumentException("Cannot restock " + copies + " onto " + quantity);
+        }
+        return quantity + copies;
+    }
+
+    /**
+     * Return the threshold that applies to a record: its own, else its supplier's, else
+     * {@link #DEFAULT_REORDER_THRESHOLD}.
+     */
+    public static int effectiveThreshold(Integer recordThreshold, Integer supplierThreshold) {
+        if (recordThreshold != null) {
+            return recordThreshold;
+        }
+        return supplierThreshold != null ? supplierThreshold : DEFAULT_REORDER_THRESHOLD;
+    }
+
+    /**
+     * Return true if a record with this stock needs reordering.
+     */
+    public static boolean isLowStock(int quantity, int threshold) {
+        return quantity <= threshold;
+    }
+
+    /**
+     * Number of copies to order for a record: enough to get back to its threshold, plus a lot.
+     */
+    public static int reorderQuantity(int quantity, int threshold) {
+        return Math.max(threshold - quantity, 0) + REORDER_LOT;
+    }
+}
@@ -0,0 +1,79 @@
+package com.example.android.records.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BloomFilterTest {
+
+    @Test
+    public void containsEveryAddedKey() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.add(key(i));
+        }
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(key(i), filter.mightContain(key(i)));
+        }
+    }
+
+    @Test
+    public void containsEveryAddedKeyWhenFull() {
+        BloomFilter filter = new BloomFilter(100, 0.01);
+        for (int i = 0; i < 1000; i++) {
+            filter.add(key(i));
+        }
+        assertTrue(filter.isFull());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(key(i), filter.mightContain(key(i)));
+        }
+    }
+
+    @Test
+    public void containsKeysOfOtherScripts() {
+        BloomFilter filter = new BloomFilter(16, 0.01);
+        filter.add(DuplicateKeys.of("\u6d77\u8fba\u306e\u30ab\u30d5\u30ab", "\u6751\u4e0a"));
+        filter.add(DuplicateKeys.of("Caf\u00e9 del Mar", "Various"));
+        assertTrue(filter.mightContain(DuplicateKeys.of("\u6d77\u8fba\u306e\u30ab\u30d5\u30ab", "\u6751\u4e0a")));
+        assertTrue(filter.mightContain(DuplicateKeys.of("cafe del mar", "VARIOUS")));
+    }
+
+    @Test
+    public void falsePositivesStayNearTheRateSizedFor() {
+        BloomFilter filter = new BloomFilter(10000, 0.01);
+        for (int i = 0; i < 10000; i++) {
+            filter.add(key(i));
+        }
+        int falsePositives = 0;
+        for (int i = 10000; i < 20000; i++) {
+            if (filter.mightContain(key(i))) {
+                falsePositives++;
+            }
+        }
+        // 1% of 10000, with room for chance
+        assertTrue("False positives: " + falsePositives, falsePositives < 200);
+    }
+
+    @Test
+    public void emptyFilterContainsNothing() {
+        BloomFilter filter = new BloomFilter(10, 0.01);
+        assertFalse(filter.mightContain("europe|finalcountdown"));
+        assertFalse(filter.mightContain(""));
+        assertFalse(filter.isFull());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void capacityMustBePositive() {
+        new BloomFilter(0, 0.01);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rateMustBeBelowOne() {
+        new BloomFilter(10, 1);
+    }
+
+    private static String key(int i) {
+        return DuplicateKeys.of("Album " + i, "Band " + (i % 97));
+    }
+}
@@ -0,0 +1,149 @@
+package com.example.android.records.core;
+
+import org.junit.Test;
+
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class DuplicateFinderTest {
+
+    @Test
+    public void spellingVariantsShareAKey() {
+        String key = DuplicateKeys.of("The Final Countdown", "Europe");
+        assertEquals("europe|finalcountdown", key);
+        assertEquals(key, DuplicateKeys.of("final countdown!", "EUROPE"));
+        assertEquals(DuplicateKeys.of("Caf\u00e9 Tacvba", "Caf\u00e9 Tacvba"),
+                DuplicateKeys.of("cafe tacvba", "CAFE TACVBA"));
+    }
+
+    @Test
+    public void groupsExactKeys() {
+        DuplicateFinder finder = new DuplicateFinder(1);
+        finder.add(1, DuplicateKeys.of("The Final Countdown", "Europe"));
+        finder.add(2, DuplicateKeys.of("Thriller", "Michael Jackson"));
+        finder.add(3, DuplicateKeys.of("final countdown", "EUROPE"));
+        finder.add(4, DuplicateKeys.of("Final Countdown!", "Europe"));
+
+        List<long[]> groups = finder.findGroups();
+        assertEquals(1, groups.size());
+        assertArrayEquals(new long[] { 1, 3, 4 }, groups.get(0));
+    }
+
+    @Test
+    public void groupsNearDuplicateSpellings() {
+        DuplicateFinder finder = new DuplicateFinder(DuplicateFinder.DEFAULT_SIMILARITY);
+        finder.add(1, DuplicateKeys.of("The Final Countdown", "Europe"));
+        finder.add(2, DuplicateKeys.of("Final Countdwn", "Europe"));
+        finder.add(3, DuplicateKeys.of("Dark Side of the Moon", "Pink Floyd"));
+        finder.add(4, DuplicateKeys.of("Dark Side of the Moon", "Pink Floid"));
+        finder.add(5, DuplicateKeys.of("Wish You Were Here", "Pink Floyd"));
+
+        List<long[]> groups = finder.findGroups();
+        assertEquals(2, groups.size());
+        assertArrayEquals(new long[] { 1, 2 }, groups.get(0));
+        assertArrayEquals(new long[] { 3, 4 }, groups.get(1));
+    }
+
+    @Test
+    public void similarityIsTransitive() {
+        DuplicateFinder finder = new DuplicateFinder(DuplicateFinder.DEFAULT_SIMILARITY);
+        finder.add(1, "pinkfloyd|darksideofthemoon");
+        finder.add(2, "pinkfloyd|darksideofthemon");
+        finder.add(3, "pinkfloyd|darksidofthemon");
+
+        List<long[]> groups = finder.findGroups();
+        assertEquals(1, groups.size());
+        assertArrayEquals(new long[] { 1, 2, 3 }, groups.get(0));
+    }
+
+    @Test
+    public void keepsDifferentTitlesApart() {
+        DuplicateFinder finder = new DuplicateFinder(DuplicateFinder.DEFAULT_SIMILARITY);
+        finder.add(1, DuplicateKeys.of("Led Zeppelin II", "Led Zeppelin"));
+        finder.add(2, DuplicateKeys.of("Physical Graffiti", "Led Zeppelin"));
+        finder.add(3, DuplicateKeys.of("Abbey Road", "The Beatles"));
+
+        assertTrue(finder.findGroups().isEmpty());
+    }
+
+    /**
+     * The prefix filter only compares keys that share a rare trigram, so compare its groups
+     * with those of comparing every pair on a catalog full of near duplicates.
+     */
+    @Test
+    public void findsEveryPairAboveTheSimilarity() {
+        String[] titles = { "finalcountdown", "darksideofthemoon", "wishyouwerehere", "abbeyroad",
+                "thriller", "rumours", "backinblack", "hotelcalifornia", "ledzeppelinii", "nevermind" };
+        DuplicateFinder finder = new DuplicateFinder(DuplicateFinder.DEFAULT_SIMILARITY);
+        String[] keys = new String[titles.length * 4];
+        for (int t = 0; t < titles.length; t++) {
+            String title = titles[t];
+            int middle = title.length() / 2;
+            keys[t * 4] = "band|" + title;
+            // A dropped letter, a doubled one and two swapped ones
+            keys[t * 4 + 1] = "band|" + title.substring(0, middle) + title.substring(middle + 1);
+            keys[t * 4 + 2] = "band|" + title.substring(0, middle) + title.charAt(middle) + title.substring(middle);
+            keys[t * 4 + 3] = "band|" + title.substring(0, middle - 1) + title.charAt(middle)
+                    + title.charAt(middle - 1) + title.substring(middle + 1);
+        }
+        for (int i = 0; i < keys.length; i++) {
+            finder.add(i, keys[i]);
+        }
+
+        int[] expected = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            expected[i] = i;
+        }
+        for (int i = 0; i < keys.length; i++) {
+            for (int j = i + 1; j < keys.length; j++) {
+                if (dice(keys[i], keys[j]) >= DuplicateFinder.DEFAULT_SIMILARITY) {
+                    relabel(expected, expected[j], expected[i]);
+                }
+            }
+        }
+        int[] found = new int[keys.length];
+        for (int i = 0; i < keys.length; i++) {
+            found[i] = i;
+        }
+        for (long[] group : finder.findGroups()) {
+            for (long id : group) {
+                found[(int) id] = (int) group[0];
+            }
+        }
+        for (int i = 0; i < keys.length; i++) {
+            for (int j = i + 1; j < keys.length; j++) {
+                assertEquals(keys[i] + " and " + keys[j], expected[i] == expected[j], found[i] == found[j]);
+            }
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void similarityMustBePositive() {
+        new DuplicateFinder(0);
+    }
+
+    private static double dice(String a, String b) {
+        long[] first = DuplicateKeys.trigrams(a);
+        long[] second = DuplicateKeys.trigrams(b);
+        int shared = 0;
+        for (long gram : first) {
+            for (long other : second) {
+                if (gram == other) {
+                    shared++;
+                }
+            }
+        }
+        return 2.0 * shared / (first.length + second.length);
+    }
+
+    private static void relabel(int[] labels, int from, int to) {
+        for (int i = 0; i < labels.length; i++) {
+            if (labels[i] == from) {
+                labels[i] = to;
+            }
+        }
+    }
+}
@@ -0,0 +1,204 @@
+package com.example.android.records.core;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class ImportPipelineTest {
+
+    private static final int PARSERS = 4;
+    private static final String HEADER = "album_name,band_name,quantity,price,supplier_name,supplier_email";
+    private static final String DEFAULT_COVER = "android.resource://com.example.android.records/drawable/turntable";
+
+    /** Chunks submitted to the parsers so far */
+    private final AtomicInteger mSubmitted = new AtomicInteger();
+    private ExecutorService mParsers;
+
+    @Before
+    public void setUp() {
+        mParsers = new ThreadPoolExecutor(PARSERS, PARSERS, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>()) {
+            @Override
+            public void execute(Runnable command) {
+                mSubmitted.incrementAndGet();
+                super.execute(command);
+            }
+        };
+    }
+
+    @After
+    public void tearDown() {
+        mParsers.shutdownNow();
+    }
+
+    @Test
+    public void writesChunksInFileOrder() throws IOException {
+        int rows = ImportPipeline.CHUNK_ROWS * 20 + 17;
+        final List<Integer> lines = new ArrayList<>();
+        final List<String> albums = new ArrayList<>();
+        ImportPipeline.Result result = pipeline(100).run(new StringReader(csv(rows)), new ImportPipeline.Writer() {
+            @Override
+            public void write(ImportPipeline.Chunk chunk, List<ImportPipeline.Problem> failures) {
+                for (int i = 0; i < chunk.getRecords().size(); i++) {
+                    lines.add(chunk.getLine(i));
+                    albums.add(chunk.getRecords().get(i).getAlbumName());
+                }
+            }
+        });
+
+        assertEquals(rows, result.getImported());
+        assertEquals(0, result.getProblemCount());
+        assertEquals(rows, lines.size());
+        for (int i = 0; i < rows; i++) {
+            // The header is line 1
+            assertEquals(Integer.valueOf(i + 2), lines.get(i));
+            assertEquals("Album " + i, albums.get(i));
+        }
+    }
+
+    @Test
+    public void reportsProblemsInLineOrderAcrossChunks() throws IOException {
+        int rows = ImportPipeline.CHUNK_ROWS * 6;
+        StringBuilder csv = new StringBuilder(HEADER).append('\n');
+        List<Integer> expected = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            int line = i + 2;
+            if (i % 100 == 7) {
+                // Invalid when parsed
+                csv.append("Album ").append(i).append(",Band,1,10,Vinyl Ltd,\n");
+                expected.add(line);
+            } else {
+                csv.append(row(i)).append('\n');
+                if (i % 100 == 50) {
+                    // Rejected by the writer
+                    expected.add(line);
+                }
+            }
+        }
+
+        ImportPipeline.Result result = pipeline(1000).run(new StringReader(csv.toString()), new ImportPipeline.Writer() {
+            @Override
+            public void write(ImportPipeline.Chunk chunk, List<ImportPipeline.Problem> failures) {
+                for (int i = 0; i < chunk.getRecords().size(); i++) {
+                    if (chunk.getRecords().get(i).getAlbumName().endsWith("50")) {
+                        failures.add(new ImportPipeline.Problem(chunk.getLine(i), "Duplicate SKU"));
+                    }
+                }
+            }
+        });
+
+        assertEquals(expected.size(), result.getProblemCount());
+        assertEquals(rows - expected.size(), result.getImported());
+        List<Integer> reported = new ArrayList<>();
+        for (ImportPipeline.Problem problem : result.getProblems()) {
+            reported.add(problem.getLine());
+        }
+        assertEquals(expected, reported);
+        assertEquals("Record requires a supplier contact email", result.getProblems().get(0).getMessage());
+        assertEquals("Duplicate SKU", result.getProblems().get(1).getMessage());
+    }
+
+    @Test
+    public void keepsOnlyTheFirstProblems() throws IOException {
+        StringBuilder csv = new StringBuilder(HEADER).append('\n');
+        for (int i = 0; i < ImportPipeline.CHUNK_ROWS * 3; i++) {
+            csv.append("Album ").append(i).append(",Band,many,10,Vinyl Ltd,orders@vinyl.example\n");
+        }
+
+        ImportPipeline.Result result = pipeline(5).run(new StringReader(csv.toString()), ignoringWriter());
+
+        assertEquals(ImportPipeline.CHUNK_ROWS * 3, result.getProblemCount());
+        assertEquals(5, result.getProblems().size());
+        assertEquals(2, result.getProblems().get(0).getLine());
+        assertEquals(6, result.getProblems().get(4).getLine());
+        assertEquals("Invalid quantity many", result.getProblems().get(0).getMessage());
+    }
+
+    @Test
+    public void readerWaitsForSlowWriter() throws IOException {
+        final int chunks = 40;
+        final int queued = PARSERS * ImportPipeline.QUEUE_CHUNKS_PER_PARSER;
+        final int[] written = {0};
+        final int[] mostAhead = {0};
+        pipeline(100).run(new StringReader(csv(ImportPipeline.CHUNK_ROWS * chunks)), new ImportPipeline.Writer() {
+            @Override
+            public void write(ImportPipeline.Chunk chunk, List<ImportPipeline.Problem> failures) {
+                try {
+                    Thread.sleep(5);
+                } catch (InterruptedException e) {
+                    throw new AssertionError(e);
+                }
+                written[0]++;
+                mostAhead[0] = Math.max(mostAhead[0], mSubmitted.get() - written[0]);
+            }
+        });
+
+        assertEquals(chunks, written[0]);
+        // The queue, and the chunk the reader waits to queue
+        assertTrue("Reader was " + mostAhead[0] + " chunks ahead", mostAhead[0] <= queued + 1);
+        // The parsers did run ahead of the writer
+        assertTrue(mostAhead[0] >= queued - 1);
+    }
+
+    @Test
+    public void joinsQuotedLineBreaks() throws IOException {
+        String csv = HEADER + "\n"
+                + "\"Final\nCountdown\",Europe,1,10,Vinyl Ltd,ORDERS@VINYL.EXAMPLE\n"
+                + "\"Thriller, \"\"Special\"\"\",Michael Jackson,1,10,Vinyl Ltd,\n";
+        final List<Record> records = new ArrayList<>();
+        ImportPipeline.Result result = pipeline(10).run(new StringReader(csv), new ImportPipeline.Writer() {
+            @Override
+            public void write(ImportPipeline.Chunk chunk, List<ImportPipeline.Problem> failures) {
+                records.addAll(chunk.getRecords());
+            }
+        });
+
+        assertEquals(1, result.getImported());
+        assertEquals("Final Countdown", records.get(0).getAlbumName());
+        assertEquals("orders@vinyl.example", records.get(0).getSupplierEmail());
+        assertEquals(DEFAULT_COVER, records.get(0).getCover());
+        assertEquals(4, result.getProblems().get(0).getLine());
+    }
+
+    @Test(expected = IOException.class)
+    public void headerNeedsTheNames() throws IOException {
+        pipeline(10).run(new StringReader("album,band\nThriller,Michael Jackson\n"), ignoringWriter());
+    }
+
+    private ImportPipeline pipeline(int maxProblems) {
+        return new ImportPipeline(mParsers, PARSERS, DEFAULT_COVER, maxProblems);
+    }
+
+    private static ImportPipeline.Writer ignoringWriter() {
+        return new ImportPipeline.Writer() {
+            @Override
+            public void write(ImportPipeline.Chunk chunk, List<ImportPipeline.Problem> failures) {
+            }
+        };
+    }
+
+    private static String csv(int rows) {
+        StringBuilder csv = new StringBuilder(HEADER).append('\n');
+        for (int i = 0; i < rows; i++) {
+            csv.append(row(i)).append('\n');
+        }
+        return csv.toString();
+    }
+
+    private static String row(int i) {
+        return "Album " + i + ",Band " + i % 10 + ",1,10,Vinyl Ltd,orders@vinyl.example";
+    }
+}
@@ -0,0 +1,110 @@
+package com.example.android.records.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class RecordValidatorTest {
+
+    private static Record.Builder valid() {
+        return new Record.Builder()
+                .setAlbumName("The Final Countdown")
+                .setBandName("Europe")
+                .setQuantity(3)
+                .setPrice(1999)
+                .setCover("android.resource://com.example.android.records/drawable/turntable")
+                .setSupplierName("Vinyl Ltd")
+                .setSupplierEmail("orders@vinyl.example")
+                .setSku("4006381333931");
+    }
+
+    @Test
+    public void acceptsCompleteRecord() {
+        RecordValidator.validateNew(valid().build());
+    }
+
+    @Test
+    public void acceptsMissingOptionalValues() {
+        RecordValidator.validateNew(valid().setSku(null).setReorderThreshold(null).build());
+    }
+
+    @Test
+    public void rejectsNullRecord() {
+        assertRejected(null, "Record cannot be empty");
+    }
+
+    @Test
+    public void rejectsMissingRequiredValues() {
+        assertRejected(valid().setAlbumName(null).build(), "Record requires an album name");
+        assertRejected(valid().setBandName(null).build(), "Record requires a band name");
+        assertRejected(valid().setCover(null).build(), "Record requires an image");
+        assertRejected(valid().setSupplierName(null).build(), "Record requires a supplier contact name");
+        assertRejected(valid().setSupplierEmail(null).build(), "Record requires a supplier contact email");
+    }
+
+    @Test
+    public void rejectsNegativeNumbers() {
+        assertRejected(valid().setQuantity(-1).build(), "Record requires a quantity");
+        assertRejected(valid().setPrice(-1).build(), "Record requires a valid price");
+        assertRejected(valid().setReorderThreshold(-1).build(), "Record requires a valid reorder threshold");
+    }
+
+    @Test
+    public void acceptsZeroQuantityAndThreshold() {
+        RecordValidator.validateNew(valid().setQuantity(0).setReorderThreshold(0).build());
+    }
+
+    @Test
+    public void rejectsMissingQuantityOfPartialUpdate() {
+        try {
+            RecordValidator.checkQuantity(null);
+            fail("Null quantity accepted");
+        } catch (IllegalArgumentException e) {
+            assertEquals("Record requires a quantity", e.getMessage());
+        }
+    }
+
+    @Test
+    public void acceptsGtinsWithValidCheckDigit() {
+        // EAN-8, UPC-A and EAN-13
+        RecordValidator.checkSku("96385074");
+        RecordValidator.checkSku("036000291452");
+        RecordValidator.checkSku("4006381333931");
+    }
+
+    @Test
+    public void rejectsGtinsWithWrongCheckDigit() {
+        assertRejected(valid().setSku("96385075").build(), "Record requires a valid barcode");
+        assertRejected(valid().setSku("036000291453").build(), "Record requires a valid barcode");
+        assertRejected(valid().setSku("4006381333932").build(), "Record requires a valid barcode");
+        // Two neighbouring digits swapped, the typo the check digit is there to catch
+        assertRejected(valid().setSku("4006383133931").build(), "Record requires a valid barcode");
+    }
+
+    @Test
+    public void skipsCheckDigitOfOtherCodes() {
+        // Digits of a length that isn't a GTIN, and codes with letters, are shop SKUs
+        RecordValidator.checkSku("1234567");
+        RecordValidator.checkSku("12345678901234");
+        RecordValidator.checkSku("EUR-1986-LP");
+        RecordValidator.checkSku("A234567890123");
+    }
+
+    @Test
+    public void rejectsMalformedSkus() {
+        assertRejected(valid().setSku("").build(), "Record requires a valid SKU");
+        assertRejected(valid().setSku("EUR 1986").build(), "Record requires a valid SKU");
+        assertRejected(valid().setSku("caf\u00e9").build(), "Record requires a valid SKU");
+        assertRejected(valid().setSku("123456789012345678901234567890123").build(), "Record requires a valid SKU");
+    }
+
+    private static void assertRejected(Record record, String message) {
+        try {
+            RecordValidator.validateNew(record);
+            fail("Accepted " + record);
+        } catch (IllegalArgumentException e) {
+            assertEquals(message, e.getMessage());
+        }
+    }
+}
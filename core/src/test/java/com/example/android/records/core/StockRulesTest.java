@@ -0,0 +1,73 @@
+package com.example.android.records.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StockRulesTest {
+
+    @Test
+    public void sellsOnlyWhatIsInStock() {
+        assertTrue(StockRules.canSell(3, 1));
+        assertTrue(StockRules.canSell(3, 3));
+        assertFalse(StockRules.canSell(3, 4));
+        assertFalse(StockRules.canSell(0, 1));
+    }
+
+    @Test
+    public void sellsAtLeastOneCopy() {
+        assertFalse(StockRules.canSell(3, 0));
+        assertFalse(StockRules.canSell(3, -1));
+    }
+
+    @Test
+    public void saleTakesCopiesFromStock() {
+        assertEquals(2, StockRules.afterSale(3, 1));
+        assertEquals(0, StockRules.afterSale(3, 3));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void saleOfMoreThanInStockFails() {
+        StockRules.afterSale(1, 2);
+    }
+
+    @Test
+    public void restockAddsCopies() {
+        assertEquals(5, StockRules.afterRestock(3, 2));
+        assertEquals(3, StockRules.afterRestock(3, 0));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void restockOfNegativeCopiesFails() {
+        StockRules.afterRestock(3, -1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void restockThatOverflowsFails() {
+        StockRules.afterRestock(Integer.MAX_VALUE, 1);
+    }
+
+    @Test
+    public void recordThresholdWinsOverSupplierThreshold() {
+        assertEquals(2, StockRules.effectiveThreshold(2, 5));
+        assertEquals(0, StockRules.effectiveThreshold(0, 5));
+        assertEquals(5, StockRules.effectiveThreshold(null, 5));
+        assertEquals(StockRules.DEFAULT_REORDER_THRESHOLD, StockRules.effectiveThreshold(null, null));
+    }
+
+    @Test
+    public void lowStockIncludesTheThreshold() {
+        assertTrue(StockRules.isLowStock(2, 2));
+        assertTrue(StockRules.isLowStock(1, 2));
+        assertFalse(StockRules.isLowStock(3, 2));
+    }
+
+    @Test
+    public void reorderRefillsToThresholdPlusLot() {
+        assertEquals(2 + StockRules.REORDER_LOT, StockRules.reorderQuantity(1, 3));
+        assertEquals(StockRules.REORDER_LOT, StockRules.reorderQuantity(3, 3));
+        assertEquals(StockRules.REORDER_LOT, StockRules.reorderQuantity(8, 3));
+    }
+}